@@ -11,6 +11,7 @@ import javax.sql.DataSource;
 import org.flywaydb.test.FlywayTestExecutionListener;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.mockito.Mock;
@@ -22,6 +23,7 @@ import org.springframework.test.context.TestExecutionListeners;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
 
+import uk.ac.exeter.QuinCe.data.Files.DataFileIndex;
 import uk.ac.exeter.QuinCe.data.Instrument.SensorDefinition.SensorType;
 import uk.ac.exeter.QuinCe.web.system.ResourceManager;
 
@@ -99,6 +101,15 @@ public class BaseTest {
       .getServletContext();
   }
 
+  /**
+   * Discards the cached {@link DataFileIndex}es before every test, since each
+   * test may have a freshly initialised database.
+   */
+  @BeforeEach
+  public void clearDataFileIndex() {
+    DataFileIndex.clearCache();
+  }
+
   /**
    * Ensures that the {@link ResourceManager} is destroyed after every test
    * class.
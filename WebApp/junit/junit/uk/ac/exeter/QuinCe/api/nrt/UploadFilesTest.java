@@ -0,0 +1,292 @@
+package junit.uk.ac.exeter.QuinCe.api.nrt;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.ws.rs.core.Response;
+
+import org.flywaydb.test.annotation.FlywayTest;
+import org.glassfish.jersey.media.multipart.ContentDisposition;
+import org.glassfish.jersey.media.multipart.FormDataBodyPart;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+import org.primefaces.json.JSONArray;
+
+import junit.uk.ac.exeter.QuinCe.TestBase.BaseTest;
+import uk.ac.exeter.QuinCe.api.nrt.UploadFiles;
+import uk.ac.exeter.QuinCe.web.system.ResourceManager;
+
+/**
+ * Tests for the {@link UploadFiles} API call.
+ *
+ * <p>
+ * The test instrument is an NRT instrument with two file definitions: the
+ * main definition (ID 1) has four columns, and the extra definition (ID 2) has
+ * five.
+ * </p>
+ */
+public class UploadFilesTest extends BaseTest {
+
+  /**
+   * The test instrument's ID
+   */
+  private static final long INSTRUMENT_ID = 1L;
+
+  /**
+   * The time of the first line in the test files
+   */
+  private static final LocalDateTime BASE_TIME = LocalDateTime.of(2021, 1, 1,
+    0, 0, 0);
+
+  /**
+   * The file store for the tests
+   */
+  @TempDir
+  public Path tempDir;
+
+  /**
+   * Set up the resource manager with the temporary file store
+   */
+  @BeforeEach
+  public void setup() {
+    initResourceManager();
+    ResourceManager.getInstance().getConfig().setProperty("filestore",
+      tempDir.toString());
+  }
+
+  /**
+   * Generate the lines of a test file
+   *
+   * @param columns
+   *          The number of columns. Four columns match the main file
+   *          definition; five match the extra file definition.
+   * @param startMinute
+   *          The minute offset of the first line from {@link #BASE_TIME}
+   * @param lineCount
+   *          The number of data lines
+   * @return The file lines
+   */
+  private static List<String> makeLines(int columns, int startMinute,
+    int lineCount) {
+
+    DateTimeFormatter formatter = DateTimeFormatter
+      .ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    List<String> lines = new ArrayList<String>();
+    lines.add(columns == 4 ? "Time,Longitude,Latitude,SST"
+      : "Time,Longitude,Latitude,SST,Salinity");
+
+    for (int i = startMinute; i < startMinute + lineCount; i++) {
+      StringBuilder line = new StringBuilder(
+        formatter.format(BASE_TIME.plusMinutes(i)));
+      line.append(',').append(10 + i * 0.01);
+      line.append(',').append(50 + i * 0.01);
+      line.append(',').append(15 + i % 10 * 0.1);
+      if (columns == 5) {
+        line.append(',').append(35);
+      }
+      lines.add(line.toString());
+    }
+
+    return lines;
+  }
+
+  /**
+   * Make a mock uploaded file
+   *
+   * @param filename
+   *          The filename
+   * @param lines
+   *          The file lines
+   * @return The mock file
+   */
+  private static FormDataBodyPart makePart(String filename,
+    List<String> lines) {
+
+    byte[] bytes = (String.join("\n", lines) + "\n")
+      .getBytes(StandardCharsets.UTF_8);
+
+    ContentDisposition disposition = Mockito.mock(ContentDisposition.class);
+    Mockito.when(disposition.getFileName()).thenReturn(filename);
+
+    FormDataBodyPart part = Mockito.mock(FormDataBodyPart.class);
+    Mockito.when(part.getContentDisposition()).thenReturn(disposition);
+    Mockito.when(part.getValueAs(InputStream.class))
+      .thenReturn(new ByteArrayInputStream(bytes));
+
+    return part;
+  }
+
+  /**
+   * Upload a batch of files and check the HTTP status of the whole request
+   *
+   * @param parts
+   *          The files
+   * @return The result for each file
+   */
+  private JSONArray upload(FormDataBodyPart... parts) {
+    Response response = new UploadFiles().uploadFiles(INSTRUMENT_ID,
+      Arrays.asList(parts));
+
+    assertEquals(Response.Status.OK.getStatusCode(), response.getStatus());
+    return new JSONArray((String) response.getEntity());
+  }
+
+  /**
+   * Get the HTTP status for a file from an upload result
+   *
+   * @param result
+   *          The upload result
+   * @param index
+   *          The index of the file in the batch
+   * @return The status
+   */
+  private static int getStatus(JSONArray result, int index) {
+    return result.getJSONObject(index).getInt("status");
+  }
+
+  /**
+   * Get the record counts of the stored files, in ID order
+   *
+   * @return The record counts
+   * @throws Exception
+   *           If the database cannot be queried
+   */
+  private List<Integer> getRecordCounts() throws Exception {
+    List<Integer> result = new ArrayList<Integer>();
+
+    try (Connection conn = getDataSource().getConnection();
+      PreparedStatement stmt = conn
+        .prepareStatement("SELECT record_count FROM data_file ORDER BY id");
+      ResultSet records = stmt.executeQuery()) {
+
+      while (records.next()) {
+        result.add(records.getInt(1));
+      }
+    }
+
+    return result;
+  }
+
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/api/nrt/UploadFilesTest" })
+  @Test
+  public void batchStoredTest() throws Exception {
+    JSONArray result = upload(makePart("main1.csv", makeLines(4, 0, 10)),
+      makePart("extra1.csv", makeLines(5, 0, 20)));
+
+    assertEquals(200, getStatus(result, 0));
+    assertEquals(200, getStatus(result, 1));
+    assertEquals(Arrays.asList(10, 20), getRecordCounts());
+  }
+
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/api/nrt/UploadFilesTest" })
+  @Test
+  public void duplicateTest() throws Exception {
+    List<String> lines = makeLines(4, 0, 10);
+    upload(makePart("main1.csv", lines));
+
+    // An exact copy with the same name is accepted but not stored. A copy
+    // with a different name is rejected.
+    JSONArray result = upload(makePart("main1.csv", lines),
+      makePart("copy.csv", lines));
+
+    assertEquals(200, getStatus(result, 0));
+    assertTrue(result.getJSONObject(0).getJSONArray("messages")
+      .getJSONObject(0).getString("summary").contains("not stored"));
+    assertEquals(409, getStatus(result, 1));
+    assertEquals(Arrays.asList(10), getRecordCounts());
+  }
+
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/api/nrt/UploadFilesTest" })
+  @Test
+  public void validationFailureTest() throws Exception {
+    JSONArray result = upload(makePart("main1.csv", makeLines(4, 0, 10)),
+      makePart("junk.csv", Arrays.asList("Not", "a", "data", "file")));
+
+    // The invalid file does not stop the valid file being stored
+    assertEquals(200, getStatus(result, 0));
+    assertEquals(400, getStatus(result, 1));
+    assertEquals(Arrays.asList(10), getRecordCounts());
+  }
+
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/api/nrt/UploadFilesTest" })
+  @Test
+  public void rollbackRestoresReplacedFileTest() throws Exception {
+    List<String> original = makeLines(4, 0, 10);
+    assertEquals(200, getStatus(upload(makePart("main1.csv", original)), 0));
+
+    File mainDir = tempDir.resolve("1").toFile();
+    File[] storedFiles = mainDir.listFiles();
+    assertEquals(2, storedFiles.length);
+    File storedFile = new File(mainDir, getStoredFileName(storedFiles));
+
+    // Storing a file for the extra definition will fail because its
+    // directory cannot be created
+    Files.write(tempDir.resolve("2"), new byte[0]);
+
+    // The extended file is stored first because it starts earlier
+    List<String> extended = makeLines(4, 0, 20);
+    JSONArray result = upload(makePart("main1.csv", extended),
+      makePart("extra1.csv", makeLines(5, 30, 10)));
+
+    assertEquals(500, getStatus(result, 0));
+    assertEquals(500, getStatus(result, 1));
+
+    // The database and the file store both hold the original file
+    assertEquals(Arrays.asList(10), getRecordCounts());
+    assertEquals(original,
+      Files.readAllLines(storedFile.toPath(), StandardCharsets.UTF_8));
+
+    for (String name : mainDir.list()) {
+      assertFalse(name.endsWith(".bak"), name);
+    }
+
+    // The original can still be extended once the problem is fixed
+    Files.delete(tempDir.resolve("2"));
+    assertEquals(200, getStatus(upload(makePart("main1.csv", extended)), 0));
+    assertEquals(Arrays.asList(20), getRecordCounts());
+    assertEquals(extended,
+      Files.readAllLines(storedFile.toPath(), StandardCharsets.UTF_8));
+    assertEquals(2, mainDir.list().length);
+  }
+
+  /**
+   * Get the name of a stored data file from the files in its directory,
+   * ignoring its time index
+   *
+   * @param files
+   *          The files in the directory
+   * @return The data file name
+   */
+  private static String getStoredFileName(File[] files) {
+    String result = null;
+    for (File file : files) {
+      if (!file.getName().contains(".")) {
+        result = file.getName();
+      }
+    }
+    return result;
+  }
+}
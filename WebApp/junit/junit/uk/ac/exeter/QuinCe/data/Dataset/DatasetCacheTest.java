@@ -0,0 +1,230 @@
+package junit.uk.ac.exeter.QuinCe.data.Dataset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.flywaydb.test.annotation.FlywayTest;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import junit.uk.ac.exeter.QuinCe.TestBase.BaseTest;
+import uk.ac.exeter.QuinCe.data.Dataset.DataSetDataDB;
+import uk.ac.exeter.QuinCe.data.Dataset.DatasetCache;
+import uk.ac.exeter.QuinCe.data.Dataset.DatasetCache.Item;
+import uk.ac.exeter.QuinCe.data.Dataset.DatasetCache.Lease;
+import uk.ac.exeter.QuinCe.data.Dataset.DatasetSensorValues;
+import uk.ac.exeter.QuinCe.data.Dataset.SensorValue;
+import uk.ac.exeter.QuinCe.data.Instrument.Instrument;
+import uk.ac.exeter.QuinCe.data.Instrument.SensorDefinition.SensorAssignments;
+import uk.ac.exeter.QuinCe.data.Instrument.SensorDefinition.SensorType;
+
+/**
+ * Tests for the {@link DatasetCache}.
+ *
+ * <p>
+ * Each test stores a set of sensor values against the empty dataset in the
+ * testbase database and reads them through a cache created by the test.
+ * </p>
+ */
+public class DatasetCacheTest extends BaseTest {
+
+  /**
+   * The ID of the dataset in the testbase database
+   */
+  private static final long DATASET_ID = 1L;
+
+  /**
+   * The number of values stored for the dataset
+   */
+  private static final int VALUE_COUNT = 20;
+
+  /**
+   * A mock instrument for the dataset
+   */
+  private Instrument instrument;
+
+  @BeforeEach
+  public void makeInstrument() throws Exception {
+    SensorAssignments assignments = Mockito.mock(SensorAssignments.class);
+    Mockito.when(assignments.getSensorTypeForDBColumn(Mockito.anyLong()))
+      .thenReturn(Mockito.mock(SensorType.class));
+
+    instrument = Mockito.mock(Instrument.class);
+    Mockito.when(instrument.getSensorAssignments()).thenReturn(assignments);
+  }
+
+  /**
+   * Store a set of values for column 1 of the dataset.
+   *
+   * @param conn
+   *          A database connection
+   * @throws Exception
+   *           If any errors occur
+   */
+  private void storeValues(Connection conn) throws Exception {
+    List<SensorValue> values = new ArrayList<SensorValue>();
+
+    LocalDateTime start = LocalDateTime.of(2020, 1, 1, 0, 0, 0);
+    for (int i = 0; i < VALUE_COUNT; i++) {
+      values.add(new SensorValue(DATASET_ID, 1L, start.plusMinutes(i),
+        String.valueOf(i)));
+    }
+
+    DataSetDataDB.storeSensorValues(conn, values);
+  }
+
+  /**
+   * Test that the cache is configured from the application properties.
+   */
+  @Test
+  public void fromConfigTest() {
+    Properties config = new Properties();
+    assertFalse(DatasetCache.fromConfig(config).isEnabled());
+
+    config.setProperty(DatasetCache.ENABLED_PROPERTY, "true");
+    config.setProperty(DatasetCache.MAX_SIZE_PROPERTY, "10");
+    assertTrue(DatasetCache.fromConfig(config).isEnabled());
+  }
+
+  /**
+   * Test that a second request for the same data is given the cached copy.
+   *
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument", "resources/sql/testbase/dataset" })
+  @Test
+  public void sharedCopyTest() throws Exception {
+    DatasetCache cache = new DatasetCache(true, Long.MAX_VALUE);
+
+    try (Connection conn = getDataSource().getConnection()) {
+      storeValues(conn);
+
+      try (
+        Lease<DatasetSensorValues> first = cache.getSensorValues(conn,
+          instrument, DATASET_ID);
+        Lease<DatasetSensorValues> second = cache.getSensorValues(conn,
+          instrument, DATASET_ID)) {
+
+        assertSame(first.get(), second.get());
+        assertEquals(VALUE_COUNT, first.get().getAll().size());
+      }
+
+      DatasetCache.Statistics stats = cache.getStatistics();
+      assertEquals(1, stats.getEntryCount());
+      assertEquals(1L, stats.getHits());
+      assertEquals(1L, stats.getMisses());
+      assertTrue(stats.getBytes() > 0L);
+    }
+  }
+
+  /**
+   * Test that invalidated data is reloaded, and that the old copy is not given
+   * out again while it is still in use.
+   *
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument", "resources/sql/testbase/dataset" })
+  @Test
+  public void invalidateTest() throws Exception {
+    DatasetCache cache = new DatasetCache(true, Long.MAX_VALUE);
+
+    try (Connection conn = getDataSource().getConnection()) {
+      storeValues(conn);
+
+      try (Lease<DatasetSensorValues> first = cache.getSensorValues(conn,
+        instrument, DATASET_ID)) {
+
+        // Invalidating other items leaves the sensor values alone
+        cache.invalidate(DATASET_ID, Item.MEASUREMENTS);
+        try (Lease<DatasetSensorValues> second = cache.getSensorValues(conn,
+          instrument, DATASET_ID)) {
+          assertSame(first.get(), second.get());
+        }
+
+        cache.invalidate(DATASET_ID);
+        try (Lease<DatasetSensorValues> third = cache.getSensorValues(conn,
+          instrument, DATASET_ID)) {
+          assertNotSame(first.get(), third.get());
+        }
+      }
+
+      DatasetCache.Statistics stats = cache.getStatistics();
+      assertEquals(1, stats.getEntryCount());
+      assertEquals(1L, stats.getInvalidations());
+    }
+  }
+
+  /**
+   * Test that entries are only evicted once their leases are closed.
+   *
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument", "resources/sql/testbase/dataset" })
+  @Test
+  public void evictionTest() throws Exception {
+    // Too small to hold anything
+    DatasetCache cache = new DatasetCache(true, 1L);
+
+    try (Connection conn = getDataSource().getConnection()) {
+      storeValues(conn);
+
+      Lease<DatasetSensorValues> lease = cache.getSensorValues(conn,
+        instrument, DATASET_ID);
+      assertEquals(1, cache.getStatistics().getEntryCount());
+      assertEquals(0L, cache.getStatistics().getEvictions());
+
+      lease.close();
+      assertEquals(0, cache.getStatistics().getEntryCount());
+      assertEquals(1L, cache.getStatistics().getEvictions());
+
+      // Closing again has no effect
+      lease.close();
+      assertEquals(1L, cache.getStatistics().getEvictions());
+    }
+  }
+
+  /**
+   * Test that a disabled cache loads a new copy for every request.
+   *
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument", "resources/sql/testbase/dataset" })
+  @Test
+  public void disabledTest() throws Exception {
+    DatasetCache cache = new DatasetCache(false, Long.MAX_VALUE);
+
+    try (Connection conn = getDataSource().getConnection()) {
+      storeValues(conn);
+
+      try (
+        Lease<DatasetSensorValues> first = cache.getSensorValues(conn,
+          instrument, DATASET_ID);
+        Lease<DatasetSensorValues> second = cache.getSensorValues(conn,
+          instrument, DATASET_ID)) {
+
+        assertNotSame(first.get(), second.get());
+        assertEquals(VALUE_COUNT, second.get().getAll().size());
+      }
+
+      assertEquals(0, cache.getStatistics().getEntryCount());
+    }
+  }
+}
@@ -0,0 +1,219 @@
+package junit.uk.ac.exeter.QuinCe.data.Dataset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import uk.ac.exeter.QuinCe.data.Dataset.DatasetSensorValues;
+import uk.ac.exeter.QuinCe.data.Dataset.SensorValue;
+import uk.ac.exeter.QuinCe.data.Dataset.QC.Flag;
+import uk.ac.exeter.QuinCe.data.Instrument.Instrument;
+import uk.ac.exeter.QuinCe.data.Instrument.SensorDefinition.SensorAssignments;
+import uk.ac.exeter.QuinCe.data.Instrument.SensorDefinition.SensorType;
+
+/**
+ * Tests for the lookups in {@link DatasetSensorValues}
+ */
+public class DatasetSensorValuesTest {
+
+  /**
+   * The sensor type of column 1
+   */
+  private SensorType typeA = Mockito.mock(SensorType.class);
+
+  /**
+   * The sensor type of column 2
+   */
+  private SensorType typeB = Mockito.mock(SensorType.class);
+
+  /**
+   * Make a time
+   *
+   * @param minute
+   *          The minute
+   * @return The time
+   */
+  private LocalDateTime makeTime(int minute) {
+    return LocalDateTime.of(2021, 6, 1, 0, minute, 0);
+  }
+
+  /**
+   * Make a sensor value
+   *
+   * @param id
+   *          The value's ID
+   * @param columnId
+   *          The column ID
+   * @param minute
+   *          The minute of the value's time
+   * @return The sensor value
+   */
+  private SensorValue makeValue(long id, long columnId, int minute) {
+    return new SensorValue(id, 1L, columnId, makeTime(minute),
+      String.valueOf(id), null, Flag.ASSUMED_GOOD, null);
+  }
+
+  /**
+   * Build a set of sensor values. Column 1 has values at minutes 0, 2, 4, 6
+   * and 8, and column 2 at minutes 1, 2, 5 and 8. The values in column 2 are
+   * not added in time order.
+   *
+   * @return The sensor values
+   * @throws Exception
+   *           If the values cannot be added
+   */
+  private DatasetSensorValues makeValues() throws Exception {
+    SensorAssignments assignments = Mockito.mock(SensorAssignments.class);
+    Mockito.when(assignments.getSensorTypeForDBColumn(1L)).thenReturn(typeA);
+    Mockito.when(assignments.getSensorTypeForDBColumn(2L)).thenReturn(typeB);
+
+    Instrument instrument = Mockito.mock(Instrument.class);
+    Mockito.when(instrument.getSensorAssignments()).thenReturn(assignments);
+
+    DatasetSensorValues values = new DatasetSensorValues(instrument);
+    values.add(makeValue(10, 1, 0));
+    values.add(makeValue(11, 1, 2));
+    values.add(makeValue(12, 1, 4));
+    values.add(makeValue(13, 1, 6));
+    values.add(makeValue(14, 1, 8));
+    values.add(makeValue(20, 2, 1));
+    values.add(makeValue(22, 2, 5));
+    values.add(makeValue(21, 2, 2));
+    values.add(makeValue(23, 2, 8));
+
+    return values;
+  }
+
+  @Test
+  public void timesTest() throws Exception {
+    DatasetSensorValues values = makeValues();
+
+    List<LocalDateTime> times = values.getTimes();
+    assertEquals(7, times.size());
+    assertEquals(makeTime(0), times.get(0));
+    assertEquals(makeTime(5), times.get(4));
+    assertEquals(makeTime(8), times.get(6));
+  }
+
+  @Test
+  public void getByTimeTest() throws Exception {
+    DatasetSensorValues values = makeValues();
+
+    Map<Long, SensorValue> atTime = values.get(makeTime(2));
+    assertEquals(2, atTime.size());
+    assertEquals(11L, atTime.get(1L).getId());
+    assertEquals(21L, atTime.get(2L).getId());
+
+    assertEquals(1, values.get(makeTime(5)).size());
+    assertNull(values.get(makeTime(3)));
+
+    assertEquals(22L, values.getSensorValue(makeTime(5), 2L).getId());
+    assertNull(values.getSensorValue(makeTime(5), 1L));
+  }
+
+  @Test
+  public void getByIdTest() throws Exception {
+    DatasetSensorValues values = makeValues();
+
+    assertEquals(makeTime(5), values.getById(22L).getTime());
+    assertEquals(makeTime(8), values.getById(14L).getTime());
+    assertNull(values.getById(99L));
+    assertEquals(10L, values.getById(10L).getId());
+    assertEquals(23L, values.getById(23L).getId());
+    assertNull(values.getById(1L));
+    assertEquals(9, values.getAll().size());
+  }
+
+  /**
+   * Test that lookups made while values are being added from another thread
+   * do not fail when the indexes are discarded.
+   *
+   * @throws Exception
+   *           If the values cannot be added or a lookup fails
+   */
+  @Test
+  public void concurrentReadTest() throws Exception {
+    DatasetSensorValues values = makeValues();
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<?> writer = executor.submit(() -> {
+        for (int i = 0; i < 2000; i++) {
+          values.add(makeValue(100 + i, 1, 9));
+        }
+        return null;
+      });
+
+      Future<?> reader = executor.submit(() -> {
+        while (!writer.isDone()) {
+          assertEquals(22L, values.getById(22L).getId());
+          assertEquals(2, values.get(makeTime(2)).size());
+          assertTrue(values.getTimes().size() >= 7);
+          assertTrue(values.getByTimeRange(makeTime(0), makeTime(9))
+            .size() >= 9);
+        }
+        return null;
+      });
+
+      writer.get(30, TimeUnit.SECONDS);
+      reader.get(30, TimeUnit.SECONDS);
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertEquals(2009, values.getAll().size());
+  }
+
+  @Test
+  public void columnOrderTest() throws Exception {
+    DatasetSensorValues values = makeValues();
+
+    List<SensorValue> column = values.getColumnValues(2L);
+    for (int i = 1; i < column.size(); i++) {
+      assertTrue(column.get(i).getTime().isAfter(column.get(i - 1).getTime()));
+    }
+  }
+
+  @Test
+  public void timeRangeTest() throws Exception {
+    DatasetSensorValues values = makeValues();
+
+    List<SensorValue> range = values.getByTimeRange(makeTime(2), makeTime(6));
+    assertEquals(4, range.size());
+    assertEquals(makeTime(2), range.get(0).getTime());
+    assertEquals(makeTime(5), range.get(3).getTime());
+
+    // The start time must be in the dataset
+    assertTrue(values.getByTimeRange(makeTime(3), makeTime(6)).isEmpty());
+  }
+
+  @Test
+  public void onOrBeforeTest() throws Exception {
+    DatasetSensorValues values = makeValues();
+
+    assertEquals(12L, values.getSensorValueOnOrBefore(1L, makeTime(4)).getId());
+    assertEquals(12L, values.getSensorValueOnOrBefore(1L, makeTime(5)).getId());
+    assertEquals(20L, values.getSensorValueOnOrBefore(2L, makeTime(1)).getId());
+    assertNull(values.getSensorValueOnOrBefore(2L, makeTime(0)));
+  }
+
+  @Test
+  public void sensorTypeTest() throws Exception {
+    DatasetSensorValues values = makeValues();
+
+    assertEquals(5, values.getBySensorType(typeA).size());
+    assertEquals(4, values.getBySensorType(typeB).size());
+    assertNull(values.getBySensorType(Mockito.mock(SensorType.class)));
+  }
+}
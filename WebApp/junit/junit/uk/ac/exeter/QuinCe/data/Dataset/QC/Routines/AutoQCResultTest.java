@@ -0,0 +1,84 @@
+package junit.uk.ac.exeter.QuinCe.data.Dataset.QC.Routines;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import uk.ac.exeter.QuinCe.data.Dataset.QC.Flag;
+import uk.ac.exeter.QuinCe.data.Dataset.QC.Routines.AutoQCResult;
+import uk.ac.exeter.QuinCe.data.Dataset.QC.Routines.RoutineFlag;
+
+/**
+ * Tests for the JSON and binary encodings of {@link AutoQCResult}
+ */
+public class AutoQCResultTest {
+
+  /**
+   * A stored JSON result with two flags, one from a routine without a fixed
+   * binary code
+   */
+  private static final String JSON = "[{\"routineName\":\"RangeCheck\","
+    + "\"requiredValue\":\"0.0 - 10.0\",\"actualValue\":\"12.5\","
+    + "\"flagValue\":3},{\"routineName\":\"SomethingElse\","
+    + "\"requiredValue\":\"5\",\"flagValue\":4}]";
+
+  /**
+   * Check that two results contain the same flags
+   *
+   * @param expected
+   *          The expected result
+   * @param actual
+   *          The actual result
+   */
+  private void assertSameResult(AutoQCResult expected, AutoQCResult actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      RoutineFlag expectedFlag = expected.get(i);
+      RoutineFlag actualFlag = actual.get(i);
+      assertEquals(expectedFlag.getRoutineName(), actualFlag.getRoutineName());
+      assertEquals(expectedFlag.getFlagValue(), actualFlag.getFlagValue());
+      assertEquals(expectedFlag.getRequiredValue(),
+        actualFlag.getRequiredValue());
+      assertEquals(expectedFlag.getActualValue(), actualFlag.getActualValue());
+    }
+  }
+
+  @Test
+  public void binaryRoundTripTest() {
+    AutoQCResult original = AutoQCResult.buildFromJson(JSON);
+    AutoQCResult decoded = AutoQCResult.buildFromBytes(original.toBytes());
+
+    assertSameResult(original, decoded);
+    assertEquals(Flag.BAD, decoded.getOverallFlag());
+    assertEquals("12.5", decoded.get(0).getActualValue());
+    assertEquals("5", decoded.get(1).getRequiredValue());
+    assertNull(decoded.get(1).getActualValue());
+  }
+
+  @Test
+  public void emptyResultTest() {
+    assertNull(new AutoQCResult().toBytes());
+    assertNull(new AutoQCResult().toJson());
+    assertTrue(AutoQCResult.buildFromBytes(null).isEmpty());
+    assertTrue(AutoQCResult.build(null, null).isEmpty());
+  }
+
+  @Test
+  public void jsonFallbackTest() {
+    AutoQCResult original = AutoQCResult.buildFromJson(JSON);
+
+    assertSameResult(original, AutoQCResult.build(null, JSON));
+    assertSameResult(original,
+      AutoQCResult.build(original.toBytes(), "[]"));
+  }
+
+  @Test
+  public void invalidBytesTest() {
+    assertThrows(IllegalArgumentException.class, () -> {
+      AutoQCResult.buildFromBytes(new byte[] { 9, 0, 1 });
+    });
+  }
+}
@@ -0,0 +1,74 @@
+package junit.uk.ac.exeter.QuinCe.data.Dataset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDateTime;
+
+import org.junit.jupiter.api.Test;
+
+import uk.ac.exeter.QuinCe.data.Dataset.RunTypePeriods;
+
+/**
+ * Tests for the {@link RunTypePeriods} class
+ */
+public class RunTypePeriodsTest {
+
+  /**
+   * Make a time
+   *
+   * @param minute
+   *          The minute
+   * @return The time
+   */
+  private LocalDateTime makeTime(int minute) {
+    return LocalDateTime.of(2021, 6, 1, 0, minute, 0);
+  }
+
+  /**
+   * Build a set of periods: A from 1 to 3, B at 5, A from 7 to 9.
+   *
+   * @return The periods
+   */
+  private RunTypePeriods makePeriods() {
+    RunTypePeriods periods = new RunTypePeriods();
+    periods.add("A", makeTime(1));
+    periods.add("A", makeTime(2));
+    periods.add("A", makeTime(3));
+    periods.add("B", makeTime(5));
+    periods.add("A", makeTime(7));
+    periods.add("A", makeTime(9));
+    return periods;
+  }
+
+  @Test
+  public void periodsTest() {
+    RunTypePeriods periods = makePeriods();
+    assertEquals(3, periods.size());
+    assertEquals(makeTime(1), periods.get(0).getStart());
+    assertEquals(makeTime(3), periods.get(0).getEnd());
+    assertEquals(makeTime(5), periods.get(1).getEnd());
+  }
+
+  @Test
+  public void containsTest() {
+    RunTypePeriods periods = makePeriods();
+    assertFalse(periods.contains(makeTime(0)));
+    assertTrue(periods.contains(makeTime(1)));
+    assertTrue(periods.contains(makeTime(3)));
+    assertFalse(periods.contains(makeTime(4)));
+    assertTrue(periods.contains(makeTime(5)));
+    assertFalse(periods.contains(makeTime(6)));
+    assertTrue(periods.contains(makeTime(8)));
+    assertFalse(periods.contains(makeTime(10)));
+  }
+
+  @Test
+  public void finishTest() {
+    RunTypePeriods periods = makePeriods();
+    periods.finish();
+    assertEquals(LocalDateTime.MAX, periods.get(2).getEnd());
+    assertTrue(periods.contains(makeTime(59)));
+  }
+}
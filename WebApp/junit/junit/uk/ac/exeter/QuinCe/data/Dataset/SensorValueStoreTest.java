@@ -0,0 +1,914 @@
+package junit.uk.ac.exeter.QuinCe.data.Dataset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.flywaydb.test.annotation.FlywayTest;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.mockito.Mockito;
+
+import junit.uk.ac.exeter.QuinCe.TestBase.BaseTest;
+import uk.ac.exeter.QuinCe.data.Dataset.ColumnSensorValueStore;
+import uk.ac.exeter.QuinCe.data.Dataset.DataSetDataDB;
+import uk.ac.exeter.QuinCe.data.Dataset.DatasetSensorValues;
+import uk.ac.exeter.QuinCe.data.Dataset.RowSensorValueStore;
+import uk.ac.exeter.QuinCe.data.Dataset.SensorValue;
+import uk.ac.exeter.QuinCe.data.Dataset.SensorValueStore;
+import uk.ac.exeter.QuinCe.data.Dataset.SensorValuesQuery;
+import uk.ac.exeter.QuinCe.data.Dataset.QC.Flag;
+import uk.ac.exeter.QuinCe.data.Instrument.Instrument;
+import uk.ac.exeter.QuinCe.data.Instrument.SensorDefinition.SensorAssignments;
+import uk.ac.exeter.QuinCe.data.Instrument.SensorDefinition.SensorType;
+import uk.ac.exeter.QuinCe.utils.DateTimeUtils;
+
+/**
+ * Tests for the {@link SensorValueStore} implementations.
+ *
+ * <p>
+ * Each test is run against both the {@link RowSensorValueStore} and the
+ * {@link ColumnSensorValueStore}. The values are stored against the empty
+ * dataset in the testbase database, using file columns 1 to 4 of its
+ * instrument.
+ * </p>
+ */
+public class SensorValueStoreTest extends BaseTest {
+
+  /**
+   * The ID of the dataset in the testbase database
+   */
+  private static final long DATASET_ID = 1L;
+
+  /**
+   * The number of times for which values are created
+   */
+  private static final int TIME_COUNT = 50;
+
+  /**
+   * Get the stores to be tested.
+   *
+   * @return The stores
+   */
+  private static Stream<SensorValueStore> stores() {
+    return Stream.of(new RowSensorValueStore(), new ColumnSensorValueStore());
+  }
+
+  /**
+   * Make a set of values for columns 1 and 2, with one value for each column
+   * at each of {@link #TIME_COUNT} times. Column 1 has numeric values and
+   * column 2 has a mix of numeric, non-numeric and {@code null} values.
+   *
+   * @return The values
+   */
+  private List<SensorValue> makeValues() {
+    List<SensorValue> result = new ArrayList<SensorValue>();
+
+    LocalDateTime start = LocalDateTime.of(2020, 1, 1, 0, 0, 0);
+
+    for (int i = 0; i < TIME_COUNT; i++) {
+      LocalDateTime time = start.plusMinutes(i);
+
+      result.add(new SensorValue(DATASET_ID, 1L, time, String.valueOf(i)));
+
+      String column2Value;
+      switch (i % 3) {
+      case 0: {
+        column2Value = String.valueOf(i * 0.5);
+        break;
+      }
+      case 1: {
+        column2Value = "Run " + (i % 2);
+        break;
+      }
+      default: {
+        column2Value = null;
+      }
+      }
+
+      result.add(new SensorValue(DATASET_ID, 2L, time, column2Value));
+    }
+
+    return result;
+  }
+
+  /**
+   * Store the values from {@link #makeValues()} and reload them.
+   *
+   * @param conn
+   *          A database connection
+   * @param store
+   *          The store
+   * @return The reloaded values, keyed by column and time
+   * @throws Exception
+   *           If any errors occur
+   */
+  private Map<String, SensorValue> storeAndLoad(Connection conn,
+    SensorValueStore store) throws Exception {
+
+    store.storeSensorValues(conn, makeValues());
+    return mapValues(store.getSensorValues(conn, DATASET_ID, null, false));
+  }
+
+  private Map<String, SensorValue> mapValues(List<SensorValue> values) {
+    Map<String, SensorValue> result = new HashMap<String, SensorValue>();
+    for (SensorValue value : values) {
+      result.put(getKey(value.getColumnId(), value.getTimeMillis()), value);
+    }
+
+    return result;
+  }
+
+  private String getKey(long columnId, long time) {
+    return columnId + "_" + time;
+  }
+
+  /**
+   * Test that stored values are loaded with the same details.
+   *
+   * @param store
+   *          The store
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument", "resources/sql/testbase/dataset" })
+  @ParameterizedTest
+  @MethodSource("stores")
+  public void storeAndLoadTest(SensorValueStore store) throws Exception {
+    try (Connection conn = getDataSource().getConnection()) {
+      List<SensorValue> original = makeValues();
+      Map<String, SensorValue> loaded = storeAndLoad(conn, store);
+
+      assertEquals(original.size(), loaded.size());
+
+      for (SensorValue value : original) {
+        SensorValue loadedValue = loaded
+          .get(getKey(value.getColumnId(), value.getTimeMillis()));
+
+        assertTrue(loadedValue.isInDatabase());
+        assertEquals(DATASET_ID, loadedValue.getDatasetId());
+        assertEquals(value.getValue(), loadedValue.getValue());
+        assertEquals(value.getUserQCFlag(), loadedValue.getUserQCFlag());
+        assertEquals(value.getUserQCMessage(),
+          loadedValue.getUserQCMessage());
+      }
+    }
+  }
+
+  /**
+   * Test that values can be loaded for selected columns.
+   *
+   * @param store
+   *          The store
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument", "resources/sql/testbase/dataset" })
+  @ParameterizedTest
+  @MethodSource("stores")
+  public void getColumnValuesTest(SensorValueStore store) throws Exception {
+    try (Connection conn = getDataSource().getConnection()) {
+      store.storeSensorValues(conn, makeValues());
+
+      List<SensorValue> values = store.getSensorValues(conn, DATASET_ID,
+        Arrays.asList(2L, 3L), false);
+
+      assertEquals(TIME_COUNT, values.size());
+      assertTrue(values.stream().allMatch(v -> v.getColumnId() == 2L));
+    }
+  }
+
+  /**
+   * Test that streamed values match the loaded values.
+   *
+   * @param store
+   *          The store
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument", "resources/sql/testbase/dataset" })
+  @ParameterizedTest
+  @MethodSource("stores")
+  public void streamTest(SensorValueStore store) throws Exception {
+    try (Connection conn = getDataSource().getConnection()) {
+      Map<String, SensorValue> loaded = storeAndLoad(conn, store);
+
+      List<SensorValue> streamed = new ArrayList<SensorValue>();
+      store.streamSensorValues(conn, DATASET_ID, null, false, false,
+        streamed::add);
+
+      assertEquals(loaded.size(), streamed.size());
+      for (SensorValue value : streamed) {
+        assertEquals(value.getId(), loaded
+          .get(getKey(value.getColumnId(), value.getTimeMillis())).getId());
+      }
+    }
+  }
+
+  /**
+   * Test that streamed values are grouped by column in time order when
+   * requested, including values stored in separate batches with overlapping
+   * times.
+   *
+   * @param store
+   *          The store
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument", "resources/sql/testbase/dataset" })
+  @ParameterizedTest
+  @MethodSource("stores")
+  public void streamOrderByColumnTest(SensorValueStore store)
+    throws Exception {
+
+    try (Connection conn = getDataSource().getConnection()) {
+      List<SensorValue> values = makeValues();
+      List<SensorValue> evenValues = new ArrayList<SensorValue>();
+      List<SensorValue> oddValues = new ArrayList<SensorValue>();
+      for (int i = 0; i < values.size(); i++) {
+        if (i % 4 < 2) {
+          evenValues.add(values.get(i));
+        } else {
+          oddValues.add(values.get(i));
+        }
+      }
+
+      store.storeSensorValues(conn, oddValues);
+      store.storeSensorValues(conn, evenValues);
+
+      List<SensorValue> streamed = new ArrayList<SensorValue>();
+      store.streamSensorValues(conn, DATASET_ID, null, false, true,
+        streamed::add);
+
+      assertEquals(values.size(), streamed.size());
+
+      List<Long> columnOrder = new ArrayList<Long>();
+      for (int i = 0; i < streamed.size(); i++) {
+        SensorValue value = streamed.get(i);
+        if (i == 0
+          || value.getColumnId() != streamed.get(i - 1).getColumnId()) {
+          assertFalse(columnOrder.contains(value.getColumnId()));
+          columnOrder.add(value.getColumnId());
+        } else {
+          assertTrue(value.getTimeMillis() > streamed.get(i - 1)
+            .getTimeMillis());
+        }
+      }
+
+      assertEquals(2, columnOrder.size());
+    }
+  }
+
+  /**
+   * Test that individual QC updates are stored and loaded.
+   *
+   * @param store
+   *          The store
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument", "resources/sql/testbase/dataset" })
+  @ParameterizedTest
+  @MethodSource("stores")
+  public void updateTest(SensorValueStore store) throws Exception {
+    try (Connection conn = getDataSource().getConnection()) {
+      Map<String, SensorValue> loaded = storeAndLoad(conn, store);
+
+      // Missing values are flagged BAD when they are created
+      long missingCount = loaded.values().stream()
+        .filter(v -> v.getUserQCFlag().equals(Flag.BAD)).count();
+
+      long time = DateTimeUtils
+        .dateToLong(LocalDateTime.of(2020, 1, 1, 0, 10, 0));
+
+      SensorValue updated = loaded.get(getKey(1L, time));
+      updated.setUserQC(Flag.BAD, "Bad value");
+      store.storeSensorValues(conn, Arrays.asList(updated));
+
+      Map<String, SensorValue> reloaded = mapValues(
+        store.getSensorValues(conn, DATASET_ID, null, false));
+
+      SensorValue reloadedValue = reloaded.get(getKey(1L, time));
+      assertEquals(updated.getId(), reloadedValue.getId());
+      assertEquals(Flag.BAD, reloadedValue.getUserQCFlag());
+      assertEquals("Bad value", reloadedValue.getUserQCMessage());
+      assertEquals("10", reloadedValue.getValue());
+
+      SensorValue otherValue = reloaded.get(getKey(2L, time));
+      assertEquals(Flag.ASSUMED_GOOD, otherValue.getUserQCFlag());
+      assertEquals(loaded.get(getKey(2L, time)).getUserQCMessage(),
+        otherValue.getUserQCMessage());
+
+      assertEquals(missingCount + 1,
+        store.getUserFlagCount(conn, DATASET_ID, Flag.BAD));
+    }
+  }
+
+  /**
+   * Test that updates to all the values in a dataset are stored and loaded.
+   * For the {@link ColumnSensorValueStore} this rewrites the stored chunks.
+   *
+   * @param store
+   *          The store
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument", "resources/sql/testbase/dataset" })
+  @ParameterizedTest
+  @MethodSource("stores")
+  public void updateAllTest(SensorValueStore store) throws Exception {
+    try (Connection conn = getDataSource().getConnection()) {
+      Map<String, SensorValue> loaded = storeAndLoad(conn, store);
+
+      // One update on its own, followed by updates to everything
+      SensorValue first = loaded.values().iterator().next();
+      first.setUserQC(Flag.BAD, "First");
+      store.storeSensorValues(conn, Arrays.asList(first));
+
+      for (SensorValue value : loaded.values()) {
+        if (value.getColumnId() == 1L) {
+          value.setUserQC(Flag.QUESTIONABLE, "Column 1");
+        }
+      }
+      store.storeSensorValues(conn, loaded.values());
+
+      Map<String, SensorValue> reloaded = mapValues(
+        store.getSensorValues(conn, DATASET_ID, null, false));
+
+      assertEquals(loaded.size(), reloaded.size());
+      for (SensorValue value : loaded.values()) {
+        SensorValue reloadedValue = reloaded
+          .get(getKey(value.getColumnId(), value.getTimeMillis()));
+        assertEquals(value.getId(), reloadedValue.getId());
+        assertEquals(value.getUserQCFlag(), reloadedValue.getUserQCFlag());
+        assertEquals(value.getUserQCMessage(),
+          reloadedValue.getUserQCMessage());
+      }
+
+      if (store instanceof ColumnSensorValueStore) {
+        assertEquals(2, countRecords(conn, "sensor_value_chunks"));
+      }
+    }
+  }
+
+  /**
+   * Test that flushing values can be left out.
+   *
+   * @param store
+   *          The store
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument", "resources/sql/testbase/dataset" })
+  @ParameterizedTest
+  @MethodSource("stores")
+  public void ignoreFlushingTest(SensorValueStore store) throws Exception {
+    try (Connection conn = getDataSource().getConnection()) {
+      Map<String, SensorValue> loaded = storeAndLoad(conn, store);
+
+      List<SensorValue> flushing = new ArrayList<SensorValue>();
+      for (SensorValue value : loaded.values()) {
+        if (value.getColumnId() == 1L && flushing.size() < 5) {
+          value.setUserQC(Flag.FLUSHING, null);
+          flushing.add(value);
+        }
+      }
+      store.storeSensorValues(conn, flushing);
+
+      assertEquals(loaded.size(),
+        store.getSensorValues(conn, DATASET_ID, null, false).size());
+      assertEquals(loaded.size() - 5,
+        store.getSensorValues(conn, DATASET_ID, null, true).size());
+      assertEquals(TIME_COUNT - 5, store
+        .getSensorValues(conn, DATASET_ID, Arrays.asList(1L), true).size());
+    }
+  }
+
+  /**
+   * Test that a query can be limited to a time range. Both ends of the range
+   * are included.
+   *
+   * @param store
+   *          The store
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument", "resources/sql/testbase/dataset" })
+  @ParameterizedTest
+  @MethodSource("stores")
+  public void timeRangeQueryTest(SensorValueStore store) throws Exception {
+    try (Connection conn = getDataSource().getConnection()) {
+      store.storeSensorValues(conn, makeValues());
+
+      LocalDateTime start = LocalDateTime.of(2020, 1, 1, 0, 10, 0);
+      LocalDateTime end = LocalDateTime.of(2020, 1, 1, 0, 19, 0);
+
+      List<SensorValue> values = store.getSensorValues(conn,
+        new SensorValuesQuery(DATASET_ID).columns(1L).between(start, end));
+
+      assertEquals(10, values.size());
+      for (SensorValue value : values) {
+        assertEquals(1L, value.getColumnId());
+        assertFalse(value.getTime().isBefore(start));
+        assertFalse(value.getTime().isAfter(end));
+      }
+
+      assertEquals(20, store.getSensorValues(conn,
+        new SensorValuesQuery(DATASET_ID).between(start, end)).size());
+    }
+  }
+
+  /**
+   * Test that a query can be limited to the times of measurements with
+   * selected run types. Measurements are added every five minutes, with run
+   * types cycling through {@code A}, {@code B} and {@code C}.
+   *
+   * @param store
+   *          The store
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument", "resources/sql/testbase/dataset" })
+  @ParameterizedTest
+  @MethodSource("stores")
+  public void runTypeQueryTest(SensorValueStore store) throws Exception {
+    try (Connection conn = getDataSource().getConnection()) {
+      store.storeSensorValues(conn, makeValues());
+
+      LocalDateTime start = LocalDateTime.of(2020, 1, 1, 0, 0, 0);
+      String[] runTypes = { "A", "B", "C" };
+
+      try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO "
+        + "measurements (dataset_id, date, run_type) VALUES (?, ?, ?)")) {
+
+        for (int i = 0; i < TIME_COUNT; i += 5) {
+          stmt.setLong(1, DATASET_ID);
+          stmt.setLong(2, DateTimeUtils.dateToLong(start.plusMinutes(i)));
+          stmt.setString(3, runTypes[(i / 5) % 3]);
+          stmt.execute();
+        }
+      }
+
+      // Measurements at minutes 0, 15, 30 and 45 have run type A, and 10, 25
+      // and 40 have run type C
+      List<SensorValue> values = store.getSensorValues(conn,
+        new SensorValuesQuery(DATASET_ID).columns(1L)
+          .atMeasurementRunTypes(Arrays.asList("A", "C")));
+
+      assertEquals(7, values.size());
+      for (SensorValue value : values) {
+        assertEquals(1L, value.getColumnId());
+        assertEquals(0, value.getTime().getMinute() % 5);
+        assertFalse((value.getTime().getMinute() / 5) % 3 == 1);
+      }
+
+      // Both columns, with a time range
+      assertEquals(4, store.getSensorValues(conn,
+        new SensorValuesQuery(DATASET_ID)
+          .between(start, start.plusMinutes(20))
+          .atMeasurementRunTypes(Arrays.asList("A"))).size());
+
+      assertEquals(0, store.getSensorValues(conn,
+        new SensorValuesQuery(DATASET_ID)
+          .atMeasurementRunTypes(Arrays.asList("X"))).size());
+    }
+  }
+
+  /**
+   * Test that a query can be limited to, or exclude, selected user QC flags.
+   *
+   * @param store
+   *          The store
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument", "resources/sql/testbase/dataset" })
+  @ParameterizedTest
+  @MethodSource("stores")
+  public void flagQueryTest(SensorValueStore store) throws Exception {
+    try (Connection conn = getDataSource().getConnection()) {
+      Map<String, SensorValue> loaded = storeAndLoad(conn, store);
+
+      // Missing values are flagged BAD when they are created
+      long badCount = loaded.values().stream()
+        .filter(v -> v.getUserQCFlag().equals(Flag.BAD)).count();
+      assertTrue(badCount > 0);
+
+      List<SensorValue> bad = store.getSensorValues(conn,
+        new SensorValuesQuery(DATASET_ID).onlyFlags(Flag.BAD));
+      assertEquals(badCount, bad.size());
+      assertTrue(bad.stream().allMatch(v -> null == v.getValue()));
+
+      List<SensorValue> notBad = store.getSensorValues(conn,
+        new SensorValuesQuery(DATASET_ID).excludeFlags(Flag.BAD));
+      assertEquals(loaded.size() - badCount, notBad.size());
+      assertTrue(
+        notBad.stream().noneMatch(v -> v.getUserQCFlag().equals(Flag.BAD)));
+    }
+  }
+
+  /**
+   * Test that values loaded for selected columns and a time range only
+   * contain those columns and times.
+   *
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument", "resources/sql/testbase/dataset" })
+  @Test
+  public void queryLoadTest() throws Exception {
+    SensorAssignments assignments = Mockito.mock(SensorAssignments.class);
+    Mockito.when(assignments.getSensorTypeForDBColumn(Mockito.anyLong()))
+      .thenReturn(Mockito.mock(SensorType.class));
+
+    Instrument instrument = Mockito.mock(Instrument.class);
+    Mockito.when(instrument.getSensorAssignments()).thenReturn(assignments);
+
+    try (Connection conn = getDataSource().getConnection()) {
+      DataSetDataDB.storeSensorValues(conn, makeValues());
+
+      SensorValuesQuery query = new SensorValuesQuery(DATASET_ID).columns(1L)
+        .between(LocalDateTime.of(2020, 1, 1, 0, 0, 0),
+          LocalDateTime.of(2020, 1, 1, 0, 9, 0));
+
+      DatasetSensorValues values = DataSetDataDB.getSensorValues(conn,
+        instrument, query);
+
+      assertTrue(values.containsColumn(1L));
+      assertFalse(values.containsColumn(2L));
+      assertEquals(10, values.getAll().size());
+      assertEquals(10, values.getTimes().size());
+    }
+  }
+
+  /**
+   * Test the distinct times of the stored values.
+   *
+   * @param store
+   *          The store
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument", "resources/sql/testbase/dataset" })
+  @ParameterizedTest
+  @MethodSource("stores")
+  public void getTimesTest(SensorValueStore store) throws Exception {
+    try (Connection conn = getDataSource().getConnection()) {
+      store.storeSensorValues(conn, makeValues());
+
+      List<Long> times = store.getTimes(conn, DATASET_ID);
+      assertEquals(TIME_COUNT, times.size());
+      assertEquals(TIME_COUNT, store.getTimeCount(conn, DATASET_ID));
+
+      long start = DateTimeUtils
+        .dateToLong(LocalDateTime.of(2020, 1, 1, 0, 0, 0));
+      for (int i = 0; i < TIME_COUNT; i++) {
+        assertEquals(start + i * 60000L, times.get(i).longValue());
+      }
+    }
+  }
+
+  /**
+   * Test that all values for a dataset are deleted.
+   *
+   * @param store
+   *          The store
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument", "resources/sql/testbase/dataset" })
+  @ParameterizedTest
+  @MethodSource("stores")
+  public void deleteTest(SensorValueStore store) throws Exception {
+    try (Connection conn = getDataSource().getConnection()) {
+      Map<String, SensorValue> loaded = storeAndLoad(conn, store);
+
+      SensorValue value = loaded.values().iterator().next();
+      value.setUserQC(Flag.BAD, "Bad");
+      store.storeSensorValues(conn, Arrays.asList(value));
+
+      store.deleteSensorValues(conn, DATASET_ID);
+
+      assertEquals(0,
+        store.getSensorValues(conn, DATASET_ID, null, false).size());
+      assertEquals(0, store.getTimeCount(conn, DATASET_ID));
+      assertEquals(0, countRecords(conn, "sensor_value_edits"));
+    }
+  }
+
+  /**
+   * Test that the column store keeps a single updated value as an edit
+   * instead of rewriting its chunk.
+   *
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument", "resources/sql/testbase/dataset" })
+  @Test
+  public void columnStoreEditTest() throws Exception {
+    try (Connection conn = getDataSource().getConnection()) {
+      SensorValueStore store = new ColumnSensorValueStore();
+      Map<String, SensorValue> loaded = storeAndLoad(conn, store);
+
+      SensorValue value = loaded.values().iterator().next();
+      value.setUserQC(Flag.BAD, "Bad");
+      store.storeSensorValues(conn, Arrays.asList(value));
+      assertEquals(1, countRecords(conn, "sensor_value_edits"));
+
+      // Updating the same value again replaces the edit
+      value.setUserQC(Flag.QUESTIONABLE, "Questionable");
+      store.storeSensorValues(conn, Arrays.asList(value));
+      assertEquals(1, countRecords(conn, "sensor_value_edits"));
+
+      Map<String, SensorValue> reloaded = mapValues(
+        store.getSensorValues(conn, DATASET_ID, null, false));
+      assertEquals(Flag.QUESTIONABLE, reloaded
+        .get(getKey(value.getColumnId(), value.getTimeMillis()))
+        .getUserQCFlag());
+    }
+  }
+
+  /**
+   * Test that rewriting a column store chunk removes the edits it includes,
+   * leaves other edits alone, and leaves the connection in auto-commit mode.
+   *
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument", "resources/sql/testbase/dataset" })
+  @Test
+  public void columnStoreCompactTest() throws Exception {
+    try (Connection conn = getDataSource().getConnection()) {
+      SensorValueStore store = new ColumnSensorValueStore();
+      Map<String, SensorValue> loaded = storeAndLoad(conn, store);
+
+      List<SensorValue> column1 = new ArrayList<SensorValue>();
+      SensorValue column2Value = null;
+      for (SensorValue value : loaded.values()) {
+        if (value.getColumnId() == 1L) {
+          column1.add(value);
+        } else if (null == column2Value) {
+          column2Value = value;
+        }
+      }
+
+      // One edit in each chunk
+      column1.get(0).setUserQC(Flag.BAD, "Bad");
+      column2Value.setUserQC(Flag.BAD, "Bad");
+      store.storeSensorValues(conn,
+        Arrays.asList(column1.get(0), column2Value));
+      assertEquals(2, countRecords(conn, "sensor_value_edits"));
+
+      // Rewrite the column 1 chunk
+      List<SensorValue> updates = column1.subList(1, column1.size());
+      for (SensorValue value : updates) {
+        value.setUserQC(Flag.QUESTIONABLE, "Questionable");
+      }
+      store.storeSensorValues(conn, updates);
+
+      assertTrue(conn.getAutoCommit());
+      assertEquals(1, countRecords(conn, "sensor_value_edits"));
+
+      Map<String, SensorValue> reloaded = mapValues(
+        store.getSensorValues(conn, DATASET_ID, null, false));
+      assertEquals(Flag.BAD,
+        reloaded.get(getKey(1L, column1.get(0).getTimeMillis()))
+          .getUserQCFlag());
+      assertEquals(Flag.BAD,
+        reloaded.get(getKey(2L, column2Value.getTimeMillis()))
+          .getUserQCFlag());
+      assertEquals(Flag.QUESTIONABLE,
+        reloaded.get(getKey(1L, updates.get(0).getTimeMillis()))
+          .getUserQCFlag());
+    }
+  }
+
+  /**
+   * Test the check for existing row store values that prevents the column
+   * store being used on an existing installation.
+   *
+   * @throws Exception
+   *           If any errors occur
+   */
+  @FlywayTest(locationsForMigrate = { "resources/sql/testbase/user",
+    "resources/sql/testbase/instrument", "resources/sql/testbase/dataset" })
+  @Test
+  public void rowValuesExistTest() throws Exception {
+    try (Connection conn = getDataSource().getConnection()) {
+      assertFalse(ColumnSensorValueStore.rowValuesExist(conn));
+
+      new ColumnSensorValueStore().storeSensorValues(conn, makeValues());
+      assertFalse(ColumnSensorValueStore.rowValuesExist(conn));
+
+      new RowSensorValueStore().storeSensorValues(conn, makeValues());
+      assertTrue(ColumnSensorValueStore.rowValuesExist(conn));
+    }
+  }
+
+  /**
+   * Test the multi-row INSERT statements used by the
+   * {@link RowSensorValueStore} on MySQL. The values are stored in statements
+   * of 1000 rows, with a final statement for any that are left over.
+   *
+   * @param rows
+   *          The number of new values to store
+   * @throws Exception
+   *           If any errors occur
+   */
+  @ParameterizedTest
+  @ValueSource(ints = { 0, 1, 1000, 1001, 2500 })
+  public void bulkInsertTest(int rows) throws Exception {
+    Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+    Connection conn = mockMySQLConnection(statements, true);
+
+    List<SensorValue> values = new ArrayList<SensorValue>(rows);
+    LocalDateTime start = LocalDateTime.of(2020, 1, 1, 0, 0, 0);
+    for (int i = 0; i < rows; i++) {
+      values.add(new SensorValue(DATASET_ID, 1L, start.plusSeconds(i),
+        String.valueOf(i)));
+    }
+
+    new RowSensorValueStore().storeSensorValues(conn, values);
+
+    int fullChunks = rows / 1000;
+    int remainder = rows % 1000;
+
+    // Each INSERT statement, keyed by the number of rows it stores
+    Map<Integer, PreparedStatement> inserts = new HashMap<Integer, PreparedStatement>();
+    for (Map.Entry<String, PreparedStatement> entry : statements.entrySet()) {
+      String sql = entry.getKey();
+      if (sql.startsWith("INSERT INTO sensor_values")) {
+        inserts.put(countRows(sql), entry.getValue());
+      }
+    }
+
+    assertEquals((fullChunks > 0 ? 1 : 0) + (remainder > 0 ? 1 : 0),
+      inserts.size());
+
+    if (fullChunks > 0) {
+      PreparedStatement chunkStmt = inserts.get(1000);
+      Mockito.verify(chunkStmt, Mockito.times(fullChunks)).execute();
+      Mockito.verify(chunkStmt, Mockito.times(fullChunks))
+        .setString(Mockito.eq(8000), Mockito.nullable(String.class));
+      Mockito.verify(chunkStmt, Mockito.never())
+        .setLong(Mockito.eq(8001), Mockito.anyLong());
+    }
+
+    if (remainder > 0) {
+      PreparedStatement remainderStmt = inserts.get(remainder);
+      Mockito.verify(remainderStmt).execute();
+      Mockito.verify(remainderStmt).setString(Mockito.eq(remainder * 8),
+        Mockito.nullable(String.class));
+      Mockito.verify(remainderStmt, Mockito.never())
+        .setLong(Mockito.eq(remainder * 8 + 1), Mockito.anyLong());
+    }
+  }
+
+  /**
+   * Test that the {@link RowSensorValueStore} only changes the partitions of
+   * a partitioned sensor_values table outside a transaction, and deletes the
+   * values normally inside one.
+   *
+   * @param autoCommit
+   *          The auto-commit mode of the connection
+   * @throws Exception
+   *           If any errors occur
+   */
+  @ParameterizedTest
+  @ValueSource(booleans = { true, false })
+  public void partitionedDeleteTest(boolean autoCommit) throws Exception {
+    Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+    Connection conn = mockMySQLConnection(statements, autoCommit);
+
+    new RowSensorValueStore().deleteSensorValues(conn, DATASET_ID);
+
+    boolean partitionChanged = false;
+    boolean deleted = false;
+    for (String sql : statements.keySet()) {
+      if (sql.startsWith("ALTER TABLE")) {
+        partitionChanged = true;
+      } else if (sql.startsWith("DELETE FROM sensor_values")) {
+        deleted = true;
+      }
+    }
+
+    assertEquals(autoCommit, partitionChanged);
+    assertEquals(!autoCommit, deleted);
+  }
+
+  /**
+   * Make a mock connection to a MySQL database with a partitioned
+   * sensor_values table. Each SQL string is given its own mock statement,
+   * whose queries return a single record containing {@code 1}.
+   *
+   * @param statements
+   *          The map to be filled with the statements prepared on the
+   *          connection, keyed by their SQL
+   * @param autoCommit
+   *          The auto-commit mode of the connection
+   * @return The connection
+   * @throws Exception
+   *           If the mocks cannot be set up
+   */
+  private Connection mockMySQLConnection(
+    Map<String, PreparedStatement> statements, boolean autoCommit)
+    throws Exception {
+
+    DatabaseMetaData metadata = Mockito.mock(DatabaseMetaData.class);
+    Mockito.when(metadata.getDatabaseProductName()).thenReturn("MySQL");
+
+    Connection conn = Mockito.mock(Connection.class);
+    Mockito.when(conn.getMetaData()).thenReturn(metadata);
+    Mockito.when(conn.getAutoCommit()).thenReturn(autoCommit);
+    Mockito.when(conn.prepareStatement(Mockito.anyString()))
+      .thenAnswer(invocation -> statements
+        .computeIfAbsent(invocation.getArgument(0), sql -> mockStatement()));
+
+    return conn;
+  }
+
+  /**
+   * Make a mock statement whose queries return a single record containing
+   * {@code 1}
+   *
+   * @return The statement
+   */
+  private PreparedStatement mockStatement() {
+    PreparedStatement result = Mockito.mock(PreparedStatement.class);
+
+    try {
+      ResultSet records = Mockito.mock(ResultSet.class);
+      Mockito.when(records.next()).thenReturn(true, false);
+      Mockito.when(records.getInt(1)).thenReturn(1);
+      Mockito.when(result.executeQuery()).thenReturn(records);
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+
+    return result;
+  }
+
+  /**
+   * Count the rows in a multi-row INSERT statement
+   *
+   * @param sql
+   *          The statement SQL
+   * @return The number of rows
+   */
+  private int countRows(String sql) {
+    int result = 0;
+
+    int index = sql.indexOf("(?, ?, ?, ?, ?, ?, ?, ?)");
+    while (index != -1) {
+      result++;
+      index = sql.indexOf("(?, ?, ?, ?, ?, ?, ?, ?)", index + 1);
+    }
+
+    return result;
+  }
+
+  private int countRecords(Connection conn, String table) throws Exception {
+    int result;
+
+    try (
+      PreparedStatement stmt = conn
+        .prepareStatement("SELECT COUNT(*) FROM " + table);
+      ResultSet records = stmt.executeQuery()) {
+
+      records.next();
+      result = records.getInt(1);
+    }
+
+    return result;
+  }
+}
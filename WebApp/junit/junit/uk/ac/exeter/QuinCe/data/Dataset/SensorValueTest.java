@@ -0,0 +1,81 @@
+package junit.uk.ac.exeter.QuinCe.data.Dataset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDateTime;
+
+import org.junit.jupiter.api.Test;
+
+import uk.ac.exeter.QuinCe.data.Dataset.SensorValue;
+import uk.ac.exeter.QuinCe.data.Dataset.QC.Flag;
+import uk.ac.exeter.QuinCe.utils.DateTimeUtils;
+
+/**
+ * Tests for the numeric handling of {@link SensorValue}s
+ */
+public class SensorValueTest {
+
+  /**
+   * Create a new sensor value
+   *
+   * @param value
+   *          The value
+   * @return The sensor value
+   */
+  private SensorValue makeValue(String value) {
+    return new SensorValue(1L, 1L, LocalDateTime.of(2021, 1, 1, 0, 0), value);
+  }
+
+  @Test
+  public void numericValueTest() {
+    assertEquals(12.5, makeValue("12.5").getDoubleValue());
+    assertEquals(-3.0, makeValue(" -3 ").getDoubleValue());
+    assertEquals(1234.5, makeValue("1,234.5").getDoubleValue());
+  }
+
+  @Test
+  public void nullValueTest() {
+    assertTrue(makeValue(null).isNaN());
+    assertTrue(makeValue("").isNaN());
+    assertTrue(makeValue("NaN").isNaN());
+  }
+
+  @Test
+  public void nonNumericValueTest() {
+    SensorValue runType = makeValue("EQU");
+    assertThrows(NumberFormatException.class, () -> runType.getDoubleValue());
+
+    SensorValue badNumber = makeValue("12x");
+    assertThrows(NumberFormatException.class,
+      () -> badNumber.getDoubleValue());
+  }
+
+  @Test
+  public void setValueTest() {
+    SensorValue value = makeValue("EQU");
+    value.setValue("7");
+    assertEquals(7.0, value.getDoubleValue());
+
+    value.setValue(SensorValue.NO_VALUE);
+    assertEquals((double) Long.MIN_VALUE, value.getDoubleValue());
+  }
+
+  @Test
+  public void preParsedValueTest() {
+    LocalDateTime time = LocalDateTime.of(2021, 1, 1, 0, 0);
+    SensorValue value = new SensorValue(1L, 1L, 1L,
+      DateTimeUtils.dateToLong(time), "12.50", 12.5, null, Flag.ASSUMED_GOOD,
+      null);
+
+    assertEquals("12.50", value.getValue());
+    assertEquals(12.5, value.getDoubleValue());
+    assertFalse(value.isNaN());
+    assertEquals(time, value.getTime());
+
+    SensorValue clone = (SensorValue) value.clone();
+    assertEquals(12.5, clone.getDoubleValue());
+  }
+}
@@ -0,0 +1,287 @@
+package junit.uk.ac.exeter.QuinCe.data.Files;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import uk.ac.exeter.QuinCe.data.Files.BlockCompressedFile;
+import uk.ac.exeter.QuinCe.data.Files.FileStoreCompressor;
+import uk.ac.exeter.QuinCe.data.Files.MappedFileLines;
+
+/**
+ * Tests for the {@link BlockCompressedFile} and {@link FileStoreCompressor}
+ * classes
+ */
+public class BlockCompressedFileTest {
+
+  /**
+   * Temporary directory for test files
+   */
+  @TempDir
+  public Path tempDir;
+
+  /**
+   * Generate CSV-like test data
+   *
+   * @param lines
+   *          The number of lines
+   * @return The data
+   */
+  private static byte[] makeData(int lines) {
+    Random random = new Random(1);
+    StringBuilder data = new StringBuilder();
+    for (int i = 0; i < lines; i++) {
+      data.append(i).append(",2020-01-01 00:00:00,")
+        .append(random.nextInt(100000)).append('\n');
+    }
+    return data.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Compress data to a file
+   *
+   * @param data
+   *          The data
+   * @param blockSize
+   *          The block size
+   * @return The compressed file
+   * @throws IOException
+   *           If the file cannot be written
+   */
+  private File compress(byte[] data, int blockSize) throws IOException {
+    File file = tempDir.resolve("compressed").toFile();
+    BlockCompressedFile.write(new ByteArrayInputStream(data), file,
+      blockSize);
+    return file;
+  }
+
+  @Test
+  public void roundTripTest() throws IOException {
+    byte[] data = makeData(5000);
+    File file = compress(data, 1000);
+
+    BlockCompressedFile compressed = BlockCompressedFile.open(file);
+    assertEquals(data.length, compressed.length());
+    assertEquals((data.length + 999) / 1000, compressed.getBlockCount());
+    assertArrayEquals(data, compressed.getBytes());
+    assertTrue(file.length() < data.length);
+  }
+
+  @Test
+  public void exactBlockMultipleTest() throws IOException {
+    byte[] data = new byte[4096];
+    new Random(2).nextBytes(data);
+
+    BlockCompressedFile compressed = BlockCompressedFile
+      .open(compress(data, 1024));
+    assertEquals(4, compressed.getBlockCount());
+    assertArrayEquals(data, compressed.getBytes());
+  }
+
+  @Test
+  public void randomAccessTest() throws IOException {
+    byte[] data = makeData(2000);
+    BlockCompressedFile compressed = BlockCompressedFile
+      .open(compress(data, 777));
+
+    Random random = new Random(3);
+    for (int i = 0; i < 200; i++) {
+      int start = random.nextInt(data.length);
+      int count = random.nextInt(Math.min(3000, data.length - start));
+
+      byte[] expected = new byte[count];
+      System.arraycopy(data, start, expected, 0, count);
+
+      byte[] actual = new byte[count];
+      compressed.get(start, actual, 0, count);
+      assertArrayEquals(expected, actual);
+    }
+  }
+
+  /**
+   * Test that threads reading different parts of a shared file all get the
+   * correct data.
+   *
+   * @throws Exception
+   *           If any errors occur
+   */
+  @Test
+  public void concurrentReadTest() throws Exception {
+    byte[] data = makeData(20000);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    try (BlockCompressedFile compressed = BlockCompressedFile
+      .open(compress(data, 1000))) {
+
+      List<Callable<Void>> readers = new ArrayList<Callable<Void>>();
+      for (int t = 0; t < 4; t++) {
+        Random random = new Random(t);
+        readers.add(() -> {
+          for (int i = 0; i < 500; i++) {
+            int start = random.nextInt(data.length);
+            int count = random.nextInt(Math.min(5000, data.length - start));
+
+            byte[] expected = new byte[count];
+            System.arraycopy(data, start, expected, 0, count);
+
+            byte[] actual = new byte[count];
+            compressed.get(start, actual, 0, count);
+            assertArrayEquals(expected, actual);
+          }
+          return null;
+        });
+      }
+
+      for (Future<Void> result : executor.invokeAll(readers)) {
+        result.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Test that a closed file, and a stream that has been closed, cannot be
+   * read.
+   *
+   * @throws IOException
+   *           If the file cannot be written or read
+   */
+  @Test
+  public void closeTest() throws IOException {
+    File file = compress(makeData(100), 64);
+
+    BlockCompressedFile compressed = BlockCompressedFile.open(file);
+    compressed.close();
+    compressed.close();
+    assertThrows(IllegalStateException.class, () -> {
+      compressed.get(0, new byte[1], 0, 1);
+    });
+
+    BlockCompressedFile streamed = BlockCompressedFile.open(file);
+    InputStream in = streamed.getInputStream();
+    assertTrue(in.read() >= 0);
+    in.close();
+    assertThrows(IOException.class, () -> in.read());
+    assertThrows(IllegalStateException.class, () -> streamed.getBytes());
+  }
+
+  @Test
+  public void outOfRangeTest() throws IOException {
+    BlockCompressedFile compressed = BlockCompressedFile
+      .open(compress(makeData(10), 64));
+
+    assertThrows(IndexOutOfBoundsException.class, () -> {
+      compressed.get(compressed.length() - 1, new byte[2], 0, 2);
+    });
+  }
+
+  @Test
+  public void emptyFileTest() throws IOException {
+    File file = compress(new byte[0], 64);
+    assertTrue(BlockCompressedFile.isCompressed(file));
+
+    BlockCompressedFile compressed = BlockCompressedFile.open(file);
+    assertEquals(0, compressed.length());
+    assertEquals(0, compressed.getBlockCount());
+  }
+
+  @Test
+  public void isCompressedTest() throws IOException {
+    File text = tempDir.resolve("text").toFile();
+    Files.write(text.toPath(), makeData(10));
+    assertFalse(BlockCompressedFile.isCompressed(text));
+    assertThrows(IOException.class, () -> BlockCompressedFile.open(text));
+
+    assertTrue(BlockCompressedFile.isCompressed(compress(makeData(10), 64)));
+  }
+
+  @Test
+  public void compressedLinesTest() throws IOException {
+    String contents = "a,b\r\nxH₂O,°C\n\n1,2\n  \n\n";
+    File file = compress(contents.getBytes(StandardCharsets.UTF_8), 3);
+
+    MappedFileLines lines = new MappedFileLines(file, StandardCharsets.UTF_8);
+    assertEquals(4, lines.size());
+    assertEquals("a,b", lines.get(0));
+    assertEquals("xH₂O,°C", lines.get(1));
+    assertEquals("", lines.get(2));
+    assertEquals("1,2", lines.get(3));
+  }
+
+  @Test
+  public void compressFileStoreTest() throws IOException {
+    File definitionDir = tempDir.resolve("store").resolve("12").toFile();
+    definitionDir.mkdirs();
+
+    byte[] data = makeData(3000);
+    File dataFile = new File(definitionDir, "345");
+    Files.write(dataFile.toPath(), data);
+
+    File otherFile = new File(definitionDir, "notes.txt");
+    Files.write(otherFile.toPath(), data);
+
+    FileStoreCompressor compressor = new FileStoreCompressor();
+    compressor.compressFileStore(tempDir.resolve("store").toFile());
+
+    assertTrue(BlockCompressedFile.isCompressed(dataFile));
+    assertArrayEquals(data, BlockCompressedFile.open(dataFile).getBytes());
+    assertFalse(BlockCompressedFile.isCompressed(otherFile));
+    assertEquals(2, definitionDir.listFiles().length);
+
+    // Running again leaves the compressed file alone
+    long compressedLength = dataFile.length();
+    compressor.compressFileStore(tempDir.resolve("store").toFile());
+    assertEquals(compressedLength, dataFile.length());
+    assertEquals(1, compressor.getCompressedCount());
+  }
+
+  @Test
+  public void fileChangedDuringCompressionTest() throws IOException {
+    File definitionDir = tempDir.resolve("store").resolve("12").toFile();
+    definitionDir.mkdirs();
+
+    File dataFile = new File(definitionDir, "345");
+    Files.write(dataFile.toPath(), makeData(3000));
+
+    byte[] newData = makeData(2000);
+
+    // Replace the file after its compressed copy has been written
+    FileStoreCompressor compressor = new FileStoreCompressor() {
+      @Override
+      protected void writeCompressed(File file, File compressedFile)
+        throws IOException {
+        super.writeCompressed(file, compressedFile);
+        Files.write(file.toPath(), newData);
+      }
+    };
+
+    compressor.compressFile(dataFile);
+
+    assertFalse(BlockCompressedFile.isCompressed(dataFile));
+    assertArrayEquals(newData, Files.readAllBytes(dataFile.toPath()));
+    assertEquals(0, compressor.getCompressedCount());
+    assertEquals(1, compressor.getChangedCount());
+    assertEquals(1, definitionDir.listFiles().length);
+  }
+}
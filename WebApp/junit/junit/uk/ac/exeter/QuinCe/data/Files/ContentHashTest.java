@@ -0,0 +1,108 @@
+package junit.uk.ac.exeter.QuinCe.data.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import uk.ac.exeter.QuinCe.data.Files.ContentHash;
+import uk.ac.exeter.QuinCe.data.Files.DataFile;
+import uk.ac.exeter.QuinCe.data.Files.SpooledFileLines;
+import uk.ac.exeter.QuinCe.data.Instrument.FileDefinition;
+import uk.ac.exeter.QuinCe.data.Instrument.DataFormats.DateTimeSpecification;
+
+/**
+ * Tests for the {@link ContentHash} class
+ */
+public class ContentHashTest {
+
+  /**
+   * Temporary directory for spool files
+   */
+  @TempDir
+  public Path tempDir;
+
+  /**
+   * Spool a string
+   *
+   * @param contents
+   *          The string
+   * @return The spooled file
+   * @throws Exception
+   *           If the string cannot be spooled
+   */
+  private SpooledFileLines spool(String contents) throws Exception {
+    return SpooledFileLines.spool(tempDir.toFile(),
+      new ByteArrayInputStream(contents.getBytes(StandardCharsets.UTF_8)),
+      StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void knownHashTest() throws Exception {
+    assertEquals(
+      "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+      ContentHash.hash(new ByteArrayInputStream(
+        "abc".getBytes(StandardCharsets.UTF_8))));
+    assertEquals(
+      "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+      ContentHash.hash(Arrays.asList("abc")));
+  }
+
+  @Test
+  public void spooledHashTest() throws Exception {
+    String contents = "time,value\r\n2021-03-04 05:06:07,1\r\n\r\n"
+      + "2021-03-04 05:06:08,2\n";
+    List<String> lines = Arrays.asList(contents.split("[\\r\\n]+"));
+
+    try (SpooledFileLines spooled = spool(contents)) {
+      assertEquals(ContentHash.hash(lines), spooled.getContentHash());
+
+      // Different line breaks give the same hash
+      try (SpooledFileLines unix = spool(contents.replace("\r", ""))) {
+        assertEquals(spooled.getContentHash(), unix.getContentHash());
+      }
+    }
+  }
+
+  @Test
+  public void emptySpoolTest() throws Exception {
+    try (SpooledFileLines spooled = spool("  \n\t")) {
+      assertEquals(ContentHash.hash(new ArrayList<String>()),
+        spooled.getContentHash());
+    }
+  }
+
+  @Test
+  public void dataFileHashTest() throws Exception {
+    FileDefinition fileDefinition = new FileDefinition("Test", null);
+    fileDefinition.setColumnHeaderRows(1);
+    fileDefinition.setColumnCount(2);
+    fileDefinition.getDateTimeSpecification()
+      .assign(DateTimeSpecification.DATE_TIME, 0, "yyyy-MM-dd HH:mm:ss");
+
+    List<String> lines = Arrays.asList("time,value", "2021-03-04 05:06:07,1",
+      "2021-03-04 05:06:08,2");
+
+    try (SpooledFileLines spooled = spool(String.join("\n", lines))) {
+      DataFile listFile = new DataFile("", fileDefinition, "test.csv", lines);
+      DataFile spooledFile = new DataFile("", fileDefinition, "test.csv",
+        spooled);
+
+      assertEquals(ContentHash.hash(listFile.getContentStream()),
+        listFile.getContentHash());
+      assertEquals(listFile.getContentHash(), spooledFile.getContentHash());
+
+      DataFile otherFile = new DataFile("", fileDefinition, "test.csv",
+        Arrays.asList("time,value", "2021-03-04 05:06:07,1"));
+      assertNotEquals(listFile.getContentHash(), otherFile.getContentHash());
+    }
+  }
+}
@@ -0,0 +1,152 @@
+package junit.uk.ac.exeter.QuinCe.data.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import uk.ac.exeter.QuinCe.data.Files.DataFileIntervalTree;
+import uk.ac.exeter.QuinCe.data.Files.DataFileIntervalTree.Entry;
+
+/**
+ * Tests for the {@link DataFileIntervalTree} class
+ */
+public class DataFileIntervalTreeTest {
+
+  /**
+   * Create a set of random entries, some of which are nested inside others
+   *
+   * @param count
+   *          The number of entries
+   * @param random
+   *          The random number generator
+   * @return The entries
+   */
+  private static List<Entry> makeEntries(int count, Random random) {
+    List<Entry> entries = new ArrayList<Entry>(count);
+    for (int i = 0; i < count; i++) {
+      long start = random.nextInt(10000);
+      long length = random.nextInt(10) == 0 ? random.nextInt(2000)
+        : random.nextInt(50);
+      entries.add(new Entry(i + 1, 1, "File" + i, start, start + length, 10));
+    }
+    return entries;
+  }
+
+  /**
+   * Find the IDs of the entries that overlap a range by checking every entry
+   *
+   * @param entries
+   *          The entries
+   * @param start
+   *          The start of the range
+   * @param end
+   *          The end of the range
+   * @return The IDs of the overlapping entries
+   */
+  private static List<Long> bruteForce(List<Entry> entries, long start,
+    long end) {
+    List<Long> result = new ArrayList<Long>();
+    for (Entry entry : entries) {
+      if (entry.getStart() <= end && entry.getEnd() >= start) {
+        result.add(entry.getId());
+      }
+    }
+    result.sort(null);
+    return result;
+  }
+
+  /**
+   * Get the sorted IDs of a list of entries
+   *
+   * @param entries
+   *          The entries
+   * @return The IDs
+   */
+  private static List<Long> getIds(List<Entry> entries) {
+    List<Long> result = new ArrayList<Long>();
+    for (Entry entry : entries) {
+      result.add(entry.getId());
+    }
+    result.sort(null);
+    return result;
+  }
+
+  @Test
+  public void overlapTest() {
+    Random random = new Random(1234);
+    List<Entry> entries = makeEntries(500, random);
+    DataFileIntervalTree tree = new DataFileIntervalTree(entries);
+
+    for (int i = 0; i < 500; i++) {
+      long start = random.nextInt(11000) - 500;
+      long end = start + random.nextInt(300);
+      assertEquals(bruteForce(entries, start, end),
+        getIds(tree.getOverlapping(start, end)));
+    }
+  }
+
+  @Test
+  public void resultOrderTest() {
+    DataFileIntervalTree tree = new DataFileIntervalTree(
+      makeEntries(200, new Random(99)));
+
+    List<Entry> overlapping = tree.getOverlapping(0, 10000);
+    assertEquals(200, overlapping.size());
+    for (int i = 1; i < overlapping.size(); i++) {
+      assertTrue(
+        overlapping.get(i).getStart() >= overlapping.get(i - 1).getStart());
+    }
+  }
+
+  @Test
+  public void addRemoveTest() {
+    Random random = new Random(5678);
+    List<Entry> entries = makeEntries(100, random);
+
+    DataFileIntervalTree tree = new DataFileIntervalTree();
+    for (Entry entry : entries) {
+      tree.add(entry);
+    }
+    assertEquals(100, tree.size());
+
+    for (int i = 0; i < 50; i++) {
+      Entry removed = entries.remove(random.nextInt(entries.size()));
+      assertTrue(tree.remove(removed.getId()));
+      assertFalse(tree.remove(removed.getId()));
+    }
+
+    assertEquals(50, tree.size());
+    for (int i = 0; i < 200; i++) {
+      long start = random.nextInt(10000);
+      long end = start + random.nextInt(500);
+      assertEquals(bruteForce(entries, start, end),
+        getIds(tree.getOverlapping(start, end)));
+    }
+  }
+
+  @Test
+  public void firstAndLastTest() {
+    List<Entry> entries = new ArrayList<Entry>();
+    entries.add(new Entry(1, 1, "a", 100, 5000, 1));
+    entries.add(new Entry(2, 1, "b", 200, 300, 1));
+    entries.add(new Entry(3, 1, "c", 400, 500, 1));
+    entries.add(new Entry(4, 1, "d", 50, 60, 1));
+
+    DataFileIntervalTree tree = new DataFileIntervalTree(entries);
+    assertEquals(50, tree.getFirstStart());
+    assertEquals(5000, tree.getLastEnd());
+
+    tree.remove(1);
+    assertEquals(500, tree.getLastEnd());
+
+    DataFileIntervalTree empty = new DataFileIntervalTree();
+    assertEquals(Long.MIN_VALUE, empty.getLastEnd());
+    assertTrue(empty.getOverlapping(0, 100).isEmpty());
+  }
+}
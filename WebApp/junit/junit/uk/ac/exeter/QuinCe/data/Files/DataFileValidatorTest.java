@@ -0,0 +1,193 @@
+package junit.uk.ac.exeter.QuinCe.data.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import uk.ac.exeter.QuinCe.data.Files.DataFile;
+import uk.ac.exeter.QuinCe.data.Files.DataFileMessage;
+import uk.ac.exeter.QuinCe.data.Files.DataFileValidator;
+import uk.ac.exeter.QuinCe.data.Files.SpooledFileLines;
+import uk.ac.exeter.QuinCe.data.Instrument.FileDefinition;
+import uk.ac.exeter.QuinCe.data.Instrument.DataFormats.DateTimeSpecification;
+
+/**
+ * Tests for the {@link DataFileValidator} class
+ */
+public class DataFileValidatorTest {
+
+  /**
+   * Temporary directory for spool files
+   */
+  @TempDir
+  public Path tempDir;
+
+  /**
+   * The date/time format used in the test files
+   */
+  private static final DateTimeFormatter FORMATTER = DateTimeFormatter
+    .ofPattern("yyyy-MM-dd HH:mm:ss");
+
+  /**
+   * The time of the first line in the test files
+   */
+  private static final LocalDateTime START = LocalDateTime.of(2021, 3, 4, 5,
+    6, 7);
+
+  /**
+   * Create a file definition with a date/time column and a value column
+   *
+   * @return The file definition
+   * @throws Exception
+   *           If the definition cannot be created
+   */
+  private static FileDefinition makeFileDefinition() throws Exception {
+    FileDefinition fileDefinition = new FileDefinition("Test", null);
+    fileDefinition.setColumnHeaderRows(1);
+    fileDefinition.setColumnCount(2);
+    fileDefinition.getDateTimeSpecification()
+      .assign(DateTimeSpecification.DATE_TIME, 0, "yyyy-MM-dd HH:mm:ss");
+    return fileDefinition;
+  }
+
+  /**
+   * Create the contents of a file with one line per second
+   *
+   * @param lineCount
+   *          The number of data lines
+   * @return The file contents
+   */
+  private static List<String> makeContents(int lineCount) {
+    List<String> contents = new ArrayList<String>(lineCount + 1);
+    contents.add("time,value");
+    for (int i = 0; i < lineCount; i++) {
+      contents.add(FORMATTER.format(START.plusSeconds(i)) + "," + i);
+    }
+    return contents;
+  }
+
+  /**
+   * Get the messages for a file as strings
+   *
+   * @param dataFile
+   *          The file
+   * @return The messages
+   */
+  private static List<String> getMessages(DataFile dataFile) {
+    List<String> result = new ArrayList<String>();
+    for (DataFileMessage message : dataFile.getMessages()) {
+      result.add(message.toString());
+    }
+    return result;
+  }
+
+  @Test
+  public void validChunkedFileTest() throws Exception {
+    int lineCount = DataFileValidator.CHUNK_SIZE * 5 + 17;
+    DataFile dataFile = new DataFile("", makeFileDefinition(), "test.csv",
+      makeContents(lineCount));
+
+    assertEquals(0, dataFile.getMessageCount());
+    assertEquals(START, dataFile.getStartDate());
+    assertEquals(START.plusSeconds(lineCount - 1), dataFile.getEndDate());
+  }
+
+  @Test
+  public void monotonicTest() throws Exception {
+    List<String> contents = makeContents(20);
+    contents.set(5, FORMATTER.format(START) + ",4");
+    DataFile dataFile = new DataFile("", makeFileDefinition(), "test.csv",
+      contents);
+
+    List<String> expected = new ArrayList<String>();
+    expected.add("Line 6: Date/Time is not monotonic");
+    assertEquals(expected, getMessages(dataFile));
+  }
+
+  @Test
+  public void chunkBoundaryTest() throws Exception {
+    List<String> contents = makeContents(DataFileValidator.CHUNK_SIZE * 3);
+
+    // The first line of the second chunk has a bad time, so the second line
+    // must be checked against the last line of the first chunk
+    int secondChunk = 1 + DataFileValidator.CHUNK_SIZE;
+    contents.set(secondChunk, "Not a time,1");
+    contents.set(secondChunk + 1, FORMATTER.format(START) + ",2");
+
+    // The first line of the third chunk goes backwards, and also has the
+    // wrong number of columns
+    int thirdChunk = 1 + DataFileValidator.CHUNK_SIZE * 2;
+    contents.set(thirdChunk, FORMATTER.format(START) + ",3,4");
+
+    DataFile dataFile = new DataFile("", makeFileDefinition(), "test.csv",
+      contents);
+
+    List<String> messages = getMessages(dataFile);
+    assertEquals(4, messages.size());
+    assertTrue(messages.get(0).startsWith("Line " + (secondChunk + 1) + ": "));
+    assertEquals(
+      "Line " + (secondChunk + 2) + ": Date/Time is not monotonic",
+      messages.get(1));
+    assertEquals("Line " + (thirdChunk + 1) + ": Date/Time is not monotonic",
+      messages.get(2));
+    assertEquals("Line " + (thirdChunk + 1) + ": Incorrect number of columns",
+      messages.get(3));
+  }
+
+  @Test
+  public void messageLimitTest() throws Exception {
+    List<String> contents = makeContents(DataFileValidator.CHUNK_SIZE * 4);
+
+    // Errors in every chunk, but only the earliest can be reported
+    for (int i = 1; i < contents.size(); i += 500) {
+      contents.set(i, contents.get(i) + ",extra");
+    }
+
+    DataFile dataFile = new DataFile("", makeFileDefinition(), "test.csv",
+      contents);
+
+    List<String> messages = getMessages(dataFile);
+    assertEquals(25, messages.size());
+    assertTrue(messages.remove("Too many messages..."));
+    for (int i = 0; i < 24; i++) {
+      assertEquals("Line " + (i * 500 + 2) + ": Incorrect number of columns",
+        messages.get(i));
+    }
+  }
+
+  @Test
+  public void spooledContentsTest() throws Exception {
+    List<String> contents = makeContents(DataFileValidator.CHUNK_SIZE * 3);
+    contents.set(10, "Not a time,1");
+    contents.set(DataFileValidator.CHUNK_SIZE + 1,
+      FORMATTER.format(START) + ",1");
+    contents.set(DataFileValidator.CHUNK_SIZE * 2 + 5, "1,2,3");
+
+    DataFile listFile = new DataFile("", makeFileDefinition(), "test.csv",
+      contents);
+
+    byte[] bytes = String.join("\n", contents)
+      .getBytes(StandardCharsets.UTF_8);
+    try (SpooledFileLines lines = SpooledFileLines.spool(tempDir.toFile(),
+      new ByteArrayInputStream(bytes), StandardCharsets.UTF_8)) {
+
+      DataFile spooledFile = new DataFile("", makeFileDefinition(),
+        "test.csv", lines);
+
+      assertEquals(4, listFile.getMessageCount());
+      assertEquals(getMessages(listFile), getMessages(spooledFile));
+      assertEquals(listFile.getStartDate(), spooledFile.getStartDate());
+      assertEquals(listFile.getEndDate(), spooledFile.getEndDate());
+    }
+  }
+}
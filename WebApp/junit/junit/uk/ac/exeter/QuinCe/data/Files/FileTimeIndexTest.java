@@ -0,0 +1,258 @@
+package junit.uk.ac.exeter.QuinCe.data.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+import uk.ac.exeter.QuinCe.data.Files.BlockCompressedFile;
+import uk.ac.exeter.QuinCe.data.Files.DataFile;
+import uk.ac.exeter.QuinCe.data.Files.FileTimeIndex;
+import uk.ac.exeter.QuinCe.data.Files.MappedFileLines;
+import uk.ac.exeter.QuinCe.data.Instrument.FieldTokenizer;
+import uk.ac.exeter.QuinCe.data.Instrument.FileDefinition;
+
+/**
+ * Tests for the {@link FileTimeIndex} class, and for reading
+ * {@link MappedFileLines} through an index
+ */
+public class FileTimeIndexTest {
+
+  /**
+   * The time of the first data line in the test files
+   */
+  private static final LocalDateTime BASE_TIME = LocalDateTime.of(2020, 1, 1,
+    0, 0, 0);
+
+  /**
+   * Temporary directory for test files
+   */
+  @TempDir
+  public Path tempDir;
+
+  /**
+   * Generate a test file with one header line followed by data lines one
+   * minute apart. The first field of each data line is its minute offset from
+   * {@link #BASE_TIME}.
+   *
+   * @param dataLines
+   *          The number of data lines
+   * @return The file contents
+   */
+  private static String makeContents(int dataLines) {
+    StringBuilder contents = new StringBuilder("minute,value\n");
+    for (int i = 0; i < dataLines; i++) {
+      contents.append(i).append(',').append(i * 7 % 1000);
+      // Mix of line endings, and a blank line part way through
+      contents.append(i % 3 == 0 ? "\r\n" : "\n");
+      if (i == 100) {
+        contents.append('\n');
+      }
+    }
+    return contents.toString();
+  }
+
+  /**
+   * Write a test file
+   *
+   * @param contents
+   *          The file contents
+   * @return The file
+   * @throws IOException
+   *           If the file cannot be written
+   */
+  private File writeFile(String contents) throws IOException {
+    File file = tempDir.resolve("testFile").toFile();
+    Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+    return file;
+  }
+
+  /**
+   * Make a mock {@link DataFile} for the test files. Lines whose first field
+   * is not a number have no time.
+   *
+   * @return The mock file
+   * @throws Exception
+   *           If the mock cannot be set up
+   */
+  @SuppressWarnings("unchecked")
+  private static DataFile mockDataFile() throws Exception {
+    FileDefinition fileDefinition = Mockito.mock(FileDefinition.class);
+    Mockito.when(fileDefinition.makeFieldTokenizer())
+      .thenAnswer(invocation -> new FieldTokenizer(","));
+
+    DataFile dataFile = Mockito.mock(DataFile.class);
+    Mockito.when(dataFile.getFileDefinition()).thenReturn(fileDefinition);
+    Mockito.when(dataFile.getFirstDataLine()).thenReturn(1);
+    Mockito.when(dataFile.getDate(ArgumentMatchers.anyList()))
+      .thenAnswer(invocation -> {
+        List<String> fields = (List<String>) invocation.getArgument(0);
+        return BASE_TIME.plusMinutes(Long.parseLong(fields.get(0)));
+      });
+
+    return dataFile;
+  }
+
+  /**
+   * Get the minute offset from a test file line
+   *
+   * @param line
+   *          The line
+   * @return The minute offset
+   */
+  private static int minute(String line) {
+    return Integer.parseInt(line.split(",")[0]);
+  }
+
+  /**
+   * Build and write an index for a file, and read it back
+   *
+   * @param file
+   *          The file
+   * @param stride
+   *          The index stride
+   * @return The index read from disk
+   * @throws Exception
+   *           If the index cannot be built
+   */
+  private FileTimeIndex buildIndex(File file, int stride) throws Exception {
+    MappedFileLines lines = new MappedFileLines(file, StandardCharsets.UTF_8);
+    File indexFile = tempDir.resolve("testFile.tidx").toFile();
+    FileTimeIndex.build(mockDataFile(), lines, stride).write(indexFile);
+    return FileTimeIndex.read(indexFile);
+  }
+
+  @Test
+  public void indexedLinesMatchScannedLinesTest() throws Exception {
+    File file = writeFile(makeContents(1000));
+    FileTimeIndex index = buildIndex(file, 16);
+
+    MappedFileLines scanned = new MappedFileLines(file,
+      StandardCharsets.UTF_8);
+    MappedFileLines indexed = new MappedFileLines(file,
+      StandardCharsets.UTF_8, index);
+
+    assertEquals(scanned.size(), indexed.size());
+
+    // In order
+    for (int i = 0; i < scanned.size(); i++) {
+      assertEquals(scanned.get(i), indexed.get(i));
+    }
+
+    // Backwards, which defeats the cached position
+    for (int i = scanned.size() - 1; i >= 0; i--) {
+      assertEquals(scanned.get(i), indexed.get(i));
+    }
+  }
+
+  @Test
+  public void compressedIndexedLinesTest() throws Exception {
+    String contents = makeContents(500);
+    File file = tempDir.resolve("compressed").toFile();
+    BlockCompressedFile.write(
+      new ByteArrayInputStream(contents.getBytes(StandardCharsets.UTF_8)),
+      file, 100);
+
+    FileTimeIndex index = buildIndex(file, 8);
+    MappedFileLines scanned = new MappedFileLines(file,
+      StandardCharsets.UTF_8);
+    MappedFileLines indexed = new MappedFileLines(file,
+      StandardCharsets.UTF_8, index);
+
+    assertEquals(scanned.size(), indexed.size());
+    for (int i = 0; i < scanned.size(); i++) {
+      assertEquals(scanned.get(i), indexed.get(i));
+    }
+  }
+
+  @Test
+  public void startEndLineTest() throws Exception {
+    File file = writeFile(makeContents(1000));
+    FileTimeIndex index = buildIndex(file, 16);
+    MappedFileLines lines = new MappedFileLines(file, StandardCharsets.UTF_8,
+      index);
+
+    assertTrue(index.hasTimes());
+
+    LocalDateTime start = BASE_TIME.plusMinutes(400);
+    LocalDateTime end = BASE_TIME.plusMinutes(600);
+
+    int startLine = index.getStartLine(start);
+    int endLine = index.getEndLine(end);
+
+    // The window must contain every line in the period...
+    assertTrue(minute(lines.get(startLine)) < 400);
+    assertTrue(minute(lines.get(endLine)) > 600);
+
+    // ...but not much more
+    assertTrue(minute(lines.get(startLine)) >= 400 - 16);
+    assertTrue(minute(lines.get(endLine)) <= 600 + 16);
+  }
+
+  @Test
+  public void unboundedWindowTest() throws Exception {
+    File file = writeFile(makeContents(100));
+    FileTimeIndex index = buildIndex(file, 16);
+
+    assertEquals(1, index.getStartLine(null));
+    assertEquals(index.getLineCount(), index.getEndLine(null));
+    assertEquals(1, index.getStartLine(BASE_TIME.minusDays(1)));
+    assertEquals(index.getLineCount(),
+      index.getEndLine(BASE_TIME.plusDays(1)));
+  }
+
+  @Test
+  public void unorderedTimesTest() throws Exception {
+    StringBuilder contents = new StringBuilder("minute,value\n");
+    for (int i = 0; i < 100; i++) {
+      contents.append(100 - i).append(",1\n");
+    }
+
+    FileTimeIndex index = buildIndex(writeFile(contents.toString()), 4);
+    assertFalse(index.hasTimes());
+    assertEquals(1, index.getStartLine(BASE_TIME.plusMinutes(50)));
+    assertEquals(index.getLineCount(),
+      index.getEndLine(BASE_TIME.plusMinutes(50)));
+  }
+
+  @Test
+  public void staleIndexIgnoredTest() throws Exception {
+    File file = writeFile(makeContents(100));
+    FileTimeIndex index = buildIndex(file, 16);
+
+    // Replace the file with different contents
+    String newContents = makeContents(150);
+    Files.write(file.toPath(), newContents.getBytes(StandardCharsets.UTF_8));
+
+    MappedFileLines lines = new MappedFileLines(file, StandardCharsets.UTF_8,
+      index);
+    assertEquals(new MappedFileLines(file, StandardCharsets.UTF_8).size(),
+      lines.size());
+  }
+
+  @Test
+  public void missingIndexTest() {
+    assertNull(FileTimeIndex.read(tempDir.resolve("missing").toFile()));
+  }
+
+  @Test
+  public void invalidIndexTest() throws IOException {
+    File file = tempDir.resolve("invalid.tidx").toFile();
+    Files.write(file.toPath(), "Not an index".getBytes(StandardCharsets.UTF_8));
+    assertNull(FileTimeIndex.read(file));
+  }
+}
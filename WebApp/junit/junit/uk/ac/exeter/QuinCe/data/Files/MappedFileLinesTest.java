@@ -0,0 +1,125 @@
+package junit.uk.ac.exeter.QuinCe.data.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import uk.ac.exeter.QuinCe.data.Files.MappedFileLines;
+
+/**
+ * Tests for the {@link MappedFileLines} class
+ */
+public class MappedFileLinesTest {
+
+  /**
+   * Temporary directory for test files
+   */
+  @TempDir
+  public Path tempDir;
+
+  /**
+   * Write a test file and map it
+   *
+   * @param contents
+   *          The file contents
+   * @return The mapped lines
+   * @throws IOException
+   *           If the file cannot be written or mapped
+   */
+  private MappedFileLines makeLines(String contents) throws IOException {
+    File file = tempDir.resolve("testFile").toFile();
+    Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+    return new MappedFileLines(file, StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void simpleLinesTest() throws IOException {
+    MappedFileLines lines = makeLines("a,b\n1,2\n3,4");
+    assertEquals(3, lines.size());
+    assertEquals("a,b", lines.get(0));
+    assertEquals("1,2", lines.get(1));
+    assertEquals("3,4", lines.get(2));
+  }
+
+  @Test
+  public void trailingNewlineTest() throws IOException {
+    MappedFileLines lines = makeLines("a,b\n1,2\n");
+    assertEquals(2, lines.size());
+    assertEquals("1,2", lines.get(1));
+  }
+
+  @Test
+  public void trailingBlankLinesTest() throws IOException {
+    MappedFileLines lines = makeLines("a,b\n1,2\n  \n\t\n\n");
+    assertEquals(2, lines.size());
+    assertEquals("1,2", lines.get(1));
+  }
+
+  @Test
+  public void carriageReturnTest() throws IOException {
+    MappedFileLines lines = makeLines("a,b\r\n1,2\r\n");
+    assertEquals(2, lines.size());
+    assertEquals("a,b", lines.get(0));
+    assertEquals("1,2", lines.get(1));
+  }
+
+  @Test
+  public void emptyLineInMiddleTest() throws IOException {
+    MappedFileLines lines = makeLines("a,b\n\n1,2");
+    assertEquals(3, lines.size());
+    assertEquals("", lines.get(1));
+  }
+
+  @Test
+  public void multiByteCharactersTest() throws IOException {
+    MappedFileLines lines = makeLines("xH₂O,°C\n1,2");
+    assertEquals("xH₂O,°C", lines.get(0));
+    assertEquals("1,2", lines.get(1));
+  }
+
+  @Test
+  public void emptyFileTest() throws IOException {
+    MappedFileLines lines = makeLines("");
+    assertEquals(0, lines.size());
+  }
+
+  @Test
+  public void outOfBoundsTest() throws IOException {
+    MappedFileLines lines = makeLines("a,b\n1,2");
+    assertThrows(IndexOutOfBoundsException.class, () -> {
+      lines.get(2);
+    });
+  }
+
+  @Test
+  public void carriageReturnOnlyLineTest() throws IOException {
+    MappedFileLines lines = makeLines("a,b\r\n\r\n1,2\r\n");
+    assertEquals(3, lines.size());
+    assertEquals("", lines.get(1));
+  }
+
+  @Test
+  public void closeTest() throws IOException {
+    MappedFileLines lines = makeLines("a,b\n1,2");
+    lines.close();
+
+    assertThrows(IllegalStateException.class, () -> {
+      lines.get(0);
+    });
+
+    // Closing again has no effect
+    lines.close();
+
+    // The file is no longer held open
+    assertTrue(tempDir.resolve("testFile").toFile().delete());
+  }
+}
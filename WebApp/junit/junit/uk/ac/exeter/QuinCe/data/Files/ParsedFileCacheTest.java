@@ -0,0 +1,279 @@
+package junit.uk.ac.exeter.QuinCe.data.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import uk.ac.exeter.QuinCe.data.Files.DataFile;
+import uk.ac.exeter.QuinCe.data.Files.ParsedFileCache;
+import uk.ac.exeter.QuinCe.data.Instrument.FileDefinition;
+import uk.ac.exeter.QuinCe.data.Instrument.DataFormats.DateTimeSpecification;
+import uk.ac.exeter.QuinCe.data.Instrument.DataFormats.LatitudeSpecification;
+import uk.ac.exeter.QuinCe.data.Instrument.DataFormats.LongitudeSpecification;
+import uk.ac.exeter.QuinCe.data.Instrument.RunTypes.RunTypeCategory;
+import uk.ac.exeter.QuinCe.utils.DateTimeUtils;
+
+/**
+ * Tests for the {@link ParsedFileCache} class
+ */
+public class ParsedFileCacheTest {
+
+  /**
+   * Temporary directory for test files
+   */
+  @TempDir
+  public Path tempDir;
+
+  /**
+   * Field values that must be reproduced exactly by the cache
+   */
+  private static final String[] TRICKY_VALUES = { "1.50", "5", "-0", "-0.0",
+    "0.0000001", "1e5", "1E5", " 3.2 ", "", "N/A", "+7", ".5", "5.",
+    "-12.345678901234567890", "123456789012345678901234567890", "NaN",
+    "00.10", "H₂O" };
+
+  /**
+   * Create a file definition with date/time, position and run type columns,
+   * followed by a value column.
+   *
+   * @return The file definition
+   * @throws Exception
+   *           If the definition cannot be created
+   */
+  private static FileDefinition makeFileDefinition() throws Exception {
+    FileDefinition fileDefinition = new FileDefinition("Test", null);
+    fileDefinition.setColumnHeaderRows(1);
+    fileDefinition.setColumnCount(5);
+
+    fileDefinition.getDateTimeSpecification()
+      .assign(DateTimeSpecification.DATE_TIME, 0, "yyyy-MM-dd HH:mm:ss");
+
+    LongitudeSpecification lonSpec = fileDefinition
+      .getLongitudeSpecification();
+    lonSpec.setFormat(LongitudeSpecification.FORMAT_MINUS180_180);
+    lonSpec.setValueColumn(1);
+
+    LatitudeSpecification latSpec = fileDefinition.getLatitudeSpecification();
+    latSpec.setFormat(LatitudeSpecification.FORMAT_MINUS90_90);
+    latSpec.setValueColumn(2);
+
+    fileDefinition.setRunTypeColumn(3);
+    fileDefinition.setRunTypeCategory("sample", RunTypeCategory.IGNORED);
+    fileDefinition.setRunTypeCategory("samp", "sample");
+
+    return fileDefinition;
+  }
+
+  /**
+   * Create a data file using the test file definition
+   *
+   * @param values
+   *          The values for the value column, one per line
+   * @return The data file
+   * @throws Exception
+   *           If the file cannot be created
+   */
+  private static DataFile makeDataFile(String... values) throws Exception {
+    List<String> contents = new ArrayList<String>();
+    contents.add("time,lon,lat,runtype,value");
+
+    DateTimeFormatter formatter = DateTimeFormatter
+      .ofPattern("yyyy-MM-dd HH:mm:ss");
+    LocalDateTime time = LocalDateTime.of(2021, 3, 4, 5, 6, 7);
+
+    for (int i = 0; i < values.length; i++) {
+      contents.add(formatter.format(time.plusSeconds(i)) + "," + (i - 50.25)
+        + "," + (i * 0.5) + "," + (i % 2 == 0 ? "sample" : "samp") + ","
+        + values[i]);
+    }
+
+    return new DataFile("", makeFileDefinition(), "test.csv", contents);
+  }
+
+  /**
+   * Build a cache, write it to disk and read it back
+   *
+   * @param dataFile
+   *          The data file
+   * @return The cache read from disk
+   * @throws Exception
+   *           If the cache cannot be built
+   */
+  private ParsedFileCache roundTrip(DataFile dataFile) throws Exception {
+    long version = dataFile.getFileDefinition().getParseVersion();
+    File cacheFile = tempDir.resolve("cache").toFile();
+    assertTrue(ParsedFileCache.build(dataFile, version, cacheFile));
+
+    ParsedFileCache cache = ParsedFileCache.read(cacheFile,
+      dataFile.getDatabaseId(), version);
+    assertNotNull(cache);
+    return cache;
+  }
+
+  @Test
+  public void valuesReproducedTest() throws Exception {
+    DataFile dataFile = makeDataFile(TRICKY_VALUES);
+    ParsedFileCache cache = roundTrip(dataFile);
+
+    assertEquals(TRICKY_VALUES.length, cache.getRowCount());
+    assertEquals(5, cache.getFieldCount());
+    assertTrue(cache.hasLongitude());
+    assertTrue(cache.hasLatitude());
+    assertTrue(cache.hasRunTypes());
+
+    for (int row = 0; row < cache.getRowCount(); row++) {
+      int line = row + 1;
+      List<String> fields = dataFile.getLine(line);
+
+      assertEquals(line, cache.getLineNumber(row));
+      assertEquals(DateTimeUtils.dateToLong(dataFile.getDate(line)),
+        cache.getTime(row));
+      assertEquals(dataFile.getLongitude(fields), cache.getLongitude(row));
+      assertEquals(dataFile.getLatitude(fields), cache.getLatitude(row));
+      assertEquals("sample", cache.getRunType(row));
+
+      for (int field = 0; field < fields.size(); field++) {
+        assertEquals(fields.get(field), cache.getField(field, row));
+      }
+
+      assertEquals(dataFile.getStringValue(fields, 4, "N/A"),
+        DataFile.extractSensorFieldValue(cache.getField(4, row), "N/A"));
+    }
+
+    cache.close();
+  }
+
+  @Test
+  public void badTimeTest() throws Exception {
+    List<String> contents = new ArrayList<String>();
+    contents.add("time,lon,lat,runtype,value");
+    contents.add("2021-03-04 05:06:07,1,2,sample,1");
+    contents.add("Not a time,1,2,sample,2");
+    contents.add("2021-03-04 05:06:09,1,2,sample,3");
+    DataFile dataFile = new DataFile("", makeFileDefinition(), "test.csv",
+      contents);
+
+    ParsedFileCache cache = roundTrip(dataFile);
+    assertEquals(3, cache.getRowCount());
+    assertNotEquals(ParsedFileCache.NO_TIME, cache.getTime(0));
+    assertEquals(ParsedFileCache.NO_TIME, cache.getTime(1));
+    assertEquals("3", cache.getField(4, 2));
+    cache.close();
+  }
+
+  @Test
+  public void unknownRunTypeNotCachedTest() throws Exception {
+    List<String> contents = new ArrayList<String>();
+    contents.add("time,lon,lat,runtype,value");
+    contents.add("2021-03-04 05:06:07,1,2,sample,1");
+    contents.add("2021-03-04 05:06:08,1,2,mystery,2");
+    DataFile dataFile = new DataFile("", makeFileDefinition(), "test.csv",
+      contents);
+
+    File cacheFile = tempDir.resolve("cache").toFile();
+    assertFalse(ParsedFileCache.build(dataFile,
+      dataFile.getFileDefinition().getParseVersion(), cacheFile));
+    assertFalse(cacheFile.exists());
+    assertEquals(0, tempDir.toFile().list().length);
+  }
+
+  @Test
+  public void versionMismatchTest() throws Exception {
+    DataFile dataFile = makeDataFile("1", "2");
+    long version = dataFile.getFileDefinition().getParseVersion();
+
+    File cacheFile = tempDir.resolve("cache").toFile();
+    ParsedFileCache.build(dataFile, version, cacheFile);
+
+    try (ParsedFileCache cache = ParsedFileCache.read(cacheFile,
+      dataFile.getDatabaseId(), version)) {
+      assertNotNull(cache);
+    }
+    assertNull(ParsedFileCache.read(cacheFile, dataFile.getDatabaseId(),
+      version + 1));
+    assertNull(ParsedFileCache.read(cacheFile, dataFile.getDatabaseId() + 1,
+      version));
+    assertNull(
+      ParsedFileCache.read(tempDir.resolve("missing").toFile(), 0, version));
+
+    Files.write(cacheFile.toPath(),
+      "Not a cache".getBytes(StandardCharsets.UTF_8));
+    assertNull(ParsedFileCache.read(cacheFile, dataFile.getDatabaseId(),
+      version));
+  }
+
+  @Test
+  public void rowForLineTest() throws Exception {
+    String[] values = new String[1000];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = "Value " + i;
+    }
+
+    try (ParsedFileCache cache = roundTrip(makeDataFile(values))) {
+      assertEquals(0, cache.getRow(0));
+      assertEquals(0, cache.getRow(1));
+      assertEquals(499, cache.getRow(500));
+      assertEquals(999, cache.getRow(1000));
+      assertEquals(1000, cache.getRow(1001));
+
+      // Values can be read in any order
+      for (int row = values.length - 1; row >= 0; row -= 7) {
+        assertEquals(row + 1, cache.getLineNumber(row));
+        assertEquals(values[row], cache.getField(4, row));
+        assertEquals("sample", cache.getRunType(row));
+      }
+    }
+  }
+
+  @Test
+  public void closeTest() throws Exception {
+    ParsedFileCache cache = roundTrip(makeDataFile("1", "2"));
+    assertEquals("2", cache.getField(4, 1));
+    cache.close();
+
+    assertThrows(IllegalStateException.class, () -> cache.getTime(0));
+    assertThrows(IllegalStateException.class, () -> cache.getField(4, 1));
+    assertThrows(IllegalStateException.class, () -> cache.getRow(1));
+
+    // Closing again has no effect
+    cache.close();
+  }
+
+  @Test
+  public void parseVersionChangesTest() throws Exception {
+    FileDefinition fileDefinition = makeFileDefinition();
+    long version = fileDefinition.getParseVersion();
+    assertEquals(version, makeFileDefinition().getParseVersion());
+
+    fileDefinition.setRunTypeCategory("other", "sample");
+    long runTypeVersion = fileDefinition.getParseVersion();
+    assertNotEquals(version, runTypeVersion);
+
+    fileDefinition.getLongitudeSpecification().setValueColumn(4);
+    long positionVersion = fileDefinition.getParseVersion();
+    assertFalse(Arrays.asList(version, runTypeVersion)
+      .contains(positionVersion));
+
+    fileDefinition.getDateTimeSpecification()
+      .assign(DateTimeSpecification.DATE_TIME, 0, "dd/MM/yyyy HH:mm:ss");
+    assertFalse(Arrays.asList(version, runTypeVersion, positionVersion)
+      .contains(fileDefinition.getParseVersion()));
+  }
+}
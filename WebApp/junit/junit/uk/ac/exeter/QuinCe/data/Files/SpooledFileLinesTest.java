@@ -0,0 +1,112 @@
+package junit.uk.ac.exeter.QuinCe.data.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import uk.ac.exeter.QuinCe.data.Files.FileStore;
+import uk.ac.exeter.QuinCe.data.Files.SpooledFileLines;
+
+/**
+ * Tests for the {@link SpooledFileLines} class
+ */
+public class SpooledFileLinesTest {
+
+  /**
+   * Temporary directory for spool files
+   */
+  @TempDir
+  public Path tempDir;
+
+  /**
+   * Spool a string
+   *
+   * @param contents
+   *          The string
+   * @return The spooled file
+   * @throws Exception
+   *           If the string cannot be spooled
+   */
+  private SpooledFileLines spool(String contents) throws Exception {
+    return SpooledFileLines.spool(tempDir.toFile(),
+      new ByteArrayInputStream(contents.getBytes(StandardCharsets.UTF_8)),
+      StandardCharsets.UTF_8);
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = { "a,b\n1,2\n3,4", "a,b\r\n1,2\r\n3,4\r\n",
+    "a,b\r1,2\r\r\n\n3,4\n\n\n", "\na,b\n1,2", "\r\n\r\na,b\n  \n1,2",
+    "single line", "H₂O,°C\n1,2" })
+  public void matchesSplitTest(String contents) throws Exception {
+    List<String> expected = Arrays.asList(contents.split("[\\r\\n]+"));
+
+    try (SpooledFileLines lines = spool(contents)) {
+      assertEquals(expected, lines);
+
+      // The spooled contents are the lines joined with single line breaks
+      try (InputStream in = lines.openStream()) {
+        String spooled = IOUtils.toString(in, FileStore.CHARSET.name());
+        assertEquals(String.join("\n", expected), spooled);
+        assertEquals(spooled.getBytes(FileStore.CHARSET).length,
+          lines.getLength());
+      }
+    }
+  }
+
+  @ParameterizedTest
+  @ValueSource(strings = { "", "\n", "\r\n\r\n", "  \n \t " })
+  public void emptyTest(String contents) throws Exception {
+    try (SpooledFileLines lines = spool(contents)) {
+      assertTrue(lines.isEmpty());
+      assertEquals(0, lines.getLength());
+    }
+  }
+
+  @Test
+  public void randomAccessTest() throws Exception {
+    StringBuilder contents = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      contents.append("Line ").append(i).append('\n');
+    }
+
+    try (SpooledFileLines lines = spool(contents.toString())) {
+      assertEquals(1000, lines.size());
+
+      // Backwards, which requires the file to be re-read
+      for (int i = 999; i >= 0; i -= 7) {
+        assertEquals("Line " + i, lines.get(i));
+      }
+
+      assertEquals("Line 500", lines.get(500));
+      assertEquals("Line 501", lines.get(501));
+      assertEquals("Line 5", lines.get(5));
+
+      assertThrows(IndexOutOfBoundsException.class, () -> lines.get(1000));
+    }
+  }
+
+  @Test
+  public void closeDeletesFileTest() throws Exception {
+    SpooledFileLines lines = spool("a\nb");
+    assertEquals(1, tempDir.toFile().listFiles().length);
+
+    lines.close();
+    File[] remaining = tempDir.toFile().listFiles();
+    assertFalse(null != remaining && remaining.length > 0);
+  }
+}
@@ -0,0 +1,399 @@
+package junit.uk.ac.exeter.QuinCe.data.Instrument.DataFormats;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import uk.ac.exeter.QuinCe.data.Instrument.DataFormats.DateTimeParser;
+import uk.ac.exeter.QuinCe.data.Instrument.DataFormats.DateTimeSpecification;
+import uk.ac.exeter.QuinCe.data.Instrument.DataFormats.DateTimeSpecificationException;
+
+/**
+ * Tests that the compiled {@link DateTimeParser} gives the same results as
+ * the {@link DateTimeSpecification} it was compiled from.
+ */
+public class DateTimeParserTest {
+
+  /**
+   * Combined date/time formats offered to users
+   */
+  private static final String[] DATE_TIME_FORMATS = { "yyyy-MM-dd HH:mm:ss",
+    "yyyy-MM-dd HH:mm:ss.SSS", "MM/dd/yyyy HH:mm:ss", "dd/MM/yy HH:mm:ss",
+    "dd.MM.yyyy HH:mm:ss", "yyyy-MM-dd'T'HH:mm:ss'Z'", "MMM dd yyyy HH:mm:ss" };
+
+  /**
+   * Combined date/time values, valid and invalid
+   */
+  private static final String[] DATE_TIME_VALUES = { "2020-03-04 05:06:07",
+    "2020-03-04 05:06:07.890", "03/04/2020 05:06:07", "04/03/20 05:06:07",
+    "04.03.2020 05:06:07", "2020-03-04T05:06:07Z", "Mar 04 2020 05:06:07",
+    "2020-04-31 05:06:07", "2020-02-30 00:00:00", "2020-13-01 00:00:00",
+    "2020-00-01 00:00:00", "2020-01-01 24:00:00", "2020-01-01 23:60:00",
+    "2020-01-01 23:59:60", "2020-1-01 00:00:00", "2020-01-01X00:00:00", "",
+    "  2020-03-04 05:06:07  ", "not a date" };
+
+  /**
+   * Date formats offered to users
+   */
+  private static final String[] DATE_FORMATS = { "yyyy-MM-dd", "yyyyMMdd",
+    "MM/dd/yyyy", "dd/MM/yy", "dd.MM.yyyy" };
+
+  /**
+   * Date values, valid and invalid
+   */
+  private static final String[] DATE_VALUES = { "2020-03-04", "20200304",
+    "03/04/2020", "04/03/20", "04.03.2020", "2020-04-31", "20201301", "",
+    "2020-3-4" };
+
+  /**
+   * Time formats offered to users
+   */
+  private static final String[] TIME_FORMATS = { "HH:mm:ss", "HH:mm:ss.SSS",
+    "HHmmss" };
+
+  /**
+   * Time values, valid and invalid
+   */
+  private static final String[] TIME_VALUES = { "05:06:07", "05:06:07.890",
+    "050607", "24:00:00", "05:60:00", "5:06:07", "" };
+
+  /**
+   * UNIX time values, valid and invalid
+   */
+  private static final String[] UNIX_VALUES = { "0", "1583298367",
+    "-1583298367", "2147483647", "2147483648", "-2147483648", "+1583298367",
+    "-", "1.5", "" };
+
+  /**
+   * The first timestamp in the generated sequences of lines
+   */
+  private static final LocalDateTime SEQUENCE_START = LocalDateTime.of(2020,
+    2, 28, 22, 0, 0);
+
+  /**
+   * The number of lines in each generated sequence
+   */
+  private static final int SEQUENCE_LINES = 10000;
+
+  /**
+   * The interval between lines in a generated sequence, in seconds. This is
+   * chosen so the sequence crosses several day and month boundaries and the
+   * 29th February.
+   */
+  private static final int SEQUENCE_STEP = 37;
+
+  /**
+   * Create every combination of combined date/time format and value.
+   *
+   * @return The test arguments
+   */
+  private static Stream<Arguments> dateTimeArgs() {
+    List<Arguments> args = new ArrayList<Arguments>();
+    for (String format : DATE_TIME_FORMATS) {
+      for (String value : DATE_TIME_VALUES) {
+        args.add(Arguments.of(format, value));
+      }
+    }
+    return args.stream();
+  }
+
+  /**
+   * Create every combination of date format, time format and values.
+   *
+   * @return The test arguments
+   */
+  private static Stream<Arguments> dateAndTimeArgs() {
+    List<Arguments> args = new ArrayList<Arguments>();
+    for (String dateFormat : DATE_FORMATS) {
+      for (String timeFormat : TIME_FORMATS) {
+        for (String date : DATE_VALUES) {
+          for (String time : TIME_VALUES) {
+            args.add(Arguments.of(dateFormat, timeFormat, date, time));
+          }
+        }
+      }
+    }
+    return args.stream();
+  }
+
+  /**
+   * Create every combination of date format and date values, with valid and
+   * invalid hour/minute/second values.
+   *
+   * @return The test arguments
+   */
+  private static Stream<Arguments> dateAndHMSArgs() {
+    List<Arguments> args = new ArrayList<Arguments>();
+    for (String dateFormat : DATE_FORMATS) {
+      for (String date : DATE_VALUES) {
+        args.add(Arguments.of(dateFormat, date, "5", "6", "7"));
+        args.add(Arguments.of(dateFormat, date, "25", "6", "7"));
+        args.add(Arguments.of(dateFormat, date, "5", "", "7"));
+        args.add(Arguments.of(dateFormat, date, "5", "x", "7"));
+      }
+    }
+    return args.stream();
+  }
+
+  /**
+   * Create the UNIX time test arguments.
+   *
+   * @return The test arguments
+   */
+  private static Stream<String> unixArgs() {
+    return Arrays.stream(UNIX_VALUES);
+  }
+
+  /**
+   * Create the column layouts used for sequence tests. Each argument is the
+   * first column format ({@code null} for UNIX times), the separate time
+   * column format ({@code null} for none) and whether there are separate
+   * hour/minute/second columns.
+   *
+   * @return The test arguments
+   */
+  private static Stream<Arguments> sequenceArgs() {
+    return Stream.of(Arguments.of("yyyy-MM-dd HH:mm:ss", null, false),
+      Arguments.of("dd/MM/yyyy HH:mm:ss.SSS", null, false),
+      Arguments.of("yyyyMMdd", "HH:mm:ss", false),
+      Arguments.of("yyyy-MM-dd", null, true),
+      Arguments.of(null, null, false));
+  }
+
+  /**
+   * Test combined date/time columns.
+   *
+   * @param format
+   *          The date/time format
+   * @param value
+   *          The date/time value
+   * @throws Exception
+   *           If the specification cannot be built
+   */
+  @ParameterizedTest
+  @MethodSource("dateTimeArgs")
+  public void dateTimeTest(String format, String value) throws Exception {
+    DateTimeSpecification spec = new DateTimeSpecification(false);
+    spec.assign(DateTimeSpecification.DATE_TIME, 1, format);
+    checkParsers(spec, Arrays.asList("a", value, "b"));
+  }
+
+  /**
+   * Test separate date and time columns.
+   *
+   * @param dateFormat
+   *          The date format
+   * @param timeFormat
+   *          The time format
+   * @param date
+   *          The date value
+   * @param time
+   *          The time value
+   * @throws Exception
+   *           If the specification cannot be built
+   */
+  @ParameterizedTest
+  @MethodSource("dateAndTimeArgs")
+  public void dateAndTimeTest(String dateFormat, String timeFormat, String date,
+    String time) throws Exception {
+    DateTimeSpecification spec = new DateTimeSpecification(false);
+    spec.assign(DateTimeSpecification.DATE, 0, dateFormat);
+    spec.assign(DateTimeSpecification.TIME, 2, timeFormat);
+    checkParsers(spec, Arrays.asList(date, "a", time));
+  }
+
+  /**
+   * Test a date column with separate hour, minute and second columns.
+   *
+   * @param dateFormat
+   *          The date format
+   * @param date
+   *          The date value
+   * @param hour
+   *          The hour value
+   * @param minute
+   *          The minute value
+   * @param second
+   *          The second value
+   * @throws Exception
+   *           If the specification cannot be built
+   */
+  @ParameterizedTest
+  @MethodSource("dateAndHMSArgs")
+  public void dateAndHMSTest(String dateFormat, String date, String hour,
+    String minute, String second) throws Exception {
+    DateTimeSpecification spec = new DateTimeSpecification(false);
+    spec.assign(DateTimeSpecification.DATE, 0, dateFormat);
+    spec.assign(DateTimeSpecification.HOUR, 1, null);
+    spec.assign(DateTimeSpecification.MINUTE, 2, null);
+    spec.assign(DateTimeSpecification.SECOND, 3, null);
+    checkParsers(spec, Arrays.asList(date, hour, minute, second));
+  }
+
+  /**
+   * Test UNIX time columns.
+   *
+   * @param value
+   *          The UNIX time value
+   * @throws Exception
+   *           If the specification cannot be built
+   */
+  @ParameterizedTest
+  @MethodSource("unixArgs")
+  public void unixTest(String value) throws Exception {
+    DateTimeSpecification spec = new DateTimeSpecification(false);
+    spec.assign(DateTimeSpecification.UNIX, 0, null);
+    checkParsers(spec, Arrays.asList(value));
+  }
+
+  /**
+   * Test that the cached date is not reused for a line with a different date.
+   *
+   * @throws Exception
+   *           If the specification cannot be built
+   */
+  @Test
+  public void dateCacheTest() throws Exception {
+    DateTimeSpecification spec = new DateTimeSpecification(false);
+    spec.assign(DateTimeSpecification.DATE_TIME, 0, "yyyy-MM-dd HH:mm:ss");
+    DateTimeParser parser = spec.compile();
+
+    assertEquals(LocalDateTime.of(2020, 3, 4, 23, 59, 59),
+      parser.parse(null, Arrays.asList("2020-03-04 23:59:59")));
+    assertEquals(LocalDateTime.of(2020, 3, 4, 12, 0, 0),
+      parser.parse(null, Arrays.asList("2020-03-04 12:00:00")));
+    assertEquals(LocalDateTime.of(2020, 3, 5, 0, 0, 0),
+      parser.parse(null, Arrays.asList("2020-03-05 00:00:00")));
+  }
+
+  /**
+   * Test that changing a specification discards its compiled parser.
+   *
+   * @throws Exception
+   *           If the specification cannot be built
+   */
+  @Test
+  public void recompileOnChangeTest() throws Exception {
+    DateTimeSpecification spec = new DateTimeSpecification(false);
+    spec.assign(DateTimeSpecification.DATE_TIME, 0, "yyyy-MM-dd HH:mm:ss");
+    spec.compile();
+
+    spec.assign(DateTimeSpecification.DATE_TIME, 0, "dd/MM/yyyy HH:mm:ss");
+    assertEquals(LocalDateTime.of(2020, 3, 4, 5, 6, 7),
+      spec.getDateTime(null, Arrays.asList("04/03/2020 05:06:07")));
+  }
+
+  /**
+   * Test that the compiled parser gives the correct times for a long sequence
+   * of lines from each supported column layout, as it would for a data file.
+   *
+   * @param dateFormat
+   *          The format for the first column, or {@code null} for UNIX times
+   * @param timeFormat
+   *          The format for a separate time column, or {@code null} if there
+   *          is no time column
+   * @param hms
+   *          Indicates whether there are separate hour/minute/second columns
+   * @throws Exception
+   *           If the specification cannot be built or a line cannot be parsed
+   */
+  @ParameterizedTest
+  @MethodSource("sequenceArgs")
+  public void sequenceTest(String dateFormat, String timeFormat, boolean hms)
+    throws Exception {
+
+    DateTimeSpecification spec = new DateTimeSpecification(false);
+    if (null == dateFormat) {
+      spec.assign(DateTimeSpecification.UNIX, 0, null);
+    } else if (null != timeFormat) {
+      spec.assign(DateTimeSpecification.DATE, 0, dateFormat);
+      spec.assign(DateTimeSpecification.TIME, 1, timeFormat);
+    } else if (hms) {
+      spec.assign(DateTimeSpecification.DATE, 0, dateFormat);
+      spec.assign(DateTimeSpecification.HOUR, 1, null);
+      spec.assign(DateTimeSpecification.MINUTE, 2, null);
+      spec.assign(DateTimeSpecification.SECOND, 3, null);
+    } else {
+      spec.assign(DateTimeSpecification.DATE_TIME, 0, dateFormat);
+    }
+
+    DateTimeParser parser = spec.compile();
+
+    DateTimeFormatter dateFormatter = null == dateFormat ? null
+      : DateTimeFormatter.ofPattern(dateFormat);
+    DateTimeFormatter timeFormatter = null == timeFormat ? null
+      : DateTimeFormatter.ofPattern(timeFormat);
+
+    for (int i = 0; i < SEQUENCE_LINES; i++) {
+      LocalDateTime time = SEQUENCE_START.plusSeconds(i * SEQUENCE_STEP);
+
+      List<String> line = new ArrayList<String>(4);
+      if (null == dateFormatter) {
+        line.add(String.valueOf(time.toEpochSecond(ZoneOffset.UTC)));
+      } else {
+        line.add(dateFormatter.format(time));
+      }
+
+      if (null != timeFormatter) {
+        line.add(timeFormatter.format(time));
+      } else if (hms) {
+        line.add(String.valueOf(time.getHour()));
+        line.add(String.valueOf(time.getMinute()));
+        line.add(String.valueOf(time.getSecond()));
+      }
+
+      assertEquals(time, parser.parse(null, line), line.toString());
+      assertEquals(time, spec.parseDateTime(null, line), line.toString());
+    }
+  }
+
+  /**
+   * Check that the compiled parser and the specification give the same
+   * result, or fail with the same message.
+   *
+   * @param spec
+   *          The specification
+   * @param line
+   *          The line to parse
+   */
+  private void checkParsers(DateTimeSpecification spec, List<String> line) {
+    DateTimeParser parser = spec.compile();
+
+    LocalDateTime expected = null;
+    String expectedError = null;
+    try {
+      expected = spec.parseDateTime(null, line);
+    } catch (DateTimeSpecificationException e) {
+      expectedError = e.getMessage();
+    } catch (NumberFormatException e) {
+      expectedError = e.getMessage();
+    }
+
+    if (null == expectedError) {
+      // Parse twice to exercise the date cache
+      for (int i = 0; i < 2; i++) {
+        try {
+          assertEquals(expected, parser.parse(null, line));
+        } catch (DateTimeSpecificationException e) {
+          throw new AssertionError("Compiled parser failed: " + e.getMessage());
+        }
+      }
+    } else {
+      Exception e = assertThrows(Exception.class,
+        () -> parser.parse(null, line));
+      assertEquals(expectedError, e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,141 @@
+package junit.uk.ac.exeter.QuinCe.data.Instrument;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import uk.ac.exeter.QuinCe.data.Instrument.FieldTokenizer;
+import uk.ac.exeter.QuinCe.utils.StringUtils;
+
+/**
+ * Tests for the {@link FieldTokenizer} class.
+ *
+ * <p>
+ * The tokenizer must produce exactly the same fields as the original
+ * regular-expression based implementation of
+ * {@code FileDefinition.extractFields}, which is reproduced here.
+ * </p>
+ */
+public class FieldTokenizerTest {
+
+  /**
+   * The original field extraction algorithm
+   *
+   * @param separator
+   *          The separator
+   * @param dataLine
+   *          The line
+   * @return The fields
+   */
+  private static List<String> regexExtractFields(String separator,
+    String dataLine) {
+    if (separator.equals(" ")) {
+      dataLine = dataLine.trim().replaceAll("  *", " ");
+    }
+
+    return StringUtils.trimListAndQuotes(
+      Arrays.asList(dataLine.split(separator, dataLine.length())));
+  }
+
+  /**
+   * Generate test lines for all separators
+   *
+   * @return The separators and lines
+   */
+  private static Stream<Arguments> makeLines() {
+    String[] separators = { ",", "\t", ";", " " };
+    String[] templates = { "a#b#c", "1.5#-2#3e4", "a##c", "a#b#", "#b#c",
+      "##", "#", "", " ", "a", "  a  #  b  ", "\"a\"#\"b c\"", "a# \"#c",
+      "\\a#\\\\b#\\ \"c", "2020-01-01#12:00:00#Run Type 1#  ", "  a   b  c ",
+      "x\t#y", "é#₂#°C" };
+
+    List<Arguments> arguments = new ArrayList<Arguments>();
+    for (String separator : separators) {
+      for (String template : templates) {
+        arguments.add(
+          Arguments.of(separator, template.replace("#", separator)));
+      }
+    }
+
+    return arguments.stream();
+  }
+
+  @ParameterizedTest
+  @MethodSource("makeLines")
+  public void matchesRegexTest(String separator, String line) {
+    FieldTokenizer tokenizer = new FieldTokenizer(separator);
+    List<String> expected = regexExtractFields(separator, line);
+
+    assertEquals(expected.size(), tokenizer.tokenize(line));
+    assertEquals(expected, tokenizer.getFieldsCopy());
+  }
+
+  @Test
+  public void reuseTest() {
+    FieldTokenizer tokenizer = new FieldTokenizer(",");
+    tokenizer.tokenize("a,b,c,d,e,f");
+    assertEquals(2, tokenizer.tokenize("x,y"));
+    assertEquals("y", tokenizer.getField(1));
+    assertEquals(2, tokenizer.getFields().size());
+  }
+
+  @Test
+  public void manyFieldsTest() {
+    StringBuilder line = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      line.append(i).append(',');
+    }
+
+    FieldTokenizer tokenizer = new FieldTokenizer(",");
+    assertEquals(101, tokenizer.tokenize(line.toString()));
+    assertEquals("99", tokenizer.getField(99));
+    assertTrue(tokenizer.isEmpty(100));
+  }
+
+  @Test
+  public void fieldPositionsTest() {
+    FieldTokenizer tokenizer = new FieldTokenizer(",");
+    tokenizer.tokenize("ab, \"cd\" ,e");
+    assertEquals(5, tokenizer.getFieldStart(1));
+    assertEquals(7, tokenizer.getFieldEnd(1));
+    assertEquals(2, tokenizer.getFieldLength(1));
+  }
+
+  @Test
+  public void fieldEqualsTest() {
+    FieldTokenizer tokenizer = new FieldTokenizer(",");
+    tokenizer.tokenize("-999, NaN ,");
+    assertTrue(tokenizer.fieldEquals(0, "-999"));
+    assertFalse(tokenizer.fieldEquals(0, "-99"));
+    assertTrue(tokenizer.fieldEquals(1, "NaN"));
+    assertTrue(tokenizer.fieldEquals(2, ""));
+    assertFalse(tokenizer.fieldEquals(2, null));
+  }
+
+  @Test
+  public void invalidFieldTest() {
+    FieldTokenizer tokenizer = new FieldTokenizer(",");
+    tokenizer.tokenize("a,b");
+    assertThrows(IndexOutOfBoundsException.class, () -> {
+      tokenizer.getField(2);
+    });
+  }
+
+  @Test
+  public void invalidSeparatorTest() {
+    assertThrows(IllegalArgumentException.class, () -> {
+      new FieldTokenizer(",,");
+    });
+  }
+}
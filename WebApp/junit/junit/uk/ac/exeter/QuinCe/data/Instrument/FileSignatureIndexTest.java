@@ -0,0 +1,166 @@
+package junit.uk.ac.exeter.QuinCe.data.Instrument;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import uk.ac.exeter.QuinCe.data.Instrument.FileDefinition;
+import uk.ac.exeter.QuinCe.data.Instrument.FileSignatureIndex;
+
+/**
+ * Tests for the {@link FileSignatureIndex} class
+ */
+public class FileSignatureIndexTest {
+
+  /**
+   * Create a file definition with the specified layout
+   *
+   * @param description
+   *          The definition description
+   * @param headerEnd
+   *          The header end string, or {@code null} to use a line count
+   * @param headerLines
+   *          The number of header lines, if {@code headerEnd} is {@code null}
+   * @param columnHeaderRows
+   *          The number of column header rows
+   * @param separator
+   *          The column separator
+   * @param columnCount
+   *          The column count
+   * @return The definition
+   * @throws Exception
+   *           If the definition cannot be created
+   */
+  private static FileDefinition makeDefinition(String description,
+    String headerEnd, int headerLines, int columnHeaderRows, String separator,
+    int columnCount) throws Exception {
+
+    FileDefinition definition = new FileDefinition(description, null);
+    if (null == headerEnd) {
+      definition.setLineCountHeaderType(headerLines);
+    } else {
+      definition.setStringHeaderType(headerEnd);
+    }
+    definition.setColumnHeaderRows(columnHeaderRows);
+    definition.setSeparator(separator);
+    definition.setColumnCount(columnCount);
+    return definition;
+  }
+
+  /**
+   * Create a set of definitions with varied layouts, including two with
+   * identical layouts
+   *
+   * @return The definitions
+   * @throws Exception
+   *           If the definitions cannot be created
+   */
+  private static List<FileDefinition> makeDefinitions() throws Exception {
+    List<FileDefinition> definitions = new ArrayList<FileDefinition>();
+    definitions.add(makeDefinition("Comma4", null, 0, 1, ",", 4));
+    definitions.add(makeDefinition("Tab3", null, 2, 1, "\t", 3));
+    definitions.add(makeDefinition("Header", "END", 0, 1, ",", 3));
+    definitions.add(makeDefinition("HeaderCopy", "END", 0, 1, ",", 3));
+    definitions.add(makeDefinition("Semicolon", "## data", 0, 2, ";", 5));
+    definitions.add(makeDefinition("NoColumnHeaders", null, 1, 0, " ", 2));
+    return definitions;
+  }
+
+  /**
+   * Find the first definition that matches a file by checking each definition
+   * in turn
+   *
+   * @param definitions
+   *          The definitions
+   * @param lines
+   *          The file lines
+   * @param maxDataRows
+   *          The maximum number of data rows to check
+   * @return The matching definition
+   */
+  private static FileDefinition matchEach(List<FileDefinition> definitions,
+    List<String> lines, int maxDataRows) {
+
+    FileDefinition result = null;
+    for (FileDefinition definition : definitions) {
+      if (definition.fileMatches(lines, maxDataRows)) {
+        result = definition;
+        break;
+      }
+    }
+    return result;
+  }
+
+  @Test
+  public void signaturesGroupedTest() throws Exception {
+    assertEquals(5, new FileSignatureIndex(makeDefinitions())
+      .getSignatureCount());
+  }
+
+  @Test
+  public void sameAsFileMatchesTest() throws Exception {
+    List<FileDefinition> definitions = makeDefinitions();
+    FileSignatureIndex index = new FileSignatureIndex(definitions);
+
+    List<List<String>> files = new ArrayList<List<String>>();
+    files.add(Arrays.asList("a,b,c,d", "1,2,3,4", "5,6,7,8"));
+    files.add(Arrays.asList("h1", "h2", "a\tb\tc", "1\t2\t3"));
+    files.add(Arrays.asList("meta", "END", "a,b,c", "1,2,3", "4,5,6"));
+    files.add(
+      Arrays.asList("meta", "## data", "a;b;c;d;e", "units", "1;2;3;4;5"));
+    files.add(Arrays.asList("header", "1 2", "3  4", "5 6"));
+    files.add(Arrays.asList("a,b,c,d", "1,2,3", "1,2,3", "1,2,3,4"));
+    files.add(Arrays.asList("nothing", "matches", "here"));
+
+    for (List<String> lines : files) {
+      for (int maxRows : new int[] { 1, 2, Integer.MAX_VALUE }) {
+        assertSame(matchEach(definitions, lines, maxRows),
+          index.match(lines, maxRows), lines.toString() + " / " + maxRows);
+      }
+    }
+  }
+
+  @Test
+  public void firstDefinitionWinsTest() throws Exception {
+    List<FileDefinition> definitions = makeDefinitions();
+    FileSignatureIndex index = new FileSignatureIndex(definitions);
+
+    FileDefinition matched = index.match(
+      Arrays.asList("x", "END", "a,b,c", "1,2,3"), Integer.MAX_VALUE);
+    assertEquals("Header", matched.getFileDescription());
+  }
+
+  @Test
+  public void headerOnlyTest() throws Exception {
+    // FileDefinition#fileMatches fails on this file because the column
+    // headers are missing
+    FileSignatureIndex index = new FileSignatureIndex(makeDefinitions());
+    assertNull(index.match(Arrays.asList("meta", "END"), Integer.MAX_VALUE));
+  }
+
+  @Test
+  public void maxDataRowsTest() throws Exception {
+    List<FileDefinition> definitions = new ArrayList<FileDefinition>();
+    definitions.add(makeDefinition("Comma2", null, 0, 1, ",", 2));
+    FileSignatureIndex index = new FileSignatureIndex(definitions);
+
+    // Good rows first, then bad rows
+    List<String> lines = new ArrayList<String>();
+    lines.add("a,b");
+    for (int i = 0; i < 10; i++) {
+      lines.add("1,2");
+    }
+    for (int i = 0; i < 40; i++) {
+      lines.add("1,2,3");
+    }
+
+    assertSame(definitions.get(0), index.match(lines, 10));
+    assertNull(index.match(lines, Integer.MAX_VALUE));
+  }
+}
@@ -3,6 +3,7 @@ package junit.uk.ac.exeter.QuinCe.data.Instrument.SensorDefinition;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -11,6 +12,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -910,4 +912,70 @@ public class SensorAssignmentsTest extends BaseTest {
     assertFalse(
       assignments.isAssignmentRequired(SensorType.RUN_TYPE_SENSOR_TYPE));
   }
+
+  /**
+   * Test that column IDs can be looked up after assignments are added and
+   * removed.
+   *
+   * @throws Exception
+   *           If any internal errors are encountered.
+   */
+  @Test
+  public void columnLookupTest() throws Exception {
+    SensorType intakeTemp = getSensorType("Intake Temperature");
+    SensorType absolute = getSensorType("Equilibrator Pressure (absolute)");
+    SensorType differential = getSensorType(
+      "Equilibrator Pressure (differential)");
+
+    SensorAssignment intakeAssignment = new SensorAssignment(10L,
+      DATA_FILE_NAME, 1, intakeTemp, "Intake", true, false, "NaN");
+    assignments.addAssignment(intakeAssignment);
+    assignments.addAssignment(new SensorAssignment(11L, DATA_FILE_NAME, 2,
+      absolute, "Absolute", true, false, "NaN"));
+    assignments.addAssignment(new SensorAssignment(12L, DATA_FILE_NAME, 3,
+      differential, "Differential", false, false, "NaN"));
+
+    assertEquals(intakeTemp, assignments.getSensorTypeForDBColumn(10L));
+    assertEquals(differential, assignments.getSensorTypeForDBColumn(12L));
+    assertEquals(intakeAssignment, assignments.getAssignmentForDBColumn(10L));
+    assertNull(assignments.getSensorTypeForDBColumn(99L));
+    assertEquals(Arrays.asList(10L), assignments.getColumnIds(intakeTemp));
+    assertTrue(assignments.isAssigned(intakeTemp));
+
+    // A parent's column IDs include those of all its children
+    List<Long> parentColumns = new ArrayList<Long>(
+      assignments.getColumnIds(getSensorType("Equilibrator Pressure")));
+    parentColumns.sort(null);
+    assertEquals(Arrays.asList(11L, 12L), parentColumns);
+
+    assignments.removeAssignment(intakeTemp, DATA_FILE_NAME, 1);
+    assertNull(assignments.getSensorTypeForDBColumn(10L));
+    assertNull(assignments.getAssignmentForDBColumn(10L));
+    assertTrue(assignments.getColumnIds(intakeTemp).isEmpty());
+    assertFalse(assignments.isAssigned(intakeTemp));
+
+    assignments.removeFileAssignments(DATA_FILE_NAME);
+    assertNull(assignments.getSensorTypeForDBColumn(11L));
+  }
+
+  /**
+   * Test that database IDs set after an assignment is added are picked up
+   * when the lookups are rebuilt.
+   *
+   * @throws Exception
+   *           If any internal errors are encountered.
+   */
+  @Test
+  public void rebuildLookupsTest() throws Exception {
+    SensorAssignment assignment = makeAssignment(DATA_FILE_NAME, 1, true);
+    assignments.addAssignment(assignment);
+    assertTrue(assignments.isAssigned(getTestSensorType()));
+
+    assignment.setDatabaseId(20L);
+    assertNull(assignments.getSensorTypeForDBColumn(20L));
+
+    assignments.rebuildLookups();
+    assertEquals(getTestSensorType(),
+      assignments.getSensorTypeForDBColumn(20L));
+  }
 }
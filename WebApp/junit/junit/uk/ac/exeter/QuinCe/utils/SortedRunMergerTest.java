@@ -0,0 +1,121 @@
+package junit.uk.ac.exeter.QuinCe.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+
+import uk.ac.exeter.QuinCe.utils.SortedRunMerger;
+
+/**
+ * Tests for the {@link SortedRunMerger} class
+ */
+public class SortedRunMergerTest {
+
+  /**
+   * Consume a merger into a list
+   *
+   * @param merger
+   *          The merger
+   * @return The merged elements
+   */
+  private static <T extends Comparable<T>> List<T> toList(
+    SortedRunMerger<T> merger) {
+    List<T> result = new ArrayList<T>();
+    while (merger.hasNext()) {
+      result.add(merger.next());
+    }
+    return result;
+  }
+
+  /**
+   * Test merging with no runs
+   */
+  @Test
+  public void noRunsTest() {
+    SortedRunMerger<Integer> merger = new SortedRunMerger<Integer>(
+      new ArrayList<List<Integer>>());
+    assertFalse(merger.hasNext());
+    assertThrows(NoSuchElementException.class, () -> merger.next());
+  }
+
+  /**
+   * Test merging empty runs
+   */
+  @Test
+  public void emptyRunsTest() {
+    List<List<Integer>> runs = new ArrayList<List<Integer>>();
+    runs.add(new ArrayList<Integer>());
+    runs.add(new ArrayList<Integer>());
+    assertFalse(new SortedRunMerger<Integer>(runs).hasNext());
+  }
+
+  /**
+   * Test interleaved runs
+   */
+  @Test
+  public void interleavedTest() {
+    List<List<Integer>> runs = new ArrayList<List<Integer>>();
+    runs.add(Arrays.asList(1, 4, 7));
+    runs.add(Arrays.asList(2, 5, 8, 9));
+    runs.add(new ArrayList<Integer>());
+    runs.add(Arrays.asList(3, 6));
+
+    assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9),
+      toList(new SortedRunMerger<Integer>(runs)));
+  }
+
+  /**
+   * Test that duplicates are removed, keeping the element from the earliest
+   * run
+   */
+  @Test
+  public void duplicatesTest() {
+    String first = new String("b");
+    String second = new String("b");
+    String third = new String("b");
+
+    List<List<String>> runs = new ArrayList<List<String>>();
+    runs.add(Arrays.asList("a", first, second));
+    runs.add(Arrays.asList(third, "c"));
+
+    List<String> merged = toList(new SortedRunMerger<String>(runs));
+    assertEquals(Arrays.asList("a", "b", "c"), merged);
+    assertSame(first, merged.get(1));
+  }
+
+  /**
+   * Test that merging random runs gives the same result as a {@link TreeSet}
+   */
+  @Test
+  public void matchesTreeSetTest() {
+    Random random = new Random(42);
+    List<List<Integer>> runs = new ArrayList<List<Integer>>();
+    TreeSet<Integer> expected = new TreeSet<Integer>();
+
+    for (int r = 0; r < 6; r++) {
+      List<Integer> run = new ArrayList<Integer>();
+      int size = random.nextInt(500);
+      for (int i = 0; i < size; i++) {
+        int value = random.nextInt(1000);
+        run.add(value);
+        expected.add(value);
+      }
+      Collections.sort(run);
+      runs.add(run);
+    }
+
+    assertEquals(new ArrayList<Integer>(expected),
+      toList(new SortedRunMerger<Integer>(runs)));
+  }
+}
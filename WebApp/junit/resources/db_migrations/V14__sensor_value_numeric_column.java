@@ -0,0 +1,107 @@
+package resources.db_migrations;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import org.flywaydb.core.api.migration.BaseJavaMigration;
+import org.flywaydb.core.api.migration.Context;
+
+import uk.ac.exeter.QuinCe.utils.StringUtils;
+
+/**
+ * Migration to add a numeric column to the {@code sensor_values} table, so
+ * values don't have to be parsed from their string form every time they are
+ * used.
+ *
+ * <p>
+ * Existing values are parsed in the same way as
+ * {@link StringUtils#doubleFromString(String)}. Values that are {@code null},
+ * empty or not numeric (e.g. run types) are left as {@code NULL}.
+ * </p>
+ */
+public class V14__sensor_value_numeric_column extends BaseJavaMigration {
+
+  /**
+   * The number of records processed in each transaction
+   */
+  private static final int BATCH_SIZE = 10000;
+
+  @Override
+  public void migrate(Context context) throws Exception {
+
+    Connection conn = context.getConnection();
+
+    try (PreparedStatement addColumnStmt = conn
+      .prepareStatement("ALTER TABLE sensor_values ADD COLUMN numeric_value "
+        + "DOUBLE NULL AFTER value")) {
+      addColumnStmt.execute();
+    }
+
+    conn.setAutoCommit(false);
+
+    try (
+      PreparedStatement valuesQuery = conn
+        .prepareStatement("SELECT id, value FROM sensor_values "
+          + "WHERE id > ? AND value IS NOT NULL ORDER BY id LIMIT "
+          + BATCH_SIZE);
+
+      PreparedStatement updateStmt = conn.prepareStatement(
+        "UPDATE sensor_values SET numeric_value = ? WHERE id = ?")) {
+
+      long lastId = -1;
+      boolean finished = false;
+      int recordCount = 0;
+
+      while (!finished) {
+        valuesQuery.setLong(1, lastId);
+        int batchCount = 0;
+
+        try (ResultSet records = valuesQuery.executeQuery()) {
+          while (records.next()) {
+            lastId = records.getLong(1);
+            batchCount++;
+
+            Double numericValue = parse(records.getString(2));
+            if (null != numericValue) {
+              updateStmt.setDouble(1, numericValue);
+              updateStmt.setLong(2, lastId);
+              updateStmt.addBatch();
+            }
+          }
+        }
+
+        updateStmt.executeBatch();
+        conn.commit();
+
+        recordCount += batchCount;
+        finished = batchCount < BATCH_SIZE;
+        if (batchCount > 0) {
+          System.out.println("Processed " + recordCount + " sensor values");
+        }
+      }
+    }
+  }
+
+  /**
+   * Parse a value to a number
+   *
+   * @param value
+   *          The value
+   * @return The number, or {@code null} if the value is empty or not numeric
+   */
+  private Double parse(String value) {
+    Double result = null;
+
+    try {
+      result = StringUtils.doubleFromString(value);
+      if (result.isNaN()) {
+        result = null;
+      }
+    } catch (NumberFormatException e) {
+      result = null;
+    }
+
+    return result;
+  }
+}
@@ -0,0 +1,9 @@
+-- Index for loading the sensor values of selected columns, optionally within
+-- a time range. Loading a time range across all columns uses the existing
+-- DATASETID_DATE index.
+CREATE INDEX DATASETID_COLUMN_DATE ON sensor_values (dataset_id, file_column, date);
+
+
+-- ROLLBACK
+
+-- DROP INDEX DATASETID_COLUMN_DATE ON sensor_values;
@@ -0,0 +1,28 @@
+-- NRT instrument with two simple file definitions
+
+-- The owner needs a name so NRT dataset jobs can be created
+UPDATE user SET firstname = 'Test', surname = 'User' WHERE id = 1;
+
+-- H2 cannot insert jobs using the default value of the status enum
+ALTER TABLE job ALTER COLUMN status VARCHAR(10) NOT NULL DEFAULT 'WAITING';
+
+-- Instrument
+INSERT INTO instrument VALUES (1,1,'NRT Instrument','NRTI',1,'','2021-01-01 00:00:00','2021-01-01 00:00:00');
+
+-- Main file definition: Time, Longitude, Latitude, SST
+INSERT INTO file_definition VALUES
+  (1,1,'Main',',',0,0,NULL,1,4,1,1,-1,0,2,-1,0,
+   'formatString=yyyy-MM-dd HH:mm:ss',
+   -1,NULL,-1,NULL,-1,-1,-1,-1,-1,-1,NULL,-1,-1,-1,-1,
+   '2021-01-01 00:00:00','2021-01-01 00:00:00');
+
+INSERT INTO file_column VALUES (1,1,3,1,1,'SST',0,'','2021-01-01 00:00:00','2021-01-01 00:00:00');
+
+-- Extra file definition: Time, Longitude, Latitude, SST, Salinity
+INSERT INTO file_definition VALUES
+  (2,1,'Extra',',',0,0,NULL,1,5,1,1,-1,0,2,-1,0,
+   'formatString=yyyy-MM-dd HH:mm:ss',
+   -1,NULL,-1,NULL,-1,-1,-1,-1,-1,-1,NULL,-1,-1,-1,-1,
+   '2021-01-01 00:00:00','2021-01-01 00:00:00');
+
+INSERT INTO file_column VALUES (2,2,4,1,2,'Salinity',0,'','2021-01-01 00:00:00','2021-01-01 00:00:00');
@@ -0,0 +1,3 @@
+-- Empty dataset for the Benguela Stream instrument
+INSERT INTO dataset (id, instrument_id, name, start, end, status, nrt, status_date)
+  VALUES (1, 1, 'Test Dataset', 0, 0, 0, 0, 0);
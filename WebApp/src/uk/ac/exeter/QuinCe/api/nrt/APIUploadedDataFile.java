@@ -1,11 +1,17 @@
 package uk.ac.exeter.QuinCe.api.nrt;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
 
 import org.apache.commons.io.IOUtils;
 
+import uk.ac.exeter.QuinCe.data.Files.FileStore;
+import uk.ac.exeter.QuinCe.data.Files.FileStoreException;
+import uk.ac.exeter.QuinCe.data.Files.SpooledFileLines;
 import uk.ac.exeter.QuinCe.web.files.UploadedDataFile;
 
 /**
@@ -14,7 +20,8 @@ import uk.ac.exeter.QuinCe.web.files.UploadedDataFile;
  * @author Steve Jones
  *
  */
-public class APIUploadedDataFile extends UploadedDataFile {
+public class APIUploadedDataFile extends UploadedDataFile
+  implements Closeable {
 
   /**
    * The filename
@@ -24,7 +31,12 @@ public class APIUploadedDataFile extends UploadedDataFile {
   /**
    * The file contents
    */
-  private String contents;
+  private String contents = null;
+
+  /**
+   * The file contents spooled to disk, for files uploaded as a stream
+   */
+  private SpooledFileLines spooledLines = null;
 
   /**
    * Basic constructor for pre-prepared strings
@@ -44,19 +56,29 @@ public class APIUploadedDataFile extends UploadedDataFile {
    * Constructor to build a file from an {#InputStream}. Assumes data is in
    * UTF-8.
    *
+   * The stream is spooled to disk in the file store's spool directory rather
+   * than being read into memory, so large files can be uploaded safely. The
+   * spool file is deleted when {@link #close()} is called.
+   *
    * Note that the InputStream is not closed by this constructor.
    *
    * @param filename
    *          The filename
    * @param inputStream
    *          The input stream
+   * @param fileStore
+   *          The location of the file store
+   * @throws IOException
+   *           If the stream cannot be read
+   * @throws FileStoreException
+   *           If the spool directory cannot be created
    */
-  protected APIUploadedDataFile(String filename, InputStream inputStream)
-    throws IOException {
+  protected APIUploadedDataFile(String filename, InputStream inputStream,
+    String fileStore) throws IOException, FileStoreException {
     super();
     this.filename = filename;
-    this.contents = IOUtils.toString(inputStream,
-      StandardCharsets.UTF_8.displayName());
+    this.spooledLines = SpooledFileLines.spool(fileStore, inputStream,
+      StandardCharsets.UTF_8);
   }
 
   @Override
@@ -64,8 +86,54 @@ public class APIUploadedDataFile extends UploadedDataFile {
     return filename;
   }
 
+  /**
+   * Get the contents of the file. For spooled files the complete file is read
+   * into memory, so {@link #getLineList()} should be used instead wherever
+   * possible.
+   */
   @Override
   protected String getFileContents() {
-    return contents;
+    String result = contents;
+
+    if (null == result && null != spooledLines) {
+      try (InputStream in = spooledLines.openStream()) {
+        result = IOUtils.toString(in, FileStore.CHARSET.name());
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    return result;
+  }
+
+  @Override
+  protected List<String> getLineList() {
+    List<String> result;
+
+    if (null == spooledLines) {
+      result = super.getLineList();
+    } else {
+      result = spooledLines.isEmpty() ? null : spooledLines;
+    }
+
+    return result;
+  }
+
+  @Override
+  protected String getContentHash(List<String> lines) {
+    // The hash of a spooled file is calculated while it is spooled
+    return null == spooledLines ? super.getContentHash(lines)
+      : spooledLines.getContentHash();
+  }
+
+  /**
+   * Delete the spool file, if there is one. The file's contents cannot be
+   * used after this has been called.
+   */
+  @Override
+  public void close() {
+    if (null != spooledLines) {
+      spooledLines.close();
+    }
   }
 }
@@ -0,0 +1,46 @@
+package uk.ac.exeter.QuinCe.api.nrt;
+
+import javax.ws.rs.FormParam;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import uk.ac.exeter.QuinCe.data.Files.DataFileIndex;
+
+/**
+ * API call to discard the cached {@link DataFileIndex} for an instrument, or
+ * for all instruments. This must be called after data files have been added,
+ * removed or changed directly in the database so that the application does
+ * not keep using out of date file details.
+ *
+ * <p>
+ * <b>Parameters:</b>
+ * </p>
+ * <ul>
+ * <li>{@code instrument}: The instrument's database ID. If this is omitted
+ * the indexes for all instruments are discarded.</li>
+ * </ul>
+ */
+@Path("/nrt/ResetFileIndex")
+public class ResetFileIndex {
+
+  /**
+   * The main action method of the API call.
+   *
+   * @param instrumentId
+   *          The ID of the instrument whose index is to be discarded, or zero
+   *          for all instruments
+   * @return The HTTP response indicating that the call succeeded
+   */
+  @POST
+  public Response resetFileIndex(@FormParam("instrument") long instrumentId) {
+    if (instrumentId > 0) {
+      DataFileIndex.invalidate(instrumentId);
+    } else {
+      DataFileIndex.clearCache();
+    }
+
+    return Response.status(Status.OK).build();
+  }
+}
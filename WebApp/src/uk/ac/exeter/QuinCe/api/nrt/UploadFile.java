@@ -18,7 +18,6 @@ import org.glassfish.jersey.media.multipart.FormDataParam;
 import uk.ac.exeter.QuinCe.data.Files.DataFileDB;
 import uk.ac.exeter.QuinCe.data.Instrument.Instrument;
 import uk.ac.exeter.QuinCe.data.Instrument.InstrumentDB;
-import uk.ac.exeter.QuinCe.web.files.UploadedDataFile;
 import uk.ac.exeter.QuinCe.web.system.ResourceManager;
 
 /**
@@ -57,19 +56,24 @@ public class UploadFile {
         result = Status.FORBIDDEN.getStatusCode();
         resultBody = "Not an NRT instrument";
       } else {
-        UploadedDataFile upload = new APIUploadedDataFile(
-          fileDetail.getFileName(), is);
+        // The upload is spooled to disk and streamed through extraction and
+        // storage, so it is never held in memory
+        try (APIUploadedDataFile upload = new APIUploadedDataFile(
+          fileDetail.getFileName(), is,
+          resourceManager.getConfig().getProperty("filestore"))) {
 
-        // Extract and check the file
-        upload.extractFile(instrument, resourceManager.getConfig(), true, true);
+          // Extract and check the file
+          upload.extractFile(instrument, resourceManager.getConfig(), true,
+            true);
 
-        // See if extraction was successful
-        if (!upload.isStore()) {
-          result = upload.getStatusCode();
-          resultBody = upload.getMessages();
-        } else {
-          DataFileDB.storeFile(dataSource, resourceManager.getConfig(),
-            upload.getDataFile(), upload.getReplacementFile());
+          // See if extraction was successful
+          if (!upload.isStore()) {
+            result = upload.getStatusCode();
+            resultBody = upload.getMessages();
+          } else {
+            DataFileDB.storeFile(dataSource, resourceManager.getConfig(),
+              upload.getDataFile(), upload.getReplacementFile());
+          }
         }
       }
     } catch (Exception e) {
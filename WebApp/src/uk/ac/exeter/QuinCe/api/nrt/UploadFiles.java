@@ -0,0 +1,388 @@
+package uk.ac.exeter.QuinCe.api.nrt;
+
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.faces.application.FacesMessage;
+import javax.sql.DataSource;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.Response.Status;
+
+import org.glassfish.jersey.media.multipart.FormDataBodyPart;
+import org.glassfish.jersey.media.multipart.FormDataParam;
+import org.primefaces.json.JSONArray;
+import org.primefaces.json.JSONObject;
+
+import uk.ac.exeter.QuinCe.data.Files.DataFileDB;
+import uk.ac.exeter.QuinCe.data.Files.DataFileIndex;
+import uk.ac.exeter.QuinCe.data.Instrument.Instrument;
+import uk.ac.exeter.QuinCe.data.Instrument.InstrumentDB;
+import uk.ac.exeter.QuinCe.utils.DatabaseUtils;
+import uk.ac.exeter.QuinCe.web.system.ResourceManager;
+
+/**
+ * API call for uploading a batch of files for an instrument in one request.
+ *
+ * <p>
+ * This is intended for catching up after an outage, when an NRT collector may
+ * have hundreds of files to upload. The instrument is loaded once for the
+ * whole batch. Files that are exact copies of files already stored are
+ * recognised by their content hashes and are not parsed; the remaining files
+ * are validated in parallel. The checks against
+ * existing files and the storage of the accepted files are then performed in
+ * order of the files' start dates in a single database transaction, so files
+ * in the batch are checked against each other as well as against the files
+ * already stored. If anything goes wrong while storing, the database changes
+ * for the whole batch are rolled back, any files replaced by the batch are
+ * restored in the file store, and no files are reported as stored.
+ * </p>
+ *
+ * <p>
+ * If any files are stored, an NRT dataset is requested once at the end of
+ * the batch (see {@link MakeNrtDataset#createNrtDataset(Connection,
+ * Instrument)}).
+ * </p>
+ *
+ * <p>
+ * The response is a JSON array containing the result for each file, with its
+ * {@code filename}, HTTP {@code status} code and any {@code messages}.
+ * </p>
+ *
+ * @see UploadFile
+ */
+@Path("/nrt/UploadFiles")
+public class UploadFiles {
+
+  /**
+   * The maximum number of files validated at the same time
+   */
+  private static final int MAX_VALIDATION_THREADS = 4;
+
+  /**
+   * The executor used to validate files, shared by all requests so the number
+   * of validation threads is bounded however many uploads arrive at once
+   */
+  private static ExecutorService executor = null;
+
+  /**
+   * Main API method
+   *
+   * @param instrumentId
+   *          The instrument ID ({@code instrument} parameter)
+   * @param files
+   *          The files ({@code file} parameters)
+   * @return The upload response
+   */
+  @POST
+  @Consumes(MediaType.MULTIPART_FORM_DATA)
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response uploadFiles(@FormDataParam("instrument") long instrumentId,
+    @FormDataParam("file") List<FormDataBodyPart> files) {
+
+    int result = Status.OK.getStatusCode();
+    String resultBody = null;
+
+    List<APIUploadedDataFile> uploads = new ArrayList<APIUploadedDataFile>();
+
+    try {
+      ResourceManager resourceManager = ResourceManager.getInstance();
+      DataSource dataSource = resourceManager.getDBDataSource();
+      Properties appConfig = resourceManager.getConfig();
+      Instrument instrument = InstrumentDB.getInstrument(dataSource,
+        instrumentId, resourceManager.getSensorsConfiguration(),
+        resourceManager.getRunTypeCategoryConfiguration());
+
+      // We don't allow uploads for non-NRT instruments
+      if (!instrument.getNrt()) {
+        result = Status.FORBIDDEN.getStatusCode();
+        resultBody = "Not an NRT instrument";
+      } else if (null == files || files.isEmpty()) {
+        result = Status.BAD_REQUEST.getStatusCode();
+        resultBody = "No files supplied";
+      } else {
+
+        // Spool all the files to disk first, since the request body can only
+        // be read in order
+        for (FormDataBodyPart part : files) {
+          try (InputStream in = part.getValueAs(InputStream.class)) {
+            uploads.add(new APIUploadedDataFile(
+              part.getContentDisposition().getFileName(), in,
+              appConfig.getProperty("filestore")));
+          }
+        }
+
+        List<APIUploadedDataFile> validFiles = validateFiles(
+          removeDuplicates(dataSource, instrument, uploads), instrument,
+          appConfig);
+
+        if (storeFiles(dataSource, appConfig, instrument, validFiles)) {
+          Connection conn = null;
+          try {
+            conn = dataSource.getConnection();
+            MakeNrtDataset.createNrtDataset(conn, instrument);
+          } finally {
+            DatabaseUtils.closeConnection(conn);
+          }
+        }
+
+        resultBody = makeResultJson(uploads);
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+      result = Status.INTERNAL_SERVER_ERROR.getStatusCode();
+      resultBody = e.getMessage();
+    } finally {
+      for (APIUploadedDataFile upload : uploads) {
+        upload.close();
+      }
+    }
+
+    ResponseBuilder responseBuilder = Response.status(result);
+    if (null != resultBody) {
+      responseBuilder = responseBuilder.entity(resultBody);
+    }
+
+    return responseBuilder.build();
+  }
+
+  /**
+   * Identify uploaded files that are exact copies of files already stored for
+   * the instrument, so they don't need to be parsed. Files that duplicate
+   * other files in the same batch are found later, when the files are checked
+   * against each other in
+   * {@link APIUploadedDataFile#checkExistingFiles(Connection, Instrument,
+   * boolean)}.
+   *
+   * @param dataSource
+   *          A data source
+   * @param instrument
+   *          The instrument
+   * @param uploads
+   *          The uploaded files
+   * @return The files that are not duplicates
+   * @throws SQLException
+   *           If a database connection cannot be obtained
+   */
+  private List<APIUploadedDataFile> removeDuplicates(DataSource dataSource,
+    Instrument instrument, List<APIUploadedDataFile> uploads)
+    throws SQLException {
+
+    List<APIUploadedDataFile> result = new ArrayList<APIUploadedDataFile>(
+      uploads.size());
+
+    Connection conn = null;
+    try {
+      conn = dataSource.getConnection();
+      for (APIUploadedDataFile upload : uploads) {
+        if (upload.checkDuplicate(conn, instrument, true)) {
+          upload.setProcessed(true);
+        } else {
+          result.add(upload);
+        }
+      }
+    } finally {
+      DatabaseUtils.closeConnection(conn);
+    }
+
+    return result;
+  }
+
+  /**
+   * Validate the uploaded files in parallel
+   *
+   * @param uploads
+   *          The uploaded files
+   * @param instrument
+   *          The instrument
+   * @param appConfig
+   *          The application configuration
+   * @return The files that passed validation, in order of their start dates
+   * @throws Exception
+   *           If the validation tasks cannot be run
+   */
+  private List<APIUploadedDataFile> validateFiles(
+    List<APIUploadedDataFile> uploads, Instrument instrument,
+    Properties appConfig) throws Exception {
+
+    List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>(
+      uploads.size());
+    for (APIUploadedDataFile upload : uploads) {
+      tasks.add(() -> upload.validateFile(instrument, appConfig, true));
+    }
+
+    int threads = Math.min(uploads.size(), Math.min(MAX_VALIDATION_THREADS,
+      Runtime.getRuntime().availableProcessors()));
+
+    List<Boolean> valid = new ArrayList<Boolean>(uploads.size());
+
+    if (threads <= 1) {
+      for (Callable<Boolean> task : tasks) {
+        valid.add(task.call());
+      }
+    } else {
+      for (Future<Boolean> future : getExecutor().invokeAll(tasks)) {
+        valid.add(future.get());
+      }
+    }
+
+    List<APIUploadedDataFile> result = new ArrayList<APIUploadedDataFile>();
+    for (int i = 0; i < uploads.size(); i++) {
+      if (valid.get(i)) {
+        result.add(uploads.get(i));
+      }
+    }
+
+    // Check and store files in time order, so extended versions of a file
+    // replace the earlier versions
+    result.sort(Comparator
+      .comparing((APIUploadedDataFile u) -> u.getDataFile().getStartDate())
+      .thenComparing(u -> u.getDataFile().getEndDate())
+      .thenComparing(APIUploadedDataFile::getName));
+
+    return result;
+  }
+
+  /**
+   * Get the shared validation executor, creating it if necessary. The
+   * executor's threads are daemon threads so they do not prevent the
+   * application from shutting down.
+   *
+   * @return The executor
+   */
+  private static synchronized ExecutorService getExecutor() {
+    if (null == executor) {
+      executor = Executors.newFixedThreadPool(MAX_VALIDATION_THREADS, r -> {
+        Thread thread = new Thread(r, "UploadFiles");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+
+    return executor;
+  }
+
+  /**
+   * Check the validated files against the existing files and store the ones
+   * that are accepted, all in a single transaction. If an error occurs the
+   * transaction is rolled back and none of the files are stored.
+   *
+   * @param dataSource
+   *          A data source
+   * @param appConfig
+   *          The application configuration
+   * @param instrument
+   *          The instrument
+   * @param validFiles
+   *          The validated files
+   * @return {@code true} if any files were stored; {@code false} otherwise
+   */
+  private boolean storeFiles(DataSource dataSource, Properties appConfig,
+    Instrument instrument, List<APIUploadedDataFile> validFiles) {
+
+    List<APIUploadedDataFile> storedFiles = new ArrayList<APIUploadedDataFile>();
+    Connection conn = null;
+
+    try {
+      conn = dataSource.getConnection();
+      conn.setAutoCommit(false);
+
+      for (APIUploadedDataFile upload : validFiles) {
+        upload.checkExistingFiles(conn, instrument, true);
+        if (upload.isStore()) {
+          DataFileDB.storeFile(conn, appConfig, upload.getDataFile(),
+            upload.getReplacementFile());
+          storedFiles.add(upload);
+        }
+        upload.setProcessed(true);
+      }
+
+      conn.commit();
+
+      // The file index could not be updated while the transaction was open
+      if (storedFiles.size() > 0) {
+        DataFileIndex.invalidate(instrument.getDatabaseId());
+      }
+
+      for (APIUploadedDataFile upload : storedFiles) {
+        try {
+          DataFileDB.commitStoredFile(appConfig, upload.getDataFile(),
+            upload.getReplacementFile());
+        } catch (Exception e) {
+          // The files are stored, so a leftover backup is not an error
+          e.printStackTrace();
+        }
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+      DatabaseUtils.rollBack(conn);
+
+      // Remove new files and restore replaced files
+      for (APIUploadedDataFile upload : storedFiles) {
+        try {
+          DataFileDB.discardStoredFile(appConfig, upload.getDataFile(),
+            upload.getReplacementFile());
+        } catch (Exception e2) {
+          e2.printStackTrace();
+        }
+      }
+
+      for (APIUploadedDataFile upload : validFiles) {
+        if (upload.isStore()) {
+          upload.putMessage(Status.INTERNAL_SERVER_ERROR.getStatusCode(),
+            "The files could not be stored: " + e.getMessage(),
+            FacesMessage.SEVERITY_ERROR);
+        }
+        upload.setProcessed(true);
+      }
+
+      storedFiles.clear();
+    } finally {
+      if (null != conn) {
+        try {
+          conn.setAutoCommit(true);
+        } catch (Exception e) {
+          // Do nothing
+        }
+      }
+      DatabaseUtils.closeConnection(conn);
+    }
+
+    return storedFiles.size() > 0;
+  }
+
+  /**
+   * Build the JSON response containing the result for each file
+   *
+   * @param uploads
+   *          The uploaded files
+   * @return The JSON string
+   */
+  private String makeResultJson(List<APIUploadedDataFile> uploads) {
+    JSONArray json = new JSONArray();
+
+    for (APIUploadedDataFile upload : uploads) {
+      JSONObject fileJson = new JSONObject();
+      fileJson.put("filename", upload.getName());
+      fileJson.put("status", upload.getStatusCode());
+      fileJson.put("messages", new JSONArray(upload.getMessages()));
+      json.put(fileJson);
+    }
+
+    return json.toString();
+  }
+}
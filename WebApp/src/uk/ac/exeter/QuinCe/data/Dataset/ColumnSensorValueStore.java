@@ -0,0 +1,710 @@
+package uk.ac.exeter.QuinCe.data.Dataset;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import uk.ac.exeter.QuinCe.data.Dataset.QC.Flag;
+import uk.ac.exeter.QuinCe.data.Dataset.QC.InvalidFlagException;
+import uk.ac.exeter.QuinCe.data.Dataset.QC.Routines.AutoQCResult;
+import uk.ac.exeter.QuinCe.utils.DatabaseException;
+import uk.ac.exeter.QuinCe.utils.DatabaseUtils;
+import uk.ac.exeter.QuinCe.utils.MissingParamException;
+
+/**
+ * {@link SensorValueStore} that keeps the values of each file column in a
+ * dataset as compressed chunks in the {@code sensor_value_chunks} table (see
+ * {@link SensorValueChunk}).
+ *
+ * <p>
+ * Storing and loading a dataset reads and writes a few large records instead
+ * of one record per value. QC changes to a small number of values in a chunk
+ * are written to the {@code sensor_value_edits} table and applied when the
+ * chunk is loaded. When a larger proportion of a chunk is changed, the chunk
+ * is rewritten with the changes included and its edits are removed. Chunks
+ * are rewritten in place, so value IDs do not change. The chunk's record is
+ * locked while it is being updated, so concurrent updates to the same chunk
+ * are applied one after the other.
+ * </p>
+ *
+ * <p>
+ * This store does not read the {@code sensor_values} table used by the
+ * {@link RowSensorValueStore}, and there is no tool to convert existing
+ * values: they would be given new IDs, and the {@code measurement_values}
+ * records of existing datasets refer to the old ones. It can only be used for
+ * new installations; the application will not start with this store if
+ * {@code sensor_values} contains any records.
+ * </p>
+ */
+public class ColumnSensorValueStore implements SensorValueStore {
+
+  /**
+   * The number of values written to each new chunk
+   */
+  private static final int CHUNK_SIZE = 50000;
+
+  /**
+   * If more than 1/{@code COMPACT_RATIO} of the values in a chunk are updated
+   * at once, the chunk is rewritten instead of storing edits.
+   */
+  private static final int COMPACT_RATIO = 10;
+
+  private static final String STORE_CHUNK_STATEMENT = "INSERT INTO "
+    + "sensor_value_chunks (dataset_id, file_column, start_date, end_date, "
+    + "value_count, data) VALUES (?, ?, ?, ?, ?, ?)";
+
+  private static final String UPDATE_CHUNK_STATEMENT = "UPDATE "
+    + "sensor_value_chunks SET data = ? WHERE id = ?";
+
+  private static final String GET_CHUNK_FOR_UPDATE_QUERY = "SELECT "
+    + "dataset_id, file_column, value_count, data "
+    + "FROM sensor_value_chunks WHERE id = ? FOR UPDATE";
+
+  private static final String GET_CHUNKS_QUERY = "SELECT "
+    + "id, file_column, data FROM sensor_value_chunks WHERE dataset_id = ?";
+
+  private static final String GET_COLUMN_CHUNKS_QUERY = "SELECT "
+    + "id, file_column, data FROM sensor_value_chunks WHERE dataset_id = ? "
+    + "AND file_column IN " + DatabaseUtils.IN_PARAMS_TOKEN;
+
+  private static final String DELETE_CHUNKS_STATEMENT = "DELETE FROM "
+    + "sensor_value_chunks WHERE dataset_id = ?";
+
+  private static final String STORE_EDIT_STATEMENT = "INSERT INTO "
+    + "sensor_value_edits (dataset_id, value_id, auto_qc_data, user_qc_flag, "
+    + "user_qc_message) VALUES (?, ?, ?, ?, ?)";
+
+  private static final String DELETE_EDIT_STATEMENT = "DELETE FROM "
+    + "sensor_value_edits WHERE dataset_id = ? AND value_id = ?";
+
+  private static final String GET_EDITS_QUERY = "SELECT "
+    + "value_id, auto_qc_data, user_qc_flag, user_qc_message "
+    + "FROM sensor_value_edits WHERE dataset_id = ?";
+
+  private static final String GET_CHUNK_EDITS_QUERY = GET_EDITS_QUERY
+    + " AND value_id >= ? AND value_id < ?";
+
+  private static final String DELETE_EDITS_STATEMENT = "DELETE FROM "
+    + "sensor_value_edits WHERE dataset_id = ?";
+
+  private static final String GET_MEASUREMENT_TIMES_QUERY = "SELECT "
+    + "DISTINCT date FROM measurements WHERE dataset_id = ? AND run_type IN "
+    + DatabaseUtils.IN_PARAMS_TOKEN + " ORDER BY date";
+
+  private static final String ROW_VALUES_EXIST_QUERY = "SELECT "
+    + "id FROM sensor_values LIMIT 1";
+
+  @Override
+  public void storeSensorValues(Connection conn,
+    Collection<SensorValue> sensorValues) throws DatabaseException {
+
+    // New values grouped by dataset and column
+    Map<Long, Map<Long, List<SensorValue>>> newValues = new HashMap<Long, Map<Long, List<SensorValue>>>();
+
+    // Updated values grouped by chunk
+    Map<Long, List<SensorValue>> updatedValues = new HashMap<Long, List<SensorValue>>();
+
+    for (SensorValue value : sensorValues) {
+      if (value.isDirty()) {
+        if (!value.isInDatabase()) {
+          if (!newValues.containsKey(value.getDatasetId())) {
+            newValues.put(value.getDatasetId(),
+              new HashMap<Long, List<SensorValue>>());
+          }
+
+          Map<Long, List<SensorValue>> datasetValues = newValues
+            .get(value.getDatasetId());
+          if (!datasetValues.containsKey(value.getColumnId())) {
+            datasetValues.put(value.getColumnId(),
+              new ArrayList<SensorValue>());
+          }
+
+          datasetValues.get(value.getColumnId()).add(value);
+        } else {
+          long chunkId = SensorValueChunk.getChunkId(value.getId());
+          if (!updatedValues.containsKey(chunkId)) {
+            updatedValues.put(chunkId, new ArrayList<SensorValue>());
+          }
+
+          updatedValues.get(chunkId).add(value);
+        }
+      }
+    }
+
+    try {
+      for (Map<Long, List<SensorValue>> datasetValues : newValues.values()) {
+        for (List<SensorValue> columnValues : datasetValues.values()) {
+          storeNewChunks(conn, columnValues);
+        }
+      }
+
+      for (Map.Entry<Long, List<SensorValue>> entry : updatedValues
+        .entrySet()) {
+        updateChunk(conn, entry.getKey(), entry.getValue());
+      }
+    } catch (SQLException | IOException | InvalidFlagException e) {
+      throw new DatabaseException("Error storing sensor values", e);
+    }
+  }
+
+  /**
+   * Store new values for a column as one or more chunks.
+   *
+   * @param conn
+   *          A database connection
+   * @param values
+   *          The values
+   * @throws SQLException
+   *           If a database error occurs
+   * @throws IOException
+   *           If the values cannot be encoded
+   */
+  private void storeNewChunks(Connection conn, List<SensorValue> values)
+    throws SQLException, IOException {
+
+    Collections.sort(values,
+      (a, b) -> Long.compare(a.getTimeMillis(), b.getTimeMillis()));
+
+    try (PreparedStatement stmt = conn
+      .prepareStatement(STORE_CHUNK_STATEMENT)) {
+
+      for (int start = 0; start < values.size(); start += CHUNK_SIZE) {
+        List<SensorValue> chunk = values.subList(start,
+          Math.min(start + CHUNK_SIZE, values.size()));
+
+        SensorValue first = chunk.get(0);
+        stmt.setLong(1, first.getDatasetId());
+        stmt.setLong(2, first.getColumnId());
+        stmt.setLong(3, first.getTimeMillis());
+        stmt.setLong(4, chunk.get(chunk.size() - 1).getTimeMillis());
+        stmt.setInt(5, chunk.size());
+        stmt.setBytes(6, SensorValueChunk.encode(chunk));
+        stmt.execute();
+      }
+    }
+  }
+
+  /**
+   * Store updated QC for values in a chunk. Depending on how many values are
+   * updated, the changes are stored as edits or the chunk is rewritten.
+   *
+   * <p>
+   * The chunk's record is locked until the changes are committed. If the
+   * connection is in auto-commit mode, the update is performed in its own
+   * transaction.
+   * </p>
+   *
+   * @param conn
+   *          A database connection
+   * @param chunkId
+   *          The chunk's database ID
+   * @param values
+   *          The updated values
+   * @throws SQLException
+   *           If a database error occurs
+   * @throws IOException
+   *           If the chunk cannot be decoded or encoded
+   * @throws InvalidFlagException
+   *           If a stored QC flag is invalid
+   */
+  private void updateChunk(Connection conn, long chunkId,
+    List<SensorValue> values)
+    throws SQLException, IOException, InvalidFlagException {
+
+    boolean autoCommit = conn.getAutoCommit();
+    if (autoCommit) {
+      conn.setAutoCommit(false);
+    }
+
+    try {
+      updateLockedChunk(conn, chunkId, values);
+      if (autoCommit) {
+        conn.commit();
+      }
+    } catch (SQLException | IOException | InvalidFlagException e) {
+      if (autoCommit) {
+        DatabaseUtils.rollBack(conn);
+      }
+      throw e;
+    } finally {
+      if (autoCommit) {
+        conn.setAutoCommit(true);
+      }
+    }
+  }
+
+  /**
+   * Perform the work for {@link #updateChunk(Connection, long, List)} inside
+   * a transaction. The chunk is read with a lock, so another update to the
+   * same chunk waits until this one is committed. Only the edits that are
+   * included in a rewritten chunk are deleted.
+   *
+   * @param conn
+   *          A database connection that is not in auto-commit mode
+   * @param chunkId
+   *          The chunk's database ID
+   * @param values
+   *          The updated values
+   * @throws SQLException
+   *           If a database error occurs
+   * @throws IOException
+   *           If the chunk cannot be decoded or encoded
+   * @throws InvalidFlagException
+   *           If a stored QC flag is invalid
+   */
+  private void updateLockedChunk(Connection conn, long chunkId,
+    List<SensorValue> values)
+    throws SQLException, IOException, InvalidFlagException {
+
+    long datasetId = -1L;
+    long columnId = -1L;
+    int valueCount = 0;
+    byte[] data = null;
+
+    try (PreparedStatement stmt = conn
+      .prepareStatement(GET_CHUNK_FOR_UPDATE_QUERY)) {
+      stmt.setLong(1, chunkId);
+      try (ResultSet record = stmt.executeQuery()) {
+        if (record.next()) {
+          datasetId = record.getLong(1);
+          columnId = record.getLong(2);
+          valueCount = record.getInt(3);
+          data = record.getBytes(4);
+        }
+      }
+    }
+
+    if (null == data) {
+      throw new SQLException("Sensor value chunk " + chunkId + " not found");
+    }
+
+    if (values.size() * COMPACT_RATIO > valueCount) {
+      long firstId = SensorValueChunk.makeValueId(chunkId, 0);
+      long endId = SensorValueChunk.makeValueId(chunkId + 1, 0);
+
+      List<SensorValue> chunkValues = SensorValueChunk.decode(data, chunkId,
+        datasetId, columnId);
+
+      TreeMap<Long, Edit> edits = new TreeMap<Long, Edit>();
+      try (PreparedStatement stmt = conn
+        .prepareStatement(GET_CHUNK_EDITS_QUERY)) {
+        stmt.setLong(1, datasetId);
+        stmt.setLong(2, firstId);
+        stmt.setLong(3, endId);
+        readEdits(stmt, edits);
+      }
+      applyEdits(chunkValues, chunkId, edits);
+
+      for (SensorValue value : values) {
+        chunkValues.set(SensorValueChunk.getIndex(value.getId()), value);
+      }
+
+      try (
+        PreparedStatement updateStmt = conn
+          .prepareStatement(UPDATE_CHUNK_STATEMENT);
+        PreparedStatement deleteStmt = conn
+          .prepareStatement(DELETE_EDIT_STATEMENT)) {
+
+        updateStmt.setBytes(1, SensorValueChunk.encode(chunkValues));
+        updateStmt.setLong(2, chunkId);
+        updateStmt.execute();
+
+        // Only remove the edits that are now part of the chunk
+        if (edits.size() > 0) {
+          for (long valueId : edits.keySet()) {
+            deleteStmt.setLong(1, datasetId);
+            deleteStmt.setLong(2, valueId);
+            deleteStmt.addBatch();
+          }
+
+          deleteStmt.executeBatch();
+        }
+      }
+    } else {
+      try (
+        PreparedStatement deleteStmt = conn
+          .prepareStatement(DELETE_EDIT_STATEMENT);
+        PreparedStatement storeStmt = conn
+          .prepareStatement(STORE_EDIT_STATEMENT)) {
+
+        for (SensorValue value : values) {
+          deleteStmt.setLong(1, datasetId);
+          deleteStmt.setLong(2, value.getId());
+          deleteStmt.addBatch();
+
+          storeStmt.setLong(1, datasetId);
+          storeStmt.setLong(2, value.getId());
+          storeStmt.setBytes(3, value.getAutoQcResult().toBytes());
+          storeStmt.setInt(4, value.getUserQCFlag().getFlagValue());
+          storeStmt.setString(5, value.getUserQCMessage());
+          storeStmt.addBatch();
+        }
+
+        deleteStmt.executeBatch();
+        storeStmt.executeBatch();
+      }
+    }
+  }
+
+  /**
+   * Determine whether the {@code sensor_values} table used by the
+   * {@link RowSensorValueStore} contains any records. Those values cannot be
+   * read by this store.
+   *
+   * @param conn
+   *          A database connection
+   * @return {@code true} if there are any row store values; {@code false} if
+   *         not
+   * @throws DatabaseException
+   *           If a database error occurs
+   */
+  public static boolean rowValuesExist(Connection conn)
+    throws DatabaseException {
+
+    boolean result;
+
+    try (
+      PreparedStatement stmt = conn.prepareStatement(ROW_VALUES_EXIST_QUERY);
+      ResultSet record = stmt.executeQuery()) {
+
+      result = record.next();
+    } catch (SQLException e) {
+      throw new DatabaseException("Error checking for sensor values", e);
+    }
+
+    return result;
+  }
+
+  @Override
+  public void deleteSensorValues(Connection conn, long datasetId)
+    throws DatabaseException {
+
+    try (
+      PreparedStatement editsStmt = conn
+        .prepareStatement(DELETE_EDITS_STATEMENT);
+      PreparedStatement chunksStmt = conn
+        .prepareStatement(DELETE_CHUNKS_STATEMENT)) {
+
+      editsStmt.setLong(1, datasetId);
+      editsStmt.execute();
+
+      chunksStmt.setLong(1, datasetId);
+      chunksStmt.execute();
+    } catch (SQLException e) {
+      throw new DatabaseException("Error deleting sensor values", e);
+    }
+  }
+
+  @Override
+  public List<SensorValue> getSensorValues(Connection conn,
+    SensorValuesQuery query) throws DatabaseException {
+
+    List<SensorValue> result = new ArrayList<SensorValue>();
+    streamSensorValues(conn, query, result::add);
+    return result;
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>
+   * Chunks are read one at a time, and only chunks that overlap the query's
+   * time range are read. When the values are ordered by column, all the chunks
+   * for a column are held in memory while they are put in time order. If the
+   * query is limited to measurement run types, the measurement times are read
+   * first and each chunk's values are filtered against them.
+   * </p>
+   */
+  @Override
+  public void streamSensorValues(Connection conn, SensorValuesQuery query,
+    Consumer<SensorValue> consumer) throws DatabaseException {
+
+    long datasetId = query.getDatasetId();
+    List<Long> columnIds = query.getColumnIds();
+
+    try {
+      // The edits must be read first because the connection can't be used
+      // while the chunks are streamed
+      TreeMap<Long, Edit> edits = new TreeMap<Long, Edit>();
+      try (PreparedStatement stmt = conn.prepareStatement(GET_EDITS_QUERY)) {
+        stmt.setLong(1, datasetId);
+        readEdits(stmt, edits);
+      }
+
+      long[] times = null == query.getMeasurementRunTypes() ? null
+        : getMeasurementTimes(conn, query);
+
+      String sql = null == columnIds ? GET_CHUNKS_QUERY
+        : DatabaseUtils.makeInStatementSql(GET_COLUMN_CHUNKS_QUERY,
+          columnIds.size());
+      if (query.hasTimeRange()) {
+        sql = sql + " AND end_date >= ? AND start_date <= ?";
+      }
+      if (query.isOrderByColumn()) {
+        sql = sql + " ORDER BY file_column, start_date";
+      }
+
+      try (PreparedStatement stmt = DatabaseUtils
+        .prepareStreamingStatement(conn, sql)) {
+
+        int param = 1;
+        stmt.setLong(param++, datasetId);
+        if (null != columnIds) {
+          for (long columnId : columnIds) {
+            stmt.setLong(param++, columnId);
+          }
+        }
+        if (query.hasTimeRange()) {
+          stmt.setLong(param++, query.getStartTime());
+          stmt.setLong(param++, query.getEndTime());
+        }
+
+        long currentColumn = -1L;
+        List<SensorValue> columnValues = new ArrayList<SensorValue>();
+
+        try (ResultSet records = stmt.executeQuery()) {
+          while (records.next()) {
+            long chunkId = records.getLong(1);
+            long columnId = records.getLong(2);
+
+            List<SensorValue> chunkValues = SensorValueChunk
+              .decode(records.getBytes(3), chunkId, datasetId, columnId);
+            applyEdits(chunkValues, chunkId, edits);
+
+            if (!query.isOrderByColumn()) {
+              passValues(chunkValues, query, times, consumer);
+            } else {
+              if (columnId != currentColumn) {
+                passColumn(columnValues, query, times, consumer);
+                columnValues = new ArrayList<SensorValue>();
+                currentColumn = columnId;
+              }
+
+              columnValues.addAll(chunkValues);
+            }
+          }
+        }
+
+        passColumn(columnValues, query, times, consumer);
+      }
+    } catch (SQLException | IOException | InvalidFlagException
+      | MissingParamException e) {
+      throw new DatabaseException("Error while retrieving sensor values", e);
+    }
+  }
+
+  /**
+   * Pass the values for a column to a consumer in time order.
+   *
+   * @param columnValues
+   *          The values. They will be sorted in place
+   * @param query
+   *          The query that the values must match
+   * @param times
+   *          The measurement times that the values must match, or
+   *          {@code null} for all times
+   * @param consumer
+   *          The consumer
+   */
+  private void passColumn(List<SensorValue> columnValues,
+    SensorValuesQuery query, long[] times, Consumer<SensorValue> consumer) {
+
+    // Each chunk is already in time order, so this is only needed if chunks
+    // overlap
+    Collections.sort(columnValues,
+      (a, b) -> Long.compare(a.getTimeMillis(), b.getTimeMillis()));
+    passValues(columnValues, query, times, consumer);
+  }
+
+  /**
+   * Pass the values from a chunk that match a query to a consumer. Chunks
+   * are selected by column and time range, so they can contain values outside
+   * the query's time range and with flags that the query does not include.
+   *
+   * @param values
+   *          The values
+   * @param query
+   *          The query that the values must match
+   * @param times
+   *          The measurement times that the values must match, or
+   *          {@code null} for all times
+   * @param consumer
+   *          The consumer
+   */
+  private void passValues(List<SensorValue> values, SensorValuesQuery query,
+    long[] times, Consumer<SensorValue> consumer) {
+
+    for (SensorValue value : values) {
+      if (query.matches(value) && (null == times
+        || Arrays.binarySearch(times, value.getTimeMillis()) >= 0)) {
+        consumer.accept(value);
+      }
+    }
+  }
+
+  /**
+   * Get the times of the measurements with the run types specified in a
+   * query.
+   *
+   * @param conn
+   *          A database connection
+   * @param query
+   *          The query
+   * @return The times in ascending order
+   * @throws SQLException
+   *           If a database error occurs
+   * @throws MissingParamException
+   *           If the run type parameters cannot be added
+   */
+  private long[] getMeasurementTimes(Connection conn, SensorValuesQuery query)
+    throws SQLException, MissingParamException {
+
+    List<String> runTypes = query.getMeasurementRunTypes();
+    List<Long> times = new ArrayList<Long>();
+
+    try (PreparedStatement stmt = conn.prepareStatement(DatabaseUtils
+      .makeInStatementSql(GET_MEASUREMENT_TIMES_QUERY, runTypes.size()))) {
+
+      stmt.setLong(1, query.getDatasetId());
+      for (int i = 0; i < runTypes.size(); i++) {
+        stmt.setString(i + 2, runTypes.get(i));
+      }
+
+      try (ResultSet records = stmt.executeQuery()) {
+        while (records.next()) {
+          times.add(records.getLong(1));
+        }
+      }
+    }
+
+    return times.stream().mapToLong(Long::longValue).toArray();
+  }
+
+  /**
+   * Read edit records from a query.
+   *
+   * @param stmt
+   *          The query
+   * @param edits
+   *          The map to which the edits will be added, keyed by value ID
+   * @throws SQLException
+   *           If a database error occurs
+   * @throws InvalidFlagException
+   *           If a stored QC flag is invalid
+   */
+  private void readEdits(PreparedStatement stmt, Map<Long, Edit> edits)
+    throws SQLException, InvalidFlagException {
+
+    try (ResultSet records = stmt.executeQuery()) {
+      while (records.next()) {
+        edits.put(records.getLong(1), new Edit(records.getBytes(2),
+          new Flag(records.getInt(3)), records.getString(4)));
+      }
+    }
+  }
+
+  /**
+   * Replace the values in a decoded chunk that have edits with copies that
+   * have the edited QC details.
+   *
+   * @param chunkValues
+   *          The values in the chunk
+   * @param chunkId
+   *          The chunk's database ID
+   * @param edits
+   *          The edits, keyed by value ID. May include edits for other chunks
+   */
+  private void applyEdits(List<SensorValue> chunkValues, long chunkId,
+    TreeMap<Long, Edit> edits) {
+
+    for (Map.Entry<Long, Edit> entry : edits
+      .subMap(SensorValueChunk.makeValueId(chunkId, 0),
+        SensorValueChunk.makeValueId(chunkId + 1, 0))
+      .entrySet()) {
+
+      int index = SensorValueChunk.getIndex(entry.getKey());
+      SensorValue original = chunkValues.get(index);
+      Edit edit = entry.getValue();
+
+      chunkValues.set(index,
+        new SensorValue(original.getId(), original.getDatasetId(),
+          original.getColumnId(), original.getTimeMillis(),
+          original.getValue(), original.getParsedValue(), edit.autoQC,
+          edit.userQCFlag, edit.userQCMessage));
+    }
+  }
+
+  @Override
+  public List<Long> getTimes(Connection conn, long datasetId)
+    throws DatabaseException {
+
+    TreeSet<Long> times = new TreeSet<Long>();
+
+    try (PreparedStatement stmt = DatabaseUtils.prepareStreamingStatement(conn,
+      GET_CHUNKS_QUERY)) {
+      stmt.setLong(1, datasetId);
+
+      try (ResultSet records = stmt.executeQuery()) {
+        while (records.next()) {
+          for (long time : SensorValueChunk.decodeTimes(records.getBytes(3))) {
+            times.add(time);
+          }
+        }
+      }
+    } catch (SQLException | IOException e) {
+      throw new DatabaseException("Error while getting sensor value dates", e);
+    }
+
+    return new ArrayList<Long>(times);
+  }
+
+  @Override
+  public int getTimeCount(Connection conn, long datasetId)
+    throws DatabaseException {
+    return getTimes(conn, datasetId).size();
+  }
+
+  @Override
+  public int getUserFlagCount(Connection conn, long datasetId, Flag flag)
+    throws DatabaseException {
+
+    AtomicInteger result = new AtomicInteger(0);
+
+    streamSensorValues(conn, new SensorValuesQuery(datasetId).onlyFlags(flag),
+      v -> result.incrementAndGet());
+
+    return result.get();
+  }
+
+  /**
+   * QC details for a value that have changed since its chunk was written
+   */
+  private static class Edit {
+
+    private final AutoQCResult autoQC;
+
+    private final Flag userQCFlag;
+
+    private final String userQCMessage;
+
+    private Edit(byte[] autoQCBytes, Flag userQCFlag, String userQCMessage) {
+      this.autoQC = null == autoQCBytes ? null
+        : AutoQCResult.buildFromBytes(autoQCBytes);
+      this.userQCFlag = userQCFlag;
+      this.userQCMessage = userQCMessage;
+    }
+  }
+}
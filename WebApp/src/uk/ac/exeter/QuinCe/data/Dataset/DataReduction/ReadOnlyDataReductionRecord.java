@@ -21,8 +21,8 @@ import uk.ac.exeter.QuinCe.utils.StringUtils;
  *
  * <p>
  * Any attempt to save this to the database using
- * {@link DataSetDataDB#storeDataReduction(java.sql.Connection, List)} will
- * result in an Exception.
+ * {@link DataSetDataDB#storeDataReduction(java.sql.Connection, long, List)}
+ * will result in an Exception.
  * </p>
  *
  * @author Steve Jones
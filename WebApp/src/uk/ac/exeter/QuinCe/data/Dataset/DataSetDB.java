@@ -683,6 +683,14 @@ public class DataSetDB {
   /**
    * Delete a dataset and all related records
    *
+   * <p>
+   * If the sensor_values table is partitioned and the connection is in
+   * auto-commit mode, the dataset's partition is dropped once the dataset has
+   * been deleted. Dropping a partition commits any open transaction, so if
+   * the connection is part of a transaction the sensor values are deleted
+   * with the rest of the dataset's records instead.
+   * </p>
+   *
    * @param conn
    *          A database connection
    * @param dataSet
@@ -701,6 +709,12 @@ public class DataSetDB {
     try {
 
       currentAutoCommitStatus = conn.getAutoCommit();
+
+      // Partitioned sensor values are dropped after the dataset is deleted,
+      // but only if that won't commit the caller's transaction
+      boolean dropPartition = currentAutoCommitStatus
+        && DataSetDataDB.sensorValuesPartitioned(conn);
+
       setDatasetStatus(conn, dataSet.getId(), DataSet.STATUS_DELETE);
       if (!currentAutoCommitStatus) {
         conn.commit();
@@ -711,7 +725,9 @@ public class DataSetDB {
       }
 
       DataSetDataDB.deleteMeasurements(conn, dataSet.getId());
-      DataSetDataDB.deleteSensorValues(conn, dataSet.getId());
+      if (!dropPartition) {
+        DataSetDataDB.deleteSensorValues(conn, dataSet.getId());
+      }
 
       datasetStatement = conn.prepareStatement(DELETE_DATASET_QUERY);
       datasetStatement.setLong(1, dataSet.getId());
@@ -722,6 +738,10 @@ public class DataSetDB {
         conn.commit();
         conn.setAutoCommit(true);
       }
+
+      if (dropPartition) {
+        DataSetDataDB.dropSensorValuesPartition(conn, dataSet.getId());
+      }
     } catch (Exception e) {
       e.printStackTrace();
       if (currentAutoCommitStatus) {
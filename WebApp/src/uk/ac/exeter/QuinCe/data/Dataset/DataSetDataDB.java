@@ -6,14 +6,15 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.sql.Types;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.function.Consumer;
 
 import javax.sql.DataSource;
 
@@ -24,7 +25,6 @@ import uk.ac.exeter.QuinCe.data.Dataset.DataReduction.DataReductionRecord;
 import uk.ac.exeter.QuinCe.data.Dataset.DataReduction.ReadOnlyDataReductionRecord;
 import uk.ac.exeter.QuinCe.data.Dataset.QC.Flag;
 import uk.ac.exeter.QuinCe.data.Dataset.QC.InvalidFlagException;
-import uk.ac.exeter.QuinCe.data.Dataset.QC.Routines.AutoQCResult;
 import uk.ac.exeter.QuinCe.data.Instrument.Instrument;
 import uk.ac.exeter.QuinCe.data.Instrument.InstrumentDB;
 import uk.ac.exeter.QuinCe.data.Instrument.InstrumentException;
@@ -70,32 +70,15 @@ public class DataSetDataDB {
   public static final String DIAGNOSTICS_FIELDSET_NAME = "Diagnostics";
 
   /**
-   * Statement to store a sensor value
+   * The sensor value store used if the application has not been initialised
    */
-  private static final String STORE_NEW_SENSOR_VALUE_STATEMENT = "INSERT INTO "
-    + "sensor_values (dataset_id, file_column, date, value, "
-    + "auto_qc, user_qc_flag, user_qc_message) "
-    + "VALUES (?, ?, ?, ?, ?, ?, ?)";
-
-  private static final String UPDATE_SENSOR_VALUE_STATEMENT = "UPDATE sensor_values "
-    + "SET auto_qc=?, user_qc_flag=?, user_qc_message=? WHERE id = ?";
+  private static final SensorValueStore DEFAULT_SENSOR_VALUE_STORE = new RowSensorValueStore();
 
   /**
-   * Statement to remove all sensor values for a data set
+   * The dataset cache used if the application has not been initialised
    */
-  private static final String DELETE_SENSOR_VALUES_STATEMENT = "DELETE FROM "
-    + "sensor_values WHERE dataset_id = ?";
-
-  private static final String GET_SENSOR_VALUES_FOR_DATASET_QUERY = "SELECT "
-    + "id, file_column, date, value, auto_qc, " // 5
-    + "user_qc_flag, user_qc_message " // 7
-    + "FROM sensor_values WHERE dataset_id = ?";
-
-  private static final String GET_SENSOR_VALUES_FOR_DATASET_NO_FLUSHING_QUERY = "SELECT "
-    + "id, file_column, date, value, auto_qc, " // 5
-    + "user_qc_flag, user_qc_message " // 7
-    + "FROM sensor_values WHERE dataset_id = ? AND user_qc_flag != "
-    + Flag.VALUE_FLUSHING;
+  private static final DatasetCache DISABLED_DATASET_CACHE = new DatasetCache(
+    false, 0L);
 
   /**
    * Statement to store a measurement record
@@ -128,44 +111,18 @@ public class DataSetDataDB {
   private static final String DELETE_MEASUREMENTS_STATEMENT = "DELETE FROM "
     + "measurements WHERE dataset_id = ?";
 
-  private static final String GET_SENSOR_VALUES_FOR_COLUMNS_QUERY = "SELECT "
-    + "id, file_column, date, value, auto_qc, " // 5
-    + "user_qc_flag, user_qc_message " // 8
-    + "FROM sensor_values WHERE dataset_id = ? AND file_column IN "
-    + DatabaseUtils.IN_PARAMS_TOKEN + "ORDER BY date";
-
-  private static final String GET_SENSOR_VALUE_DATES_QUERY = "SELECT DISTINCT "
-    + "date FROM sensor_values WHERE dataset_id = ? ORDER BY date ASC";
-
-  private static final String GET_REQUIRED_FLAGS_QUERY = "SELECT "
-    + "COUNT(*) FROM sensor_values WHERE dataset_id = ? "
-    + "AND user_qc_flag = " + Flag.VALUE_NEEDED;
-
   private static final String GET_DATA_REDUCTION_QUERY = "SELECT "
     + "dr.measurement_id, dr.variable_id, dr.calculation_values, "
     + "dr.qc_flag, dr.qc_message FROM data_reduction dr INNER JOIN "
     + "measurements m ON dr.measurement_id = m.id WHERE m.dataset_id = ? "
     + "ORDER BY dr.measurement_id ASC";
 
-  private static final String GET_RECORD_COUNT_QUERY = "SELECT "
-    + "COUNT(DISTINCT(date)) FROM sensor_values WHERE dataset_id = ?";
-
-  private static final String GET_RUN_TYPES_QUERY = "SELECT "
-    + "date, value FROM sensor_values "
-    + " WHERE dataset_id = ? AND file_column IN "
-    + DatabaseUtils.IN_PARAMS_TOKEN + " ORDER BY date ASC";
-
   private static final String STORE_MEASUREMENT_VALUES_STATEMENT = "UPDATE measurements "
     + "SET measurement_values = ? WHERE id = ?";
 
-  private static final String GET_INTERNAL_CALIBRATION_SENSOR_VALUES_QUERY = "SELECT "
-    + "sv.id, sv.file_column, sv.date, sv.value, sv.auto_qc, "
-    + "sv.user_qc_flag, sv.user_qc_message, m.run_type "
-    + "FROM sensor_values sv "
-    + "INNER JOIN measurements m ON m.date = sv.date "
-    + "WHERE m.dataset_id = ? AND m.run_type IN "
-    + DatabaseUtils.IN_PARAMS_TOKEN + " AND sv.file_column IN "
-    + DatabaseUtils.IN_PARAMS_TOKEN;
+  private static final String GET_CALIBRATION_MEASUREMENTS_QUERY = "SELECT "
+    + "date, run_type FROM measurements "
+    + "WHERE dataset_id = ? AND run_type IN " + DatabaseUtils.IN_PARAMS_TOKEN;
 
   /**
    * Take a list of fields, and return those which come from the dataset data.
@@ -274,6 +231,8 @@ public class DataSetDataDB {
    * be stored as a new record. Note that the new records will not be given an
    * ID; they must be re-read from the database afterwards.
    *
+   * The values are written by the configured {@link SensorValueStore}.
+   *
    * @param conn
    *          A database connection
    * @param sensorValues
@@ -290,52 +249,63 @@ public class DataSetDataDB {
     MissingParam.checkMissing(conn, "conn");
     MissingParam.checkMissing(sensorValues, "sensorValues");
 
-    PreparedStatement addStmt = null;
-    PreparedStatement updateStmt = null;
-
     try {
-      addStmt = conn.prepareStatement(STORE_NEW_SENSOR_VALUE_STATEMENT);
-      updateStmt = conn.prepareStatement(UPDATE_SENSOR_VALUE_STATEMENT);
-
-      for (SensorValue value : sensorValues) {
-        if (value.isDirty()) {
-
-          if (!value.isInDatabase()) {
-            addStmt.setLong(1, value.getDatasetId());
-            addStmt.setLong(2, value.getColumnId());
-            addStmt.setLong(3, DateTimeUtils.dateToLong(value.getTime()));
-            if (null == value.getValue()) {
-              addStmt.setNull(4, Types.VARCHAR);
-            } else {
-              addStmt.setString(4, value.getValue());
-            }
+      getSensorValueStore().storeSensorValues(conn, sensorValues);
+    } catch (DatabaseException e) {
+      // Cached values may have been changed without being stored
+      sensorValues.stream().mapToLong(SensorValue::getDatasetId).distinct()
+        .forEach(d -> getDatasetCache().invalidate(d));
+      throw e;
+    }
 
-            addStmt.setString(5, value.getAutoQcResult().toJson());
-            addStmt.setInt(6, value.getUserQCFlag().getFlagValue());
-            addStmt.setString(7, value.getUserQCMessage());
+    // This must be done before the dirty flags are cleared
+    getDatasetCache().sensorValuesStored(sensorValues);
 
-            addStmt.addBatch();
-          } else {
-            updateStmt.setString(1, value.getAutoQcResult().toJson());
-            updateStmt.setInt(2, value.getUserQCFlag().getFlagValue());
-            updateStmt.setString(3, value.getUserQCMessage());
-            updateStmt.setLong(4, value.getId());
+    // Clear the dirty flag on all the sensor values
+    SensorValue.clearDirtyFlag(sensorValues);
+  }
 
-            updateStmt.addBatch();
-          }
-        }
-      }
+  /**
+   * Get the application's shared {@link DatasetCache}. If the application has
+   * not been initialised (e.g. in some tests) a disabled cache is returned.
+   *
+   * @return The dataset cache
+   */
+  public static DatasetCache getDatasetCache() {
+    DatasetCache result = null;
 
-      addStmt.executeBatch();
-      updateStmt.executeBatch();
-    } catch (SQLException e) {
-      throw new DatabaseException("Error storing sensor values", e);
-    } finally {
-      DatabaseUtils.closeStatements(addStmt, updateStmt);
+    ResourceManager resourceManager = ResourceManager.getInstance();
+    if (null != resourceManager) {
+      result = resourceManager.getDatasetCache();
     }
 
-    // Clear the dirty flag on all the sensor values
-    SensorValue.clearDirtyFlag(sensorValues);
+    if (null == result) {
+      result = DISABLED_DATASET_CACHE;
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the configured persistence backend for sensor values. If the
+   * application has not been initialised (e.g. in some tests) the
+   * {@link RowSensorValueStore} is used.
+   *
+   * @return The sensor value store
+   */
+  private static SensorValueStore getSensorValueStore() {
+    SensorValueStore result = null;
+
+    ResourceManager resourceManager = ResourceManager.getInstance();
+    if (null != resourceManager) {
+      result = resourceManager.getSensorValueStore();
+    }
+
+    if (null == result) {
+      result = DEFAULT_SENSOR_VALUE_STORE;
+    }
+
+    return result;
   }
 
   /**
@@ -349,6 +319,7 @@ public class DataSetDataDB {
    *           If a database error occurs
    * @throws MissingParamException
    *           If any required parameters are missing
+   * @see SensorValueStore#deleteSensorValues(Connection, long)
    */
   public static void deleteSensorValues(Connection conn, long datasetId)
     throws MissingParamException, DatabaseException {
@@ -356,18 +327,66 @@ public class DataSetDataDB {
     MissingParam.checkMissing(conn, "conn");
     MissingParam.checkZeroPositive(datasetId, "datasetId");
 
-    PreparedStatement stmt = null;
+    getSensorValueStore().deleteSensorValues(conn, datasetId);
+    getDatasetCache().invalidate(datasetId, DatasetCache.Item.SENSOR_VALUES);
+  }
 
-    try {
-      stmt = conn.prepareStatement(DELETE_SENSOR_VALUES_STATEMENT);
+  /**
+   * Drop the sensor_values partition for a dataset, removing all its sensor
+   * values. Does nothing if the partition does not exist.
+   *
+   * <p>
+   * This should only be called when
+   * {@link #sensorValuesPartitioned(Connection)} is {@code true}. Note that
+   * MySQL commits any open transaction when a partition is dropped.
+   * </p>
+   *
+   * @param conn
+   *          A database connection
+   * @param datasetId
+   *          The dataset's database ID
+   * @throws DatabaseException
+   *           If a database error occurs
+   * @throws MissingParamException
+   *           If any required parameters are missing
+   */
+  public static void dropSensorValuesPartition(Connection conn,
+    long datasetId) throws MissingParamException, DatabaseException {
 
-      stmt.setLong(1, datasetId);
-      stmt.execute();
-    } catch (SQLException e) {
-      throw new DatabaseException("Error storing sensor values", e);
-    } finally {
-      DatabaseUtils.closeStatements(stmt);
+    MissingParam.checkMissing(conn, "conn");
+    MissingParam.checkZeroPositive(datasetId, "datasetId");
+
+    SensorValueStore store = getSensorValueStore();
+    if (store instanceof RowSensorValueStore) {
+      ((RowSensorValueStore) store).dropPartition(conn, datasetId);
+      getDatasetCache().invalidate(datasetId,
+        DatasetCache.Item.SENSOR_VALUES);
+    }
+  }
+
+  /**
+   * Determine whether sensor values are held in the row store and the
+   * sensor_values table has been partitioned by dataset using
+   * {@code scripts/database_maintenance/partition_sensor_values.sql}.
+   * Partitioning is only supported on MySQL.
+   *
+   * @param conn
+   *          A database connection
+   * @return {@code true} if the table is partitioned; {@code false} if not
+   * @throws DatabaseException
+   *           If a database error occurs
+   */
+  public static boolean sensorValuesPartitioned(Connection conn)
+    throws DatabaseException {
+
+    boolean result = false;
+
+    SensorValueStore store = getSensorValueStore();
+    if (store instanceof RowSensorValueStore) {
+      result = ((RowSensorValueStore) store).isPartitioned(conn);
     }
+
+    return result;
   }
 
   /**
@@ -393,56 +412,120 @@ public class DataSetDataDB {
     MissingParam.checkMissing(conn, "conn");
     MissingParam.checkZeroPositive(datasetId, "datasetId");
 
-    DatasetSensorValues values = new DatasetSensorValues(instrument);
-
-    String query = ignoreFlushing
-      ? GET_SENSOR_VALUES_FOR_DATASET_NO_FLUSHING_QUERY
-      : GET_SENSOR_VALUES_FOR_DATASET_QUERY;
-
-    try (PreparedStatement stmt = conn.prepareStatement(query)) {
+    return getSensorValues(conn, instrument,
+      SensorValueStore.makeQuery(datasetId, null, ignoreFlushing, false));
+  }
 
-      stmt.setLong(1, datasetId);
+  /**
+   * Get the sensor values selected by a query, grouped by their column in the
+   * source data file(s).
+   *
+   * @param conn
+   *          A database connection
+   * @param instrument
+   *          The instrument that the dataset belongs to
+   * @param query
+   *          The query
+   * @return The values
+   * @throws RecordNotFoundException
+   *           If the instrument configuration does not match the values
+   * @throws DatabaseException
+   *           If a database error occurs
+   * @throws MissingParamException
+   *           If any required parameters are missing
+   */
+  public static DatasetSensorValues getSensorValues(Connection conn,
+    Instrument instrument, SensorValuesQuery query)
+    throws RecordNotFoundException, DatabaseException, MissingParamException {
 
-      try (ResultSet records = stmt.executeQuery()) {
+    MissingParam.checkMissing(conn, "conn");
+    MissingParam.checkMissing(instrument, "instrument");
+    MissingParam.checkMissing(query, "query");
+    MissingParam.checkZeroPositive(query.getDatasetId(), "datasetId");
 
-        while (records.next()) {
-          values.add(sensorValueFromResultSet(records, datasetId));
-        }
-      }
+    DatasetSensorValues values = new DatasetSensorValues(instrument);
 
-    } catch (Exception e) {
-      throw new DatabaseException("Error while retrieving sensor values", e);
+    for (SensorValue value : getSensorValueStore().getSensorValues(conn,
+      query)) {
+      values.add(value);
     }
 
     return values;
   }
 
   /**
-   * Build a SensorValue object from a ResultSet
+   * Pass the sensor values for a dataset to a consumer as they are read from
+   * the database, without holding the complete set in memory. Use this instead
+   * of {@link #getSensorValues(Connection, Instrument, long, boolean)} when the
+   * values are only needed for a single pass.
    *
-   * @param record
-   *          The ResultSet
+   * <p>
+   * The connection cannot be used by the consumer.
+   * </p>
+   *
+   * @param conn
+   *          A database connection
    * @param datasetId
-   *          The ID of the value's parent dataset
-   * @return The SensorValue
-   * @throws SQLException
-   *           If any values cannot be read
-   * @throws InvalidFlagException
-   *           If the stored Flag value is invalid
+   *          The dataset's database ID
+   * @param columnIds
+   *          The columns to retrieve, or {@code null} for all columns
+   * @param ignoreFlushing
+   *          Indicates whether values with a {@link Flag#FLUSHING} flag should
+   *          be left out
+   * @param orderByColumn
+   *          Indicates whether the values should be grouped by column in time
+   *          order
+   * @param consumer
+   *          The consumer
+   * @throws DatabaseException
+   *           If a database error occurs
+   * @throws MissingParamException
+   *           If any required parameters are missing
+   * @see SensorValueStore#streamSensorValues(Connection, long, List, boolean,
+   *      boolean, Consumer)
+   */
+  public static void streamSensorValues(Connection conn, long datasetId,
+    List<Long> columnIds, boolean ignoreFlushing, boolean orderByColumn,
+    Consumer<SensorValue> consumer)
+    throws MissingParamException, DatabaseException {
+
+    MissingParam.checkZeroPositive(datasetId, "datasetId");
+
+    streamSensorValues(conn, SensorValueStore.makeQuery(datasetId, columnIds,
+      ignoreFlushing, orderByColumn), consumer);
+  }
+
+  /**
+   * Pass the sensor values selected by a query to a consumer as they are read
+   * from the database, without holding the complete set in memory.
+   *
+   * <p>
+   * The connection cannot be used by the consumer.
+   * </p>
+   *
+   * @param conn
+   *          A database connection
+   * @param query
+   *          The query
+   * @param consumer
+   *          The consumer
+   * @throws DatabaseException
+   *           If a database error occurs
+   * @throws MissingParamException
+   *           If any required parameters are missing
+   * @see SensorValueStore#streamSensorValues(Connection, SensorValuesQuery,
+   *      Consumer)
    */
-  private static SensorValue sensorValueFromResultSet(ResultSet record,
-    long datasetId) throws SQLException, InvalidFlagException {
-
-    long valueId = record.getLong(1);
-    long fileColumnId = record.getLong(2);
-    LocalDateTime time = DateTimeUtils.longToDate(record.getLong(3));
-    String value = record.getString(4);
-    AutoQCResult autoQC = AutoQCResult.buildFromJson(record.getString(5));
-    Flag userQCFlag = new Flag(record.getInt(6));
-    String userQCMessage = record.getString(7);
-
-    return new SensorValue(valueId, datasetId, fileColumnId, time, value,
-      autoQC, userQCFlag, userQCMessage);
+  public static void streamSensorValues(Connection conn,
+    SensorValuesQuery query, Consumer<SensorValue> consumer)
+    throws MissingParamException, DatabaseException {
+
+    MissingParam.checkMissing(conn, "conn");
+    MissingParam.checkMissing(query, "query");
+    MissingParam.checkZeroPositive(query.getDatasetId(), "datasetId");
+    MissingParam.checkMissing(consumer, "consumer");
+
+    getSensorValueStore().streamSensorValues(conn, query, consumer);
   }
 
   /**
@@ -495,6 +578,7 @@ public class DataSetDataDB {
     } finally {
       DatabaseUtils.closeResultSets(createdKeys);
       DatabaseUtils.closeStatements(stmt);
+      getDatasetCache().measurementsStored(measurements);
     }
   }
 
@@ -513,27 +597,7 @@ public class DataSetDataDB {
     MissingParam.checkMissing(conn, "conn");
     MissingParam.checkZeroPositive(datasetId, "datasetId");
 
-    int result = -1;
-
-    PreparedStatement stmt = null;
-    ResultSet count = null;
-
-    try {
-      stmt = conn.prepareStatement(GET_RECORD_COUNT_QUERY);
-      stmt.setLong(1, datasetId);
-
-      count = stmt.executeQuery();
-      if (count.next()) {
-        result = count.getInt(1);
-      }
-    } catch (SQLException e) {
-      throw new DatabaseException("Error while getting measurement count", e);
-    } finally {
-      DatabaseUtils.closeResultSets(count);
-      DatabaseUtils.closeStatements(stmt);
-    }
-
-    return result;
+    return getSensorValueStore().getTimeCount(conn, datasetId);
   }
 
   /**
@@ -635,7 +699,7 @@ public class DataSetDataDB {
     ResultSet record) throws SQLException {
 
     long id = record.getLong(1);
-    LocalDateTime time = DateTimeUtils.longToDate(record.getLong(2));
+    long time = record.getLong(2);
     String runType = record.getString(3);
     String measurementValuesJson = record.getString(4);
 
@@ -652,17 +716,18 @@ public class DataSetDataDB {
    *
    * @param conn
    *          A database connection
-   * @param values
-   *          The calculation values for the data reduction, as extracted from
-   *          the sensor values
+   * @param datasetId
+   *          The database ID of the dataset that the records belong to
    * @param dataReductionRecords
    *          The data reduction calculations
    * @throws DatabaseException
    *           If the data cannot be stored
    */
-  public static void storeDataReduction(Connection conn,
+  public static void storeDataReduction(Connection conn, long datasetId,
     List<DataReductionRecord> dataReductionRecords) throws DatabaseException {
 
+    getDatasetCache().invalidate(datasetId, DatasetCache.Item.DATA_REDUCTION);
+
     try (PreparedStatement dataReductionStmt = conn
       .prepareStatement(STORE_DATA_REDUCTION_STATEMENT)) {
       for (DataReductionRecord dataReduction : dataReductionRecords) {
@@ -760,6 +825,10 @@ public class DataSetDataDB {
       delMeasurementsStmt.setLong(1, datasetId);
       delMeasurementsStmt.execute();
 
+      getDatasetCache().invalidate(datasetId, DatasetCache.Item.MEASUREMENTS);
+      getDatasetCache().invalidate(datasetId,
+        DatasetCache.Item.DATA_REDUCTION);
+
       conn.commit();
 
       if (initialAutoCommitState) {
@@ -799,26 +868,9 @@ public class DataSetDataDB {
     MissingParam.checkPositive(datasetId, "datasetId");
     MissingParam.checkMissing(columnIds, "columnIds", false);
 
-    List<SensorValue> result = new ArrayList<SensorValue>();
-
-    String sql = DatabaseUtils.makeInStatementSql(
-      GET_SENSOR_VALUES_FOR_COLUMNS_QUERY, columnIds.size());
-    try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-
-      stmt.setLong(1, datasetId);
-      for (int i = 0; i < columnIds.size(); i++) {
-        stmt.setLong(i + 2, columnIds.get(i));
-      }
-
-      try (ResultSet records = stmt.executeQuery()) {
-        while (records.next()) {
-          result.add(sensorValueFromResultSet(records, datasetId));
-        }
-      }
-
-    } catch (SQLException | InvalidFlagException e) {
-      throw new DatabaseException("Error getting sensor values", e);
-    }
+    List<SensorValue> result = getSensorValueStore().getSensorValues(conn,
+      datasetId, columnIds, false);
+    sortByTime(result);
 
     return result;
   }
@@ -845,16 +897,9 @@ public class DataSetDataDB {
 
     List<LocalDateTime> times = new ArrayList<LocalDateTime>();
 
-    try (Connection conn = dataSource.getConnection();
-      PreparedStatement stmt = conn
-        .prepareStatement(GET_SENSOR_VALUE_DATES_QUERY);) {
-
-      stmt.setLong(1, datasetId);
-
-      try (ResultSet records = stmt.executeQuery();) {
-        while (records.next()) {
-          times.add(DateTimeUtils.longToDate(records.getLong(1)));
-        }
+    try (Connection conn = dataSource.getConnection()) {
+      for (long time : getSensorValueStore().getTimes(conn, datasetId)) {
+        times.add(DateTimeUtils.longToDate(time));
       }
     } catch (SQLException e) {
       throw new DatabaseException("Error while getting sensor value dates", e);
@@ -871,16 +916,9 @@ public class DataSetDataDB {
 
     int result = 0;
 
-    try (Connection conn = dataSource.getConnection();
-      PreparedStatement stmt = conn
-        .prepareStatement(GET_REQUIRED_FLAGS_QUERY);) {
-
-      stmt.setLong(1, datasetId);
-
-      try (ResultSet records = stmt.executeQuery();) {
-        records.next();
-        result = records.getInt(1);
-      }
+    try (Connection conn = dataSource.getConnection()) {
+      result = getSensorValueStore().getUserFlagCount(conn, datasetId,
+        Flag.NEEDED);
     } catch (SQLException e) {
       throw new DatabaseException("Error while getting flag info", e);
     }
@@ -995,25 +1033,13 @@ public class DataSetDataDB {
     List<Long> runTypeColumnIds = instrument.getSensorAssignments()
       .getRunTypeColumnIDs();
 
-    String sensorValuesSQL = DatabaseUtils
-      .makeInStatementSql(GET_RUN_TYPES_QUERY, runTypeColumnIds.size());
-
-    try (Connection conn = dataSource.getConnection();
-      PreparedStatement stmt = conn.prepareStatement(sensorValuesSQL)) {
+    try (Connection conn = dataSource.getConnection()) {
+      List<SensorValue> runTypes = getSensorValueStore().getSensorValues(conn,
+        dataSet.getId(), runTypeColumnIds, false);
+      sortByTime(runTypes);
 
-      stmt.setLong(1, dataSet.getId());
-
-      int currentParam = 2;
-      for (long column : runTypeColumnIds) {
-        stmt.setLong(currentParam, column);
-        currentParam++;
-      }
-
-      try (ResultSet records = stmt.executeQuery()) {
-        while (records.next()) {
-          result.add(records.getString(2),
-            DateTimeUtils.longToDate(records.getLong(1)));
-        }
+      for (SensorValue runType : runTypes) {
+        result.add(runType.getValue(), runType.getTimeMillis());
       }
     } catch (SQLException e) {
       throw new DatabaseException("Error while getting run type periods", e);
@@ -1050,6 +1076,8 @@ public class DataSetDataDB {
       drStmt.setLong(1, datasetId);
       drStmt.execute();
 
+      getDatasetCache().invalidate(datasetId,
+        DatasetCache.Item.DATA_REDUCTION);
     } catch (SQLException e) {
       throw new DatabaseException("Error while deleting measurement values", e);
     }
@@ -1070,39 +1098,65 @@ public class DataSetDataDB {
     List<Long> calibratedColumns = instrument.getSensorAssignments()
       .getInternalCalibrationSensors();
 
-    String sql = DatabaseUtils.makeInStatementSql(
-      GET_INTERNAL_CALIBRATION_SENSOR_VALUES_QUERY, calibrationRunTypes.size(),
-      calibratedColumns.size());
+    if (calibrationRunTypes.size() > 0 && calibratedColumns.size() > 0) {
 
-    try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+      // The run types of the calibration measurements, keyed by time
+      TreeMap<Long, String> measurementRunTypes = new TreeMap<Long, String>();
 
-      stmt.setLong(1, datasetId);
+      String sql = DatabaseUtils.makeInStatementSql(
+        GET_CALIBRATION_MEASUREMENTS_QUERY, calibrationRunTypes.size());
 
-      int currentParam = 1;
+      try (PreparedStatement stmt = conn.prepareStatement(sql)) {
 
-      for (String runType : calibrationRunTypes) {
-        currentParam++;
-        stmt.setString(currentParam, runType);
-      }
+        stmt.setLong(1, datasetId);
+        for (int i = 0; i < calibrationRunTypes.size(); i++) {
+          stmt.setString(i + 2, calibrationRunTypes.get(i));
+        }
 
-      for (Long column : calibratedColumns) {
-        currentParam++;
-        stmt.setLong(currentParam, column);
+        try (ResultSet records = stmt.executeQuery()) {
+          while (records.next()) {
+            measurementRunTypes.put(records.getLong(1), records.getString(2));
+          }
+        }
+
+      } catch (SQLException e) {
+        throw new DatabaseException(
+          "Error while getting calibration sensor values", e);
       }
 
-      try (ResultSet records = stmt.executeQuery()) {
-        while (records.next()) {
-          SensorValue sensorValue = sensorValueFromResultSet(records,
-            datasetId);
-          result.add(new RunTypeSensorValue(sensorValue, records.getString(8)));
+      // Only load the calibrated sensors' values at the times of the
+      // calibration measurements
+      if (measurementRunTypes.size() > 0) {
+        SensorValuesQuery query = new SensorValuesQuery(datasetId)
+          .columns(calibratedColumns)
+          .between(measurementRunTypes.firstKey(),
+            measurementRunTypes.lastKey())
+          .atMeasurementRunTypes(calibrationRunTypes);
+
+        for (SensorValue sensorValue : getSensorValueStore()
+          .getSensorValues(conn, query)) {
+
+          String runType = measurementRunTypes
+            .get(sensorValue.getTimeMillis());
+          if (null != runType) {
+            result.add(new RunTypeSensorValue(sensorValue, runType));
+          }
         }
       }
-
-    } catch (SQLException e) {
-      throw new DatabaseException(
-        "Error while getting calibration sensor values", e);
     }
 
     return result;
   }
+
+  /**
+   * Sort a list of sensor values by time. Values with the same time keep their
+   * existing order.
+   *
+   * @param values
+   *          The values
+   */
+  private static void sortByTime(List<SensorValue> values) {
+    Collections.sort(values,
+      (a, b) -> Long.compare(a.getTimeMillis(), b.getTimeMillis()));
+  }
 }
@@ -0,0 +1,669 @@
+package uk.ac.exeter.QuinCe.data.Dataset;
+
+import java.sql.Connection;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import uk.ac.exeter.QuinCe.data.Dataset.DataReduction.DataReductionRecord;
+import uk.ac.exeter.QuinCe.data.Instrument.Instrument;
+import uk.ac.exeter.QuinCe.data.Instrument.SensorDefinition.Variable;
+import uk.ac.exeter.QuinCe.utils.DatabaseException;
+import uk.ac.exeter.QuinCe.utils.MissingParamException;
+import uk.ac.exeter.QuinCe.utils.RecordNotFoundException;
+
+/**
+ * Process-wide cache of loaded dataset data, shared between jobs and user
+ * sessions.
+ *
+ * <p>
+ * The cache holds the complete {@link DatasetSensorValues}, the
+ * {@link DatasetMeasurements} and the data reduction records of each dataset.
+ * Data is obtained as a {@link Lease}, which must be closed when the data is no
+ * longer needed. Entries with open leases are never evicted. Other entries are
+ * evicted in least recently used order when the estimated size of the cache is
+ * larger than its limit.
+ * </p>
+ *
+ * <p>
+ * Each item is stamped with a version number when it is loaded. Any write to
+ * the database that does not go through the cached objects increases the
+ * version, so the stale item is never given out again; it is discarded as soon
+ * as its last lease is closed. All writes are made through
+ * {@link DataSetDataDB}, which reports them to the cache. A write made inside
+ * a transaction is reported before it is committed, so another thread may
+ * load and cache the old data in the meantime; code that commits such a
+ * transaction must invalidate the affected items again afterwards.
+ * </p>
+ *
+ * <p>
+ * Callers that share cached objects see each other's changes. Objects obtained
+ * from the cache must therefore only be changed if the changes are written to
+ * the database. If the write fails or its transaction is rolled back, the
+ * dataset must be passed to {@link #invalidate(long)}.
+ * </p>
+ *
+ * <p>
+ * Caching is turned off with the {@link #ENABLED_PROPERTY} configuration
+ * property. A disabled cache loads a new copy of the data for every request.
+ * </p>
+ */
+public class DatasetCache {
+
+  /**
+   * Configuration property for turning the cache on or off
+   */
+  public static final String ENABLED_PROPERTY = "dataset.cache.enabled";
+
+  /**
+   * Configuration property for the maximum size of the cache in megabytes
+   */
+  public static final String MAX_SIZE_PROPERTY = "dataset.cache.max_mb";
+
+  /**
+   * The maximum size of the cache if {@link #MAX_SIZE_PROPERTY} is not set
+   */
+  public static final long DEFAULT_MAX_SIZE_MB = 1024L;
+
+  /**
+   * Estimated memory used by each sensor value, including its share of the
+   * lookup structures in {@link DatasetSensorValues}
+   */
+  protected static final long SENSOR_VALUE_BYTES = 200L;
+
+  /**
+   * Estimated memory used by each measurement and its measurement values
+   */
+  protected static final long MEASUREMENT_BYTES = 400L;
+
+  /**
+   * Estimated memory used by each data reduction record
+   */
+  protected static final long DATA_REDUCTION_RECORD_BYTES = 500L;
+
+  /**
+   * The types of item held in the cache
+   */
+  public enum Item {
+    SENSOR_VALUES, MEASUREMENTS, DATA_REDUCTION
+  }
+
+  /**
+   * Indicates whether or not caching is turned on
+   */
+  private final boolean enabled;
+
+  /**
+   * The maximum estimated size of the cache in bytes
+   */
+  private final long maxBytes;
+
+  /**
+   * The cached entries, in least recently used order
+   */
+  private final LinkedHashMap<String, Entry<?>> entries = new LinkedHashMap<String, Entry<?>>(
+    16, 0.75f, true);
+
+  /**
+   * The current version of each item, keyed by dataset and item type. Items
+   * that have never been changed are at version zero.
+   */
+  private final Map<String, Long> versions = new HashMap<String, Long>();
+
+  /**
+   * The estimated size of the cached entries in bytes
+   */
+  private long currentBytes = 0L;
+
+  private long hits = 0L;
+
+  private long misses = 0L;
+
+  private long evictions = 0L;
+
+  private long invalidations = 0L;
+
+  /**
+   * Create a cache.
+   *
+   * @param enabled
+   *          Indicates whether or not caching is turned on
+   * @param maxBytes
+   *          The maximum estimated size of the cache in bytes
+   */
+  public DatasetCache(boolean enabled, long maxBytes) {
+    this.enabled = enabled;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Create a cache from the application configuration. Caching is off unless
+   * {@link #ENABLED_PROPERTY} is {@code true}.
+   *
+   * @param config
+   *          The application configuration
+   * @return The cache
+   */
+  public static DatasetCache fromConfig(Properties config) {
+    boolean enabled = Boolean
+      .parseBoolean(config.getProperty(ENABLED_PROPERTY, "false").trim());
+
+    long maxMb = Long.parseLong(config
+      .getProperty(MAX_SIZE_PROPERTY, String.valueOf(DEFAULT_MAX_SIZE_MB))
+      .trim());
+
+    return new DatasetCache(enabled, maxMb * 1024L * 1024L);
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Get all the sensor values for a dataset, including those with a
+   * {@link uk.ac.exeter.QuinCe.data.Dataset.QC.Flag#FLUSHING} flag.
+   *
+   * @param conn
+   *          A database connection, used if the values must be loaded
+   * @param instrument
+   *          The instrument that the dataset belongs to
+   * @param datasetId
+   *          The dataset's database ID
+   * @return A lease on the values
+   * @throws RecordNotFoundException
+   *           If the instrument configuration does not match the values
+   * @throws DatabaseException
+   *           If a database error occurs
+   * @throws MissingParamException
+   *           If any required parameters are missing
+   * @see DataSetDataDB#getSensorValues(Connection, Instrument, long, boolean)
+   */
+  public Lease<DatasetSensorValues> getSensorValues(Connection conn,
+    Instrument instrument, long datasetId)
+    throws RecordNotFoundException, DatabaseException, MissingParamException {
+
+    return get(datasetId, Item.SENSOR_VALUES,
+      () -> DataSetDataDB.getSensorValues(conn, instrument, datasetId, false),
+      v -> v.getAll().size() * SENSOR_VALUE_BYTES);
+  }
+
+  /**
+   * Get the measurements for a dataset grouped by run type.
+   *
+   * @param conn
+   *          A database connection, used if the measurements must be loaded
+   * @param instrument
+   *          The instrument that the dataset belongs to
+   * @param datasetId
+   *          The dataset's database ID
+   * @return A lease on the measurements
+   * @throws RecordNotFoundException
+   *           Not thrown; declared for consistency with the other items
+   * @throws DatabaseException
+   *           If a database error occurs
+   * @throws MissingParamException
+   *           If any required parameters are missing
+   * @see DataSetDataDB#getMeasurementsByRunType(Connection, Instrument, long)
+   */
+  public Lease<DatasetMeasurements> getMeasurements(Connection conn,
+    Instrument instrument, long datasetId)
+    throws RecordNotFoundException, DatabaseException, MissingParamException {
+
+    return get(datasetId, Item.MEASUREMENTS,
+      () -> DataSetDataDB.getMeasurementsByRunType(conn, instrument,
+        datasetId),
+      m -> m.getTimeOrderedMeasurements().size() * MEASUREMENT_BYTES);
+  }
+
+  /**
+   * Get the data reduction records for a dataset, keyed by measurement ID and
+   * variable.
+   *
+   * @param conn
+   *          A database connection, used if the records must be loaded
+   * @param instrument
+   *          The instrument that the dataset belongs to
+   * @param dataSet
+   *          The dataset
+   * @return A lease on the records
+   * @throws RecordNotFoundException
+   *           Not thrown; declared for consistency with the other items
+   * @throws DatabaseException
+   *           If a database error occurs
+   * @throws MissingParamException
+   *           If any required parameters are missing
+   * @see DataSetDataDB#getDataReductionData(Connection, Instrument, DataSet)
+   */
+  public Lease<Map<Long, Map<Variable, DataReductionRecord>>> getDataReduction(
+    Connection conn, Instrument instrument, DataSet dataSet)
+    throws RecordNotFoundException, DatabaseException, MissingParamException {
+
+    return get(dataSet.getId(), Item.DATA_REDUCTION,
+      () -> DataSetDataDB.getDataReductionData(conn, instrument, dataSet),
+      d -> d.values().stream().mapToLong(Map::size).sum()
+        * DATA_REDUCTION_RECORD_BYTES);
+  }
+
+  /**
+   * Get an item from the cache, loading it if necessary.
+   *
+   * <p>
+   * The item is loaded outside the cache lock so other datasets can be used
+   * while it loads. If another caller loads the same item at the same time,
+   * the first one to finish is cached and given to both callers. If the item
+   * is changed in the database while it is being loaded, the loaded copy is
+   * given to the caller but not cached.
+   * </p>
+   *
+   * @param datasetId
+   *          The dataset's database ID
+   * @param item
+   *          The item type
+   * @param loader
+   *          Loads the item from the database
+   * @param sizer
+   *          Estimates the size of the item in bytes
+   * @return A lease on the item
+   * @throws RecordNotFoundException
+   *           If the item cannot be loaded
+   * @throws DatabaseException
+   *           If the item cannot be loaded
+   * @throws MissingParamException
+   *           If the item cannot be loaded
+   */
+  private <T> Lease<T> get(long datasetId, Item item, Loader<T> loader,
+    Sizer<T> sizer)
+    throws RecordNotFoundException, DatabaseException, MissingParamException {
+
+    Lease<T> result = null;
+    long version = 0L;
+
+    if (enabled) {
+      synchronized (this) {
+        version = getVersion(datasetId, item);
+        result = lease(makeKey(datasetId, item, version));
+        if (null != result) {
+          hits++;
+        } else {
+          misses++;
+        }
+      }
+    }
+
+    if (null == result) {
+      T value = loader.load();
+
+      if (!enabled) {
+        result = new Lease<T>(this, null, value);
+      } else {
+        synchronized (this) {
+          String key = makeKey(datasetId, item, version);
+
+          // Someone else may have loaded the item while we were loading it
+          result = lease(key);
+
+          if (null == result) {
+            if (version != getVersion(datasetId, item)) {
+              // The item changed while it was loading, so don't cache it
+              result = new Lease<T>(this, null, value);
+            } else {
+              Entry<T> entry = new Entry<T>(value, sizer.size(value));
+              entries.put(key, entry);
+              currentBytes += entry.bytes;
+              entry.refCount++;
+              result = new Lease<T>(this, entry, value);
+              evict();
+            }
+          }
+        }
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Lease the entry with the specified key, if it is in the cache.
+   *
+   * @param key
+   *          The entry key
+   * @return The lease, or {@code null} if the entry is not cached
+   */
+  @SuppressWarnings("unchecked")
+  private <T> Lease<T> lease(String key) {
+    Lease<T> result = null;
+
+    Entry<T> entry = (Entry<T>) entries.get(key);
+    if (null != entry) {
+      entry.refCount++;
+      result = new Lease<T>(this, entry, entry.value);
+    }
+
+    return result;
+  }
+
+  /**
+   * Release a lease on an entry.
+   *
+   * @param entry
+   *          The entry
+   */
+  private synchronized void release(Entry<?> entry) {
+    entry.refCount--;
+    if (entry.refCount == 0) {
+      evict();
+    }
+  }
+
+  /**
+   * Evict unleased entries, least recently used first, until the cache is
+   * within its size limit.
+   */
+  private void evict() {
+    Iterator<Entry<?>> iterator = entries.values().iterator();
+    while (currentBytes > maxBytes && iterator.hasNext()) {
+      Entry<?> entry = iterator.next();
+      if (entry.refCount == 0) {
+        iterator.remove();
+        currentBytes -= entry.bytes;
+        evictions++;
+      }
+    }
+  }
+
+  /**
+   * Discard all cached data for a dataset.
+   *
+   * @param datasetId
+   *          The dataset's database ID
+   */
+  public void invalidate(long datasetId) {
+    for (Item item : Item.values()) {
+      invalidate(datasetId, item);
+    }
+  }
+
+  /**
+   * Discard a cached item for a dataset. The item's version is increased so
+   * that copies still in use are not given to new callers.
+   *
+   * @param datasetId
+   *          The dataset's database ID
+   * @param item
+   *          The item type
+   */
+  public synchronized void invalidate(long datasetId, Item item) {
+    if (enabled) {
+      String versionKey = makeVersionKey(datasetId, item);
+      long version = getVersion(datasetId, item);
+
+      Entry<?> entry = entries.remove(makeKey(datasetId, item, version));
+      if (null != entry) {
+        currentBytes -= entry.bytes;
+        invalidations++;
+      }
+
+      versions.put(versionKey, version + 1);
+    }
+  }
+
+  /**
+   * Record that sensor values have been written to the database. This must be
+   * called before the values' dirty flags are cleared.
+   *
+   * <p>
+   * If every changed value is the object held in the cache, the cached values
+   * already match the database. Otherwise the dataset's cached sensor values
+   * are discarded.
+   * </p>
+   *
+   * @param sensorValues
+   *          The values that were written
+   */
+  protected synchronized void sensorValuesStored(
+    Collection<SensorValue> sensorValues) {
+
+    if (enabled) {
+      Map<Long, Boolean> writtenThroughCache = new HashMap<Long, Boolean>();
+
+      for (SensorValue value : sensorValues) {
+        if (value.isDirty()) {
+          long datasetId = value.getDatasetId();
+
+          Boolean throughCache = writtenThroughCache.get(datasetId);
+          if (null == throughCache || throughCache) {
+            Entry<?> entry = entries.get(makeKey(datasetId,
+              Item.SENSOR_VALUES, getVersion(datasetId, Item.SENSOR_VALUES)));
+
+            throughCache = null != entry && value.isInDatabase()
+              && ((DatasetSensorValues) entry.value)
+                .getById(value.getId()) == value;
+
+            writtenThroughCache.put(datasetId, throughCache);
+          }
+        }
+      }
+
+      for (Map.Entry<Long, Boolean> dataset : writtenThroughCache
+        .entrySet()) {
+        if (!dataset.getValue()) {
+          invalidate(dataset.getKey(), Item.SENSOR_VALUES);
+        }
+      }
+    }
+  }
+
+  /**
+   * Record that measurements have been written to the database.
+   *
+   * @param measurements
+   *          The measurements that were written
+   */
+  protected void measurementsStored(List<Measurement> measurements) {
+    measurements.stream().mapToLong(Measurement::getDatasetId).distinct()
+      .forEach(d -> invalidate(d, Item.MEASUREMENTS));
+  }
+
+  /**
+   * Get a snapshot of the cache statistics.
+   *
+   * @return The statistics
+   */
+  public synchronized Statistics getStatistics() {
+    return new Statistics(entries.size(), currentBytes, hits, misses,
+      evictions, invalidations);
+  }
+
+  private long getVersion(long datasetId, Item item) {
+    Long version = versions.get(makeVersionKey(datasetId, item));
+    return null == version ? 0L : version;
+  }
+
+  private String makeVersionKey(long datasetId, Item item) {
+    return datasetId + "_" + item;
+  }
+
+  private String makeKey(long datasetId, Item item, long version) {
+    return makeVersionKey(datasetId, item) + "_" + version;
+  }
+
+  /**
+   * Loads a cache item from the database
+   */
+  @FunctionalInterface
+  private interface Loader<T> {
+    T load()
+      throws RecordNotFoundException, DatabaseException, MissingParamException;
+  }
+
+  /**
+   * Estimates the memory used by a cache item
+   */
+  @FunctionalInterface
+  private interface Sizer<T> {
+    long size(T value);
+  }
+
+  /**
+   * A cached item
+   */
+  private static class Entry<T> {
+
+    private final T value;
+
+    /**
+     * The estimated size of the item in bytes
+     */
+    private final long bytes;
+
+    /**
+     * The number of open leases on the entry
+     */
+    private int refCount = 0;
+
+    private Entry(T value, long bytes) {
+      this.value = value;
+      this.bytes = bytes;
+    }
+  }
+
+  /**
+   * A caller's hold on an item from the cache. The item will not be evicted
+   * until all leases on it are closed.
+   *
+   * <p>
+   * Closing a lease more than once has no effect.
+   * </p>
+   *
+   * @param <T>
+   *          The item type
+   */
+  public static class Lease<T> implements AutoCloseable {
+
+    private final DatasetCache cache;
+
+    /**
+     * The cache entry, or {@code null} if the item is not cached
+     */
+    private Entry<?> entry;
+
+    private final T value;
+
+    private Lease(DatasetCache cache, Entry<?> entry, T value) {
+      this.cache = cache;
+      this.entry = entry;
+      this.value = value;
+    }
+
+    /**
+     * Get the leased item.
+     *
+     * @return The item
+     */
+    public T get() {
+      return value;
+    }
+
+    @Override
+    public synchronized void close() {
+      if (null != entry) {
+        cache.release(entry);
+        entry = null;
+      }
+    }
+  }
+
+  /**
+   * Snapshot of the cache usage
+   */
+  public static class Statistics {
+
+    private final int entryCount;
+
+    private final long bytes;
+
+    private final long hits;
+
+    private final long misses;
+
+    private final long evictions;
+
+    private final long invalidations;
+
+    private Statistics(int entryCount, long bytes, long hits, long misses,
+      long evictions, long invalidations) {
+      this.entryCount = entryCount;
+      this.bytes = bytes;
+      this.hits = hits;
+      this.misses = misses;
+      this.evictions = evictions;
+      this.invalidations = invalidations;
+    }
+
+    /**
+     * Get the number of items in the cache.
+     *
+     * @return The item count
+     */
+    public int getEntryCount() {
+      return entryCount;
+    }
+
+    /**
+     * Get the estimated size of the items in the cache.
+     *
+     * @return The size in bytes
+     */
+    public long getBytes() {
+      return bytes;
+    }
+
+    /**
+     * Get the number of requests that were served from the cache.
+     *
+     * @return The number of hits
+     */
+    public long getHits() {
+      return hits;
+    }
+
+    /**
+     * Get the number of requests that had to load data from the database.
+     *
+     * @return The number of misses
+     */
+    public long getMisses() {
+      return misses;
+    }
+
+    /**
+     * Get the number of items removed to keep the cache within its size
+     * limit.
+     *
+     * @return The number of evictions
+     */
+    public long getEvictions() {
+      return evictions;
+    }
+
+    /**
+     * Get the number of cached items discarded because their data changed.
+     *
+     * @return The number of invalidations
+     */
+    public long getInvalidations() {
+      return invalidations;
+    }
+
+    @Override
+    public String toString() {
+      return "entries=" + entryCount + ", bytes=" + bytes + ", hits=" + hits
+        + ", misses=" + misses + ", evictions=" + evictions
+        + ", invalidations=" + invalidations;
+    }
+  }
+}
@@ -2,6 +2,7 @@ package uk.ac.exeter.QuinCe.data.Dataset;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -37,6 +38,11 @@ public class DatasetMeasurements {
    */
   private List<LocalDateTime> measurementTimes = null;;
 
+  /**
+   * The measurement times in milliseconds since the epoch, in time order.
+   */
+  private long[] measurementTimeIndex = null;
+
   /**
    * Basic constructor.
    */
@@ -92,6 +98,20 @@ public class DatasetMeasurements {
    *
    * @return The measurement times.
    */
+  /**
+   * Get the times of the measurements in milliseconds since the epoch, in time
+   * order. The returned array must not be modified.
+   *
+   * @return The measurement times
+   */
+  public long[] getMeasurementTimeIndex() {
+    if (null == timeOrderedMeasurements) {
+      makeTimeOrderedMeasurements();
+    }
+
+    return measurementTimeIndex;
+  }
+
   public List<LocalDateTime> getMeasurementTimes() {
     if (null == timeOrderedMeasurements) {
       makeTimeOrderedMeasurements();
@@ -115,6 +135,11 @@ public class DatasetMeasurements {
       timeOrderedMeasurements.size());
     timeOrderedMeasurements.forEach(m -> times.add(m.getTime()));
     measurementTimes = Collections.unmodifiableList(times);
+
+    measurementTimeIndex = new long[timeOrderedMeasurements.size()];
+    for (int i = 0; i < measurementTimeIndex.length; i++) {
+      measurementTimeIndex[i] = timeOrderedMeasurements.get(i).getTimeMillis();
+    }
   }
 
   public TreeSet<Measurement> getMeasurementsInSameRun(Measurement start) {
@@ -123,7 +148,12 @@ public class DatasetMeasurements {
       Measurement.TIME_COMPARATOR);
     result.add(start);
 
-    int startPos = getTimeOrderedMeasurements().indexOf(start);
+    // Measurements are unique by time, so find the start by its time
+    int startPos = Arrays.binarySearch(getMeasurementTimeIndex(),
+      start.getTimeMillis());
+    if (startPos < 0) {
+      startPos = -1;
+    }
 
     // Search backwards until will find a measurement that has a different run
     // type
@@ -1,42 +1,75 @@
 package uk.ac.exeter.QuinCe.data.Dataset;
 
 import java.time.LocalDateTime;
+import java.util.AbstractCollection;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.TreeSet;
 
 import uk.ac.exeter.QuinCe.data.Dataset.QC.Flag;
 import uk.ac.exeter.QuinCe.data.Instrument.Instrument;
 import uk.ac.exeter.QuinCe.data.Instrument.SensorDefinition.SensorType;
+import uk.ac.exeter.QuinCe.utils.DateTimeUtils;
 import uk.ac.exeter.QuinCe.utils.RecordNotFoundException;
 
 /**
  * Data structure holding all the {@code SensorValue}s for a dataset, accessible
  * by different lookups.
  *
+ * <p>
+ * The values are held once, in a time-ordered {@link SearchableSensorValuesList}
+ * for each column. Lookups by time use the primitive time index of each column,
+ * and lookups by ID use a sorted array of IDs. These indexes, along with the
+ * list of all times and the sets of values for each {@link SensorType}, are
+ * built when they are first needed and discarded when a value is added.
+ * </p>
+ *
  * @author Steve Jones
  *
  */
 public class DatasetSensorValues {
 
-  private Map<Long, SensorValue> valuesById;
+  /**
+   * Orders sensor values by time
+   */
+  private static final Comparator<SensorValue> TIME_ORDER = Comparator
+    .comparingLong(SensorValue::getTimeMillis);
 
   private Map<Long, SearchableSensorValuesList> valuesByColumn;
 
-  private Map<SensorType, TreeSet<SensorValue>> valuesBySensorType;
+  /**
+   * The sensor type of each column
+   */
+  private Map<Long, SensorType> columnSensorTypes;
 
-  private TreeMap<LocalDateTime, Map<Long, SensorValue>> valuesByDateAndColumn;
+  /**
+   * The columns whose values were not added in time order, and must be sorted
+   * before they are searched
+   */
+  private Set<Long> unsortedColumns;
 
   private final Instrument instrument;
 
   public static final long FLAG_TOTAL = -1L;
 
+  /**
+   * The total number of values
+   */
+  private int size = 0;
+
+  /**
+   * The distinct times of all values in the dataset, in milliseconds
+   */
+  private long[] allTimes = null;
+
   /**
    * A cache of all the times in the dataset
    *
@@ -44,24 +77,55 @@ public class DatasetSensorValues {
    */
   private List<LocalDateTime> times = null;
 
+  /**
+   * All values in ascending order of ID
+   */
+  private SensorValue[] valuesBySortedId = null;
+
+  /**
+   * The values for each sensor type
+   *
+   * @see #getBySensorType(SensorType)
+   */
+  private Map<SensorType, TreeSet<SensorValue>> valuesBySensorType;
+
   public DatasetSensorValues(Instrument instrument) {
-    valuesById = new HashMap<Long, SensorValue>();
     valuesByColumn = new HashMap<Long, SearchableSensorValuesList>();
+    columnSensorTypes = new HashMap<Long, SensorType>();
+    unsortedColumns = new HashSet<Long>();
     valuesBySensorType = new HashMap<SensorType, TreeSet<SensorValue>>();
-    valuesByDateAndColumn = new TreeMap<LocalDateTime, Map<Long, SensorValue>>();
 
     this.instrument = instrument;
   }
 
-  public void add(SensorValue sensorValue) throws RecordNotFoundException {
+  public synchronized void add(SensorValue sensorValue)
+    throws RecordNotFoundException {
+
+    long columnId = sensorValue.getColumnId();
+    SearchableSensorValuesList columnValues = valuesByColumn.get(columnId);
+
+    if (null == columnValues) {
+      // Only look up the sensor type once per column
+      SensorType sensorType = instrument.getSensorAssignments()
+        .getSensorTypeForDBColumn(columnId);
+
+      columnSensorTypes.put(columnId, sensorType);
+      columnValues = new SearchableSensorValuesList(columnId);
+      valuesByColumn.put(columnId, columnValues);
+    } else if (columnValues.size() > 0 && sensorValue
+      .getTimeMillis() < columnValues.get(columnValues.size() - 1)
+        .getTimeMillis()) {
+      unsortedColumns.add(columnId);
+    }
 
-    SensorType sensorType = instrument.getSensorAssignments()
-      .getSensorTypeForDBColumn(sensorValue.getColumnId());
+    columnValues.add(sensorValue);
+    size++;
 
-    addById(sensorValue);
-    addByColumn(sensorValue);
-    addBySensorType(sensorValue, sensorType);
-    addByDateAndColumn(sensorValue);
+    // Clear the indexes, since they will need rebuilding.
+    allTimes = null;
+    times = null;
+    valuesBySortedId = null;
+    valuesBySensorType.clear();
   }
 
   public Set<Long> getColumnIds() {
@@ -69,72 +133,160 @@ public class DatasetSensorValues {
   }
 
   public SearchableSensorValuesList getColumnValues(long columnId) {
+    sortColumns();
     return valuesByColumn.get(columnId);
   }
 
   public SensorValue getById(long id) {
-    return valuesById.get(id);
-  }
+    SensorValue result = null;
+
+    // Search a local reference to the index, since add() may discard it
+    SensorValue[] values = buildIdIndex();
+
+    int low = 0;
+    int high = values.length - 1;
+    while (null == result && low <= high) {
+      int mid = (low + high) >>> 1;
+      long midId = values[mid].getId();
+      if (midId < id) {
+        low = mid + 1;
+      } else if (midId > id) {
+        high = mid - 1;
+      } else {
+        result = values[mid];
+      }
+    }
 
-  public TreeSet<SensorValue> getBySensorType(SensorType sensorType) {
-    return valuesBySensorType.get(sensorType);
+    return result;
   }
 
-  public Collection<SensorValue> getAll() {
-    return valuesById.values();
-  }
+  public synchronized TreeSet<SensorValue> getBySensorType(
+    SensorType sensorType) {
 
-  private void addById(SensorValue sensorValue) {
-    valuesById.put(sensorValue.getId(), sensorValue);
-  }
+    TreeSet<SensorValue> result = valuesBySensorType.get(sensorType);
 
-  private void addByColumn(SensorValue sensorValue) {
-    long columnId = sensorValue.getColumnId();
-    if (!valuesByColumn.containsKey(columnId)) {
-      valuesByColumn.put(columnId, new SearchableSensorValuesList(columnId));
-    }
+    if (null == result) {
+      for (Map.Entry<Long, SensorType> column : columnSensorTypes
+        .entrySet()) {
 
-    valuesByColumn.get(columnId).add(sensorValue);
-  }
+        if (column.getValue().equals(sensorType)) {
+          if (null == result) {
+            result = new TreeSet<SensorValue>();
+          }
 
-  private void addBySensorType(SensorValue sensorValue, SensorType sensorType) {
-    if (!valuesBySensorType.containsKey(sensorType)) {
-      valuesBySensorType.put(sensorType, new TreeSet<SensorValue>());
+          result.addAll(valuesByColumn.get(column.getKey()));
+        }
+      }
+
+      if (null != result) {
+        valuesBySensorType.put(sensorType, result);
+      }
     }
 
-    valuesBySensorType.get(sensorType).add(sensorValue);
+    return result;
   }
 
-  private void addByDateAndColumn(SensorValue sensorValue)
-    throws RecordNotFoundException {
-
-    LocalDateTime time = sensorValue.getTime();
-
-    if (!valuesByDateAndColumn.containsKey(time)) {
-      valuesByDateAndColumn.put(time, new HashMap<Long, SensorValue>());
-    }
+  /**
+   * Get all the values in the dataset. The returned collection is a read-only
+   * view of the values held in each column.
+   *
+   * @return All the values
+   */
+  public Collection<SensorValue> getAll() {
+    return new AbstractCollection<SensorValue>() {
 
-    valuesByDateAndColumn.get(time).put(sensorValue.getColumnId(), sensorValue);
+      @Override
+      public Iterator<SensorValue> iterator() {
+        return valuesByColumn.values().stream()
+          .flatMap(SearchableSensorValuesList::stream).iterator();
+      }
 
-    // Clear the cache of times, since it will need rebuilding.
-    times = null;
+      @Override
+      public int size() {
+        return size;
+      }
+    };
   }
 
-  public List<LocalDateTime> getTimes() {
-    if (null == times) {
-      times = new ArrayList<LocalDateTime>(valuesByDateAndColumn.keySet());
-    }
-
+  public synchronized List<LocalDateTime> getTimes() {
+    buildTimeIndex();
     return times;
   }
 
+  /**
+   * Get all the distinct times in the dataset in milliseconds since the epoch,
+   * in ascending order. The returned array must not be modified.
+   *
+   * @return The times
+   */
+  public long[] getTimeIndex() {
+    return buildTimeIndex();
+  }
+
+  /**
+   * Get the values for all columns at the specified time, keyed by column ID.
+   *
+   * @param time
+   *          The time
+   * @return The values, or {@code null} if there are no values at the time
+   */
   public Map<Long, SensorValue> get(LocalDateTime time) {
+    return get(DateTimeUtils.dateToLong(time));
+  }
 
-    return valuesByDateAndColumn.get(time);
+  /**
+   * Get the values for all columns at the specified time, keyed by column ID.
+   *
+   * @param time
+   *          The time, in milliseconds since the epoch
+   * @return The values, or {@code null} if there are no values at the time
+   */
+  public Map<Long, SensorValue> get(long time) {
+
+    Map<Long, SensorValue> result = null;
+
+    if (Arrays.binarySearch(buildTimeIndex(), time) >= 0) {
+      result = new HashMap<Long, SensorValue>();
+
+      for (Map.Entry<Long, SearchableSensorValuesList> column : valuesByColumn
+        .entrySet()) {
+
+        int index = column.getValue().timeIndexSearch(time);
+        if (index >= 0) {
+          result.put(column.getKey(), column.getValue().get(index));
+        }
+      }
+    }
+
+    return result;
   }
 
   public SensorValue getSensorValue(LocalDateTime time, long columnID) {
-    return valuesByDateAndColumn.get(time).get(columnID);
+    return getSensorValue(DateTimeUtils.dateToLong(time), columnID);
+  }
+
+  /**
+   * Get the value for a column at the specified time.
+   *
+   * @param time
+   *          The time, in milliseconds since the epoch
+   * @param columnID
+   *          The column ID
+   * @return The value, or {@code null} if there is no value
+   */
+  public SensorValue getSensorValue(long time, long columnID) {
+    SensorValue result = null;
+
+    sortColumns();
+    SearchableSensorValuesList columnValues = valuesByColumn.get(columnID);
+    if (null != columnValues) {
+      int index = columnValues.timeIndexSearch(time);
+      if (index >= 0) {
+        result = columnValues.get(index);
+      }
+    }
+
+    return result;
   }
 
   /**
@@ -153,25 +305,32 @@ public class DatasetSensorValues {
    *          The start time (inclusive).
    * @param end
    *          The end time (exclusive).
-   * @return The sensor values that fall within the time range.
+   * @return The sensor values that fall within the time range, in time order.
    */
   public List<SensorValue> getByTimeRange(LocalDateTime start,
     LocalDateTime end) {
 
     List<SensorValue> result = new ArrayList<SensorValue>();
 
-    List<LocalDateTime> times = getTimes();
+    long startTime = DateTimeUtils.dateToLong(start);
+    long endTime = DateTimeUtils.dateToLong(end);
 
-    int timeIndex = Collections.binarySearch(times, start);
-    if (timeIndex >= 0) {
-      while (times.get(timeIndex).isBefore(end)) {
+    if (Arrays.binarySearch(buildTimeIndex(), startTime) >= 0) {
+      for (SearchableSensorValuesList columnValues : valuesByColumn.values()) {
+        long[] columnTimes = columnValues.getTimeIndex();
 
-        Map<Long, SensorValue> timeSensorValues = valuesByDateAndColumn
-          .get(times.get(timeIndex));
+        int index = Arrays.binarySearch(columnTimes, startTime);
+        if (index < 0) {
+          index = -index - 1;
+        }
 
-        result.addAll(timeSensorValues.values());
-        timeIndex++;
+        while (index < columnTimes.length && columnTimes[index] < endTime) {
+          result.add(columnValues.get(index));
+          index++;
+        }
       }
+
+      result.sort(TIME_ORDER);
     }
 
     return result;
@@ -190,13 +349,19 @@ public class DatasetSensorValues {
   public SensorValue getSensorValueOnOrBefore(long columnId,
     LocalDateTime time) {
 
-    SensorValue result = valuesByDateAndColumn.get(time).get(columnId);
+    SensorValue result = null;
 
-    if (null == result) {
-      int timeIndex = getTimes().indexOf(time);
-      while (null == result && timeIndex > 0) {
-        timeIndex--;
-        result = valuesByDateAndColumn.get(time).get(columnId);
+    sortColumns();
+    SearchableSensorValuesList columnValues = valuesByColumn.get(columnId);
+    if (null != columnValues) {
+      int index = columnValues.timeIndexSearch(time);
+      if (index < 0) {
+        // The value before the insertion point
+        index = -index - 2;
+      }
+
+      if (index >= 0) {
+        result = columnValues.get(index);
       }
     }
 
@@ -253,4 +418,93 @@ public class DatasetSensorValues {
   public Instrument getInstrument() {
     return instrument;
   }
+
+  /**
+   * Sort any columns whose values were not added in time order.
+   */
+  private synchronized void sortColumns() {
+    if (unsortedColumns.size() > 0) {
+      for (long columnId : unsortedColumns) {
+        valuesByColumn.get(columnId).sort(TIME_ORDER);
+      }
+
+      unsortedColumns.clear();
+    }
+  }
+
+  /**
+   * Build the list of all distinct times in the dataset, if it has not
+   * already been built.
+   *
+   * <p>
+   * Callers must use the returned array rather than reading
+   * {@link #allTimes} directly, since {@link #add(SensorValue)} can discard
+   * the index from another thread.
+   * </p>
+   *
+   * @return The distinct times, in milliseconds since the epoch
+   */
+  private synchronized long[] buildTimeIndex() {
+    if (null == allTimes) {
+      sortColumns();
+
+      long[] merged = new long[size];
+      int position = 0;
+      for (SearchableSensorValuesList columnValues : valuesByColumn.values()) {
+        long[] columnTimes = columnValues.getTimeIndex();
+        System.arraycopy(columnTimes, 0, merged, position, columnTimes.length);
+        position += columnTimes.length;
+      }
+
+      Arrays.sort(merged);
+
+      int distinctCount = 0;
+      for (int i = 0; i < merged.length; i++) {
+        if (i == 0 || merged[i] != merged[i - 1]) {
+          merged[distinctCount] = merged[i];
+          distinctCount++;
+        }
+      }
+
+      List<LocalDateTime> timesList = new ArrayList<LocalDateTime>(
+        distinctCount);
+      for (int i = 0; i < distinctCount; i++) {
+        timesList.add(DateTimeUtils.longToDate(merged[i]));
+      }
+
+      allTimes = Arrays.copyOf(merged, distinctCount);
+      times = timesList;
+    }
+
+    return allTimes;
+  }
+
+  /**
+   * Build the index of values by ID, if it has not already been built.
+   *
+   * <p>
+   * Callers must use the returned array rather than reading
+   * {@link #valuesBySortedId} directly, since {@link #add(SensorValue)} can
+   * discard the index from another thread.
+   * </p>
+   *
+   * @return The values in ascending order of ID
+   */
+  private synchronized SensorValue[] buildIdIndex() {
+    if (null == valuesBySortedId) {
+      SensorValue[] values = new SensorValue[size];
+      int position = 0;
+      for (SearchableSensorValuesList columnValues : valuesByColumn.values()) {
+        for (SensorValue value : columnValues) {
+          values[position] = value;
+          position++;
+        }
+      }
+
+      Arrays.sort(values, Comparator.comparingLong(SensorValue::getId));
+      valuesBySortedId = values;
+    }
+
+    return valuesBySortedId;
+  }
 }
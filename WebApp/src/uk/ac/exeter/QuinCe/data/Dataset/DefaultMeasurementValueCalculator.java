@@ -62,7 +62,8 @@ public class DefaultMeasurementValueCalculator
       MeasurementValue result = new MeasurementValue(sensorType);
 
       if (sensorConfig.isCoreSensor(sensorType)) {
-        SensorValue sensorValue = sensorValues.get(measurement.getTime());
+        SensorValue sensorValue = sensorValues
+          .getAtTime(measurement.getTimeMillis());
         if (null != sensorValue) {
           result.addSensorValue(sensorValue, true);
           result.setCalculatedValue(sensorValue.getDoubleValue());
@@ -72,7 +73,7 @@ public class DefaultMeasurementValueCalculator
         // Otherwise we get the closest GOOD (or best available quality) values
         // we can, interpolating where required.
         List<SensorValue> valuesToUse = sensorValues
-          .getWithInterpolation(measurement.getTime(), true);
+          .getWithInterpolation(measurement.getTimeMillis(), true);
 
         switch (valuesToUse.size()) {
         case 0: {
@@ -263,8 +264,8 @@ public class DefaultMeasurementValueCalculator
     if (startPoint >= 0) {
       int searchPoint = startPoint;
       while (searchPoint >= 0) {
-        LocalDateTime testTime = targetMeasurements.get(searchPoint).getTime();
-        SensorValue testValue = sensorValues.get(testTime);
+        long testTime = targetMeasurements.get(searchPoint).getTimeMillis();
+        SensorValue testValue = sensorValues.getAtTime(testTime);
         if (null != testValue && testValue.getUserQCFlag().isGood()) {
           result.add(testValue);
           break;
@@ -279,7 +280,8 @@ public class DefaultMeasurementValueCalculator
         .getMeasurementsInSameRun(targetMeasurements.get(startPoint));
 
       for (Measurement measurement : runMeasurements) {
-        SensorValue valueCandidate = sensorValues.get(measurement.getTime());
+        SensorValue valueCandidate = sensorValues
+          .getAtTime(measurement.getTimeMillis());
         if (null != valueCandidate && valueCandidate.getUserQCFlag().isGood()) {
           result.add(valueCandidate);
         }
@@ -328,8 +330,8 @@ public class DefaultMeasurementValueCalculator
     if (startPoint < targetMeasurements.size()) {
       int searchPoint = startPoint;
       while (searchPoint >= 0 && searchPoint < targetMeasurements.size()) {
-        LocalDateTime testTime = targetMeasurements.get(searchPoint).getTime();
-        SensorValue testValue = sensorValues.get(testTime);
+        long testTime = targetMeasurements.get(searchPoint).getTimeMillis();
+        SensorValue testValue = sensorValues.getAtTime(testTime);
         if (null != testValue && testValue.getUserQCFlag().isGood()) {
           result.add(testValue);
           break;
@@ -344,7 +346,8 @@ public class DefaultMeasurementValueCalculator
         .getMeasurementsInSameRun(targetMeasurements.get(startPoint));
 
       for (Measurement measurement : runMeasurements) {
-        SensorValue valueCandidate = sensorValues.get(measurement.getTime());
+        SensorValue valueCandidate = sensorValues
+          .getAtTime(measurement.getTimeMillis());
         if (null != valueCandidate && valueCandidate.getUserQCFlag().isGood()) {
           result.add(valueCandidate);
         }
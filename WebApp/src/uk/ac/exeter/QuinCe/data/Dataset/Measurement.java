@@ -17,6 +17,7 @@ import uk.ac.exeter.QuinCe.data.Instrument.SensorDefinition.SensorType;
 import uk.ac.exeter.QuinCe.data.Instrument.SensorDefinition.SensorTypeNotFoundException;
 import uk.ac.exeter.QuinCe.data.Instrument.SensorDefinition.SensorsConfiguration;
 import uk.ac.exeter.QuinCe.utils.DatabaseUtils;
+import uk.ac.exeter.QuinCe.utils.DateTimeUtils;
 import uk.ac.exeter.QuinCe.web.system.ResourceManager;
 
 /**
@@ -44,9 +45,9 @@ public class Measurement implements Comparable<Measurement> {
   private final long datasetId;
 
   /**
-   * The timestamp of the measurement
+   * The timestamp of the measurement, in milliseconds since the epoch
    */
-  private final LocalDateTime time;
+  private final long time;
 
   /**
    * The run type of the measurement (optional)
@@ -86,7 +87,7 @@ public class Measurement implements Comparable<Measurement> {
 
     this.id = DatabaseUtils.NO_DATABASE_RECORD;
     this.datasetId = datasetId;
-    this.time = time;
+    this.time = DateTimeUtils.dateToLong(time);
     this.runType = runType;
     this.measurementValues = new HashMap<Long, MeasurementValue>();
   }
@@ -112,7 +113,7 @@ public class Measurement implements Comparable<Measurement> {
 
     this.id = id;
     this.datasetId = datasetId;
-    this.time = time;
+    this.time = DateTimeUtils.dateToLong(time);
     this.runType = runType;
     this.measurementValues = new HashMap<Long, MeasurementValue>();
   }
@@ -120,6 +121,28 @@ public class Measurement implements Comparable<Measurement> {
   public Measurement(long id, long datasetId, LocalDateTime time,
     String runType, HashMap<Long, MeasurementValue> measurementValues) {
 
+    this(id, datasetId, DateTimeUtils.dateToLong(time), runType,
+      measurementValues);
+  }
+
+  /**
+   * Constructor for a measurement whose time is already in milliseconds, e.g.
+   * from the database
+   *
+   * @param id
+   *          The measurement's database ID
+   * @param datasetId
+   *          The database ID of the dataset to which the measurement belongs
+   * @param time
+   *          The timestamp of the measurement in milliseconds since the epoch
+   * @param runType
+   *          The run type of the measurement
+   * @param measurementValues
+   *          The measurement values
+   */
+  public Measurement(long id, long datasetId, long time, String runType,
+    HashMap<Long, MeasurementValue> measurementValues) {
+
     this.id = id;
     this.datasetId = datasetId;
     this.time = time;
@@ -146,7 +169,7 @@ public class Measurement implements Comparable<Measurement> {
   private Measurement(LocalDateTime time) {
     this.id = DatabaseUtils.NO_DATABASE_RECORD;
     this.datasetId = DatabaseUtils.NO_DATABASE_RECORD;
-    this.time = time;
+    this.time = DateTimeUtils.dateToLong(time);
     this.runType = null;
     this.measurementValues = null;
   }
@@ -185,6 +208,17 @@ public class Measurement implements Comparable<Measurement> {
    * @return The measurement time
    */
   public LocalDateTime getTime() {
+    return DateTimeUtils.longToDate(time);
+  }
+
+  /**
+   * Get the time of the measurement in milliseconds since the epoch. This
+   * should be used in preference to {@link #getTime()} for comparisons and
+   * searches.
+   *
+   * @return The measurement time
+   */
+  public long getTimeMillis() {
     return time;
   }
 
@@ -206,7 +240,7 @@ public class Measurement implements Comparable<Measurement> {
     int result = 0;
 
     if (o.id != id) {
-      result = time.compareTo(o.time);
+      result = Long.compare(time, o.time);
     }
 
     return result;
@@ -268,7 +302,7 @@ public class Measurement implements Comparable<Measurement> {
     if (!(obj instanceof Measurement))
       return false;
     Measurement other = (Measurement) obj;
-    return datasetId == other.datasetId && Objects.equals(time, other.time);
+    return datasetId == other.datasetId && time == other.time;
   }
 
   @Override
@@ -284,6 +318,6 @@ public class Measurement implements Comparable<Measurement> {
 class MeasurementTimeComparator implements Comparator<Measurement> {
   @Override
   public int compare(Measurement o1, Measurement o2) {
-    return o1.getTime().compareTo(o2.getTime());
+    return Long.compare(o1.getTimeMillis(), o2.getTimeMillis());
   }
 }
@@ -1,11 +1,17 @@
 package uk.ac.exeter.QuinCe.data.Dataset.QC.Routines;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
 import com.google.gson.Gson;
 
 import uk.ac.exeter.QuinCe.data.Dataset.QC.Flag;
+import uk.ac.exeter.QuinCe.data.Dataset.QC.InvalidFlagException;
 import uk.ac.exeter.QuinCe.utils.StringUtils;
 
 public class AutoQCResult extends ArrayList<RoutineFlag> {
@@ -17,6 +23,40 @@ public class AutoQCResult extends ArrayList<RoutineFlag> {
 
   private static Gson GSON = null;
 
+  /**
+   * The version of the binary encoding produced by {@link #toBytes()}
+   */
+  private static final byte BINARY_VERSION = 1;
+
+  /**
+   * The routine names that have a fixed code in the binary encoding. The codes
+   * are the positions in this array, so new routines must only ever be added
+   * to the end.
+   */
+  private static final String[] ROUTINE_CODES = { "RangeCheck",
+    "GradientTest", "HighDelta", "ConstantValue", "Outlier", "PositionQC" };
+
+  /**
+   * Routine code for routines that are not in {@link #ROUTINE_CODES}. The
+   * routine name is written in full after the code.
+   */
+  private static final int NAMED_ROUTINE = 0xFF;
+
+  /**
+   * Value type for a {@code null} required or actual value
+   */
+  private static final byte NULL_VALUE = 0;
+
+  /**
+   * Value type for a required or actual value stored as a double
+   */
+  private static final byte DOUBLE_VALUE = 1;
+
+  /**
+   * Value type for a required or actual value stored as a string
+   */
+  private static final byte STRING_VALUE = 2;
+
   /**
    * Create an empty AutoQCResult
    */
@@ -42,6 +82,173 @@ public class AutoQCResult extends ArrayList<RoutineFlag> {
     return result;
   }
 
+  /**
+   * Build an AutoQCResult from the binary encoding generated by
+   * {@link #toBytes()}. A {@code null} or empty array gives an empty result.
+   *
+   * @param bytes
+   *          The encoded result
+   * @return The AutoQCResult
+   * @throws IllegalArgumentException
+   *           If the encoded result is invalid
+   */
+  public static AutoQCResult buildFromBytes(byte[] bytes) {
+    AutoQCResult result = new AutoQCResult();
+
+    if (null != bytes && bytes.length > 0) {
+      try (DataInputStream in = new DataInputStream(
+        new ByteArrayInputStream(bytes))) {
+
+        byte version = in.readByte();
+        if (version != BINARY_VERSION) {
+          throw new IllegalArgumentException(
+            "Unrecognised auto QC encoding version " + version);
+        }
+
+        int count = in.readUnsignedShort();
+        result.ensureCapacity(count);
+
+        for (int i = 0; i < count; i++) {
+          int routineCode = in.readUnsignedByte();
+          String routineName;
+          if (routineCode == NAMED_ROUTINE) {
+            routineName = in.readUTF();
+          } else {
+            routineName = ROUTINE_CODES[routineCode];
+          }
+
+          Flag flag = new Flag(in.readByte());
+          String requiredValue = readValue(in);
+          String actualValue = readValue(in);
+
+          result.add(
+            new RoutineFlag(routineName, flag, requiredValue, actualValue));
+        }
+      } catch (IOException | InvalidFlagException
+        | ArrayIndexOutOfBoundsException e) {
+        throw new IllegalArgumentException("Invalid auto QC encoding", e);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Build an AutoQCResult from a stored result, which may be in the binary
+   * encoding or, for results stored before the binary encoding was introduced,
+   * in JSON. The binary encoding is used if it is present.
+   *
+   * @param bytes
+   *          The binary encoded result
+   * @param json
+   *          The JSON encoded result
+   * @return The AutoQCResult
+   */
+  public static AutoQCResult build(byte[] bytes, String json) {
+    AutoQCResult result;
+
+    if (null != bytes) {
+      result = buildFromBytes(bytes);
+    } else {
+      result = buildFromJson(json);
+    }
+
+    return result;
+  }
+
+  /**
+   * Read a required or actual value written by
+   * {@link #writeValue(DataOutputStream, String)}.
+   *
+   * @param in
+   *          The input stream
+   * @return The value
+   * @throws IOException
+   *           If the value cannot be read
+   */
+  private static String readValue(DataInputStream in) throws IOException {
+    String result;
+
+    byte type = in.readByte();
+    switch (type) {
+    case NULL_VALUE: {
+      result = null;
+      break;
+    }
+    case DOUBLE_VALUE: {
+      result = String.valueOf(in.readDouble());
+      break;
+    }
+    case STRING_VALUE: {
+      result = in.readUTF();
+      break;
+    }
+    default: {
+      throw new IOException("Unrecognised value type " + type);
+    }
+    }
+
+    return result;
+  }
+
+  /**
+   * Write a required or actual value. Values whose string form survives a
+   * round trip through a {@code double} are written as eight bytes; all others
+   * are written as strings.
+   *
+   * @param out
+   *          The output stream
+   * @param value
+   *          The value
+   * @throws IOException
+   *           If the value cannot be written
+   */
+  private static void writeValue(DataOutputStream out, String value)
+    throws IOException {
+
+    if (null == value) {
+      out.writeByte(NULL_VALUE);
+    } else {
+      Double doubleValue = null;
+      if (value.length() > 0 && (Character.isDigit(value.charAt(0))
+        || value.charAt(0) == '-')) {
+        try {
+          doubleValue = Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+          // Not a number - write it as a string
+        }
+      }
+
+      if (null != doubleValue && String.valueOf(doubleValue).equals(value)) {
+        out.writeByte(DOUBLE_VALUE);
+        out.writeDouble(doubleValue);
+      } else {
+        out.writeByte(STRING_VALUE);
+        out.writeUTF(value);
+      }
+    }
+  }
+
+  /**
+   * Get the binary code for a routine name
+   *
+   * @param routineName
+   *          The routine name
+   * @return The routine code
+   */
+  private static int getRoutineCode(String routineName) {
+    int result = NAMED_ROUTINE;
+
+    for (int i = 0; i < ROUTINE_CODES.length; i++) {
+      if (ROUTINE_CODES[i].equals(routineName)) {
+        result = i;
+        break;
+      }
+    }
+
+    return result;
+  }
+
   private static Gson getGson() {
     if (null == GSON) {
       GSON = new Gson();
@@ -85,6 +292,45 @@ public class AutoQCResult extends ArrayList<RoutineFlag> {
     return json;
   }
 
+  /**
+   * Generate a compact binary representation of this result. Each flag is
+   * stored as a routine code, the flag value and the required and actual
+   * values. Returns {@code null} if the result is empty.
+   *
+   * @return The binary representation
+   */
+  public byte[] toBytes() {
+    byte[] result = null;
+
+    if (size() > 0) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(size() * 20);
+
+      try (DataOutputStream out = new DataOutputStream(bytes)) {
+        out.writeByte(BINARY_VERSION);
+        out.writeShort(size());
+
+        for (RoutineFlag flag : this) {
+          int routineCode = getRoutineCode(flag.getRoutineName());
+          out.writeByte(routineCode);
+          if (routineCode == NAMED_ROUTINE) {
+            out.writeUTF(flag.getRoutineName());
+          }
+
+          out.writeByte(flag.getFlagValue());
+          writeValue(out, flag.getRequiredValue());
+          writeValue(out, flag.getActualValue());
+        }
+      } catch (IOException e) {
+        // Writing to a byte array cannot fail
+        throw new RuntimeException(e);
+      }
+
+      result = bytes.toByteArray();
+    }
+
+    return result;
+  }
+
   /**
    * Get the short messages for each QC flag in this result
    *
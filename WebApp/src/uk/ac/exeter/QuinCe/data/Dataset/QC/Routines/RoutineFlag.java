@@ -44,6 +44,54 @@ public class RoutineFlag extends Flag {
     this.actualValue = actualValue;
   }
 
+  /**
+   * Constructor using the name of the routine that generated the flag, for
+   * building flags from stored QC results
+   *
+   * @param routineName
+   *          The routine name
+   * @param flag
+   *          The flag
+   * @param requiredValue
+   *          The value required by the routine
+   * @param actualValue
+   *          The actual value
+   */
+  protected RoutineFlag(String routineName, Flag flag, String requiredValue,
+    String actualValue) {
+    super(flag);
+    this.routineName = routineName;
+    this.requiredValue = requiredValue;
+    this.actualValue = actualValue;
+  }
+
+  /**
+   * Get the name of the routine that generated this flag
+   *
+   * @return The routine name
+   */
+  public String getRoutineName() {
+    return routineName;
+  }
+
+  /**
+   * Get the value required by the routine
+   *
+   * @return The required value
+   */
+  public String getRequiredValue() {
+    return requiredValue;
+  }
+
+  /**
+   * Get the actual value
+   *
+   * @return The actual value
+   */
+  public String getActualValue() {
+    return actualValue;
+  }
+
   /**
    * Get the Class for the routine that raised this flag
    *
@@ -0,0 +1,684 @@
+package uk.ac.exeter.QuinCe.data.Dataset;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import uk.ac.exeter.QuinCe.data.Dataset.QC.Flag;
+import uk.ac.exeter.QuinCe.data.Dataset.QC.InvalidFlagException;
+import uk.ac.exeter.QuinCe.data.Dataset.QC.Routines.AutoQCResult;
+import uk.ac.exeter.QuinCe.utils.DatabaseException;
+import uk.ac.exeter.QuinCe.utils.DatabaseUtils;
+import uk.ac.exeter.QuinCe.utils.MissingParamException;
+
+/**
+ * {@link SensorValueStore} that keeps each sensor value as a row in the
+ * {@code sensor_values} table.
+ *
+ * <p>
+ * On MySQL the table can optionally be partitioned by dataset using
+ * {@code scripts/database_maintenance/partition_sensor_values.sql}, in which
+ * case a dataset's values are removed by truncating or dropping its partition.
+ * Partition changes commit any open transaction and lock the whole table, so
+ * they are only made on connections in auto-commit mode.
+ * </p>
+ */
+public class RowSensorValueStore implements SensorValueStore {
+
+  /**
+   * Statement to store a sensor value
+   */
+  private static final String STORE_NEW_SENSOR_VALUE_STATEMENT = "INSERT INTO "
+    + "sensor_values (dataset_id, file_column, date, value, numeric_value, "
+    + "auto_qc_data, user_qc_flag, user_qc_message) "
+    + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+  /**
+   * The number of parameters for each row in
+   * {@link #STORE_NEW_SENSOR_VALUE_STATEMENT}
+   */
+  private static final int NEW_SENSOR_VALUE_PARAM_COUNT = 8;
+
+  /**
+   * The number of rows written by each multi-row INSERT when bulk storing new
+   * sensor values
+   */
+  private static final int BULK_INSERT_CHUNK_SIZE = 1000;
+
+  private static final String UPDATE_SENSOR_VALUE_STATEMENT = "UPDATE sensor_values "
+    + "SET auto_qc=NULL, auto_qc_data=?, user_qc_flag=?, user_qc_message=? "
+    + "WHERE id = ?";
+
+  /**
+   * Statement to remove all sensor values for a data set
+   */
+  private static final String DELETE_SENSOR_VALUES_STATEMENT = "DELETE FROM "
+    + "sensor_values WHERE dataset_id = ?";
+
+  /**
+   * Query to count the partitions of the sensor_values table. Only used on
+   * MySQL.
+   */
+  private static final String SENSOR_VALUES_PARTITIONS_QUERY = "SELECT "
+    + "COUNT(*) FROM information_schema.partitions "
+    + "WHERE table_schema = DATABASE() AND table_name = 'sensor_values' "
+    + "AND partition_name IS NOT NULL";
+
+  /**
+   * Query to see whether a named partition of the sensor_values table exists.
+   * Only used on MySQL.
+   */
+  private static final String SENSOR_VALUES_PARTITION_EXISTS_QUERY = "SELECT "
+    + "COUNT(*) FROM information_schema.partitions "
+    + "WHERE table_schema = DATABASE() AND table_name = 'sensor_values' "
+    + "AND partition_name = ?";
+
+  /**
+   * The prefix for the names of sensor_values partitions. The dataset ID is
+   * appended.
+   */
+  private static final String SENSOR_VALUES_PARTITION_PREFIX = "p";
+
+  /**
+   * Query to get sensor values for a dataset. Further conditions and ordering
+   * are added by {@link #makeSensorValuesQuery(SensorValuesQuery)}.
+   */
+  private static final String GET_SENSOR_VALUES_QUERY = "SELECT "
+    + "id, file_column, date, value, auto_qc, " // 5
+    + "user_qc_flag, user_qc_message, numeric_value, auto_qc_data " // 9
+    + "FROM sensor_values WHERE dataset_id = ?";
+
+  /**
+   * Condition added to {@link #GET_SENSOR_VALUES_QUERY} to select values at
+   * the times of measurements with specified run types.
+   */
+  private static final String MEASUREMENT_RUN_TYPES_CONDITION = " AND date IN "
+    + "(SELECT date FROM measurements WHERE dataset_id = ? AND run_type IN "
+    + DatabaseUtils.IN_PARAMS_TOKEN + ")";
+
+  private static final String GET_SENSOR_VALUE_DATES_QUERY = "SELECT DISTINCT "
+    + "date FROM sensor_values WHERE dataset_id = ? ORDER BY date ASC";
+
+  private static final String GET_RECORD_COUNT_QUERY = "SELECT "
+    + "COUNT(DISTINCT(date)) FROM sensor_values WHERE dataset_id = ?";
+
+  private static final String GET_FLAG_COUNT_QUERY = "SELECT "
+    + "COUNT(*) FROM sensor_values WHERE dataset_id = ? "
+    + "AND user_qc_flag = ?";
+
+  @Override
+  public void storeSensorValues(Connection conn,
+    Collection<SensorValue> sensorValues) throws DatabaseException {
+
+    List<SensorValue> newValues = new ArrayList<SensorValue>();
+    PreparedStatement updateStmt = null;
+
+    try {
+      updateStmt = conn.prepareStatement(UPDATE_SENSOR_VALUE_STATEMENT);
+
+      for (SensorValue value : sensorValues) {
+        if (value.isDirty()) {
+
+          if (!value.isInDatabase()) {
+            newValues.add(value);
+          } else {
+            updateStmt.setBytes(1, value.getAutoQcResult().toBytes());
+            updateStmt.setInt(2, value.getUserQCFlag().getFlagValue());
+            updateStmt.setString(3, value.getUserQCMessage());
+            updateStmt.setLong(4, value.getId());
+
+            updateStmt.addBatch();
+          }
+        }
+      }
+
+      if (newValues.size() > 0) {
+        if (DatabaseUtils.isMySQL(conn)) {
+          bulkInsertSensorValues(conn, newValues);
+        } else {
+          batchInsertSensorValues(conn, newValues);
+        }
+      }
+
+      updateStmt.executeBatch();
+    } catch (SQLException e) {
+      throw new DatabaseException("Error storing sensor values", e);
+    } finally {
+      DatabaseUtils.closeStatements(updateStmt);
+    }
+  }
+
+  /**
+   * Store new sensor values using one batched INSERT per value. Used for
+   * databases other than MySQL (e.g. H2 in the tests).
+   *
+   * @param conn
+   *          A database connection
+   * @param values
+   *          The values to store
+   * @throws SQLException
+   *           If a database error occurs
+   */
+  private void batchInsertSensorValues(Connection conn,
+    List<SensorValue> values) throws SQLException {
+
+    PreparedStatement stmt = null;
+
+    try {
+      stmt = conn.prepareStatement(STORE_NEW_SENSOR_VALUE_STATEMENT);
+
+      for (SensorValue value : values) {
+        setNewSensorValueParams(stmt, 0, value);
+        stmt.addBatch();
+      }
+
+      stmt.executeBatch();
+    } finally {
+      DatabaseUtils.closeStatements(stmt);
+    }
+  }
+
+  /**
+   * Store new sensor values using multi-row INSERT statements of
+   * {@link #BULK_INSERT_CHUNK_SIZE} rows. The final statement holds whatever
+   * rows are left over.
+   *
+   * @param conn
+   *          A database connection
+   * @param values
+   *          The values to store
+   * @throws SQLException
+   *           If a database error occurs
+   */
+  private void bulkInsertSensorValues(Connection conn,
+    List<SensorValue> values) throws SQLException {
+
+    PreparedStatement chunkStmt = null;
+    PreparedStatement remainderStmt = null;
+
+    try {
+      int fullChunks = values.size() / BULK_INSERT_CHUNK_SIZE;
+      if (fullChunks > 0) {
+        chunkStmt = conn
+          .prepareStatement(makeBulkInsertSql(BULK_INSERT_CHUNK_SIZE));
+
+        for (int chunk = 0; chunk < fullChunks; chunk++) {
+          int start = chunk * BULK_INSERT_CHUNK_SIZE;
+          for (int i = 0; i < BULK_INSERT_CHUNK_SIZE; i++) {
+            setNewSensorValueParams(chunkStmt,
+              i * NEW_SENSOR_VALUE_PARAM_COUNT, values.get(start + i));
+          }
+          chunkStmt.execute();
+        }
+      }
+
+      int remainder = values.size() % BULK_INSERT_CHUNK_SIZE;
+      if (remainder > 0) {
+        remainderStmt = conn.prepareStatement(makeBulkInsertSql(remainder));
+
+        int start = fullChunks * BULK_INSERT_CHUNK_SIZE;
+        for (int i = 0; i < remainder; i++) {
+          setNewSensorValueParams(remainderStmt,
+            i * NEW_SENSOR_VALUE_PARAM_COUNT, values.get(start + i));
+        }
+        remainderStmt.execute();
+      }
+    } finally {
+      DatabaseUtils.closeStatements(chunkStmt, remainderStmt);
+    }
+  }
+
+  /**
+   * Build a multi-row version of {@link #STORE_NEW_SENSOR_VALUE_STATEMENT}.
+   *
+   * @param rows
+   *          The number of rows
+   * @return The statement SQL
+   */
+  private String makeBulkInsertSql(int rows) {
+    String rowParams = STORE_NEW_SENSOR_VALUE_STATEMENT
+      .substring(STORE_NEW_SENSOR_VALUE_STATEMENT.indexOf("VALUES ") + 7);
+
+    StringBuilder sql = new StringBuilder(STORE_NEW_SENSOR_VALUE_STATEMENT
+      .length() + rows * (rowParams.length() + 2));
+    sql.append(STORE_NEW_SENSOR_VALUE_STATEMENT);
+    for (int i = 1; i < rows; i++) {
+      sql.append(", ");
+      sql.append(rowParams);
+    }
+
+    return sql.toString();
+  }
+
+  /**
+   * Set the parameters for a new sensor value in an INSERT statement.
+   *
+   * @param stmt
+   *          The statement
+   * @param offset
+   *          The number of parameters before the first parameter for this
+   *          value
+   * @param value
+   *          The value
+   * @throws SQLException
+   *           If the parameters cannot be set
+   */
+  private void setNewSensorValueParams(PreparedStatement stmt, int offset,
+    SensorValue value) throws SQLException {
+
+    stmt.setLong(offset + 1, value.getDatasetId());
+    stmt.setLong(offset + 2, value.getColumnId());
+    stmt.setLong(offset + 3, value.getTimeMillis());
+    if (null == value.getValue()) {
+      stmt.setNull(offset + 4, Types.VARCHAR);
+    } else {
+      stmt.setString(offset + 4, value.getValue());
+    }
+
+    Double numericValue = value.getParsedValue();
+    if (null == numericValue || numericValue.isNaN()) {
+      stmt.setNull(offset + 5, Types.DOUBLE);
+    } else {
+      stmt.setDouble(offset + 5, numericValue);
+    }
+
+    stmt.setBytes(offset + 6, value.getAutoQcResult().toBytes());
+    stmt.setInt(offset + 7, value.getUserQCFlag().getFlagValue());
+    stmt.setString(offset + 8, value.getUserQCMessage());
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * <p>
+   * If the sensor_values table is partitioned and the connection is in
+   * auto-commit mode, the dataset's partition is truncated, or created if it
+   * does not exist, so it is ready for new values. Inside a transaction the
+   * values are deleted normally so they can be rolled back; in that case the
+   * partition must already exist before new values are stored.
+   * </p>
+   */
+  @Override
+  public void deleteSensorValues(Connection conn, long datasetId)
+    throws DatabaseException {
+
+    PreparedStatement stmt = null;
+
+    try {
+      if (conn.getAutoCommit() && isPartitioned(conn)) {
+        String partition = getPartitionName(datasetId);
+        if (partitionExists(conn, partition)) {
+          stmt = conn.prepareStatement(
+            "ALTER TABLE sensor_values TRUNCATE PARTITION " + partition);
+        } else {
+          stmt = conn.prepareStatement("ALTER TABLE sensor_values "
+            + "ADD PARTITION (PARTITION " + partition + " VALUES IN ("
+            + datasetId + "))");
+        }
+      } else {
+        stmt = conn.prepareStatement(DELETE_SENSOR_VALUES_STATEMENT);
+        stmt.setLong(1, datasetId);
+      }
+
+      stmt.execute();
+    } catch (SQLException e) {
+      throw new DatabaseException("Error storing sensor values", e);
+    } finally {
+      DatabaseUtils.closeStatements(stmt);
+    }
+  }
+
+  /**
+   * Drop the sensor_values partition for a dataset, removing all its sensor
+   * values. Does nothing if the partition does not exist.
+   *
+   * <p>
+   * This should only be called when {@link #isPartitioned(Connection)} is
+   * {@code true}. Note that MySQL commits any open transaction when a
+   * partition is dropped.
+   * </p>
+   *
+   * @param conn
+   *          A database connection
+   * @param datasetId
+   *          The dataset's database ID
+   * @throws DatabaseException
+   *           If a database error occurs
+   */
+  public void dropPartition(Connection conn, long datasetId)
+    throws DatabaseException {
+
+    String partition = getPartitionName(datasetId);
+
+    try {
+      if (partitionExists(conn, partition)) {
+        try (PreparedStatement stmt = conn.prepareStatement(
+          "ALTER TABLE sensor_values DROP PARTITION " + partition)) {
+          stmt.execute();
+        }
+      }
+    } catch (SQLException e) {
+      throw new DatabaseException("Error dropping sensor values partition",
+        e);
+    }
+  }
+
+  /**
+   * Determine whether the sensor_values table has been partitioned by dataset
+   * using {@code scripts/database_maintenance/partition_sensor_values.sql}.
+   * Partitioning is only supported on MySQL.
+   *
+   * @param conn
+   *          A database connection
+   * @return {@code true} if the table is partitioned; {@code false} if not
+   * @throws DatabaseException
+   *           If a database error occurs
+   */
+  public boolean isPartitioned(Connection conn) throws DatabaseException {
+
+    boolean result = false;
+
+    try {
+      if (DatabaseUtils.isMySQL(conn)) {
+        try (
+          PreparedStatement stmt = conn
+            .prepareStatement(SENSOR_VALUES_PARTITIONS_QUERY);
+          ResultSet record = stmt.executeQuery()) {
+
+          result = record.next() && record.getInt(1) > 0;
+        }
+      }
+    } catch (SQLException e) {
+      throw new DatabaseException("Error checking sensor values partitions",
+        e);
+    }
+
+    return result;
+  }
+
+  /**
+   * Determine whether a partition of the sensor_values table exists.
+   *
+   * @param conn
+   *          A database connection
+   * @param partition
+   *          The partition name
+   * @return {@code true} if the partition exists; {@code false} if not
+   * @throws SQLException
+   *           If a database error occurs
+   */
+  private boolean partitionExists(Connection conn, String partition)
+    throws SQLException {
+
+    boolean result;
+
+    try (PreparedStatement stmt = conn
+      .prepareStatement(SENSOR_VALUES_PARTITION_EXISTS_QUERY)) {
+
+      stmt.setString(1, partition);
+      try (ResultSet record = stmt.executeQuery()) {
+        result = record.next() && record.getInt(1) > 0;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the name of the sensor_values partition for a dataset.
+   *
+   * @param datasetId
+   *          The dataset's database ID
+   * @return The partition name
+   */
+  private String getPartitionName(long datasetId) {
+    return SENSOR_VALUES_PARTITION_PREFIX + datasetId;
+  }
+
+  @Override
+  public List<SensorValue> getSensorValues(Connection conn,
+    SensorValuesQuery query) throws DatabaseException {
+
+    List<SensorValue> result = new ArrayList<SensorValue>();
+    streamSensorValues(conn, query, result::add);
+    return result;
+  }
+
+  @Override
+  public void streamSensorValues(Connection conn, SensorValuesQuery query,
+    Consumer<SensorValue> consumer) throws DatabaseException {
+
+    try (PreparedStatement stmt = DatabaseUtils.prepareStreamingStatement(conn,
+      makeSensorValuesQuery(query))) {
+
+      int param = 1;
+      stmt.setLong(param++, query.getDatasetId());
+
+      if (null != query.getColumnIds()) {
+        for (long columnId : query.getColumnIds()) {
+          stmt.setLong(param++, columnId);
+        }
+      }
+
+      if (query.hasTimeRange()) {
+        stmt.setLong(param++, query.getStartTime());
+        stmt.setLong(param++, query.getEndTime());
+      }
+
+      if (null != query.getMeasurementRunTypes()) {
+        stmt.setLong(param++, query.getDatasetId());
+        for (String runType : query.getMeasurementRunTypes()) {
+          stmt.setString(param++, runType);
+        }
+      }
+
+      try (ResultSet records = stmt.executeQuery()) {
+        while (records.next()) {
+          consumer.accept(
+            sensorValueFromResultSet(records, query.getDatasetId()));
+        }
+      }
+    } catch (SQLException | InvalidFlagException | MissingParamException e) {
+      throw new DatabaseException("Error while retrieving sensor values", e);
+    }
+  }
+
+  /**
+   * Build the SQL for a sensor values query.
+   *
+   * <p>
+   * Queries for specific columns can use the {@code DATASETID_COLUMN_DATE}
+   * index on {@code (dataset_id, file_column, date)}. Queries for a time range
+   * across all columns use the {@code DATASETID_DATE} index.
+   * </p>
+   *
+   * @param query
+   *          The query
+   * @return The query SQL
+   * @throws MissingParamException
+   *           If the column parameters cannot be added
+   */
+  private String makeSensorValuesQuery(SensorValuesQuery query)
+    throws MissingParamException {
+
+    StringBuilder sql = new StringBuilder(GET_SENSOR_VALUES_QUERY);
+
+    if (null != query.getColumnIds()) {
+      sql.append(" AND file_column IN ");
+      sql.append(DatabaseUtils.IN_PARAMS_TOKEN);
+    }
+
+    if (query.hasTimeRange()) {
+      sql.append(" AND date >= ? AND date <= ?");
+    }
+
+    if (null != query.getMeasurementRunTypes()) {
+      sql.append(MEASUREMENT_RUN_TYPES_CONDITION);
+    }
+
+    // Flag values are plain integers, so they can go straight into the SQL
+    if (null != query.getIncludedFlags()) {
+      sql.append(" AND user_qc_flag IN ");
+      sql.append(makeFlagList(query.getIncludedFlags()));
+    }
+
+    if (!query.getExcludedFlags().isEmpty()) {
+      sql.append(" AND user_qc_flag NOT IN ");
+      sql.append(makeFlagList(query.getExcludedFlags()));
+    }
+
+    if (query.isOrderByColumn()) {
+      sql.append(" ORDER BY file_column, date");
+    }
+
+    // The IN lists appear in the same order as they are added above
+    List<Integer> inSizes = new ArrayList<Integer>(2);
+    if (null != query.getColumnIds()) {
+      inSizes.add(query.getColumnIds().size());
+    }
+    if (null != query.getMeasurementRunTypes()) {
+      inSizes.add(query.getMeasurementRunTypes().size());
+    }
+
+    String result = sql.toString();
+    if (inSizes.size() > 0) {
+      result = DatabaseUtils.makeInStatementSql(result,
+        inSizes.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    return result;
+  }
+
+  /**
+   * Make a bracketed, comma-separated list of flag values for use in an IN
+   * clause. An empty set gives a list that matches no flag.
+   *
+   * @param flags
+   *          The flags
+   * @return The list
+   */
+  private String makeFlagList(Collection<Flag> flags) {
+    String result;
+
+    if (flags.isEmpty()) {
+      result = "(NULL)";
+    } else {
+      result = flags.stream().map(f -> String.valueOf(f.getFlagValue()))
+        .collect(Collectors.joining(",", "(", ")"));
+    }
+
+    return result;
+  }
+
+  /**
+   * Build a SensorValue object from a ResultSet
+   *
+   * @param record
+   *          The ResultSet
+   * @param datasetId
+   *          The ID of the value's parent dataset
+   * @return The SensorValue
+   * @throws SQLException
+   *           If any values cannot be read
+   * @throws InvalidFlagException
+   *           If the stored Flag value is invalid
+   */
+  private SensorValue sensorValueFromResultSet(ResultSet record,
+    long datasetId) throws SQLException, InvalidFlagException {
+
+    long valueId = record.getLong(1);
+    long fileColumnId = record.getLong(2);
+    long time = record.getLong(3);
+    String value = record.getString(4);
+
+    // Results stored before the binary encoding existed are in JSON
+    AutoQCResult autoQC = AutoQCResult.build(record.getBytes(9),
+      record.getString(5));
+    Flag userQCFlag = new Flag(record.getInt(6));
+    String userQCMessage = record.getString(7);
+
+    // Values stored before the numeric column existed are parsed as they load
+    Double numericValue = record.getDouble(8);
+    if (record.wasNull()) {
+      numericValue = null;
+    }
+
+    return new SensorValue(valueId, datasetId, fileColumnId, time, value,
+      numericValue, autoQC, userQCFlag, userQCMessage);
+  }
+
+  @Override
+  public List<Long> getTimes(Connection conn, long datasetId)
+    throws DatabaseException {
+
+    List<Long> times = new ArrayList<Long>();
+
+    try (PreparedStatement stmt = conn
+      .prepareStatement(GET_SENSOR_VALUE_DATES_QUERY)) {
+
+      stmt.setLong(1, datasetId);
+
+      try (ResultSet records = stmt.executeQuery()) {
+        while (records.next()) {
+          times.add(records.getLong(1));
+        }
+      }
+    } catch (SQLException e) {
+      throw new DatabaseException("Error while getting sensor value dates", e);
+    }
+
+    return times;
+  }
+
+  @Override
+  public int getTimeCount(Connection conn, long datasetId)
+    throws DatabaseException {
+
+    int result = -1;
+
+    try (PreparedStatement stmt = conn
+      .prepareStatement(GET_RECORD_COUNT_QUERY)) {
+
+      stmt.setLong(1, datasetId);
+
+      try (ResultSet count = stmt.executeQuery()) {
+        if (count.next()) {
+          result = count.getInt(1);
+        }
+      }
+    } catch (SQLException e) {
+      throw new DatabaseException("Error while getting measurement count", e);
+    }
+
+    return result;
+  }
+
+  @Override
+  public int getUserFlagCount(Connection conn, long datasetId, Flag flag)
+    throws DatabaseException {
+
+    int result = 0;
+
+    try (PreparedStatement stmt = conn.prepareStatement(GET_FLAG_COUNT_QUERY)) {
+
+      stmt.setLong(1, datasetId);
+      stmt.setInt(2, flag.getFlagValue());
+
+      try (ResultSet records = stmt.executeQuery()) {
+        records.next();
+        result = records.getInt(1);
+      }
+    } catch (SQLException e) {
+      throw new DatabaseException("Error while getting flag info", e);
+    }
+
+    return result;
+  }
+}
@@ -2,15 +2,22 @@ package uk.ac.exeter.QuinCe.data.Dataset;
 
 import java.time.LocalDateTime;
 
+import uk.ac.exeter.QuinCe.utils.DateTimeUtils;
+
+/**
+ * A period of time during which an instrument was in a single run type. Times
+ * are held in milliseconds since the epoch; an open-ended period has an end of
+ * {@link Long#MAX_VALUE}.
+ */
 public class RunTypePeriod {
 
   private String runType;
 
-  private LocalDateTime start;
+  private long start;
 
-  private LocalDateTime end;
+  private long end;
 
-  protected RunTypePeriod(String runType, LocalDateTime start) {
+  protected RunTypePeriod(String runType, long start) {
     this.runType = runType;
     this.start = start;
     this.end = start;
@@ -21,37 +28,32 @@ public class RunTypePeriod {
   }
 
   public LocalDateTime getStart() {
+    return DateTimeUtils.longToDate(start);
+  }
+
+  public long getStartMillis() {
     return start;
   }
 
   public LocalDateTime getEnd() {
+    return end == Long.MAX_VALUE ? LocalDateTime.MAX
+      : DateTimeUtils.longToDate(end);
+  }
+
+  public long getEndMillis() {
     return end;
   }
 
-  protected void setEnd(LocalDateTime end) {
+  protected void setEnd(long end) {
     this.end = end;
   }
 
   public boolean encompasses(LocalDateTime time) {
-    boolean result = false;
-    if (start.equals(end)) {
-      result = time.equals(start);
-    } else {
-      boolean afterStart = false;
-      boolean beforeEnd = false;
-
-      if (time.equals(start) || time.isAfter(start)) {
-        afterStart = true;
-      }
-
-      if (time.equals(end) || time.isBefore(end)) {
-        beforeEnd = true;
-      }
-
-      result = afterStart && beforeEnd;
-    }
+    return encompasses(DateTimeUtils.dateToLong(time));
+  }
 
-    return result;
+  public boolean encompasses(long time) {
+    return time >= start && time <= end;
   }
 
 }
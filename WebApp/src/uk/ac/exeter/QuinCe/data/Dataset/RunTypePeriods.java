@@ -3,6 +3,12 @@ package uk.ac.exeter.QuinCe.data.Dataset;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 
+import uk.ac.exeter.QuinCe.utils.DateTimeUtils;
+
+/**
+ * A list of consecutive {@link RunTypePeriod}s. Run types must be added in time
+ * order.
+ */
 @SuppressWarnings("serial")
 public class RunTypePeriods extends ArrayList<RunTypePeriod> {
 
@@ -11,6 +17,10 @@ public class RunTypePeriods extends ArrayList<RunTypePeriod> {
   }
 
   public void add(String runType, LocalDateTime time) {
+    add(runType, DateTimeUtils.dateToLong(time));
+  }
+
+  public void add(String runType, long time) {
     if (size() == 0) {
       add(new RunTypePeriod(runType, time));
     } else {
@@ -28,20 +38,30 @@ public class RunTypePeriods extends ArrayList<RunTypePeriod> {
    */
   public void finish() {
     if (size() > 0) {
-      get(size() - 1).setEnd(LocalDateTime.MAX);
+      get(size() - 1).setEnd(Long.MAX_VALUE);
     }
   }
 
   public boolean contains(LocalDateTime time) {
-    boolean result = false;
+    return contains(DateTimeUtils.dateToLong(time));
+  }
+
+  public boolean contains(long time) {
+    // Find the last period that starts on or before the time
+    int low = 0;
+    int high = size() - 1;
+    int found = -1;
 
-    for (RunTypePeriod period : this) {
-      if (period.encompasses(time)) {
-        result = true;
-        break;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (get(mid).getStartMillis() <= time) {
+        found = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
       }
     }
 
-    return result;
+    return found > -1 && get(found).encompasses(time);
   }
 }
@@ -36,7 +36,8 @@ public class RunTypeSensorValue extends SensorValue {
    */
   public RunTypeSensorValue(SensorValue sensorValue, String runType) {
     super(sensorValue.getId(), sensorValue.getDatasetId(),
-      sensorValue.getColumnId(), sensorValue.getTime(), sensorValue.getValue(),
+      sensorValue.getColumnId(), sensorValue.getTimeMillis(),
+      sensorValue.getValue(), sensorValue.getParsedValue(),
       sensorValue.getAutoQcResult(), sensorValue.getUserQCFlag(),
       sensorValue.getUserQCMessage());
 
@@ -2,15 +2,15 @@ package uk.ac.exeter.QuinCe.data.Dataset;
 
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 import java.util.TreeSet;
 import java.util.function.IntPredicate;
 import java.util.stream.Collectors;
 
 import uk.ac.exeter.QuinCe.data.Dataset.QC.Flag;
+import uk.ac.exeter.QuinCe.utils.DateTimeUtils;
 import uk.ac.exeter.QuinCe.utils.MissingParam;
 import uk.ac.exeter.QuinCe.utils.MissingParamException;
 
@@ -28,6 +28,12 @@ import uk.ac.exeter.QuinCe.utils.MissingParamException;
  * </ul>
  *
  * <p>
+ * Searches use a primitive array of the values' times (see
+ * {@link DateTimeUtils#dateToLong}), which is rebuilt whenever the list is
+ * modified.
+ * </p>
+ *
+ * <p>
  * <b>NOTE: It is the user's responsibility to ensure that entries are added in
  * the correct order.</b>
  * </p>
@@ -38,10 +44,20 @@ import uk.ac.exeter.QuinCe.utils.MissingParamException;
 @SuppressWarnings("serial")
 public class SearchableSensorValuesList extends ArrayList<SensorValue> {
 
-  private static final SensorValueTimeComparator TIME_COMPARATOR = new SensorValueTimeComparator();
-
   private final TreeSet<Long> columnIds;
 
+  /**
+   * The times of the values in the list, used for searching
+   *
+   * @see #getTimeIndex()
+   */
+  private long[] timeIndex = null;
+
+  /**
+   * The modification count of the list when {@link #timeIndex} was built
+   */
+  private int timeIndexModCount = -1;
+
   /**
    * Constructor for an empty list with one supported column ID
    */
@@ -123,8 +139,7 @@ public class SearchableSensorValuesList extends ArrayList<SensorValue> {
 
     SensorValue result = null;
 
-    int searchIndex = Collections.binarySearch(this, dummySensorValue(time),
-      TIME_COMPARATOR);
+    int searchIndex = timeIndexSearch(time);
 
     if (searchIndex > -1) {
       result = get(searchIndex);
@@ -170,8 +185,7 @@ public class SearchableSensorValuesList extends ArrayList<SensorValue> {
 
     List<SensorValue> result = new ArrayList<SensorValue>();
 
-    int startPoint = Collections.binarySearch(this, dummySensorValue(start),
-      TIME_COMPARATOR);
+    int startPoint = timeIndexSearch(start);
 
     // If the search result is -(list size), all the values are before the start
     // so we don't do anything and return an empty list. The easiest way to do
@@ -187,8 +201,10 @@ public class SearchableSensorValuesList extends ArrayList<SensorValue> {
     }
 
     // Add values until we hit the end time, or fall off the list.
+    long[] times = getTimeIndex();
+    long endTime = DateTimeUtils.dateToLong(end);
     int currentIndex = startPoint;
-    while (currentIndex < size() && get(currentIndex).getTime().isBefore(end)) {
+    while (currentIndex < times.length && times[currentIndex] < endTime) {
       result.add(get(currentIndex));
       currentIndex++;
     }
@@ -197,11 +213,22 @@ public class SearchableSensorValuesList extends ArrayList<SensorValue> {
   }
 
   public SensorValue get(LocalDateTime time) {
-    int valueIndex = Collections.binarySearch(this, dummySensorValue(time),
-      TIME_COMPARATOR);
+    return getAtTime(DateTimeUtils.dateToLong(time));
+  }
+
+  /**
+   * Get the value at the specified time. Values with a {@link Flag#FLUSHING}
+   * flag are not returned.
+   *
+   * @param time
+   *          The time, in milliseconds since the epoch
+   * @return The value, or {@code null} if there is no usable value at the time
+   */
+  public SensorValue getAtTime(long time) {
+    int valueIndex = timeIndexSearch(time);
 
     SensorValue result = valueIndex >= 0 ? get(valueIndex) : null;
-    if (result.getUserQCFlag().equals(Flag.FLUSHING)) {
+    if (null != result && result.getUserQCFlag().equals(Flag.FLUSHING)) {
       result = null;
     }
 
@@ -237,11 +264,28 @@ public class SearchableSensorValuesList extends ArrayList<SensorValue> {
    */
   public List<SensorValue> getWithInterpolation(LocalDateTime time,
     boolean preferGoodFlags) {
+    return getWithInterpolation(DateTimeUtils.dateToLong(time),
+      preferGoodFlags);
+  }
+
+  /**
+   * Get the {@link SensorValue}(s) most relevant for the specified time.
+   *
+   * @param time
+   *          The time to search for, in milliseconds since the epoch
+   * @param preferGoodFlags
+   *          Only return values with {@link Flag#GOOD} QC flags if possible.
+   * @return An array of either one {@link SensorValue} (if it exactly matches
+   *         the specified time) or two (for the closest matches either side of
+   *         the time).
+   * @see #getWithInterpolation(LocalDateTime, boolean)
+   */
+  public List<SensorValue> getWithInterpolation(long time,
+    boolean preferGoodFlags) {
 
     List<SensorValue> result;
 
-    int startPoint = Collections.binarySearch(this, dummySensorValue(time),
-      TIME_COMPARATOR);
+    int startPoint = timeIndexSearch(time);
 
     SensorValue exactTimeValue = null;
     List<SensorValue> priorPostValues = null;
@@ -427,15 +471,50 @@ public class SearchableSensorValuesList extends ArrayList<SensorValue> {
   }
 
   /**
-   * Generate a dummy {@link SensorValue} for a specified time, for use with
-   * {@link #TIME_COMPARATOR}.
+   * Get the times of the values in the list as milliseconds, in list order.
+   * The index is rebuilt if the list has been modified since it was last
+   * built.
+   *
+   * @return The times
+   */
+  protected synchronized long[] getTimeIndex() {
+    if (null == timeIndex || timeIndexModCount != modCount) {
+      long[] times = new long[size()];
+      for (int i = 0; i < times.length; i++) {
+        times[i] = get(i).getTimeMillis();
+      }
+
+      timeIndex = times;
+      timeIndexModCount = modCount;
+    }
+
+    return timeIndex;
+  }
+
+  /**
+   * Search for a time in the list. The result follows the same rules as
+   * {@link Arrays#binarySearch(long[], long)}.
+   *
+   * @param time
+   *          The time to search for
+   * @return The index of the time, or {@code -(insertion point) - 1} if it is
+   *         not in the list
+   */
+  protected int timeIndexSearch(LocalDateTime time) {
+    return timeIndexSearch(DateTimeUtils.dateToLong(time));
+  }
+
+  /**
+   * Search for a time in the list. The result follows the same rules as
+   * {@link Arrays#binarySearch(long[], long)}.
    *
    * @param time
-   *          The time to use.
-   * @return The dummy {@link SensorValue}.
+   *          The time to search for, in milliseconds since the epoch
+   * @return The index of the time, or {@code -(insertion point) - 1} if it is
+   *         not in the list
    */
-  private SensorValue dummySensorValue(LocalDateTime time) {
-    return new SensorValue(-1, -1, time, null);
+  protected int timeIndexSearch(long time) {
+    return Arrays.binarySearch(getTimeIndex(), time);
   }
 
   private Flag getQCFlag(int index) {
@@ -444,10 +523,3 @@ public class SearchableSensorValuesList extends ArrayList<SensorValue> {
       : get(index).getUserQCFlag();
   }
 }
-
-class SensorValueTimeComparator implements Comparator<SensorValue> {
-  @Override
-  public int compare(SensorValue o1, SensorValue o2) {
-    return o1.getTime().compareTo(o2.getTime());
-  }
-}
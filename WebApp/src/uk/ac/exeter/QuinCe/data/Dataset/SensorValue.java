@@ -58,9 +58,10 @@ public class SensorValue implements Comparable<SensorValue>, Cloneable {
   private final long columnId;
 
   /**
-   * The time that the value was measured
+   * The time that the value was measured, in milliseconds since the epoch (see
+   * {@link DateTimeUtils#dateToLong(LocalDateTime)})
    */
-  private final LocalDateTime time;
+  private final long time;
 
   /**
    * The automatic QC result
@@ -82,6 +83,17 @@ public class SensorValue implements Comparable<SensorValue>, Cloneable {
    */
   private String value;
 
+  /**
+   * The value parsed as a number, so it only needs to be parsed once. This is
+   * {@code NaN} if the value is {@code null} or is not numeric.
+   */
+  private double doubleValue;
+
+  /**
+   * Indicates whether the value could be parsed as a number
+   */
+  private boolean numeric;
+
   /**
    * Indicates whether the value needs to be saved to the database
    */
@@ -101,8 +113,8 @@ public class SensorValue implements Comparable<SensorValue>, Cloneable {
     this.id = DatabaseUtils.NO_DATABASE_RECORD;
     this.datasetId = datasetId;
     this.columnId = columnId;
-    this.time = time;
-    this.value = value;
+    this.time = DateTimeUtils.dateToLong(time);
+    setValue(value);
     this.autoQC = new AutoQCResult();
     this.dirty = true;
 
@@ -124,11 +136,50 @@ public class SensorValue implements Comparable<SensorValue>, Cloneable {
     LocalDateTime time, String value, AutoQCResult autoQc, Flag userQcFlag,
     String userQcMessage) {
 
+    this(databaseId, datasetId, columnId, DateTimeUtils.dateToLong(time), value,
+      null, autoQc, userQcFlag, userQcMessage);
+  }
+
+  /**
+   * Build a sensor value whose numeric value has already been parsed, e.g.
+   * from the database. If {@code doubleValue} is {@code null} the value will
+   * be parsed from its string form.
+   *
+   * @param databaseId
+   *          The value's database ID
+   * @param datasetId
+   *          The dataset ID
+   * @param columnId
+   *          The column ID
+   * @param time
+   *          The measurement time in milliseconds since the epoch
+   * @param value
+   *          The value
+   * @param doubleValue
+   *          The parsed value
+   * @param autoQc
+   *          The automatic QC result
+   * @param userQcFlag
+   *          The user QC flag
+   * @param userQcMessage
+   *          The user QC message
+   */
+  public SensorValue(long databaseId, long datasetId, long columnId, long time,
+    String value, Double doubleValue, AutoQCResult autoQc, Flag userQcFlag,
+    String userQcMessage) {
+
     this.id = databaseId;
     this.datasetId = datasetId;
     this.columnId = columnId;
     this.time = time;
-    this.value = value;
+
+    if (null == doubleValue) {
+      setValue(value);
+    } else {
+      this.value = value;
+      this.doubleValue = doubleValue;
+      this.numeric = true;
+    }
 
     if (null == autoQc) {
       this.autoQC = new AutoQCResult();
@@ -165,6 +216,17 @@ public class SensorValue implements Comparable<SensorValue>, Cloneable {
    * @return The measurement time
    */
   public LocalDateTime getTime() {
+    return DateTimeUtils.longToDate(time);
+  }
+
+  /**
+   * Get the time that this value was measured in milliseconds since the epoch.
+   * This should be used in preference to {@link #getTime()} for comparisons
+   * and searches.
+   *
+   * @return The measurement time
+   */
+  public long getTimeMillis() {
     return time;
   }
 
@@ -179,14 +241,27 @@ public class SensorValue implements Comparable<SensorValue>, Cloneable {
 
   /**
    * Get the value as a Double. No error checking is performed. Returns
-   * {@code null} if the value is {@code null}.
+   * {@code NaN} if the value is {@code null}.
    *
    * All commas are removed from number before parsing
    *
    * @return The value as a Double
+   * @throws NumberFormatException
+   *           If the value is not numeric
    */
   public Double getDoubleValue() {
-    return StringUtils.doubleFromString(value);
+    // Non-numeric values are parsed again so the caller gets the exception
+    return numeric ? doubleValue : StringUtils.doubleFromString(value);
+  }
+
+  /**
+   * Get the parsed numeric value, or {@code null} if the value is not numeric.
+   * Used to copy and store the value without parsing it again.
+   *
+   * @return The parsed value
+   */
+  protected Double getParsedValue() {
+    return numeric ? doubleValue : null;
   }
 
   /**
@@ -453,7 +528,7 @@ public class SensorValue implements Comparable<SensorValue>, Cloneable {
     }
 
     if (result == 0) {
-      result = time.compareTo(o.time);
+      result = Long.compare(time, o.time);
     }
 
     if (result == 0) {
@@ -500,7 +575,7 @@ public class SensorValue implements Comparable<SensorValue>, Cloneable {
     int result = 1;
     result = prime * result + (int) (columnId ^ (columnId >>> 32));
     result = prime * result + (int) (datasetId ^ (datasetId >>> 32));
-    result = prime * result + ((time == null) ? 0 : time.hashCode());
+    result = prime * result + (int) (time ^ (time >>> 32));
     return result;
   }
 
@@ -517,17 +592,14 @@ public class SensorValue implements Comparable<SensorValue>, Cloneable {
       return false;
     if (datasetId != other.datasetId)
       return false;
-    if (time == null) {
-      if (other.time != null)
-        return false;
-    } else if (!time.equals(other.time))
+    if (time != other.time)
       return false;
     return true;
   }
 
   public void calibrateValue(Calibration calibration) {
     if (!isNaN()) {
-      value = String.valueOf(calibration.calibrateValue(getDoubleValue()));
+      setValue(String.valueOf(calibration.calibrateValue(getDoubleValue())));
     }
   }
 
@@ -549,12 +621,53 @@ public class SensorValue implements Comparable<SensorValue>, Cloneable {
 
   @Override
   public String toString() {
-    return time + ": " + columnId + " = "
+    return getTime() + ": " + columnId + " = "
       + (value.equals(NO_VALUE) ? "No Value" : value);
   }
 
   public void setValue(String value) {
     this.value = value;
+    doubleValue = Double.NaN;
+    numeric = false;
+
+    if (mayBeNumeric(value)) {
+      try {
+        doubleValue = StringUtils.doubleFromString(value);
+        numeric = true;
+      } catch (NumberFormatException e) {
+        // Leave the value as non-numeric
+      }
+    }
+  }
+
+  /**
+   * Quickly rule out values that are clearly not numbers, such as run types,
+   * so they don't incur the cost of a failed parse. A number can only start
+   * with a digit, a sign, a decimal point, or the first letter of
+   * {@code NaN} or {@code Infinity}.
+   *
+   * @param value
+   *          The value
+   * @return {@code false} if the value is definitely not numeric;
+   *         {@code true} if it may be
+   */
+  private static boolean mayBeNumeric(String value) {
+    boolean result = true;
+
+    if (null != value) {
+      int i = 0;
+      while (i < value.length() && (value.charAt(i) == ','
+        || Character.isWhitespace(value.charAt(i)))) {
+        i++;
+      }
+
+      if (i < value.length()) {
+        char first = value.charAt(i);
+        result = !Character.isLetter(first) || first == 'N' || first == 'I';
+      }
+    }
+
+    return result;
   }
 
   public boolean noValue() {
@@ -564,7 +677,7 @@ public class SensorValue implements Comparable<SensorValue>, Cloneable {
   @Override
   public Object clone() {
     SensorValue clone = new SensorValue(id, datasetId, columnId, time, value,
-      autoQC, userQCFlag, userQCMessage);
+      getParsedValue(), autoQC, userQCFlag, userQCMessage);
     clone.dirty = this.dirty;
     return clone;
   }
@@ -602,7 +715,7 @@ public class SensorValue implements Comparable<SensorValue>, Cloneable {
 
     for (SensorValue value : values) {
       if (includeNan || !value.isNaN()) {
-        long time = DateTimeUtils.dateToLong(value.getTime());
+        long time = value.getTimeMillis();
         millisTotal = millisTotal.add(new BigInteger(String.valueOf(time)));
         count++;
       }
@@ -642,9 +755,9 @@ public class SensorValue implements Comparable<SensorValue>, Cloneable {
     Double result = null;
 
     if (null != prior && null != post) {
-      double x0 = DateTimeUtils.dateToLong(prior.getTime());
+      double x0 = prior.getTimeMillis();
       double y0 = prior.getDoubleValue();
-      double x1 = DateTimeUtils.dateToLong(post.getTime());
+      double x1 = post.getTimeMillis();
       double y1 = post.getDoubleValue();
       result = interpolate(x0, y0, x1, y1,
         DateTimeUtils.dateToLong(measurementTime));
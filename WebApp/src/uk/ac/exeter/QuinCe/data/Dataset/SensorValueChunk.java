@@ -0,0 +1,386 @@
+package uk.ac.exeter.QuinCe.data.Dataset;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import uk.ac.exeter.QuinCe.data.Dataset.QC.Flag;
+import uk.ac.exeter.QuinCe.data.Dataset.QC.InvalidFlagException;
+import uk.ac.exeter.QuinCe.data.Dataset.QC.Routines.AutoQCResult;
+
+/**
+ * Binary encoding of a run of {@link SensorValue}s from a single file column,
+ * used by the {@link ColumnSensorValueStore}.
+ *
+ * <p>
+ * The values must be in time order. Times are stored as deltas from the
+ * previous value, numeric values as doubles, and repeated strings (run types,
+ * QC messages) are only written once. The whole encoding is compressed.
+ * </p>
+ *
+ * <p>
+ * Values in a chunk do not have their own database records. Their IDs are
+ * made from the chunk's database ID and their position in the chunk (see
+ * {@link #makeValueId(long, int)}).
+ * </p>
+ */
+final class SensorValueChunk {
+
+  /**
+   * The maximum number of values in a chunk
+   */
+  protected static final int MAX_VALUES = 1 << 24;
+
+  /**
+   * The number of bits of a value ID used for its position in the chunk
+   */
+  private static final int INDEX_BITS = 24;
+
+  /**
+   * The encoding version
+   */
+  private static final byte VERSION = 1;
+
+  /**
+   * Value type for a {@code null} value
+   */
+  private static final byte NULL_VALUE = 0;
+
+  /**
+   * Value type for a number whose string form is exactly the value
+   */
+  private static final byte DOUBLE_VALUE = 1;
+
+  /**
+   * Value type for any other value
+   */
+  private static final byte STRING_VALUE = 2;
+
+  /**
+   * Private constructor to prevent instantiation
+   */
+  private SensorValueChunk() {
+    // Do nothing
+  }
+
+  /**
+   * Make the ID of a value in a chunk.
+   *
+   * @param chunkId
+   *          The chunk's database ID
+   * @param index
+   *          The value's position in the chunk
+   * @return The value ID
+   */
+  protected static long makeValueId(long chunkId, int index) {
+    return (chunkId << INDEX_BITS) | index;
+  }
+
+  /**
+   * Get the database ID of the chunk containing a value.
+   *
+   * @param valueId
+   *          The value ID
+   * @return The chunk ID
+   */
+  protected static long getChunkId(long valueId) {
+    return valueId >>> INDEX_BITS;
+  }
+
+  /**
+   * Get the position of a value in its chunk.
+   *
+   * @param valueId
+   *          The value ID
+   * @return The position
+   */
+  protected static int getIndex(long valueId) {
+    return (int) (valueId & (MAX_VALUES - 1));
+  }
+
+  /**
+   * Encode a list of values. The values must all be from the same column and
+   * in time order.
+   *
+   * @param values
+   *          The values
+   * @return The encoded values
+   * @throws IOException
+   *           If the values cannot be encoded
+   */
+  protected static byte[] encode(List<SensorValue> values) throws IOException {
+
+    if (values.size() > MAX_VALUES) {
+      throw new IOException("Too many values for a chunk");
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+    try (DataOutputStream out = new DataOutputStream(
+      new DeflaterOutputStream(bytes, deflater, 65536))) {
+
+      out.writeByte(VERSION);
+      out.writeInt(values.size());
+
+      // Times are written first so they can be read on their own
+      long lastTime = 0L;
+      for (SensorValue value : values) {
+        writeVarLong(out, value.getTimeMillis() - lastTime);
+        lastTime = value.getTimeMillis();
+      }
+
+      Map<String, Integer> strings = new HashMap<String, Integer>();
+
+      for (SensorValue value : values) {
+        Double parsedValue = value.getParsedValue();
+        if (null == value.getValue()) {
+          out.writeByte(NULL_VALUE);
+        } else if (null != parsedValue
+          && String.valueOf(parsedValue).equals(value.getValue())) {
+          out.writeByte(DOUBLE_VALUE);
+          out.writeDouble(parsedValue);
+        } else {
+          out.writeByte(STRING_VALUE);
+          writeString(out, value.getValue(), strings);
+        }
+      }
+
+      for (SensorValue value : values) {
+        writeVarLong(out, value.getUserQCFlag().getFlagValue());
+        writeString(out, value.getUserQCMessage(), strings);
+
+        byte[] autoQC = value.getAutoQcResult().toBytes();
+        if (null == autoQC) {
+          writeVarLong(out, 0);
+        } else {
+          writeVarLong(out, autoQC.length);
+          out.write(autoQC);
+        }
+      }
+    } finally {
+      deflater.end();
+    }
+
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Decode a chunk of values.
+   *
+   * @param data
+   *          The encoded chunk
+   * @param chunkId
+   *          The chunk's database ID
+   * @param datasetId
+   *          The ID of the dataset that the values belong to
+   * @param columnId
+   *          The ID of the column that the values belong to
+   * @return The values
+   * @throws IOException
+   *           If the chunk cannot be decoded
+   * @throws InvalidFlagException
+   *           If a stored QC flag is invalid
+   */
+  protected static List<SensorValue> decode(byte[] data, long chunkId,
+    long datasetId, long columnId) throws IOException, InvalidFlagException {
+
+    List<SensorValue> result;
+
+    try (DataInputStream in = openChunk(data)) {
+      long[] times = readTimes(in);
+      result = new ArrayList<SensorValue>(times.length);
+
+      List<String> strings = new ArrayList<String>();
+
+      String[] values = new String[times.length];
+      Double[] parsedValues = new Double[times.length];
+
+      for (int i = 0; i < times.length; i++) {
+        byte type = in.readByte();
+        switch (type) {
+        case NULL_VALUE: {
+          values[i] = null;
+          break;
+        }
+        case DOUBLE_VALUE: {
+          parsedValues[i] = in.readDouble();
+          values[i] = String.valueOf(parsedValues[i]);
+          break;
+        }
+        case STRING_VALUE: {
+          values[i] = readString(in, strings);
+          break;
+        }
+        default: {
+          throw new IOException("Unrecognised value type " + type);
+        }
+        }
+      }
+
+      for (int i = 0; i < times.length; i++) {
+        Flag userQCFlag = new Flag((int) readVarLong(in));
+        String userQCMessage = readString(in, strings);
+
+        AutoQCResult autoQC = null;
+        int autoQCLength = (int) readVarLong(in);
+        if (autoQCLength > 0) {
+          byte[] autoQCBytes = new byte[autoQCLength];
+          in.readFully(autoQCBytes);
+          autoQC = AutoQCResult.buildFromBytes(autoQCBytes);
+        }
+
+        result.add(new SensorValue(makeValueId(chunkId, i), datasetId,
+          columnId, times[i], values[i], parsedValues[i], autoQC, userQCFlag,
+          userQCMessage));
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Decode only the times of the values in a chunk.
+   *
+   * @param data
+   *          The encoded chunk
+   * @return The times
+   * @throws IOException
+   *           If the chunk cannot be decoded
+   */
+  protected static long[] decodeTimes(byte[] data) throws IOException {
+    try (DataInputStream in = openChunk(data)) {
+      return readTimes(in);
+    }
+  }
+
+  /**
+   * Open an encoded chunk for reading and check its version.
+   *
+   * @param data
+   *          The encoded chunk
+   * @return The stream for reading the chunk contents
+   * @throws IOException
+   *           If the chunk version is not recognised
+   */
+  private static DataInputStream openChunk(byte[] data) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+      new InflaterInputStream(new ByteArrayInputStream(data)), 65536));
+
+    byte version = in.readByte();
+    if (version != VERSION) {
+      in.close();
+      throw new IOException("Unrecognised chunk version " + version);
+    }
+
+    return in;
+  }
+
+  private static long[] readTimes(DataInputStream in) throws IOException {
+    int count = in.readInt();
+    long[] times = new long[count];
+
+    long lastTime = 0L;
+    for (int i = 0; i < count; i++) {
+      lastTime = lastTime + readVarLong(in);
+      times[i] = lastTime;
+    }
+
+    return times;
+  }
+
+  /**
+   * Write a string that may be repeated. The first occurrence of a string is
+   * written in full; later occurrences are written as a reference to the
+   * first.
+   *
+   * @param out
+   *          The output stream
+   * @param string
+   *          The string. May be {@code null}
+   * @param strings
+   *          The strings written so far, with their references
+   * @throws IOException
+   *           If the string cannot be written
+   */
+  private static void writeString(DataOutputStream out, String string,
+    Map<String, Integer> strings) throws IOException {
+
+    if (null == string) {
+      writeVarLong(out, 0);
+    } else {
+      Integer ref = strings.get(string);
+      if (null != ref) {
+        writeVarLong(out, ref);
+      } else {
+        ref = strings.size() + 1;
+        strings.put(string, ref);
+        writeVarLong(out, ref);
+        out.writeUTF(string);
+      }
+    }
+  }
+
+  private static String readString(DataInputStream in, List<String> strings)
+    throws IOException {
+
+    String result;
+
+    int ref = (int) readVarLong(in);
+    if (ref == 0) {
+      result = null;
+    } else if (ref <= strings.size()) {
+      result = strings.get(ref - 1);
+    } else {
+      result = in.readUTF();
+      strings.add(result);
+    }
+
+    return result;
+  }
+
+  /**
+   * Write a signed variable length integer. Small values (positive or
+   * negative) take fewer bytes.
+   *
+   * @param out
+   *          The output stream
+   * @param value
+   *          The value
+   * @throws IOException
+   *           If the value cannot be written
+   */
+  private static void writeVarLong(DataOutputStream out, long value)
+    throws IOException {
+
+    long zigzag = (value << 1) ^ (value >> 63);
+    while ((zigzag & ~0x7FL) != 0) {
+      out.writeByte((int) ((zigzag & 0x7F) | 0x80));
+      zigzag >>>= 7;
+    }
+    out.writeByte((int) zigzag);
+  }
+
+  private static long readVarLong(DataInputStream in) throws IOException {
+    long zigzag = 0L;
+    int shift = 0;
+    int b;
+    do {
+      b = in.readUnsignedByte();
+      zigzag |= (long) (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+
+    return (zigzag >>> 1) ^ -(zigzag & 1);
+  }
+}
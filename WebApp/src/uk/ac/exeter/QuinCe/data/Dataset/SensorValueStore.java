@@ -0,0 +1,261 @@
+package uk.ac.exeter.QuinCe.data.Dataset;
+
+import java.sql.Connection;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+import uk.ac.exeter.QuinCe.data.Dataset.QC.Flag;
+import uk.ac.exeter.QuinCe.utils.DatabaseException;
+
+/**
+ * Persistence backend for {@link SensorValue}s.
+ *
+ * <p>
+ * The backend used by an installation is chosen with the
+ * {@link #STORE_PROPERTY} property in the application configuration. All
+ * access to stored sensor values should go through {@link DataSetDataDB},
+ * which passes the requests on to the configured backend.
+ * </p>
+ *
+ * <p>
+ * The backends store their values in different tables and cannot read each
+ * other's data. The backend must therefore be chosen when the application is
+ * installed; switching an existing installation to the
+ * {@link ColumnSensorValueStore} would hide all its stored values, so the
+ * application refuses to start in that case.
+ * </p>
+ *
+ * @see RowSensorValueStore
+ * @see ColumnSensorValueStore
+ */
+public interface SensorValueStore {
+
+  /**
+   * Configuration property for choosing the backend
+   */
+  public static final String STORE_PROPERTY = "sensorvalues.store";
+
+  /**
+   * Property value for the {@link RowSensorValueStore}. This is the default.
+   */
+  public static final String ROW_STORE = "rows";
+
+  /**
+   * Property value for the {@link ColumnSensorValueStore}
+   */
+  public static final String COLUMN_STORE = "columns";
+
+  /**
+   * Store a set of sensor values. Values will only be stored if their
+   * {@code dirty} flag is set.
+   *
+   * <p>
+   * Values that are already in the database have their QC details updated.
+   * Other values are stored as new records. New records are not given an ID;
+   * they must be re-read from the database afterwards.
+   * </p>
+   *
+   * @param conn
+   *          A database connection
+   * @param sensorValues
+   *          The sensor values
+   * @throws DatabaseException
+   *           If a database error occurs
+   */
+  public void storeSensorValues(Connection conn,
+    Collection<SensorValue> sensorValues) throws DatabaseException;
+
+  /**
+   * Remove all sensor values for a dataset.
+   *
+   * @param conn
+   *          A database connection
+   * @param datasetId
+   *          The dataset's database ID
+   * @throws DatabaseException
+   *           If a database error occurs
+   */
+  public void deleteSensorValues(Connection conn, long datasetId)
+    throws DatabaseException;
+
+  /**
+   * Get the sensor values selected by a query. Unless the query orders them by
+   * column, the values are not returned in any particular order.
+   *
+   * @param conn
+   *          A database connection
+   * @param query
+   *          The query
+   * @return The sensor values
+   * @throws DatabaseException
+   *           If a database error occurs
+   */
+  public List<SensorValue> getSensorValues(Connection conn,
+    SensorValuesQuery query) throws DatabaseException;
+
+  /**
+   * Get the sensor values for a dataset. The values are not returned in any
+   * particular order.
+   *
+   * @param conn
+   *          A database connection
+   * @param datasetId
+   *          The dataset's database ID
+   * @param columnIds
+   *          The columns to retrieve, or {@code null} for all columns
+   * @param ignoreFlushing
+   *          Indicates whether values with a {@link Flag#FLUSHING} flag should
+   *          be left out
+   * @return The sensor values
+   * @throws DatabaseException
+   *           If a database error occurs
+   */
+  public default List<SensorValue> getSensorValues(Connection conn,
+    long datasetId, List<Long> columnIds, boolean ignoreFlushing)
+    throws DatabaseException {
+
+    return getSensorValues(conn,
+      makeQuery(datasetId, columnIds, ignoreFlushing, false));
+  }
+
+  /**
+   * Pass the sensor values selected by a query to a consumer as they are read
+   * from the database, without holding the complete set in memory.
+   *
+   * <p>
+   * The connection is in use while the values are being read, so the consumer
+   * must not use it.
+   * </p>
+   *
+   * @param conn
+   *          A database connection
+   * @param query
+   *          The query
+   * @param consumer
+   *          The consumer
+   * @throws DatabaseException
+   *           If a database error occurs
+   * @see SensorValuesQuery#orderByColumn()
+   */
+  public void streamSensorValues(Connection conn, SensorValuesQuery query,
+    Consumer<SensorValue> consumer) throws DatabaseException;
+
+  /**
+   * Pass the sensor values for a dataset to a consumer as they are read from
+   * the database, without holding the complete set in memory.
+   *
+   * <p>
+   * If {@code orderByColumn} is set, all the values for one column are passed
+   * before those of the next column, and each column's values are in time
+   * order. Otherwise the values are not passed in any particular order.
+   * </p>
+   *
+   * <p>
+   * The connection is in use while the values are being read, so the consumer
+   * must not use it.
+   * </p>
+   *
+   * @param conn
+   *          A database connection
+   * @param datasetId
+   *          The dataset's database ID
+   * @param columnIds
+   *          The columns to retrieve, or {@code null} for all columns
+   * @param ignoreFlushing
+   *          Indicates whether values with a {@link Flag#FLUSHING} flag should
+   *          be left out
+   * @param orderByColumn
+   *          Indicates whether the values should be grouped by column in time
+   *          order
+   * @param consumer
+   *          The consumer
+   * @throws DatabaseException
+   *           If a database error occurs
+   */
+  public default void streamSensorValues(Connection conn, long datasetId,
+    List<Long> columnIds, boolean ignoreFlushing, boolean orderByColumn,
+    Consumer<SensorValue> consumer) throws DatabaseException {
+
+    streamSensorValues(conn,
+      makeQuery(datasetId, columnIds, ignoreFlushing, orderByColumn),
+      consumer);
+  }
+
+  /**
+   * Get the distinct times of all the sensor values in a dataset, in
+   * ascending order.
+   *
+   * @param conn
+   *          A database connection
+   * @param datasetId
+   *          The dataset's database ID
+   * @return The times, in milliseconds since the epoch
+   * @throws DatabaseException
+   *           If a database error occurs
+   */
+  public List<Long> getTimes(Connection conn, long datasetId)
+    throws DatabaseException;
+
+  /**
+   * Get the number of distinct times of the sensor values in a dataset.
+   *
+   * @param conn
+   *          A database connection
+   * @param datasetId
+   *          The dataset's database ID
+   * @return The number of times
+   * @throws DatabaseException
+   *           If a database error occurs
+   */
+  public int getTimeCount(Connection conn, long datasetId)
+    throws DatabaseException;
+
+  /**
+   * Get the number of sensor values in a dataset with a given user QC flag.
+   *
+   * @param conn
+   *          A database connection
+   * @param datasetId
+   *          The dataset's database ID
+   * @param flag
+   *          The flag
+   * @return The number of values with the flag
+   * @throws DatabaseException
+   *           If a database error occurs
+   */
+  public int getUserFlagCount(Connection conn, long datasetId, Flag flag)
+    throws DatabaseException;
+
+  /**
+   * Build a query from the criteria used by the older retrieval methods.
+   *
+   * @param datasetId
+   *          The dataset's database ID
+   * @param columnIds
+   *          The columns to retrieve, or {@code null} for all columns
+   * @param ignoreFlushing
+   *          Indicates whether values with a {@link Flag#FLUSHING} flag should
+   *          be left out
+   * @param orderByColumn
+   *          Indicates whether the values should be grouped by column in time
+   *          order
+   * @return The query
+   */
+  public static SensorValuesQuery makeQuery(long datasetId,
+    List<Long> columnIds, boolean ignoreFlushing, boolean orderByColumn) {
+
+    SensorValuesQuery query = new SensorValuesQuery(datasetId);
+    if (null != columnIds) {
+      query.columns(columnIds);
+    }
+    if (ignoreFlushing) {
+      query.excludeFlags(Flag.FLUSHING);
+    }
+    if (orderByColumn) {
+      query.orderByColumn();
+    }
+
+    return query;
+  }
+}
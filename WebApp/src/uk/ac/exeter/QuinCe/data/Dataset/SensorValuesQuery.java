@@ -0,0 +1,307 @@
+package uk.ac.exeter.QuinCe.data.Dataset;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import uk.ac.exeter.QuinCe.data.Dataset.QC.Flag;
+import uk.ac.exeter.QuinCe.utils.DateTimeUtils;
+
+/**
+ * Specifies which sensor values to load from a dataset.
+ *
+ * <p>
+ * By default a query selects every value in the dataset. The selection can be
+ * narrowed to a set of file columns, a time range, a set of user QC flags
+ * and/or the times of measurements with given run types, so that pages and
+ * jobs that only need part of a dataset do not have to load all of it. For
+ * example:
+ * </p>
+ *
+ * <pre>
+ * new SensorValuesQuery(datasetId).columns(columnIds).between(start, end)
+ *   .excludeFlags(Flag.FLUSHING);
+ * </pre>
+ *
+ * <p>
+ * Queries are run by a {@link SensorValueStore}, usually through
+ * {@link DataSetDataDB#getSensorValues(java.sql.Connection,
+ * uk.ac.exeter.QuinCe.data.Instrument.Instrument, SensorValuesQuery)}.
+ * </p>
+ */
+public class SensorValuesQuery {
+
+  /**
+   * The dataset's database ID
+   */
+  private final long datasetId;
+
+  /**
+   * The columns to load. {@code null} means all columns.
+   */
+  private List<Long> columnIds = null;
+
+  /**
+   * The earliest time to load (inclusive), in milliseconds since the epoch
+   */
+  private long startTime = Long.MIN_VALUE;
+
+  /**
+   * The latest time to load (inclusive), in milliseconds since the epoch
+   */
+  private long endTime = Long.MAX_VALUE;
+
+  /**
+   * The user QC flags to load. {@code null} means all flags.
+   */
+  private Set<Flag> includedFlags = null;
+
+  /**
+   * The user QC flags to leave out
+   */
+  private Set<Flag> excludedFlags = new HashSet<Flag>();
+
+  /**
+   * The run types of the measurements whose times are to be loaded.
+   * {@code null} means all times.
+   */
+  private List<String> measurementRunTypes = null;
+
+  /**
+   * Indicates whether values should be grouped by column in time order
+   */
+  private boolean orderByColumn = false;
+
+  /**
+   * Create a query for all the values in a dataset.
+   *
+   * @param datasetId
+   *          The dataset's database ID
+   */
+  public SensorValuesQuery(long datasetId) {
+    this.datasetId = datasetId;
+  }
+
+  /**
+   * Only load values from the specified columns.
+   *
+   * @param columnIds
+   *          The column IDs
+   * @return This query
+   */
+  public SensorValuesQuery columns(Collection<Long> columnIds) {
+    this.columnIds = new ArrayList<Long>(new HashSet<Long>(columnIds));
+    Collections.sort(this.columnIds);
+    return this;
+  }
+
+  /**
+   * Only load values from the specified columns.
+   *
+   * @param columnIds
+   *          The column IDs
+   * @return This query
+   */
+  public SensorValuesQuery columns(Long... columnIds) {
+    return columns(Arrays.asList(columnIds));
+  }
+
+  /**
+   * Only load values between two times. Both times are inclusive.
+   *
+   * @param start
+   *          The start time, in milliseconds since the epoch
+   * @param end
+   *          The end time, in milliseconds since the epoch
+   * @return This query
+   */
+  public SensorValuesQuery between(long start, long end) {
+    if (end < start) {
+      throw new IllegalArgumentException("End time is before start time");
+    }
+
+    this.startTime = start;
+    this.endTime = end;
+    return this;
+  }
+
+  /**
+   * Only load values between two times. Both times are inclusive.
+   *
+   * @param start
+   *          The start time
+   * @param end
+   *          The end time
+   * @return This query
+   */
+  public SensorValuesQuery between(LocalDateTime start, LocalDateTime end) {
+    return between(DateTimeUtils.dateToLong(start),
+      DateTimeUtils.dateToLong(end));
+  }
+
+  /**
+   * Only load values with one of the specified user QC flags.
+   *
+   * @param flags
+   *          The flags
+   * @return This query
+   */
+  public SensorValuesQuery onlyFlags(Flag... flags) {
+    includedFlags = new HashSet<Flag>(Arrays.asList(flags));
+    return this;
+  }
+
+  /**
+   * Do not load values with any of the specified user QC flags.
+   *
+   * @param flags
+   *          The flags
+   * @return This query
+   */
+  public SensorValuesQuery excludeFlags(Flag... flags) {
+    excludedFlags.addAll(Arrays.asList(flags));
+    return this;
+  }
+
+  /**
+   * Only load values at the times of the dataset's measurements that have one
+   * of the specified run types. This is applied by the
+   * {@link SensorValueStore}, since it needs the measurements from the
+   * database, and is not checked by {@link #matches(SensorValue)}.
+   *
+   * @param runTypes
+   *          The run types
+   * @return This query
+   */
+  public SensorValuesQuery atMeasurementRunTypes(Collection<String> runTypes) {
+    if (runTypes.isEmpty()) {
+      throw new IllegalArgumentException("No run types specified");
+    }
+
+    measurementRunTypes = new ArrayList<String>(new HashSet<String>(runTypes));
+    Collections.sort(measurementRunTypes);
+    return this;
+  }
+
+  /**
+   * Group the values by column. All the values for one column will be returned
+   * before those of the next column, and each column's values will be in time
+   * order.
+   *
+   * @return This query
+   */
+  public SensorValuesQuery orderByColumn() {
+    orderByColumn = true;
+    return this;
+  }
+
+  public long getDatasetId() {
+    return datasetId;
+  }
+
+  /**
+   * Get the IDs of the columns to load, in ascending order.
+   *
+   * @return The column IDs, or {@code null} if all columns are to be loaded
+   */
+  public List<Long> getColumnIds() {
+    return null == columnIds ? null : Collections.unmodifiableList(columnIds);
+  }
+
+  /**
+   * Determine whether or not this query loads values from a column.
+   *
+   * @param columnId
+   *          The column ID
+   * @return {@code true} if the column's values are loaded; {@code false} if
+   *         not
+   */
+  public boolean includesColumn(long columnId) {
+    return null == columnIds || columnIds.contains(columnId);
+  }
+
+  /**
+   * Determine whether or not this query is restricted to a time range.
+   *
+   * @return {@code true} if there is a time range; {@code false} if all times
+   *         are loaded
+   */
+  public boolean hasTimeRange() {
+    return startTime != Long.MIN_VALUE || endTime != Long.MAX_VALUE;
+  }
+
+  public long getStartTime() {
+    return startTime;
+  }
+
+  public long getEndTime() {
+    return endTime;
+  }
+
+  /**
+   * Get the user QC flags to load.
+   *
+   * @return The flags, or {@code null} if values with any flag are loaded
+   */
+  public Set<Flag> getIncludedFlags() {
+    return null == includedFlags ? null
+      : Collections.unmodifiableSet(includedFlags);
+  }
+
+  /**
+   * Get the user QC flags to leave out.
+   *
+   * @return The flags
+   */
+  public Set<Flag> getExcludedFlags() {
+    return Collections.unmodifiableSet(excludedFlags);
+  }
+
+  /**
+   * Get the run types of the measurements whose times are to be loaded.
+   *
+   * @return The run types, or {@code null} if values at all times are loaded
+   */
+  public List<String> getMeasurementRunTypes() {
+    return null == measurementRunTypes ? null
+      : Collections.unmodifiableList(measurementRunTypes);
+  }
+
+  public boolean isOrderByColumn() {
+    return orderByColumn;
+  }
+
+  /**
+   * Determine whether or not a sensor value meets the criteria of this query.
+   * The measurement run types are not checked.
+   *
+   * @param value
+   *          The value
+   * @return {@code true} if the value would be loaded by this query;
+   *         {@code false} if not
+   */
+  public boolean matches(SensorValue value) {
+    return value.getDatasetId() == datasetId
+      && includesColumn(value.getColumnId())
+      && value.getTimeMillis() >= startTime && value.getTimeMillis() <= endTime
+      && matchesFlag(value.getUserQCFlag());
+  }
+
+  /**
+   * Determine whether or not a user QC flag meets the criteria of this query.
+   *
+   * @param flag
+   *          The flag
+   * @return {@code true} if values with the flag are loaded; {@code false} if
+   *         not
+   */
+  public boolean matchesFlag(Flag flag) {
+    return (null == includedFlags || includedFlags.contains(flag))
+      && !excludedFlags.contains(flag);
+  }
+}
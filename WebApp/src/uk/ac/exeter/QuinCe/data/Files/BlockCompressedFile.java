@@ -0,0 +1,608 @@
+package uk.ac.exeter.QuinCe.data.Files;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A file in the file store that has been compressed in independent blocks.
+ *
+ * <p>
+ * The uncompressed contents are split into fixed size blocks, each of which is
+ * compressed separately using {@link Deflater}. An index of the compressed
+ * block positions is stored at the end of the file, so any part of the
+ * contents can be read by decompressing only the blocks that contain it.
+ * </p>
+ *
+ * <p>
+ * The file layout is:
+ * </p>
+ *
+ * <pre>
+ * Header:  magic (4 bytes), version (int), block size (int)
+ * Blocks:  compressed block data
+ * Index:   block count (int), compressed start position of each block (long)
+ * Trailer: index position (long), uncompressed length (int), magic (4 bytes)
+ * </pre>
+ *
+ * <p>
+ * The magic number starts with a {@code NUL} byte, which never appears at the
+ * start of an uncompressed text file, so compressed and uncompressed files can
+ * be told apart by their first bytes (see {@link #isCompressed(File)}).
+ * </p>
+ *
+ * <p>
+ * The most recently used blocks are cached, so that threads reading different
+ * parts of the file do not keep decompressing each other's blocks. Blocks are
+ * decompressed outside the cache lock, so instances can be shared between
+ * threads without serialising their reads.
+ * </p>
+ *
+ * <p>
+ * A file opened with {@link #open(File)} is memory mapped, and must be closed
+ * to release the mapping.
+ * </p>
+ *
+ * @see FileStore
+ */
+public class BlockCompressedFile implements StoredBytes, Closeable {
+
+  /**
+   * The magic number identifying a compressed file
+   */
+  private static final byte[] MAGIC = { 0, 'Q', 'C', 'Z' };
+
+  /**
+   * The file format version
+   */
+  private static final int VERSION = 1;
+
+  /**
+   * The default uncompressed block size
+   */
+  public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+  /**
+   * The length of the file header
+   */
+  private static final int HEADER_LENGTH = MAGIC.length + 8;
+
+  /**
+   * The length of the file trailer
+   */
+  private static final int TRAILER_LENGTH = 12 + MAGIC.length;
+
+  /**
+   * The maximum number of decompressed blocks held in {@link #blockCache}
+   */
+  private static final int BLOCK_CACHE_SIZE = 8;
+
+  /**
+   * The compressed file contents
+   */
+  private final ByteBuffer data;
+
+  /**
+   * The uncompressed block size
+   */
+  private final int blockSize;
+
+  /**
+   * The uncompressed length of the file
+   */
+  private final int length;
+
+  /**
+   * The compressed start position of each block. The final entry is the end
+   * of the last block.
+   */
+  private final long[] blockPositions;
+
+  /**
+   * The most recently used decompressed blocks, keyed by block index
+   */
+  private final Map<Integer, byte[]> blockCache = new LinkedHashMap<Integer, byte[]>(
+    BLOCK_CACHE_SIZE * 2, 0.75f, true) {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+      return size() > BLOCK_CACHE_SIZE;
+    }
+  };
+
+  /**
+   * Indicates whether the file has been closed
+   */
+  private volatile boolean closed = false;
+
+  /**
+   * Read the header and block index of a compressed file held in a buffer.
+   *
+   * @param data
+   *          The compressed file contents
+   * @throws IOException
+   *           If the data is not a valid compressed file
+   */
+  protected BlockCompressedFile(ByteBuffer data) throws IOException {
+    this.data = data;
+
+    int fileLength = data.limit();
+    if (fileLength < HEADER_LENGTH + TRAILER_LENGTH + 4 || !hasMagic(data, 0)
+      || !hasMagic(data, fileLength - MAGIC.length)) {
+      throw new IOException("Not a compressed file");
+    }
+
+    int version = data.getInt(MAGIC.length);
+    if (version != VERSION) {
+      throw new IOException("Unsupported compressed file version " + version);
+    }
+
+    blockSize = data.getInt(MAGIC.length + 4);
+    int trailerStart = fileLength - TRAILER_LENGTH;
+    long indexPosition = data.getLong(trailerStart);
+    length = data.getInt(trailerStart + 8);
+
+    if (blockSize <= 0 || length < 0 || indexPosition < HEADER_LENGTH
+      || indexPosition > trailerStart - 4) {
+      throw new IOException("Corrupt compressed file header");
+    }
+
+    int indexStart = (int) indexPosition;
+    int blockCount = data.getInt(indexStart);
+    if (blockCount != (int) ((length + (long) blockSize - 1) / blockSize)
+      || indexStart + 4 + blockCount * 8L != trailerStart) {
+      throw new IOException("Corrupt compressed file index");
+    }
+
+    blockPositions = new long[blockCount + 1];
+    for (int i = 0; i < blockCount; i++) {
+      blockPositions[i] = data.getLong(indexStart + 4 + i * 8);
+    }
+    blockPositions[blockCount] = indexStart;
+  }
+
+  /**
+   * Open a compressed file. The file is memory mapped until it is closed.
+   *
+   * @param file
+   *          The file
+   * @return The compressed file
+   * @throws IOException
+   *           If the file cannot be read or is not a compressed file
+   */
+  public static BlockCompressedFile open(File file) throws IOException {
+    ByteBuffer data = map(file);
+
+    try {
+      return new BlockCompressedFile(data);
+    } catch (IOException e) {
+      unmap(data);
+      throw e;
+    }
+  }
+
+  /**
+   * Memory map a file
+   *
+   * @param file
+   *          The file
+   * @return The mapped file contents
+   * @throws IOException
+   *           If the file cannot be mapped
+   */
+  protected static ByteBuffer map(File file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(),
+      StandardOpenOption.READ)) {
+
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException(
+          "File " + file.getAbsolutePath() + " is too large to be mapped");
+      }
+
+      return channel.map(MapMode.READ_ONLY, 0, size);
+    }
+  }
+
+  /**
+   * Release a buffer returned by {@link #map(File)} without waiting for it to
+   * be garbage collected. Until a mapping is released the file stays open,
+   * which stops it being replaced or deleted on Windows.
+   *
+   * <p>
+   * The buffer, and any duplicates of it, must not be used afterwards. If the
+   * JVM does not allow buffers to be released this does nothing, and the
+   * mapping is released when the buffer is garbage collected.
+   * </p>
+   *
+   * @param buffer
+   *          The mapped buffer
+   */
+  protected static void unmap(ByteBuffer buffer) {
+    if (buffer.isDirect()) {
+      try {
+        Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+        Field unsafeField = unsafeClass.getDeclaredField("theUnsafe");
+        unsafeField.setAccessible(true);
+        Method invokeCleaner = unsafeClass.getMethod("invokeCleaner",
+          ByteBuffer.class);
+        invokeCleaner.invoke(unsafeField.get(null), buffer);
+      } catch (ReflectiveOperationException | RuntimeException e) {
+        // Leave the buffer to the garbage collector
+      }
+    }
+  }
+
+  /**
+   * Determine whether a file is a compressed file
+   *
+   * @param file
+   *          The file
+   * @return {@code true} if the file is compressed; {@code false} if it is not
+   * @throws IOException
+   *           If the file cannot be read
+   */
+  public static boolean isCompressed(File file) throws IOException {
+    boolean result = false;
+
+    if (file.length() >= MAGIC.length) {
+      try (InputStream in = Files.newInputStream(file.toPath())) {
+        byte[] start = new byte[MAGIC.length];
+        result = readFully(in, start) == MAGIC.length
+          && hasMagic(ByteBuffer.wrap(start), 0);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Determine whether a buffer holds a compressed file
+   *
+   * @param buffer
+   *          The buffer
+   * @return {@code true} if the buffer is compressed; {@code false} if it is
+   *         not
+   */
+  protected static boolean isCompressed(ByteBuffer buffer) {
+    return buffer.limit() >= MAGIC.length && hasMagic(buffer, 0);
+  }
+
+  /**
+   * See whether the magic number appears at the specified position
+   *
+   * @param buffer
+   *          The buffer
+   * @param position
+   *          The position
+   * @return {@code true} if the magic number is present; {@code false} if not
+   */
+  private static boolean hasMagic(ByteBuffer buffer, int position) {
+    boolean result = true;
+    for (int i = 0; result && i < MAGIC.length; i++) {
+      result = buffer.get(position + i) == MAGIC[i];
+    }
+    return result;
+  }
+
+  /**
+   * Compress the contents of a stream to a file. Any existing file is
+   * overwritten.
+   *
+   * @param in
+   *          The stream of uncompressed data
+   * @param file
+   *          The destination file
+   * @param blockSize
+   *          The uncompressed block size
+   * @throws IOException
+   *           If the data cannot be read or written, or is too large
+   */
+  public static void write(InputStream in, File file, int blockSize)
+    throws IOException {
+
+    List<Long> blockPositions = new ArrayList<Long>();
+    long position = 0;
+    long length = 0;
+
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    try (DataOutputStream out = new DataOutputStream(
+      new BufferedOutputStream(new FileOutputStream(file)))) {
+
+      out.write(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(blockSize);
+      position += HEADER_LENGTH;
+
+      byte[] block = new byte[blockSize];
+      byte[] compressed = new byte[blockSize + blockSize / 8 + 64];
+
+      int blockLength = readFully(in, block);
+      while (blockLength > 0) {
+        length += blockLength;
+        if (length > Integer.MAX_VALUE) {
+          throw new IOException("File is too large to be compressed");
+        }
+
+        blockPositions.add(position);
+
+        deflater.reset();
+        deflater.setInput(block, 0, blockLength);
+        deflater.finish();
+        while (!deflater.finished()) {
+          int compressedLength = deflater.deflate(compressed);
+          out.write(compressed, 0, compressedLength);
+          position += compressedLength;
+        }
+
+        blockLength = blockLength == blockSize ? readFully(in, block) : 0;
+      }
+
+      long indexPosition = position;
+      out.writeInt(blockPositions.size());
+      for (long blockPosition : blockPositions) {
+        out.writeLong(blockPosition);
+      }
+
+      out.writeLong(indexPosition);
+      out.writeInt((int) length);
+      out.write(MAGIC);
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * Read from a stream until the array is full or the stream ends
+   *
+   * @param in
+   *          The stream
+   * @param buffer
+   *          The destination array
+   * @return The number of bytes read
+   * @throws IOException
+   *           If the stream cannot be read
+   */
+  private static int readFully(InputStream in, byte[] buffer)
+    throws IOException {
+    int total = 0;
+    int read = 0;
+    while (total < buffer.length && read != -1) {
+      read = in.read(buffer, total, buffer.length - total);
+      if (read > 0) {
+        total += read;
+      }
+    }
+    return total;
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  /**
+   * Get the uncompressed block size
+   *
+   * @return The block size
+   */
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  /**
+   * Get the number of blocks in the file
+   *
+   * @return The block count
+   */
+  public int getBlockCount() {
+    return blockPositions.length - 1;
+  }
+
+  @Override
+  public void get(int position, byte[] dest, int offset, int count) {
+
+    if (closed) {
+      throw new IllegalStateException("Compressed file has been closed");
+    }
+
+    if (position < 0 || count < 0 || position + count > length
+      || offset < 0 || offset + count > dest.length) {
+      throw new IndexOutOfBoundsException("Invalid range " + position + "+"
+        + count + " for file of length " + length);
+    }
+
+    while (count > 0) {
+      int blockIndex = position / blockSize;
+      int blockOffset = position % blockSize;
+      byte[] block = getBlock(blockIndex);
+      int copyLength = Math.min(count, block.length - blockOffset);
+
+      System.arraycopy(block, blockOffset, dest, offset, copyLength);
+      position += copyLength;
+      offset += copyLength;
+      count -= copyLength;
+    }
+  }
+
+  /**
+   * Get the complete uncompressed contents of the file
+   *
+   * @return The file contents
+   */
+  public byte[] getBytes() {
+    byte[] result = new byte[length];
+    get(0, result, 0, length);
+    return result;
+  }
+
+  /**
+   * Get a stream that reads the uncompressed contents of the file from the
+   * start. Blocks are decompressed as the stream reaches them. Closing the
+   * stream closes this file.
+   *
+   * @return The stream
+   */
+  public InputStream getInputStream() {
+    return new InputStream() {
+
+      /**
+       * The position of the next byte to be read
+       */
+      private int position = 0;
+
+      @Override
+      public int read() throws IOException {
+        checkOpen();
+        int result = -1;
+        if (position < length) {
+          byte[] single = new byte[1];
+          get(position, single, 0, 1);
+          position++;
+          result = single[0] & 0xff;
+        }
+        return result;
+      }
+
+      @Override
+      public int read(byte[] dest, int offset, int count) throws IOException {
+        checkOpen();
+        int result = -1;
+        if (count == 0) {
+          result = 0;
+        } else if (position < length) {
+          result = Math.min(count, length - position);
+          get(position, dest, offset, result);
+          position += result;
+        }
+        return result;
+      }
+
+      @Override
+      public void close() {
+        BlockCompressedFile.this.close();
+      }
+
+      /**
+       * Make sure the file has not been closed
+       *
+       * @throws IOException
+       *           If the file has been closed
+       */
+      private void checkOpen() throws IOException {
+        if (closed) {
+          throw new IOException("Stream closed");
+        }
+      }
+    };
+  }
+
+  /**
+   * Get an uncompressed block, decompressing it if it is not cached
+   *
+   * @param blockIndex
+   *          The block index
+   * @return The uncompressed block
+   */
+  private byte[] getBlock(int blockIndex) {
+    byte[] result;
+    synchronized (blockCache) {
+      result = blockCache.get(blockIndex);
+    }
+
+    if (null == result) {
+      // Two threads may occasionally decompress the same block, but neither
+      // has to wait for the other
+      result = decompressBlock(blockIndex);
+      synchronized (blockCache) {
+        blockCache.put(blockIndex, result);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Release the memory mapping of the compressed data. No data can be read
+   * afterwards. This must not be called while other threads are reading, and
+   * should only be called on files obtained from {@link #open(File)}.
+   */
+  @Override
+  public synchronized void close() {
+    if (!closed) {
+      closed = true;
+      synchronized (blockCache) {
+        blockCache.clear();
+      }
+      unmap(data);
+    }
+  }
+
+  /**
+   * Decompress a block
+   *
+   * @param blockIndex
+   *          The block index
+   * @return The uncompressed block
+   * @throws UncheckedIOException
+   *           If the block data is corrupt
+   */
+  private byte[] decompressBlock(int blockIndex) {
+    int start = (int) blockPositions[blockIndex];
+    int end = (int) blockPositions[blockIndex + 1];
+    byte[] compressed = new byte[end - start];
+    ByteBuffer source = data.duplicate();
+    source.position(start);
+    source.get(compressed);
+
+    int blockLength = Math.min(blockSize, length - blockIndex * blockSize);
+    byte[] block = new byte[blockLength];
+
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(compressed);
+      int inflated = 0;
+      while (inflated < blockLength && !inflater.finished()) {
+        int count = inflater.inflate(block, inflated, blockLength - inflated);
+        if (count == 0
+          && (inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        inflated += count;
+      }
+
+      if (inflated != blockLength) {
+        throw new UncheckedIOException(new IOException(
+          "Compressed block " + blockIndex + " is truncated"));
+      }
+    } catch (DataFormatException e) {
+      throw new UncheckedIOException(
+        new IOException("Compressed block " + blockIndex + " is corrupt", e));
+    } finally {
+      inflater.end();
+    }
+
+    return block;
+  }
+}
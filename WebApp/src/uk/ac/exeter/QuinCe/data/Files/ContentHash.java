@@ -0,0 +1,108 @@
+package uk.ac.exeter.QuinCe.data.Files;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * Calculates the content hashes used to recognise uploaded files that are
+ * identical to files already in the system.
+ *
+ * <p>
+ * The hash is the SHA-256 digest of the file contents as they are stored in
+ * the file store, i.e. the lines of the file joined with {@code \n} and
+ * encoded in {@link FileStore#CHARSET} (see
+ * {@link DataFile#getContentStream()}). It is stored as a lower case
+ * hexadecimal string.
+ * </p>
+ */
+public class ContentHash {
+
+  /**
+   * The digest algorithm
+   */
+  private static final String ALGORITHM = "SHA-256";
+
+  /**
+   * Hexadecimal digits
+   */
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  /**
+   * Create a new digest for calculating a content hash
+   *
+   * @return The digest
+   */
+  public static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance(ALGORITHM);
+    } catch (NoSuchAlgorithmException e) {
+      // All Java platforms are required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Calculate the hash of the contents of a stream. The stream is read to the
+   * end but not closed.
+   *
+   * @param in
+   *          The stream
+   * @return The hash
+   * @throws IOException
+   *           If the stream cannot be read
+   */
+  public static String hash(InputStream in) throws IOException {
+    MessageDigest digest = newDigest();
+
+    byte[] buffer = new byte[64 * 1024];
+    int read = in.read(buffer);
+    while (read != -1) {
+      digest.update(buffer, 0, read);
+      read = in.read(buffer);
+    }
+
+    return toHex(digest.digest());
+  }
+
+  /**
+   * Calculate the hash of a file's lines
+   *
+   * @param lines
+   *          The lines
+   * @return The hash
+   */
+  public static String hash(List<String> lines) {
+    MessageDigest digest = newDigest();
+    Charset charset = FileStore.CHARSET;
+    byte[] lineBreak = "\n".getBytes(charset);
+
+    for (int i = 0; i < lines.size(); i++) {
+      if (i > 0) {
+        digest.update(lineBreak);
+      }
+      digest.update(lines.get(i).getBytes(charset));
+    }
+
+    return toHex(digest.digest());
+  }
+
+  /**
+   * Convert a digest to its hexadecimal string form
+   *
+   * @param digest
+   *          The digest
+   * @return The hexadecimal string
+   */
+  public static String toHex(byte[] digest) {
+    char[] result = new char[digest.length * 2];
+    for (int i = 0; i < digest.length; i++) {
+      result[i * 2] = HEX_DIGITS[(digest[i] >> 4) & 0x0f];
+      result[i * 2 + 1] = HEX_DIGITS[digest[i] & 0x0f];
+    }
+    return new String(result);
+  }
+}
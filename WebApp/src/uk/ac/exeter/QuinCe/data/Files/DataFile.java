@@ -1,19 +1,21 @@
 package uk.ac.exeter.QuinCe.data.Files;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Set;
 import java.util.TreeSet;
 
+import uk.ac.exeter.QuinCe.data.Instrument.FieldTokenizer;
 import uk.ac.exeter.QuinCe.data.Instrument.FileDefinition;
 import uk.ac.exeter.QuinCe.data.Instrument.FileDefinitionException;
-import uk.ac.exeter.QuinCe.data.Instrument.MissingRunTypeException;
 import uk.ac.exeter.QuinCe.data.Instrument.DataFormats.DateTimeColumnAssignment;
 import uk.ac.exeter.QuinCe.data.Instrument.DataFormats.DateTimeSpecification;
 import uk.ac.exeter.QuinCe.data.Instrument.DataFormats.DateTimeSpecificationException;
@@ -65,7 +67,10 @@ public class DataFile {
   private int recordCount = -1;
 
   /**
-   * The file contents
+   * The file contents. For files loaded from the file store, this is a memory
+   * mapped view of the stored file.
+   *
+   * @see MappedFileLines
    */
   private List<String> contents;
 
@@ -79,6 +84,12 @@ public class DataFile {
    */
   private static final int MAX_MESSAGE_COUNT = 25;
 
+  /**
+   * The message for a line whose date/time is not later than the previous
+   * line's
+   */
+  protected static final String NOT_MONOTONIC_MESSAGE = "Date/Time is not monotonic";
+
   /**
    * Row in the file where the error happened not set
    */
@@ -94,6 +105,32 @@ public class DataFile {
    */
   private String fileStore;
 
+  /**
+   * The time index of the stored file, if it has one
+   *
+   * @see FileTimeIndex
+   */
+  private FileTimeIndex timeIndex = null;
+
+  /**
+   * The content hash of the file
+   *
+   * @see #getContentHash()
+   */
+  private String contentHash = null;
+
+  /**
+   * Tokenizer holding the most recently accessed line
+   *
+   * @see #tokenizeLine(int)
+   */
+  private FieldTokenizer lineTokenizer = null;
+
+  /**
+   * The line number held in {@link #lineTokenizer}
+   */
+  private int tokenizedLine = -1;
+
   /**
    * Run types in this file not defined in the file definition
    */
@@ -215,6 +252,8 @@ public class DataFile {
         "File Definition does not match file contents");
     } else {
       this.fileDefinition = newDefinition;
+      lineTokenizer = null;
+      tokenizedLine = -1;
     }
   }
 
@@ -286,7 +325,8 @@ public class DataFile {
 
   /**
    * Validate the file contents. Creates a set of {@code DataFileMessage}
-   * objects, which can be retrieved using {@code getMessages()}.
+   * objects, which can be retrieved using {@code getMessages()}. Large files
+   * are validated in parallel chunks by the {@link DataFileValidator}.
    *
    * @throws DataFileException
    *           If the file contents could not be loaded
@@ -304,50 +344,58 @@ public class DataFile {
     }
 
     if (firstDataLine > -1) {
+      new DataFileValidator(fileDefinition, headerDate, contents,
+        MAX_MESSAGE_COUNT).validate(this, firstDataLine);
+    }
+  }
 
-      // For each line in the file, check that:
-      // (a) The date/time are present and monotonic in the file
-      // (b) Has the correct number of columns (for Run Types that aren't
-      // IGNORED)
-      // (c) The Run Type is recognised
-
-      LocalDateTime lastDateTime = null;
-      for (int lineNumber = firstDataLine; lineNumber < getContentLineCount(); lineNumber++) {
-        String line = contents.get(lineNumber);
+  /**
+   * Record a message generated by the {@link DataFileValidator}
+   *
+   * @param lineNumber
+   *          The line number
+   * @param message
+   *          The message text
+   */
+  protected void addValidationMessage(int lineNumber, String message) {
+    addMessage(lineNumber, message);
+  }
 
-        try {
-          LocalDateTime dateTime = fileDefinition.getDateTimeSpecification()
-            .getDateTime(headerDate, fileDefinition.extractFields(line));
-          if (null != lastDateTime) {
-            if (dateTime.compareTo(lastDateTime) <= 0) {
-              addMessage(lineNumber, "Date/Time is not monotonic");
-            }
-          }
-        } catch (DateTimeSpecificationException e) {
-          addMessage(lineNumber, e.getMessage());
-        }
+  /**
+   * Record Run Types found by the {@link DataFileValidator} that are not
+   * defined in the file definition
+   *
+   * @param runTypes
+   *          The missing Run Types
+   */
+  protected void addMissingRunTypes(Set<RunTypeAssignment> runTypes) {
+    missingRunTypes.addAll(runTypes);
+  }
 
-        boolean checkColumnCount = true;
-
-        if (fileDefinition.hasRunTypes()) {
-          try {
-            RunTypeCategory runType = fileDefinition.getRunTypeCategory(line);
-            if (runType.equals(RunTypeCategory.IGNORED)) {
-              checkColumnCount = false;
-            }
-          } catch (FileDefinitionException e) {
-            addMessage(lineNumber, e.getMessage());
-            if (e instanceof MissingRunTypeException) {
-              missingRunTypes.add(((MissingRunTypeException) e).getRunType());
-            }
-          }
-        }
+  /**
+   * Record the date/time of the first data line found during validation, so
+   * it doesn't need to be read again (which is expensive for streamed files).
+   * The date is not changed if it has already been set.
+   *
+   * @param date
+   *          The date/time of the first line
+   */
+  protected void setValidatedStartDate(LocalDateTime date) {
+    if (null == startDate) {
+      startDate = date;
+    }
+  }
 
-        if (checkColumnCount && fileDefinition.extractFields(line)
-          .size() != fileDefinition.getColumnCount()) {
-          addMessage(lineNumber, "Incorrect number of columns");
-        }
-      }
+  /**
+   * Record the date/time of the last data line found during validation. The
+   * date is not changed if it has already been set.
+   *
+   * @param date
+   *          The date/time of the last line
+   */
+  protected void setValidatedEndDate(LocalDateTime date) {
+    if (null == endDate) {
+      endDate = date;
     }
   }
 
@@ -510,8 +558,7 @@ public class DataFile {
    */
   public LocalDateTime getDate(int line)
     throws DataFileException, DateTimeSpecificationException {
-    loadContents();
-    return getDate(fileDefinition.extractFields(contents.get(line)));
+    return getDate(tokenizeLine(line).getFields());
   }
 
   public LocalDateTime getDate(List<String> line)
@@ -538,8 +585,7 @@ public class DataFile {
     int runTypeColumn = fileDefinition.getRunTypeColumn();
 
     if (runTypeColumn > -1) {
-      loadContents();
-      runType = fileDefinition.getRunType(contents.get(line), true)
+      runType = fileDefinition.getRunType(tokenizeLine(line).getFields(), true)
         .getRunName();
     }
 
@@ -564,8 +610,8 @@ public class DataFile {
     int runTypeColumn = fileDefinition.getRunTypeColumn();
 
     if (runTypeColumn > -1) {
-      loadContents();
-      runType = fileDefinition.getRunTypeCategory(contents.get(line));
+      runType = fileDefinition.getRunType(tokenizeLine(line).getFields(), true)
+        .getCategory();
     }
 
     return runType;
@@ -722,25 +768,312 @@ public class DataFile {
     return result.toString();
   }
 
+  /**
+   * Get a stream of the file contents, encoded using
+   * {@link FileStore#CHARSET}. Files loaded from the file store and files
+   * spooled during upload are streamed from disk; other files are encoded from
+   * memory.
+   *
+   * @return The stream
+   * @throws DataFileException
+   *           If the file contents cannot be retrieved
+   * @see #getContents()
+   */
+  public InputStream getContentStream() throws DataFileException {
+    loadContents();
+
+    InputStream result;
+
+    try {
+      if (contents instanceof SpooledFileLines) {
+        result = ((SpooledFileLines) contents).openStream();
+      } else if (contents instanceof MappedFileLines) {
+        result = FileStore.getInputStream(fileStore, this);
+      } else {
+        result = new ByteArrayInputStream(
+          getContents().getBytes(FileStore.CHARSET));
+      }
+    } catch (IOException e) {
+      throw new DataFileException(databaseId, DataFileException.NO_LINE_NUMBER,
+        "Error while reading file contents", e);
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the length in bytes of the stream returned by
+   * {@link #getContentStream()}
+   *
+   * @return The content length
+   * @throws DataFileException
+   *           If the file contents cannot be retrieved
+   */
+  public long getContentLength() throws DataFileException {
+    loadContents();
+
+    long result;
+
+    if (contents instanceof SpooledFileLines) {
+      result = ((SpooledFileLines) contents).getLength();
+    } else if (contents instanceof MappedFileLines) {
+      result = ((MappedFileLines) contents).getFileLength();
+    } else {
+      result = getContents().getBytes(FileStore.CHARSET).length;
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the content hash of the file. This is calculated from the file
+   * contents the first time it is requested.
+   *
+   * @return The content hash
+   * @throws DataFileException
+   *           If the file contents cannot be retrieved
+   * @see ContentHash
+   */
+  public String getContentHash() throws DataFileException {
+    if (null == contentHash) {
+      loadContents();
+
+      if (contents instanceof SpooledFileLines) {
+        contentHash = ((SpooledFileLines) contents).getContentHash();
+      } else if (contents instanceof MappedFileLines) {
+        try (InputStream in = getContentStream()) {
+          contentHash = ContentHash.hash(in);
+        } catch (IOException e) {
+          throw new DataFileException(databaseId,
+            DataFileException.NO_LINE_NUMBER,
+            "Error while reading file contents", e);
+        }
+      } else {
+        contentHash = ContentHash.hash(contents);
+      }
+    }
+
+    return contentHash;
+  }
+
+  /**
+   * Determine whether the contents of this file start with the complete
+   * contents of another file. The contents are compared as streams, so
+   * neither file is loaded into memory.
+   *
+   * @param other
+   *          The other file
+   * @return {@code true} if this file starts with the other file's contents;
+   *         {@code false} if it does not
+   * @throws DataFileException
+   *           If either file's contents cannot be read
+   */
+  public boolean contentStartsWith(DataFile other) throws DataFileException {
+    boolean result = getContentLength() >= other.getContentLength();
+
+    if (result) {
+      try (InputStream thisStream = new BufferedInputStream(getContentStream());
+        InputStream otherStream = new BufferedInputStream(
+          other.getContentStream())) {
+
+        int otherByte = otherStream.read();
+        while (result && otherByte != -1) {
+          result = thisStream.read() == otherByte;
+          otherByte = otherStream.read();
+        }
+      } catch (IOException e) {
+        throw new DataFileException(databaseId,
+          DataFileException.NO_LINE_NUMBER, "Error while comparing files", e);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Determine whether this file has exactly the same contents as another file
+   *
+   * @param other
+   *          The other file
+   * @return {@code true} if the contents are identical; {@code false} if they
+   *         are not
+   * @throws DataFileException
+   *           If either file's contents cannot be read
+   * @see #contentStartsWith(DataFile)
+   */
+  public boolean contentEquals(DataFile other) throws DataFileException {
+    return getContentLength() == other.getContentLength()
+      && contentStartsWith(other);
+  }
+
   /**
    * Set the contents of the data file
    *
    * @param contents
-   *          The contents
-   */
-  protected void setContents(String contents) {
-    this.contents = Arrays.asList(contents.split("\n"));
-    // Remove empty lines at the end of the list
-    ListIterator<String> li = this.contents.listIterator(getContentLineCount());
-    while (li.hasPrevious()) {
-      int index = li.previousIndex();
-      if (li.previous().trim().length() == 0) {
-        this.contents.remove(index);
-      } else {
-        // When we reach a non empty line, we stop the search
-        break;
+   *          The file lines
+   */
+  protected void setContents(List<String> contents) {
+    this.contents = contents;
+  }
+
+  /**
+   * Release the memory mapped view of a stored file's contents. The contents
+   * are mapped again if they are needed later. This has no effect on files
+   * that are not loaded from the file store.
+   */
+  public void closeContents() {
+    if (contents instanceof MappedFileLines) {
+      ((MappedFileLines) contents).close();
+      contents = null;
+    }
+  }
+
+  /**
+   * Get a cursor over the data lines of the file. The cursor starts before the
+   * first data line, so {@link DataFileLineCursor#next()} must be called
+   * before reading the first line.
+   *
+   * @return The cursor
+   * @throws DataFileException
+   *           If the file contents could not be loaded
+   */
+  public DataFileLineCursor getLineCursor() throws DataFileException {
+    loadContents();
+    return new DataFileLineCursor(this, contents, getFirstDataLine());
+  }
+
+  /**
+   * Get a cursor over the data lines of the file that covers at least the
+   * specified time period. If the stored file has a {@link FileTimeIndex},
+   * lines that lie entirely outside the period are skipped; otherwise the
+   * cursor covers all the data lines. Callers must still check the time of
+   * each line.
+   *
+   * @param start
+   *          The start of the period, or {@code null} for no limit
+   * @param end
+   *          The end of the period, or {@code null} for no limit
+   * @return The cursor
+   * @throws DataFileException
+   *           If the file contents could not be loaded
+   */
+  public DataFileLineCursor getLineCursor(LocalDateTime start,
+    LocalDateTime end) throws DataFileException {
+    loadContents();
+    return new DataFileLineCursor(this, contents, getStartLine(start),
+      getEndLine(end));
+  }
+
+  /**
+   * Get the line from which the file must be read to find all lines at or
+   * after the specified time. If the stored file has no usable
+   * {@link FileTimeIndex}, this is the first data line.
+   *
+   * @param start
+   *          The start time, or {@code null} for no limit
+   * @return The line number
+   * @throws DataFileException
+   *           If the file contents could not be loaded
+   * @see FileTimeIndex#getStartLine(LocalDateTime)
+   */
+  public int getStartLine(LocalDateTime start) throws DataFileException {
+    int result = getFirstDataLine();
+
+    if (hasTimeIndex()) {
+      result = Math.max(result, timeIndex.getStartLine(start));
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the line at which reading can stop when looking for lines at or
+   * before the specified time. If the stored file has no usable
+   * {@link FileTimeIndex}, this is the number of lines in the file.
+   *
+   * @param end
+   *          The end time, or {@code null} for no limit
+   * @return The line number (exclusive)
+   * @throws DataFileException
+   *           If the file contents could not be loaded
+   * @see FileTimeIndex#getEndLine(LocalDateTime)
+   */
+  public int getEndLine(LocalDateTime end) throws DataFileException {
+    loadContents();
+
+    int result = contents.size();
+
+    if (hasTimeIndex()) {
+      result = timeIndex.getEndLine(end);
+    }
+
+    return result;
+  }
+
+  /**
+   * Determine whether the stored file has a time index that matches its
+   * loaded contents
+   *
+   * @return {@code true} if the index can be used; {@code false} if not
+   */
+  private boolean hasTimeIndex() {
+    return null != timeIndex && timeIndex.hasTimes()
+      && timeIndex.getLineCount() == contents.size();
+  }
+
+  /**
+   * Get the parsed contents of the file from the file store's cache, for
+   * reading the lines in the specified time period.
+   *
+   * <p>
+   * If there is no up-to-date cache and the period covers the whole file, the
+   * file is parsed and the cache is stored for future use. If the period only
+   * covers part of the file, the cache is not built; the file's
+   * {@link FileTimeIndex} allows the lines in the period to be read directly
+   * from the text, which is much quicker than parsing the whole file.
+   * </p>
+   *
+   * @param start
+   *          The start of the period, or {@code null} for no limit
+   * @param end
+   *          The end of the period, or {@code null} for no limit
+   * @return The parsed contents, or {@code null} if the file cannot be cached
+   *         or the cache was not built. The cache must be closed after use.
+   * @throws DataFileException
+   *           If the file cannot be read or the cache cannot be stored
+   * @see ParsedFileCache
+   */
+  public ParsedFileCache getParseCache(LocalDateTime start, LocalDateTime end)
+    throws DataFileException {
+
+    ParsedFileCache result = null;
+
+    try {
+      long parseVersion = fileDefinition.getParseVersion();
+      result = FileStore.getParseCache(fileStore, this, parseVersion);
+
+      if (null == result && getStartLine(start) <= getFirstDataLine()
+        && getEndLine(end) >= contents.size()
+        && FileStore.storeParseCache(fileStore, this, parseVersion)) {
+
+        result = FileStore.getParseCache(fileStore, this, parseVersion);
       }
+    } catch (DateTimeSpecificationException | IOException e) {
+      throw new DataFileException(databaseId, DataFileException.NO_LINE_NUMBER,
+        "Unable to cache parsed file contents", e);
     }
+
+    return result;
+  }
+
+  /**
+   * Set the time index of the stored file
+   *
+   * @param timeIndex
+   *          The index
+   */
+  protected void setTimeIndex(FileTimeIndex timeIndex) {
+    this.timeIndex = timeIndex;
   }
 
   /**
@@ -793,9 +1126,7 @@ public class DataFile {
    */
   public Double getDoubleValue(int line, int field, String missingValue)
     throws DataFileException {
-    loadContents();
-    String fieldValue = fileDefinition.extractFields(contents.get(line))
-      .get(field);
+    String fieldValue = tokenizeLine(line).getField(field);
 
     Double result = null;
 
@@ -828,7 +1159,29 @@ public class DataFile {
     String result = null;
 
     if (field < line.size()) {
-      result = line.get(field).trim().replaceAll(",", "");
+      result = extractSensorFieldValue(line.get(field), missingValue);
+    }
+
+    return result;
+  }
+
+  /**
+   * Get a sensor value from a field. Returns {@code null} if the field is
+   * empty, is the defined missing value, or is not numeric.
+   *
+   * @param field
+   *          The field
+   * @param missingValue
+   *          The defined missing value
+   * @return The extracted value
+   * @see #getStringValue(List, int, String)
+   */
+  public static String extractSensorFieldValue(String field,
+    String missingValue) {
+    String result = null;
+
+    if (null != field) {
+      result = field.trim().replaceAll(",", "");
       if (result.length() == 0 || result.equals(missingValue)
         || result.equals("NaN") || result.equals("NA")) {
         result = null;
@@ -876,8 +1229,34 @@ public class DataFile {
    * @throws DataFileException
    */
   public List<String> getLine(int line) throws DataFileException {
+    return tokenizeLine(line).getFieldsCopy();
+  }
+
+  /**
+   * Split a line into its fields. The most recently tokenised line is kept, so
+   * successive calls for the same line (e.g. to get its date, run type and
+   * values) only split it once.
+   *
+   * @param line
+   *          The line number
+   * @return The tokenizer holding the line's fields
+   * @throws DataFileException
+   *           If the file contents could not be loaded
+   */
+  private FieldTokenizer tokenizeLine(int line) throws DataFileException {
     loadContents();
-    return fileDefinition.extractFields(contents.get(line));
+
+    if (null == lineTokenizer) {
+      lineTokenizer = fileDefinition.makeFieldTokenizer();
+      tokenizedLine = -1;
+    }
+
+    if (line != tokenizedLine) {
+      lineTokenizer.tokenize(contents.get(line));
+      tokenizedLine = line;
+    }
+
+    return lineTokenizer;
   }
 
   @Override
@@ -8,7 +8,6 @@ import java.sql.Statement;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -55,8 +54,8 @@ public class DataFileDB {
    * @see #storeNewFile(DataSource, Properties, DataFile)
    */
   private static final String ADD_FILE_STATEMENT = "INSERT INTO data_file "
-    + "(file_definition_id, filename, start_date, end_date, record_count) "
-    + "VALUES (?, ?, ?, ?, ?)";
+    + "(file_definition_id, filename, start_date, end_date, record_count, "
+    + "content_hash) VALUES (?, ?, ?, ?, ?, ?)";
 
   /**
    * Statement to add a data file to the database
@@ -64,8 +63,8 @@ public class DataFileDB {
    * @see #replaceFile(DataSource, Properties, DataFile, long)
    */
   private static final String REPLACE_FILE_STATEMENT = "UPDATE data_file "
-    + "SET filename = ?, start_date = ?, end_date = ?, record_count = ? "
-    + "WHERE id = ?";
+    + "SET filename = ?, start_date = ?, end_date = ?, record_count = ?, "
+    + "content_hash = ? WHERE id = ?";
 
   /**
    * Query to get a set of data files by their ID
@@ -180,6 +179,42 @@ public class DataFileDB {
     + "id FROM data_file WHERE filename = ? AND file_definition_id IN "
     + "(SELECT id FROM file_definition WHERE instrument_id = ?)";
 
+  /**
+   * Query to find a file for an instrument with a given content hash
+   *
+   * @see #getFilenameWithHash(Connection, long, String)
+   */
+  private static final String FIND_FILE_BY_HASH_QUERY = "SELECT "
+    + "filename FROM data_file WHERE content_hash = ? AND file_definition_id IN "
+    + "(SELECT id FROM file_definition WHERE instrument_id = ?) LIMIT 1";
+
+  /**
+   * Query to get the details of an instrument's files for its
+   * {@link DataFileIndex}
+   *
+   * @see #getIndexEntries(Connection, long)
+   */
+  private static final String GET_INDEX_ENTRIES_QUERY = "SELECT "
+    + "id, file_definition_id, filename, start_date, end_date, record_count "
+    + "FROM data_file WHERE file_definition_id IN "
+    + "(SELECT id FROM file_definition WHERE instrument_id = ?)";
+
+  /**
+   * Query to get the instrument that owns a file definition
+   *
+   * @see #getFileDefinitionInstrument(Connection, long)
+   */
+  private static final String GET_DEFINITION_INSTRUMENT_QUERY = "SELECT "
+    + "instrument_id FROM file_definition WHERE id = ?";
+
+  /**
+   * Query to get the file definitions for an instrument
+   *
+   * @see #getFileDefinitionInstruments(Connection, long)
+   */
+  private static final String GET_INSTRUMENT_DEFINITIONS_QUERY = "SELECT "
+    + "id FROM file_definition WHERE instrument_id = ?";
+
   private static final String GET_FILE_COUNT_QUERY = "SELECT "
     + "COUNT(*) FROM data_file WHERE " + "file_definition_id IN"
     + "(SELECT id FROM file_definition WHERE instrument_id = ?)";
@@ -218,25 +253,12 @@ public class DataFileDB {
     FileExistsException, DatabaseException, RecordNotFoundException {
 
     MissingParam.checkMissing(dataSource, "dataSource");
-    MissingParam.checkMissing(appConfig, "appConfig");
-    MissingParam.checkMissing(dataFile, "dataFile");
 
     Connection conn = null;
 
     try {
       conn = dataSource.getConnection();
-
-      if (replacementId > -1) {
-        if (!fileExists(conn, replacementId)) {
-          throw new RecordNotFoundException(
-            "Tried to replace a file that doesn't exist (id " + replacementId
-              + ")");
-        }
-
-        replaceFile(conn, appConfig, dataFile, replacementId);
-      } else {
-        storeNewFile(conn, appConfig, dataFile);
-      }
+      storeFile(conn, appConfig, dataFile, replacementId);
     } catch (SQLException e) {
       throw new DatabaseException("Error while storing file", e);
     } finally {
@@ -244,6 +266,60 @@ public class DataFileDB {
     }
   }
 
+  /**
+   * Store a file in the database and in the file store.
+   *
+   * <p>
+   * If the connection is in auto-commit mode, the file is stored in its own
+   * transaction. Otherwise the caller is responsible for committing the
+   * transaction, which allows several files to be stored together. The file
+   * store cannot take part in the transaction, so after committing the caller
+   * must call {@link #commitStoredFile(Properties, DataFile, long)}, and after
+   * rolling back it must call
+   * {@link #discardStoredFile(Properties, DataFile, long)}.
+   * </p>
+   *
+   * @param conn
+   *          A database connection
+   * @param appConfig
+   *          The application configuration
+   * @param dataFile
+   *          The data file
+   * @param replacementId
+   *          The ID of the file being replaced, or {@code -1} if this is a new
+   *          file
+   * @throws MissingParamException
+   *           If any of the parameters are missing
+   * @throws FileExistsException
+   *           If the file already exists in the system
+   * @throws DatabaseException
+   *           If an error occurs while storing the file
+   * @throws RecordNotFoundException
+   *           If the file to be replaced does not exist
+   * @see #ADD_FILE_STATEMENT
+   * @see FileStore#storeFile(String, DataFile)
+   */
+  public static void storeFile(Connection conn, Properties appConfig,
+    DataFile dataFile, long replacementId) throws MissingParamException,
+    FileExistsException, DatabaseException, RecordNotFoundException {
+
+    MissingParam.checkMissing(conn, "conn");
+    MissingParam.checkMissing(appConfig, "appConfig");
+    MissingParam.checkMissing(dataFile, "dataFile");
+
+    if (replacementId > -1) {
+      if (!fileExists(conn, replacementId)) {
+        throw new RecordNotFoundException(
+          "Tried to replace a file that doesn't exist (id " + replacementId
+            + ")");
+      }
+
+      replaceFile(conn, appConfig, dataFile, replacementId);
+    } else {
+      storeNewFile(conn, appConfig, dataFile);
+    }
+  }
+
   /**
    * Store a file in the database and in the file store
    *
@@ -267,6 +343,9 @@ public class DataFileDB {
     ResultSet generatedKeys = null;
 
     try {
+      long instrumentId = DataFileIndex.getInstrumentId(conn,
+        dataFile.getFileDefinition().getDatabaseId());
+
       if (fileExistsWithDates(conn,
         dataFile.getFileDefinition().getDatabaseId(), dataFile.getStartDate(),
         dataFile.getEndDate())) {
@@ -287,6 +366,7 @@ public class DataFileDB {
       stmt.setLong(3, DateTimeUtils.dateToLong(dataFile.getStartDate()));
       stmt.setLong(4, DateTimeUtils.dateToLong(dataFile.getEndDate()));
       stmt.setInt(5, dataFile.getRecordCount());
+      stmt.setString(6, dataFile.getContentHash());
 
       stmt.execute();
 
@@ -296,9 +376,15 @@ public class DataFileDB {
         dataFile.setDatabaseId(generatedKeys.getLong(1));
 
         // Store the file
-        FileStore.storeFile(appConfig.getProperty("filestore"), dataFile);
+        FileStore.storeFile(appConfig.getProperty("filestore"), dataFile,
+          FileStore.isCompressionEnabled(appConfig));
+
+        // Only commit if we started the transaction
+        if (initialAutoCommit) {
+          conn.commit();
+        }
 
-        conn.commit();
+        updateIndex(instrumentId, dataFile, initialAutoCommit);
       }
 
       if (initialAutoCommit) {
@@ -342,6 +428,8 @@ public class DataFileDB {
     throws DatabaseException, FileExistsException {
 
     PreparedStatement stmt = null;
+    String fileStore = appConfig.getProperty("filestore");
+    boolean backedUp = false;
 
     try {
       boolean storeFile = true;
@@ -353,12 +441,13 @@ public class DataFileDB {
         idList.add(replacementId);
         DataFile fileToReplace = getDataFiles(conn, appConfig, idList).get(0);
 
-        byte[] existingFile = fileToReplace.getBytes();
-        byte[] newFile = dataFile.getContents().getBytes();
-        storeFile = !Arrays.equals(existingFile, newFile);
+        storeFile = !dataFile.contentEquals(fileToReplace);
+        fileToReplace.closeContents();
       }
 
       if (storeFile) {
+        long instrumentId = DataFileIndex.getInstrumentId(conn,
+          dataFile.getFileDefinition().getDatabaseId());
         boolean initialAutoCommit = conn.getAutoCommit();
 
         if (initialAutoCommit) {
@@ -369,21 +458,30 @@ public class DataFileDB {
         stmt.setLong(2, DateTimeUtils.dateToLong(dataFile.getStartDate()));
         stmt.setLong(3, DateTimeUtils.dateToLong(dataFile.getEndDate()));
         stmt.setInt(4, dataFile.getRecordCount());
-        stmt.setLong(5, replacementId);
+        stmt.setString(5, dataFile.getContentHash());
+        stmt.setLong(6, replacementId);
 
         stmt.execute();
 
         // Set the database ID on the file now the replacement has succeeded
         dataFile.setDatabaseId(replacementId);
 
-        // Store the file - automatically replaces the old one
-        FileStore.storeFile(appConfig.getProperty("filestore"), dataFile);
+        // Keep the old file so it can be restored if the transaction is
+        // rolled back
+        FileStore.backupFile(fileStore, dataFile);
+        backedUp = true;
 
-        conn.commit();
+        FileStore.storeFile(fileStore, dataFile,
+          FileStore.isCompressionEnabled(appConfig));
 
+        // Only commit if we started the transaction
         if (initialAutoCommit) {
+          conn.commit();
           conn.setAutoCommit(true);
+          FileStore.discardBackup(fileStore, dataFile);
         }
+
+        updateIndex(instrumentId, dataFile, initialAutoCommit);
       }
     } catch (Exception e) {
       try {
@@ -392,14 +490,193 @@ public class DataFileDB {
         // Do nothing
       }
 
+      if (backedUp) {
+        try {
+          FileStore.restoreFile(fileStore, dataFile);
+        } catch (Exception e2) {
+          e2.printStackTrace();
+        }
+      }
+
       throw new DatabaseException("An error occurred while storing the file",
         e);
     } finally {
       DatabaseUtils.closeStatements(stmt);
-      DatabaseUtils.closeConnection(conn);
     }
   }
 
+  /**
+   * Update the {@link DataFileIndex} after a file has been stored. If the file
+   * was stored in the caller's transaction, the instrument's index is
+   * discarded because the file may yet be rolled back.
+   *
+   * @param instrumentId
+   *          The instrument's database ID
+   * @param dataFile
+   *          The stored file
+   * @param committed
+   *          Indicates whether the file has been committed
+   * @throws DataFileException
+   *           If the file's record count cannot be calculated
+   */
+  private static void updateIndex(long instrumentId, DataFile dataFile,
+    boolean committed) throws DataFileException {
+    if (committed) {
+      DataFileIndex.fileStored(instrumentId, dataFile);
+    } else {
+      DataFileIndex.invalidate(instrumentId);
+    }
+  }
+
+  /**
+   * Determine whether the {@link DataFileIndex} can be used to answer queries
+   * on a connection. It cannot be used if it has been disabled, or inside an
+   * open transaction, because the transaction may contain changes that are
+   * not in the index.
+   *
+   * @param conn
+   *          A database connection
+   * @return {@code true} if the index can be used; {@code false} if the
+   *         database must be queried directly
+   * @throws SQLException
+   *           If the connection's state cannot be read
+   */
+  private static boolean useIndex(Connection conn) throws SQLException {
+    return DataFileIndex.isEnabled() && conn.getAutoCommit();
+  }
+
+  /**
+   * Get the details of all an instrument's files for building its
+   * {@link DataFileIndex}
+   *
+   * @param conn
+   *          A database connection
+   * @param instrumentId
+   *          The instrument's database ID
+   * @return The file details
+   * @throws MissingParamException
+   *           If any required parameters are missing
+   * @throws DatabaseException
+   *           If a database error occurs
+   */
+  protected static List<DataFileIntervalTree.Entry> getIndexEntries(
+    Connection conn, long instrumentId)
+    throws MissingParamException, DatabaseException {
+
+    MissingParam.checkMissing(conn, "conn");
+    MissingParam.checkZeroPositive(instrumentId, "instrumentId");
+
+    List<DataFileIntervalTree.Entry> result = new ArrayList<DataFileIntervalTree.Entry>();
+    PreparedStatement stmt = null;
+    ResultSet records = null;
+
+    try {
+      stmt = conn.prepareStatement(GET_INDEX_ENTRIES_QUERY);
+      stmt.setLong(1, instrumentId);
+
+      records = stmt.executeQuery();
+      while (records.next()) {
+        result.add(new DataFileIntervalTree.Entry(records.getLong(1),
+          records.getLong(2), records.getString(3), records.getLong(4),
+          records.getLong(5), records.getInt(6)));
+      }
+    } catch (SQLException e) {
+      throw new DatabaseException("Error while getting file dates", e);
+    } finally {
+      DatabaseUtils.closeResultSets(records);
+      DatabaseUtils.closeStatements(stmt);
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the ID of the instrument that owns a file definition
+   *
+   * @param conn
+   *          A database connection
+   * @param fileDefinitionId
+   *          The file definition's database ID
+   * @return The instrument ID
+   * @throws MissingParamException
+   *           If any required parameters are missing
+   * @throws DatabaseException
+   *           If a database error occurs, or the file definition does not
+   *           exist
+   */
+  protected static long getFileDefinitionInstrument(Connection conn,
+    long fileDefinitionId) throws MissingParamException, DatabaseException {
+
+    MissingParam.checkMissing(conn, "conn");
+    MissingParam.checkZeroPositive(fileDefinitionId, "fileDefinitionId");
+
+    long result = -1;
+    PreparedStatement stmt = null;
+    ResultSet records = null;
+
+    try {
+      stmt = conn.prepareStatement(GET_DEFINITION_INSTRUMENT_QUERY);
+      stmt.setLong(1, fileDefinitionId);
+
+      records = stmt.executeQuery();
+      if (records.next()) {
+        result = records.getLong(1);
+      } else {
+        throw new DatabaseException(
+          "File definition " + fileDefinitionId + " does not exist");
+      }
+    } catch (SQLException e) {
+      throw new DatabaseException("Error while getting file definition", e);
+    } finally {
+      DatabaseUtils.closeResultSets(records);
+      DatabaseUtils.closeStatements(stmt);
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the file definitions for an instrument, mapped to the instrument ID
+   *
+   * @param conn
+   *          A database connection
+   * @param instrumentId
+   *          The instrument's database ID
+   * @return The instrument ID for each of the instrument's file definitions
+   * @throws MissingParamException
+   *           If any required parameters are missing
+   * @throws DatabaseException
+   *           If a database error occurs
+   */
+  protected static Map<Long, Long> getFileDefinitionInstruments(
+    Connection conn, long instrumentId)
+    throws MissingParamException, DatabaseException {
+
+    MissingParam.checkMissing(conn, "conn");
+    MissingParam.checkZeroPositive(instrumentId, "instrumentId");
+
+    Map<Long, Long> result = new HashMap<Long, Long>();
+    PreparedStatement stmt = null;
+    ResultSet records = null;
+
+    try {
+      stmt = conn.prepareStatement(GET_INSTRUMENT_DEFINITIONS_QUERY);
+      stmt.setLong(1, instrumentId);
+
+      records = stmt.executeQuery();
+      while (records.next()) {
+        result.put(records.getLong(1), instrumentId);
+      }
+    } catch (SQLException e) {
+      throw new DatabaseException("Error while getting file definitions", e);
+    } finally {
+      DatabaseUtils.closeResultSets(records);
+      DatabaseUtils.closeStatements(stmt);
+    }
+
+    return result;
+  }
+
   /**
    * Determine whether a file of a given type already exists covering at least
    * part of the specified date range
@@ -602,20 +879,28 @@ public class DataFileDB {
       InstrumentFileSet fileDefinitions = InstrumentDB.getFileDefinitions(conn,
         instrumentId);
 
-      if (null != instrumentId) {
-        stmt = conn.prepareStatement(GET_FILES_BY_INSTRUMENT_QUERY);
+      if (null != instrumentId && useIndex(conn)) {
+        for (DataFileIntervalTree.Entry entry : DataFileIndex
+          .getIndex(conn, instrumentId).getEntries()) {
+          fileInfo.add(makeDataFile(entry, appConfig.getProperty("filestore"),
+            fileDefinitions.get(entry.getFileDefinitionId())));
+        }
       } else {
-        stmt = conn.prepareStatement(GET_FILES_QUERY);
-      }
+        if (null != instrumentId) {
+          stmt = conn.prepareStatement(GET_FILES_BY_INSTRUMENT_QUERY);
+        } else {
+          stmt = conn.prepareStatement(GET_FILES_QUERY);
+        }
 
-      if (null != instrumentId) {
-        stmt.setLong(1, instrumentId);
-      }
+        if (null != instrumentId) {
+          stmt.setLong(1, instrumentId);
+        }
 
-      records = stmt.executeQuery();
-      while (records.next()) {
-        fileInfo.add(makeDataFile(records, appConfig.getProperty("filestore"),
-          fileDefinitions));
+        records = stmt.executeQuery();
+        while (records.next()) {
+          fileInfo.add(makeDataFile(records,
+            appConfig.getProperty("filestore"), fileDefinitions));
+        }
       }
 
     } catch (Exception e) {
@@ -787,6 +1072,85 @@ public class DataFileDB {
     return result;
   }
 
+  /**
+   * Build a {@link DataFile} object from a {@link DataFileIndex} entry
+   *
+   * @param entry
+   *          The index entry
+   * @param fileStore
+   *          The file store location
+   * @param fileDefinition
+   *          The file definition for the file
+   * @return The DataFile object
+   */
+  private static DataFile makeDataFile(DataFileIntervalTree.Entry entry,
+    String fileStore, FileDefinition fileDefinition) {
+    return new DataFile(fileStore, entry.getId(), fileDefinition,
+      entry.getFilename(), DateTimeUtils.longToDate(entry.getStart()),
+      DateTimeUtils.longToDate(entry.getEnd()), entry.getRecordCount());
+  }
+
+  /**
+   * Undo the storage of a file in the file store after the transaction in
+   * which it was stored has been rolled back. New files are removed, and
+   * replaced files are restored to their previous contents.
+   *
+   * @param appConfig
+   *          The application configuration
+   * @param dataFile
+   *          The data file
+   * @param replacementId
+   *          The ID of the file that was replaced, or {@code -1} if this was a
+   *          new file
+   * @throws MissingParamException
+   *           If any parameters are missing
+   * @throws FileStoreException
+   *           If a replaced file cannot be restored
+   * @see #storeFile(Connection, Properties, DataFile, long)
+   */
+  public static void discardStoredFile(Properties appConfig, DataFile dataFile,
+    long replacementId) throws MissingParamException, FileStoreException {
+
+    MissingParam.checkMissing(appConfig, "appConfig");
+    MissingParam.checkMissing(dataFile, "dataFile");
+
+    if (dataFile.getDatabaseId() != DatabaseUtils.NO_DATABASE_RECORD) {
+      if (replacementId > -1) {
+        FileStore.restoreFile(appConfig.getProperty("filestore"), dataFile);
+      } else {
+        FileStore.deleteFile(appConfig.getProperty("filestore"), dataFile);
+      }
+    }
+  }
+
+  /**
+   * Complete the storage of a file in the file store after the transaction in
+   * which it was stored has been committed. If the file replaced an existing
+   * file, the backup of the old file is removed.
+   *
+   * @param appConfig
+   *          The application configuration
+   * @param dataFile
+   *          The data file
+   * @param replacementId
+   *          The ID of the file that was replaced, or {@code -1} if this was a
+   *          new file
+   * @throws MissingParamException
+   *           If any parameters are missing
+   * @see #storeFile(Connection, Properties, DataFile, long)
+   */
+  public static void commitStoredFile(Properties appConfig, DataFile dataFile,
+    long replacementId) throws MissingParamException {
+
+    MissingParam.checkMissing(appConfig, "appConfig");
+    MissingParam.checkMissing(dataFile, "dataFile");
+
+    if (replacementId > -1
+      && dataFile.getDatabaseId() != DatabaseUtils.NO_DATABASE_RECORD) {
+      FileStore.discardBackup(appConfig.getProperty("filestore"), dataFile);
+    }
+  }
+
   /**
    * Removes a file from the database and the underlying file store.
    *
@@ -815,6 +1179,9 @@ public class DataFileDB {
 
     try {
       conn = dataSource.getConnection();
+      long instrumentId = DataFileIndex.getInstrumentId(conn,
+        dataFile.getFileDefinition().getDatabaseId());
+
       conn.setAutoCommit(false);
 
       // Send out sub-record delete requests
@@ -826,6 +1193,7 @@ public class DataFileDB {
       FileStore.deleteFile(appConfig.getProperty("filestore"), dataFile);
 
       conn.commit();
+      DataFileIndex.fileDeleted(instrumentId, dataFile.getDatabaseId());
 
     } catch (SQLException e) {
       DatabaseUtils.rollBack(conn);
@@ -931,6 +1299,45 @@ public class DataFileDB {
     throws MissingParamException, DatabaseException {
 
     MissingParam.checkMissing(dataSource, "dataSource");
+
+    List<DataFile> files;
+    Connection conn = null;
+
+    try {
+      conn = dataSource.getConnection();
+      files = getFilesWithinDates(conn, fileDefinition, start, end);
+    } catch (SQLException e) {
+      throw new DatabaseException("Error while getting files in date range", e);
+    } finally {
+      DatabaseUtils.closeConnection(conn);
+    }
+
+    return files;
+  }
+
+  /**
+   * Get the list of data files of a given file definition that encompass two
+   * dates
+   *
+   * @param conn
+   *          A database connection
+   * @param fileDefinition
+   *          The file definition
+   * @param start
+   *          The start date
+   * @param end
+   *          The end date
+   * @return The files
+   * @throws MissingParamException
+   *           If any required parameters are missing
+   * @throws DatabaseException
+   *           If a database error occurs
+   */
+  public static List<DataFile> getFilesWithinDates(Connection conn,
+    FileDefinition fileDefinition, LocalDateTime start, LocalDateTime end)
+    throws MissingParamException, DatabaseException {
+
+    MissingParam.checkMissing(conn, "conn");
     MissingParam.checkMissing(fileDefinition, "fileDefinition");
     MissingParam.checkMissing(start, "start");
     MissingParam.checkMissing(end, "end");
@@ -941,22 +1348,32 @@ public class DataFileDB {
     }
 
     List<DataFile> files = new ArrayList<DataFile>();
-    Connection conn = null;
     PreparedStatement stmt = null;
     ResultSet records = null;
 
     try {
-      conn = dataSource.getConnection();
-      stmt = conn.prepareStatement(GET_FILEDEF_FILES_WITHIN_DATES_QUERY);
-      stmt.setLong(1, fileDefinition.getDatabaseId());
-      stmt.setLong(2, DateTimeUtils.dateToLong(end));
-      stmt.setLong(3, DateTimeUtils.dateToLong(start));
+      String fileStore = ResourceManager.getInstance().getConfig()
+        .getProperty("filestore");
 
-      records = stmt.executeQuery();
-      while (records.next()) {
-        files.add(makeDataFile(records,
-          ResourceManager.getInstance().getConfig().getProperty("filestore"),
-          fileDefinition));
+      if (useIndex(conn)) {
+        DataFileIndex index = DataFileIndex.getIndex(conn,
+          DataFileIndex.getInstrumentId(conn, fileDefinition.getDatabaseId()));
+
+        for (DataFileIntervalTree.Entry entry : index.getOverlapping(
+          fileDefinition.getDatabaseId(), DateTimeUtils.dateToLong(start),
+          DateTimeUtils.dateToLong(end))) {
+          files.add(makeDataFile(entry, fileStore, fileDefinition));
+        }
+      } else {
+        stmt = conn.prepareStatement(GET_FILEDEF_FILES_WITHIN_DATES_QUERY);
+        stmt.setLong(1, fileDefinition.getDatabaseId());
+        stmt.setLong(2, DateTimeUtils.dateToLong(end));
+        stmt.setLong(3, DateTimeUtils.dateToLong(start));
+
+        records = stmt.executeQuery();
+        while (records.next()) {
+          files.add(makeDataFile(records, fileStore, fileDefinition));
+        }
       }
 
     } catch (SQLException e) {
@@ -964,7 +1381,6 @@ public class DataFileDB {
     } finally {
       DatabaseUtils.closeResultSets(records);
       DatabaseUtils.closeStatements(stmt);
-      DatabaseUtils.closeConnection(conn);
     }
 
     return files;
@@ -1005,14 +1421,22 @@ public class DataFileDB {
     ResultSet records = null;
 
     try {
-      stmt = conn.prepareStatement(GET_FILES_WITHIN_DATES_QUERY);
-      stmt.setLong(1, instrumentId);
-      stmt.setLong(2, DateTimeUtils.dateToLong(end));
-      stmt.setLong(3, DateTimeUtils.dateToLong(start));
+      if (useIndex(conn)) {
+        for (DataFileIntervalTree.Entry entry : DataFileIndex
+          .getIndex(conn, instrumentId).getOverlapping(
+            DateTimeUtils.dateToLong(start), DateTimeUtils.dateToLong(end))) {
+          ids.add(entry.getId());
+        }
+      } else {
+        stmt = conn.prepareStatement(GET_FILES_WITHIN_DATES_QUERY);
+        stmt.setLong(1, instrumentId);
+        stmt.setLong(2, DateTimeUtils.dateToLong(end));
+        stmt.setLong(3, DateTimeUtils.dateToLong(start));
 
-      records = stmt.executeQuery();
-      while (records.next()) {
-        ids.add(records.getLong(1));
+        records = stmt.executeQuery();
+        while (records.next()) {
+          ids.add(records.getLong(1));
+        }
       }
 
     } catch (SQLException e) {
@@ -1059,66 +1483,134 @@ public class DataFileDB {
     try {
       InstrumentFileSet fileDefinitions = InstrumentDB.getFileDefinitions(conn,
         instrumentId);
-      Map<FileDefinition, List<DataFile>> filesAfterDate = new HashMap<FileDefinition, List<DataFile>>();
 
-      // Get all the files after the specified date, grouped by file definition
-      for (FileDefinition fileDefinition : fileDefinitions) {
-        List<DataFile> foundFiles = new ArrayList<DataFile>();
+      if (useIndex(conn)) {
+        result = completeFilesAfter(DataFileIndex.getIndex(conn, instrumentId),
+          fileDefinitions, DateTimeUtils.dateToLong(time));
+      } else {
+        Map<FileDefinition, List<DataFile>> filesAfterDate = new HashMap<FileDefinition, List<DataFile>>();
+
+        // Get all the files after the specified date, grouped by file
+        // definition
+        for (FileDefinition fileDefinition : fileDefinitions) {
+          List<DataFile> foundFiles = new ArrayList<DataFile>();
+
+          PreparedStatement stmt = conn
+            .prepareStatement(GET_FILES_AFTER_DATE_QUERY);
+          stmt.setLong(1, fileDefinition.getDatabaseId());
+          stmt.setLong(2, DateTimeUtils.dateToLong(time));
+
+          ResultSet records = stmt.executeQuery();
+          while (records.next()) {
+            foundFiles.add(makeDataFile(records,
+              appConfig.getProperty("filestore"), fileDefinitions));
+          }
 
-        PreparedStatement stmt = conn
-          .prepareStatement(GET_FILES_AFTER_DATE_QUERY);
-        stmt.setLong(1, fileDefinition.getDatabaseId());
-        stmt.setLong(2, DateTimeUtils.dateToLong(time));
+          statements.add(stmt);
+          resultSets.add(records);
 
-        ResultSet records = stmt.executeQuery();
-        while (records.next()) {
-          foundFiles.add(makeDataFile(records,
-            appConfig.getProperty("filestore"), fileDefinitions));
+          // If no matching files are found, abort.
+          if (foundFiles.size() == 0) {
+            result = false;
+            break;
+          }
+
+          filesAfterDate.put(fileDefinition, foundFiles);
         }
 
-        statements.add(stmt);
-        resultSets.add(records);
+        // If any file defs had no files, the result will be false
+        // and we don't go any further. Also if there's only one file
+        // definition we can skip this check
+        if (result && fileDefinitions.size() > 1) {
 
-        // If no matching files are found, abort.
-        if (foundFiles.size() == 0) {
           result = false;
-          break;
-        }
 
-        filesAfterDate.put(fileDefinition, foundFiles);
+          List<DataFile> rootFiles = filesAfterDate
+            .get(fileDefinitions.get(0));
+
+          for (DataFile rootFile : rootFiles) {
+            for (int i = 1; i < fileDefinitions.size() && !result; i++) {
+              List<DataFile> compareFiles = filesAfterDate
+                .get(fileDefinitions.get(i));
+
+              for (int j = 0; j < compareFiles.size() && !result; j++) {
+                DataFile compareFile = compareFiles.get(j);
+                if (compareFile.getStartDate()
+                  .compareTo(rootFile.getEndDate()) < 0
+                  && compareFile.getEndDate()
+                    .compareTo(rootFile.getStartDate()) > 0) {
+                  result = true;
+                }
+              }
+            }
+          }
+        }
       }
+    } catch (SQLException e) {
+      throw new DatabaseException("Error while retrieving file info", e);
+    } finally {
+      DatabaseUtils.closeResultSets(resultSets);
+      DatabaseUtils.closeStatements(statements);
+    }
+
+    return result;
+  }
+
+  /**
+   * Determine whether or not there is a complete set of files available after a
+   * given time using an instrument's {@link DataFileIndex}. The checks are the
+   * same as those made against the database in
+   * {@link #completeFilesAfter(Connection, Properties, long, LocalDateTime)}.
+   *
+   * @param index
+   *          The instrument's file index
+   * @param fileDefinitions
+   *          The instrument's file definitions
+   * @param time
+   *          The time boundary
+   * @return {@code true} if a complete set of files is available; {@code false}
+   *         if not
+   */
+  private static boolean completeFilesAfter(DataFileIndex index,
+    InstrumentFileSet fileDefinitions, long time) {
+
+    boolean result = true;
+
+    // Get the files that end after the specified date for each definition
+    List<List<DataFileIntervalTree.Entry>> filesAfterDate = new ArrayList<List<DataFileIntervalTree.Entry>>();
 
-      // If any file defs had no files, the result will be false
-      // and we don't go any further. Also if there's only one file
-      // definition we can skip this check
-      if (result && fileDefinitions.size() > 1) {
+    for (int i = 0; result && i < fileDefinitions.size(); i++) {
+      List<DataFileIntervalTree.Entry> foundFiles = index.getOverlapping(
+        fileDefinitions.get(i).getDatabaseId(), time + 1, Long.MAX_VALUE);
 
+      if (foundFiles.size() == 0) {
         result = false;
+      }
+
+      filesAfterDate.add(foundFiles);
+    }
 
-        List<DataFile> rootFiles = filesAfterDate.get(fileDefinitions.get(0));
+    if (result && fileDefinitions.size() > 1) {
+      result = false;
 
-        for (DataFile rootFile : rootFiles) {
-          for (int i = 1; i < fileDefinitions.size() && !result; i++) {
-            List<DataFile> compareFiles = filesAfterDate
-              .get(fileDefinitions.get(i));
+      for (int r = 0; r < filesAfterDate.get(0).size() && !result; r++) {
+        DataFileIntervalTree.Entry rootFile = filesAfterDate.get(0).get(r);
 
-            for (int j = 0; j < compareFiles.size() && !result; j++) {
-              DataFile compareFile = compareFiles.get(j);
-              if (compareFile.getStartDate()
-                .compareTo(rootFile.getEndDate()) < 0
-                && compareFile.getEndDate()
-                  .compareTo(rootFile.getStartDate()) > 0) {
-                result = true;
-              }
+        for (int i = 1; i < fileDefinitions.size() && !result; i++) {
+
+          // Files that start strictly before the root file ends and end
+          // strictly after it starts
+          for (DataFileIntervalTree.Entry compareFile : index.getOverlapping(
+            fileDefinitions.get(i).getDatabaseId(), rootFile.getStart() + 1,
+            rootFile.getEnd() - 1)) {
+
+            if (compareFile.getEnd() > time) {
+              result = true;
+              break;
             }
           }
         }
       }
-    } catch (SQLException e) {
-      throw new DatabaseException("Error while retrieving file info", e);
-    } finally {
-      DatabaseUtils.closeResultSets(resultSets);
-      DatabaseUtils.closeStatements(statements);
     }
 
     return result;
@@ -1146,12 +1638,19 @@ public class DataFileDB {
     ResultSet records = null;
 
     try {
-      stmt = conn.prepareStatement(GET_LAST_FILE_DATE_QUERY);
-      stmt.setLong(1, instrumentId);
+      if (useIndex(conn)) {
+        Long lastEnd = DataFileIndex.getIndex(conn, instrumentId).getLastEnd();
+        if (null != lastEnd) {
+          result = DateTimeUtils.longToDate(lastEnd);
+        }
+      } else {
+        stmt = conn.prepareStatement(GET_LAST_FILE_DATE_QUERY);
+        stmt.setLong(1, instrumentId);
 
-      records = stmt.executeQuery();
-      if (records.next()) {
-        result = DateTimeUtils.longToDate(records.getLong(1));
+        records = stmt.executeQuery();
+        if (records.next()) {
+          result = DateTimeUtils.longToDate(records.getLong(1));
+        }
       }
     } catch (SQLException e) {
       throw new DatabaseException("Error while getting file dates", e);
@@ -1181,18 +1680,51 @@ public class DataFileDB {
   public static boolean hasFileWithName(DataSource dataSource,
     long instrumentId, String filename)
     throws DatabaseException, MissingParamException {
-    boolean result = false;
 
     MissingParam.checkMissing(dataSource, "dataSource");
+
+    boolean result = false;
+    Connection conn = null;
+
+    try {
+      conn = dataSource.getConnection();
+      result = hasFileWithName(conn, instrumentId, filename);
+    } catch (SQLException e) {
+      throw new DatabaseException("Error while searching for file", e);
+    } finally {
+      DatabaseUtils.closeConnection(conn);
+    }
+
+    return result;
+  }
+
+  /**
+   * Determine whether or not an instrument has a file with the specified name
+   *
+   * @param conn
+   *          A database connection
+   * @param instrumentId
+   *          The instrument's database ID
+   * @param filename
+   *          The filename
+   * @return {@code true} if a file exists; {@code false} if it does not
+   * @throws MissingParamException
+   *           If any required parameters are missing
+   * @throws DatabaseException
+   *           If a database error occurs
+   */
+  public static boolean hasFileWithName(Connection conn, long instrumentId,
+    String filename) throws DatabaseException, MissingParamException {
+    boolean result = false;
+
+    MissingParam.checkMissing(conn, "conn");
     MissingParam.checkZeroPositive(instrumentId, "instrumentId");
     MissingParam.checkMissing(filename, "filename");
 
-    Connection conn = null;
     PreparedStatement stmt = null;
     ResultSet records = null;
 
     try {
-      conn = dataSource.getConnection();
       stmt = conn.prepareStatement(FIND_FILE_BY_NAME_QUERY);
       stmt.setString(1, filename);
       stmt.setLong(2, instrumentId);
@@ -1207,7 +1739,61 @@ public class DataFileDB {
     } finally {
       DatabaseUtils.closeResultSets(records);
       DatabaseUtils.closeStatements(stmt);
-      DatabaseUtils.closeConnection(conn);
+    }
+
+    return result;
+  }
+
+  /**
+   * Find the name of an instrument's file whose contents have the specified
+   * content hash. This allows uploads of files that are already stored to be
+   * identified without parsing them.
+   *
+   * <p>
+   * Files stored before content hashes were recorded have no hash, and are
+   * never found by this method.
+   * </p>
+   *
+   * @param conn
+   *          A database connection
+   * @param instrumentId
+   *          The instrument's database ID
+   * @param contentHash
+   *          The content hash
+   * @return The filename of the matching file, or {@code null} if there is
+   *         no matching file
+   * @throws MissingParamException
+   *           If any required parameters are missing
+   * @throws DatabaseException
+   *           If a database error occurs
+   * @see ContentHash
+   */
+  public static String getFilenameWithHash(Connection conn, long instrumentId,
+    String contentHash) throws DatabaseException, MissingParamException {
+    String result = null;
+
+    MissingParam.checkMissing(conn, "conn");
+    MissingParam.checkZeroPositive(instrumentId, "instrumentId");
+    MissingParam.checkMissing(contentHash, "contentHash");
+
+    PreparedStatement stmt = null;
+    ResultSet records = null;
+
+    try {
+      stmt = conn.prepareStatement(FIND_FILE_BY_HASH_QUERY);
+      stmt.setString(1, contentHash);
+      stmt.setLong(2, instrumentId);
+
+      records = stmt.executeQuery();
+      if (records.next()) {
+        result = records.getString(1);
+      }
+
+    } catch (SQLException e) {
+      throw new DatabaseException("Error while searching for file", e);
+    } finally {
+      DatabaseUtils.closeResultSets(records);
+      DatabaseUtils.closeStatements(stmt);
     }
 
     return result;
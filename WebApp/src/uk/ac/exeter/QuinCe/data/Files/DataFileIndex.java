@@ -0,0 +1,403 @@
+package uk.ac.exeter.QuinCe.data.Files;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import uk.ac.exeter.QuinCe.utils.DatabaseException;
+import uk.ac.exeter.QuinCe.utils.DateTimeUtils;
+import uk.ac.exeter.QuinCe.utils.MissingParamException;
+
+/**
+ * An in-memory index of the start and end dates of an instrument's data
+ * files, used to answer overlap and coverage queries without going to the
+ * database. The files for each file definition are held in a separate
+ * {@link DataFileIntervalTree}.
+ *
+ * <p>
+ * Indexes are held in a cache shared by the whole application. An
+ * instrument's index is loaded from the database the first time it is needed,
+ * and is then updated by {@link DataFileDB} as files are stored and deleted.
+ * When a file is stored as part of a larger transaction, the index cannot be
+ * updated until the transaction is committed, so it is discarded instead.
+ * The code that commits the transaction must then call
+ * {@link #invalidate(long)} so that an index loaded by another thread while
+ * the transaction was open is not kept.
+ * </p>
+ *
+ * <p>
+ * Queries made within an open transaction must see the files stored in that
+ * transaction, so {@link DataFileDB} only uses the index for connections in
+ * auto-commit mode.
+ * </p>
+ *
+ * <p>
+ * The cache is local to the application process, so it is only kept up to
+ * date with changes made through {@link DataFileDB} in the same process. It
+ * must not be used if more than one instance of the application shares the
+ * database, so it is off unless it is turned on with the
+ * {@link #ENABLED_PROPERTY} configuration property. If files are changed directly in the database,
+ * {@link #invalidate(long)} or {@link #clearCache()} must be called
+ * afterwards (see {@link uk.ac.exeter.QuinCe.api.nrt.ResetFileIndex}).
+ * </p>
+ */
+public class DataFileIndex {
+
+  /**
+   * Configuration property indicating whether the index should be used. The
+   * index is only used if this is set to {@code true}, which should only be
+   * done if a single instance of the application uses the database.
+   */
+  public static final String ENABLED_PROPERTY = "datafile.index.enabled";
+
+  /**
+   * The instrument ID returned by {@link #getInstrumentId(Connection, long)}
+   * when the index is disabled
+   */
+  protected static final long NO_INSTRUMENT = -1L;
+
+  /**
+   * Indicates whether the index is used
+   */
+  private static volatile boolean enabled = false;
+
+  /**
+   * The cached indexes, by instrument ID
+   */
+  private static final Map<Long, DataFileIndex> CACHE = new HashMap<Long, DataFileIndex>();
+
+  /**
+   * The instrument that owns each file definition seen by the cache
+   */
+  private static final Map<Long, Long> DEFINITION_INSTRUMENTS = new HashMap<Long, Long>();
+
+  /**
+   * A counter for each instrument that is incremented every time its files
+   * change. An index loaded from the database is only added to the cache if
+   * the files did not change while it was being loaded.
+   */
+  private static final Map<Long, Long> VERSIONS = new HashMap<Long, Long>();
+
+  /**
+   * The files for each file definition
+   */
+  private final Map<Long, DataFileIntervalTree> trees;
+
+  /**
+   * Create an index of a set of files
+   *
+   * @param entries
+   *          The files
+   */
+  protected DataFileIndex(List<DataFileIntervalTree.Entry> entries) {
+    Map<Long, List<DataFileIntervalTree.Entry>> definitionEntries = new HashMap<Long, List<DataFileIntervalTree.Entry>>();
+
+    for (DataFileIntervalTree.Entry entry : entries) {
+      definitionEntries
+        .computeIfAbsent(entry.getFileDefinitionId(),
+          k -> new ArrayList<DataFileIntervalTree.Entry>())
+        .add(entry);
+    }
+
+    trees = new HashMap<Long, DataFileIntervalTree>();
+    for (Map.Entry<Long, List<DataFileIntervalTree.Entry>> definition : definitionEntries
+      .entrySet()) {
+      trees.put(definition.getKey(),
+        new DataFileIntervalTree(definition.getValue()));
+    }
+  }
+
+  /**
+   * Get the index for an instrument, loading it from the database if it is
+   * not in the cache. The connection must be in auto-commit mode.
+   *
+   * @param conn
+   *          A database connection
+   * @param instrumentId
+   *          The instrument's database ID
+   * @return The index
+   * @throws DatabaseException
+   *           If a database error occurs
+   * @throws MissingParamException
+   *           If any required parameters are missing
+   */
+  protected static DataFileIndex getIndex(Connection conn, long instrumentId)
+    throws DatabaseException, MissingParamException {
+
+    DataFileIndex result;
+    long version;
+
+    synchronized (CACHE) {
+      result = CACHE.get(instrumentId);
+      version = VERSIONS.getOrDefault(instrumentId, 0L);
+    }
+
+    if (null == result) {
+      // Load outside the lock so other instruments aren't held up
+      result = new DataFileIndex(DataFileDB.getIndexEntries(conn,
+        instrumentId));
+      Map<Long, Long> definitions = DataFileDB
+        .getFileDefinitionInstruments(conn, instrumentId);
+
+      synchronized (CACHE) {
+        DEFINITION_INSTRUMENTS.putAll(definitions);
+        if (VERSIONS.getOrDefault(instrumentId, 0L) == version) {
+          CACHE.putIfAbsent(instrumentId, result);
+          result = CACHE.get(instrumentId);
+        }
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the ID of the instrument that owns a file definition, so the
+   * instrument's index can be updated when its files change. If the index is
+   * disabled the database is not queried and {@link #NO_INSTRUMENT} is
+   * returned.
+   *
+   * @param conn
+   *          A database connection
+   * @param fileDefinitionId
+   *          The file definition's database ID
+   * @return The instrument ID
+   * @throws DatabaseException
+   *           If a database error occurs
+   * @throws MissingParamException
+   *           If any required parameters are missing
+   */
+  protected static long getInstrumentId(Connection conn,
+    long fileDefinitionId) throws DatabaseException, MissingParamException {
+
+    Long result = NO_INSTRUMENT;
+
+    if (enabled) {
+      synchronized (CACHE) {
+        result = DEFINITION_INSTRUMENTS.get(fileDefinitionId);
+      }
+    }
+
+    if (null == result) {
+      result = DataFileDB.getFileDefinitionInstrument(conn, fileDefinitionId);
+      synchronized (CACHE) {
+        DEFINITION_INSTRUMENTS.put(fileDefinitionId, result);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Record that a file has been stored and committed to the database. If the
+   * instrument's index is cached it is updated; a replaced file is moved to
+   * its new dates.
+   *
+   * @param instrumentId
+   *          The instrument's database ID
+   * @param dataFile
+   *          The file
+   * @throws DataFileException
+   *           If the file's record count cannot be calculated
+   */
+  protected static void fileStored(long instrumentId, DataFile dataFile)
+    throws DataFileException {
+    synchronized (CACHE) {
+      incrementVersion(instrumentId);
+
+      DataFileIndex index = CACHE.get(instrumentId);
+      if (null != index) {
+        index.remove(dataFile.getDatabaseId());
+        index.add(new DataFileIntervalTree.Entry(dataFile.getDatabaseId(),
+          dataFile.getFileDefinition().getDatabaseId(),
+          dataFile.getFilename(),
+          DateTimeUtils.dateToLong(dataFile.getStartDate()),
+          DateTimeUtils.dateToLong(dataFile.getEndDate()),
+          dataFile.getRecordCount()));
+      }
+    }
+  }
+
+  /**
+   * Record that a file has been deleted from the database. If the
+   * instrument's index is cached it is updated.
+   *
+   * @param instrumentId
+   *          The instrument's database ID
+   * @param fileId
+   *          The file's database ID
+   */
+  protected static void fileDeleted(long instrumentId, long fileId) {
+    synchronized (CACHE) {
+      incrementVersion(instrumentId);
+
+      DataFileIndex index = CACHE.get(instrumentId);
+      if (null != index) {
+        index.remove(fileId);
+      }
+    }
+  }
+
+  /**
+   * Discard the cached index for an instrument. This must be called after
+   * committing a transaction in which files were stored or deleted.
+   *
+   * @param instrumentId
+   *          The instrument's database ID
+   */
+  public static void invalidate(long instrumentId) {
+    synchronized (CACHE) {
+      incrementVersion(instrumentId);
+      CACHE.remove(instrumentId);
+    }
+  }
+
+  /**
+   * Discard all cached indexes
+   */
+  public static void clearCache() {
+    synchronized (CACHE) {
+      for (Long instrumentId : CACHE.keySet()) {
+        incrementVersion(instrumentId);
+      }
+      CACHE.clear();
+      DEFINITION_INSTRUMENTS.clear();
+    }
+  }
+
+  /**
+   * Turn the index on or off. Turning it off discards all cached indexes.
+   *
+   * @param enabled
+   *          Indicates whether the index should be used
+   */
+  public static void setEnabled(boolean enabled) {
+    DataFileIndex.enabled = enabled;
+    if (!enabled) {
+      clearCache();
+    }
+  }
+
+  /**
+   * Determine whether the index is in use
+   *
+   * @return {@code true} if the index is used; {@code false} if not
+   */
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Record that an instrument's files have changed
+   *
+   * @param instrumentId
+   *          The instrument's database ID
+   */
+  private static void incrementVersion(long instrumentId) {
+    VERSIONS.merge(instrumentId, 1L, Long::sum);
+  }
+
+  /**
+   * Add a file to the index
+   *
+   * @param entry
+   *          The file
+   */
+  private synchronized void add(DataFileIntervalTree.Entry entry) {
+    trees
+      .computeIfAbsent(entry.getFileDefinitionId(),
+        k -> new DataFileIntervalTree())
+      .add(entry);
+  }
+
+  /**
+   * Remove a file from the index, if it is present
+   *
+   * @param fileId
+   *          The file's database ID
+   */
+  private synchronized void remove(long fileId) {
+    for (DataFileIntervalTree tree : trees.values()) {
+      tree.remove(fileId);
+    }
+  }
+
+  /**
+   * Get the files for a file definition that overlap a time range, in order
+   * of start date
+   *
+   * @param fileDefinitionId
+   *          The file definition's database ID
+   * @param start
+   *          The start of the range
+   * @param end
+   *          The end of the range
+   * @return The overlapping files
+   * @see DataFileIntervalTree#getOverlapping(long, long)
+   */
+  protected synchronized List<DataFileIntervalTree.Entry> getOverlapping(
+    long fileDefinitionId, long start, long end) {
+
+    DataFileIntervalTree tree = trees.get(fileDefinitionId);
+    return null == tree ? new ArrayList<DataFileIntervalTree.Entry>()
+      : tree.getOverlapping(start, end);
+  }
+
+  /**
+   * Get the files for all file definitions that overlap a time range, in
+   * order of start date
+   *
+   * @param start
+   *          The start of the range
+   * @param end
+   *          The end of the range
+   * @return The overlapping files
+   * @see DataFileIntervalTree#getOverlapping(long, long)
+   */
+  protected synchronized List<DataFileIntervalTree.Entry> getOverlapping(
+    long start, long end) {
+
+    List<DataFileIntervalTree.Entry> result = new ArrayList<DataFileIntervalTree.Entry>();
+    for (DataFileIntervalTree tree : trees.values()) {
+      result.addAll(tree.getOverlapping(start, end));
+    }
+
+    result.sort(Comparator.comparingLong(DataFileIntervalTree.Entry::getStart));
+    return result;
+  }
+
+  /**
+   * Get all the files in the index, in order of start date
+   *
+   * @return The files
+   */
+  protected synchronized List<DataFileIntervalTree.Entry> getEntries() {
+    List<DataFileIntervalTree.Entry> result = new ArrayList<DataFileIntervalTree.Entry>();
+    for (DataFileIntervalTree tree : trees.values()) {
+      result.addAll(tree.getEntries());
+    }
+
+    result.sort(Comparator.comparingLong(DataFileIntervalTree.Entry::getStart));
+    return result;
+  }
+
+  /**
+   * Get the latest end date of all the files in the index
+   *
+   * @return The latest end date, or {@code null} if there are no files
+   */
+  protected synchronized Long getLastEnd() {
+    Long result = null;
+
+    for (DataFileIntervalTree tree : trees.values()) {
+      if (tree.size() > 0 && (null == result || tree.getLastEnd() > result)) {
+        result = tree.getLastEnd();
+      }
+    }
+
+    return result;
+  }
+}
@@ -0,0 +1,357 @@
+package uk.ac.exeter.QuinCe.data.Files;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An interval tree of the start and end dates of a set of data files, used to
+ * find the files that overlap a given time range.
+ *
+ * <p>
+ * The files are held in an array sorted by start date, which is treated as an
+ * implicit balanced binary tree: the root of any range of the array is its
+ * middle element. Each node records the latest end date in its subtree, so
+ * subtrees containing no overlapping files can be skipped. A query returns
+ * its {@code k} results in {@code O(log n + k)} time, in order of start date.
+ * </p>
+ *
+ * <p>
+ * Adding or removing a file rebuilds the array in {@code O(n)} time. Files
+ * are added far less often than the tree is queried, so this is preferred to
+ * a self-balancing tree.
+ * </p>
+ *
+ * <p>
+ * Dates are held in the form used in the database (see
+ * {@link uk.ac.exeter.QuinCe.utils.DateTimeUtils#dateToLong}). This class is
+ * not thread safe.
+ * </p>
+ */
+public class DataFileIntervalTree {
+
+  /**
+   * Orders entries by start date, then end date, then ID
+   */
+  private static final Comparator<Entry> ENTRY_ORDER = Comparator
+    .comparingLong((Entry e) -> e.start).thenComparingLong(e -> e.end)
+    .thenComparingLong(e -> e.id);
+
+  /**
+   * The entries, sorted by {@link #ENTRY_ORDER}
+   */
+  private Entry[] entries;
+
+  /**
+   * The latest end date in the subtree rooted at each entry
+   */
+  private long[] maxEnd;
+
+  /**
+   * Create an empty tree
+   */
+  public DataFileIntervalTree() {
+    this(new ArrayList<Entry>());
+  }
+
+  /**
+   * Create a tree containing the specified entries
+   *
+   * @param entries
+   *          The entries
+   */
+  public DataFileIntervalTree(List<Entry> entries) {
+    this.entries = entries.toArray(new Entry[entries.size()]);
+    Arrays.sort(this.entries, ENTRY_ORDER);
+    rebuild();
+  }
+
+  /**
+   * Add an entry to the tree
+   *
+   * @param entry
+   *          The entry
+   */
+  public void add(Entry entry) {
+    int position = Arrays.binarySearch(entries, entry, ENTRY_ORDER);
+    if (position < 0) {
+      position = -(position + 1);
+    }
+
+    Entry[] newEntries = new Entry[entries.length + 1];
+    System.arraycopy(entries, 0, newEntries, 0, position);
+    newEntries[position] = entry;
+    System.arraycopy(entries, position, newEntries, position + 1,
+      entries.length - position);
+
+    entries = newEntries;
+    rebuild();
+  }
+
+  /**
+   * Remove the entry for a file from the tree
+   *
+   * @param id
+   *          The file's database ID
+   * @return {@code true} if the entry was removed; {@code false} if the file
+   *         was not in the tree
+   */
+  public boolean remove(long id) {
+    int position = -1;
+    for (int i = 0; position == -1 && i < entries.length; i++) {
+      if (entries[i].id == id) {
+        position = i;
+      }
+    }
+
+    if (position > -1) {
+      Entry[] newEntries = new Entry[entries.length - 1];
+      System.arraycopy(entries, 0, newEntries, 0, position);
+      System.arraycopy(entries, position + 1, newEntries, position,
+        entries.length - position - 1);
+
+      entries = newEntries;
+      rebuild();
+    }
+
+    return position > -1;
+  }
+
+  /**
+   * Get the number of entries in the tree
+   *
+   * @return The number of entries
+   */
+  public int size() {
+    return entries.length;
+  }
+
+  /**
+   * Get all the entries in the tree, in order of start date
+   *
+   * @return The entries
+   */
+  public List<Entry> getEntries() {
+    return new ArrayList<Entry>(Arrays.asList(entries));
+  }
+
+  /**
+   * Get the earliest start date of all the entries
+   *
+   * @return The earliest start date, or {@link Long#MAX_VALUE} if the tree is
+   *         empty
+   */
+  public long getFirstStart() {
+    return entries.length == 0 ? Long.MAX_VALUE : entries[0].start;
+  }
+
+  /**
+   * Get the latest end date of all the entries
+   *
+   * @return The latest end date, or {@link Long#MIN_VALUE} if the tree is
+   *         empty
+   */
+  public long getLastEnd() {
+    return entries.length == 0 ? Long.MIN_VALUE
+      : maxEnd[entries.length >>> 1];
+  }
+
+  /**
+   * Find the entries that overlap a time range, i.e. those that start on or
+   * before the end of the range and end on or after the start of the range.
+   *
+   * @param start
+   *          The start of the range
+   * @param end
+   *          The end of the range
+   * @return The overlapping entries, in order of start date
+   */
+  public List<Entry> getOverlapping(long start, long end) {
+    List<Entry> result = new ArrayList<Entry>();
+    findOverlapping(0, entries.length, start, end, result);
+    return result;
+  }
+
+  /**
+   * Find the entries in a subtree that overlap a time range
+   *
+   * @param low
+   *          The first entry in the subtree
+   * @param high
+   *          The entry after the last entry in the subtree
+   * @param start
+   *          The start of the range
+   * @param end
+   *          The end of the range
+   * @param result
+   *          The list to which overlapping entries are added
+   */
+  private void findOverlapping(int low, int high, long start, long end,
+    List<Entry> result) {
+
+    if (low < high) {
+      int mid = (low + high) >>> 1;
+
+      // Nothing in this subtree ends late enough
+      if (maxEnd[mid] >= start) {
+        findOverlapping(low, mid, start, end, result);
+
+        // Entries to the right start no earlier than this one
+        if (entries[mid].start <= end) {
+          if (entries[mid].end >= start) {
+            result.add(entries[mid]);
+          }
+
+          findOverlapping(mid + 1, high, start, end, result);
+        }
+      }
+    }
+  }
+
+  /**
+   * Recalculate the latest end date of every subtree
+   */
+  private void rebuild() {
+    maxEnd = new long[entries.length];
+    rebuild(0, entries.length);
+  }
+
+  /**
+   * Recalculate the latest end dates for a subtree
+   *
+   * @param low
+   *          The first entry in the subtree
+   * @param high
+   *          The entry after the last entry in the subtree
+   * @return The latest end date in the subtree
+   */
+  private long rebuild(int low, int high) {
+    long result = Long.MIN_VALUE;
+
+    if (low < high) {
+      int mid = (low + high) >>> 1;
+      result = Math.max(entries[mid].end,
+        Math.max(rebuild(low, mid), rebuild(mid + 1, high)));
+      maxEnd[mid] = result;
+    }
+
+    return result;
+  }
+
+  /**
+   * The details of a data file held in the tree
+   */
+  public static class Entry {
+
+    /**
+     * The file's database ID
+     */
+    private final long id;
+
+    /**
+     * The database ID of the file's definition
+     */
+    private final long fileDefinitionId;
+
+    /**
+     * The filename
+     */
+    private final String filename;
+
+    /**
+     * The file's start date
+     */
+    private final long start;
+
+    /**
+     * The file's end date
+     */
+    private final long end;
+
+    /**
+     * The number of records in the file
+     */
+    private final int recordCount;
+
+    /**
+     * Basic constructor
+     *
+     * @param id
+     *          The file's database ID
+     * @param fileDefinitionId
+     *          The database ID of the file's definition
+     * @param filename
+     *          The filename
+     * @param start
+     *          The file's start date
+     * @param end
+     *          The file's end date
+     * @param recordCount
+     *          The number of records in the file
+     */
+    public Entry(long id, long fileDefinitionId, String filename, long start,
+      long end, int recordCount) {
+      this.id = id;
+      this.fileDefinitionId = fileDefinitionId;
+      this.filename = filename;
+      this.start = start;
+      this.end = end;
+      this.recordCount = recordCount;
+    }
+
+    /**
+     * Get the file's database ID
+     *
+     * @return The ID
+     */
+    public long getId() {
+      return id;
+    }
+
+    /**
+     * Get the database ID of the file's definition
+     *
+     * @return The file definition ID
+     */
+    public long getFileDefinitionId() {
+      return fileDefinitionId;
+    }
+
+    /**
+     * Get the filename
+     *
+     * @return The filename
+     */
+    public String getFilename() {
+      return filename;
+    }
+
+    /**
+     * Get the file's start date
+     *
+     * @return The start date
+     */
+    public long getStart() {
+      return start;
+    }
+
+    /**
+     * Get the file's end date
+     *
+     * @return The end date
+     */
+    public long getEnd() {
+      return end;
+    }
+
+    /**
+     * Get the number of records in the file
+     *
+     * @return The record count
+     */
+    public int getRecordCount() {
+      return recordCount;
+    }
+  }
+}
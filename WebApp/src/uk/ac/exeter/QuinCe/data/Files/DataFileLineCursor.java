@@ -0,0 +1,163 @@
+package uk.ac.exeter.QuinCe.data.Files;
+
+import java.util.List;
+
+import uk.ac.exeter.QuinCe.data.Instrument.FieldTokenizer;
+
+/**
+ * A forward-only cursor over the data lines of a {@link DataFile}.
+ *
+ * <p>
+ * The cursor starts before the first data line of the file; each call to
+ * {@link #next()} moves it to the following line. Only the current line is
+ * held in memory. It is tokenised once when its fields are first requested,
+ * using a single {@link FieldTokenizer} for the whole file.
+ * </p>
+ *
+ * @see DataFile#getLineCursor()
+ * @see DataFile#getLineCursor(java.time.LocalDateTime, java.time.LocalDateTime)
+ */
+public class DataFileLineCursor {
+
+  /**
+   * The lines of the file
+   */
+  private final List<String> contents;
+
+  /**
+   * The line at which the cursor stops (exclusive)
+   */
+  private final int endLine;
+
+  /**
+   * The current line number
+   */
+  private int lineNumber;
+
+  /**
+   * The current line
+   */
+  private String line = null;
+
+  /**
+   * The tokenizer used to split lines into fields
+   */
+  private final FieldTokenizer tokenizer;
+
+  /**
+   * Indicates whether the current line has been tokenised
+   */
+  private boolean tokenized = false;
+
+  /**
+   * Create a cursor positioned before the specified line.
+   *
+   * @param file
+   *          The data file
+   * @param contents
+   *          The file's lines
+   * @param firstLine
+   *          The first line to be returned by the cursor
+   */
+  protected DataFileLineCursor(DataFile file, List<String> contents,
+    int firstLine) {
+    this(file, contents, firstLine, contents.size());
+  }
+
+  /**
+   * Create a cursor positioned before the specified line that stops before
+   * {@code endLine}.
+   *
+   * @param file
+   *          The data file
+   * @param contents
+   *          The file's lines
+   * @param firstLine
+   *          The first line to be returned by the cursor
+   * @param endLine
+   *          The line at which the cursor stops (exclusive)
+   */
+  protected DataFileLineCursor(DataFile file, List<String> contents,
+    int firstLine, int endLine) {
+    this.contents = contents;
+    this.tokenizer = file.getFileDefinition().makeFieldTokenizer();
+    this.lineNumber = firstLine - 1;
+    this.endLine = Math.min(endLine, contents.size());
+  }
+
+  /**
+   * Move to the next line in the file.
+   *
+   * @return {@code true} if the cursor is on a valid line; {@code false} if
+   *         the end of the file (or the cursor's end line) has been
+   *         reached
+   */
+  public boolean next() {
+    line = null;
+    tokenized = false;
+
+    if (lineNumber < endLine) {
+      lineNumber++;
+    }
+
+    return lineNumber < endLine;
+  }
+
+  /**
+   * Get the number of the current line within the whole file, including
+   * headers.
+   *
+   * @return The line number
+   */
+  public int getLineNumber() {
+    return lineNumber;
+  }
+
+  /**
+   * Get the current line.
+   *
+   * @return The line
+   */
+  public String getLine() {
+    if (null == line) {
+      line = contents.get(lineNumber);
+    }
+
+    return line;
+  }
+
+  /**
+   * Get the tokenizer holding the current line's fields, for callers that
+   * want to examine field positions directly.
+   *
+   * @return The tokenizer
+   */
+  public FieldTokenizer getTokenizer() {
+    if (!tokenized) {
+      tokenizer.tokenize(getLine());
+      tokenized = true;
+    }
+
+    return tokenizer;
+  }
+
+  /**
+   * Get the number of fields in the current line.
+   *
+   * @return The field count
+   */
+  public int getFieldCount() {
+    return getTokenizer().getFieldCount();
+  }
+
+  /**
+   * Get the fields of the current line. The returned list is only valid until
+   * the cursor is moved.
+   *
+   * @return The line fields
+   * @see FieldTokenizer#getFields()
+   */
+  public List<String> getFields() {
+    return getTokenizer().getFields();
+  }
+}
@@ -0,0 +1,491 @@
+package uk.ac.exeter.QuinCe.data.Files;
+
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import uk.ac.exeter.QuinCe.data.Instrument.FieldTokenizer;
+import uk.ac.exeter.QuinCe.data.Instrument.FileDefinition;
+import uk.ac.exeter.QuinCe.data.Instrument.FileDefinitionException;
+import uk.ac.exeter.QuinCe.data.Instrument.MissingRunTypeException;
+import uk.ac.exeter.QuinCe.data.Instrument.DataFormats.DateTimeSpecificationException;
+import uk.ac.exeter.QuinCe.data.Instrument.RunTypes.RunTypeAssignment;
+import uk.ac.exeter.QuinCe.data.Instrument.RunTypes.RunTypeCategory;
+
+/**
+ * Validates the data lines of a {@link DataFile}.
+ *
+ * <p>
+ * Each data line is checked for:
+ * </p>
+ * <ul>
+ * <li>A valid date/time that is later than the previous line's date/time</li>
+ * <li>The correct number of columns (for Run Types that aren't IGNORED)</li>
+ * <li>A recognised Run Type</li>
+ * </ul>
+ *
+ * <p>
+ * The lines are split into chunks of {@link #CHUNK_SIZE} lines, which are
+ * validated in parallel on a shared executor. Each chunk records its messages
+ * in line order along with the first and last valid date/times it contains.
+ * The chunks are then stitched together in order: the date/time check for the
+ * first valid line in each chunk is completed against the last valid
+ * date/time of the preceding chunks, and the messages are passed to the
+ * {@link DataFile} in exactly the order that a single pass through the file
+ * would produce them, so the file's message limit is applied in the same way.
+ * </p>
+ *
+ * <p>
+ * Files with no more than one chunk of lines are validated in the calling
+ * thread. For contents that do not support efficient random access (such as
+ * {@link SpooledFileLines}), the lines are read in order by the calling thread
+ * and handed to the chunk tasks, with a limited number of chunks held in
+ * memory at any one time.
+ * </p>
+ */
+public class DataFileValidator {
+
+  /**
+   * The number of lines in each chunk
+   */
+  public static final int CHUNK_SIZE = 4096;
+
+  /**
+   * The number of threads in the shared executor
+   */
+  private static final int THREADS = Math.max(1,
+    Runtime.getRuntime().availableProcessors());
+
+  /**
+   * The maximum number of chunks that may be queued or running at once
+   */
+  private static final int MAX_PENDING_CHUNKS = THREADS * 2;
+
+  /**
+   * The executor shared by all validations
+   */
+  private static ExecutorService executor = null;
+
+  /**
+   * The file definition
+   */
+  private final FileDefinition fileDefinition;
+
+  /**
+   * The date from the file header
+   */
+  private final LocalDateTime headerDate;
+
+  /**
+   * The file contents
+   */
+  private final List<String> contents;
+
+  /**
+   * The maximum number of messages that can be reported for the file
+   */
+  private final int maxMessages;
+
+  /**
+   * Set up a validator for a file's contents
+   *
+   * @param fileDefinition
+   *          The file definition
+   * @param headerDate
+   *          The date from the file header
+   * @param contents
+   *          The file contents
+   * @param maxMessages
+   *          The maximum number of messages that can be reported for the
+   *          file. Each chunk stops recording messages after this many.
+   */
+  protected DataFileValidator(FileDefinition fileDefinition,
+    LocalDateTime headerDate, List<String> contents, int maxMessages) {
+    this.fileDefinition = fileDefinition;
+    this.headerDate = headerDate;
+    this.contents = contents;
+    this.maxMessages = maxMessages;
+  }
+
+  /**
+   * Validate the data lines of the file and report the results to the file
+   *
+   * @param dataFile
+   *          The file being validated
+   * @param firstDataLine
+   *          The first data line of the file
+   * @throws DataFileException
+   *           If the validation cannot be completed
+   */
+  protected void validate(DataFile dataFile, int firstDataLine)
+    throws DataFileException {
+
+    int lineCount = contents.size() - firstDataLine;
+
+    if (lineCount <= CHUNK_SIZE) {
+      Chunk chunk = new Chunk(firstDataLine,
+        contents.subList(firstDataLine, contents.size()));
+      chunk.validate();
+      new Stitcher(dataFile).add(chunk);
+    } else if (contents instanceof RandomAccess) {
+      validateChunks(dataFile, firstDataLine, true);
+    } else {
+      validateChunks(dataFile, firstDataLine, false);
+    }
+  }
+
+  /**
+   * Validate the file's lines in chunks on the shared executor. At most
+   * {@link #MAX_PENDING_CHUNKS} chunks are submitted at any one time; the
+   * oldest chunk is stitched before the next is submitted.
+   *
+   * @param dataFile
+   *          The file being validated
+   * @param firstDataLine
+   *          The first data line of the file
+   * @param randomAccess
+   *          Indicates whether the chunk tasks can read their lines directly
+   *          from the file contents. If not, the lines are read in order by
+   *          the calling thread.
+   * @throws DataFileException
+   *           If any chunk cannot be validated
+   */
+  private void validateChunks(DataFile dataFile, int firstDataLine,
+    boolean randomAccess) throws DataFileException {
+
+    ExecutorService executor = getExecutor();
+    Stitcher stitcher = new Stitcher(dataFile);
+    Deque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>(
+      MAX_PENDING_CHUNKS);
+
+    try {
+      int chunkStart = firstDataLine;
+      while (chunkStart < contents.size()) {
+        int chunkEnd = (int) Math.min((long) chunkStart + CHUNK_SIZE,
+          contents.size());
+
+        List<String> lines;
+        if (randomAccess) {
+          lines = contents.subList(chunkStart, chunkEnd);
+        } else {
+          lines = new ArrayList<String>(chunkEnd - chunkStart);
+          for (int i = chunkStart; i < chunkEnd; i++) {
+            lines.add(contents.get(i));
+          }
+        }
+
+        if (pending.size() == MAX_PENDING_CHUNKS) {
+          stitcher.add(pending.removeFirst().get());
+        }
+
+        Chunk chunk = new Chunk(chunkStart, lines);
+        pending.addLast(executor.submit(chunk));
+
+        chunkStart = chunkEnd;
+      }
+
+      while (!pending.isEmpty()) {
+        stitcher.add(pending.removeFirst().get());
+      }
+    } catch (ExecutionException e) {
+      Throwable cause = null == e.getCause() ? e : e.getCause();
+      throw new DataFileException(dataFile.getDatabaseId(),
+        DataFileException.NO_LINE_NUMBER, "Error while validating file",
+        cause);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DataFileException(dataFile.getDatabaseId(),
+        DataFileException.NO_LINE_NUMBER, "Validation interrupted", e);
+    } finally {
+      for (Future<Chunk> future : pending) {
+        future.cancel(true);
+      }
+    }
+  }
+
+  /**
+   * Get the shared executor, creating it if necessary. The executor's threads
+   * are daemon threads so they do not prevent the application from shutting
+   * down.
+   *
+   * @return The executor
+   */
+  private static synchronized ExecutorService getExecutor() {
+    if (null == executor) {
+      executor = Executors.newFixedThreadPool(THREADS, r -> {
+        Thread thread = new Thread(r, "DataFileValidator");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+
+    return executor;
+  }
+
+  /**
+   * A message generated for a line in a chunk
+   */
+  private static class LineMessage {
+
+    /**
+     * The line number
+     */
+    private final int lineNumber;
+
+    /**
+     * The message text
+     */
+    private final String message;
+
+    /**
+     * Basic constructor
+     *
+     * @param lineNumber
+     *          The line number
+     * @param message
+     *          The message text
+     */
+    private LineMessage(int lineNumber, String message) {
+      this.lineNumber = lineNumber;
+      this.message = message;
+    }
+  }
+
+  /**
+   * A range of lines that is validated independently of the rest of the
+   * file.
+   */
+  private class Chunk implements Callable<Chunk> {
+
+    /**
+     * The line number of the first line in the chunk
+     */
+    private final int startLine;
+
+    /**
+     * The lines in the chunk
+     */
+    private final List<String> lines;
+
+    /**
+     * The messages for the chunk, in the order they were generated
+     */
+    private final List<LineMessage> messages = new ArrayList<LineMessage>();
+
+    /**
+     * The Run Types found in the chunk that are not defined in the file
+     * definition
+     */
+    private final Set<RunTypeAssignment> missingRunTypes = new HashSet<RunTypeAssignment>();
+
+    /**
+     * The date/time of the first line in the chunk, or {@code null} if it is
+     * not valid
+     */
+    private LocalDateTime firstLineTime = null;
+
+    /**
+     * The date/time of the last line in the chunk, or {@code null} if it is
+     * not valid
+     */
+    private LocalDateTime lastLineTime = null;
+
+    /**
+     * The first valid date/time in the chunk
+     */
+    private LocalDateTime firstValidTime = null;
+
+    /**
+     * The line number of {@link #firstValidTime}
+     */
+    private int firstValidLine = -1;
+
+    /**
+     * The number of messages recorded before the date/time check for
+     * {@link #firstValidLine}. The result of that check is inserted at this
+     * position when the chunks are stitched together.
+     */
+    private int firstValidMessageIndex = -1;
+
+    /**
+     * The last valid date/time in the chunk
+     */
+    private LocalDateTime lastValidTime = null;
+
+    /**
+     * Set up a chunk
+     *
+     * @param startLine
+     *          The line number of the first line in the chunk
+     * @param lines
+     *          The lines in the chunk
+     */
+    private Chunk(int startLine, List<String> lines) {
+      this.startLine = startLine;
+      this.lines = lines;
+    }
+
+    @Override
+    public Chunk call() {
+      validate();
+      return this;
+    }
+
+    /**
+     * Validate the lines in the chunk
+     */
+    private void validate() {
+      FieldTokenizer tokenizer = fileDefinition.makeFieldTokenizer();
+
+      for (int i = 0; i < lines.size(); i++) {
+        int lineNumber = startLine + i;
+        tokenizer.tokenize(lines.get(i));
+        List<String> fields = tokenizer.getFields();
+
+        try {
+          LocalDateTime dateTime = fileDefinition.getDateTimeSpecification()
+            .getDateTime(headerDate, fields);
+
+          if (i == 0) {
+            firstLineTime = dateTime;
+          }
+          if (i == lines.size() - 1) {
+            lastLineTime = dateTime;
+          }
+
+          if (null == lastValidTime) {
+            // The check for this line depends on the previous chunks, so it
+            // is completed when the chunks are stitched together
+            firstValidTime = dateTime;
+            firstValidLine = lineNumber;
+            firstValidMessageIndex = messages.size();
+          } else if (dateTime.compareTo(lastValidTime) <= 0) {
+            addMessage(lineNumber, DataFile.NOT_MONOTONIC_MESSAGE);
+          }
+
+          lastValidTime = dateTime;
+        } catch (DateTimeSpecificationException e) {
+          addMessage(lineNumber, e.getMessage());
+        }
+
+        boolean checkColumnCount = true;
+
+        if (fileDefinition.hasRunTypes()) {
+          try {
+            RunTypeCategory runType = fileDefinition.getRunType(fields, true)
+              .getCategory();
+            if (runType.equals(RunTypeCategory.IGNORED)) {
+              checkColumnCount = false;
+            }
+          } catch (FileDefinitionException e) {
+            addMessage(lineNumber, e.getMessage());
+            if (e instanceof MissingRunTypeException) {
+              missingRunTypes.add(((MissingRunTypeException) e).getRunType());
+            }
+          }
+        }
+
+        if (checkColumnCount
+          && tokenizer.getFieldCount() != fileDefinition.getColumnCount()) {
+          addMessage(lineNumber, "Incorrect number of columns");
+        }
+      }
+    }
+
+    /**
+     * Record a message for a line. Messages beyond the file's message limit
+     * are discarded, since they can never be reported.
+     *
+     * @param lineNumber
+     *          The line number
+     * @param message
+     *          The message text
+     */
+    private void addMessage(int lineNumber, String message) {
+      if (messages.size() < maxMessages) {
+        messages.add(new LineMessage(lineNumber, message));
+      }
+    }
+  }
+
+  /**
+   * Combines the results of the chunks in file order and passes them to the
+   * {@link DataFile}.
+   */
+  private class Stitcher {
+
+    /**
+     * The file being validated
+     */
+    private final DataFile dataFile;
+
+    /**
+     * The last valid date/time in the chunks added so far
+     */
+    private LocalDateTime lastValidTime = null;
+
+    /**
+     * Indicates whether the first chunk has been added
+     */
+    private boolean firstChunk = true;
+
+    /**
+     * Set up the stitcher
+     *
+     * @param dataFile
+     *          The file being validated
+     */
+    private Stitcher(DataFile dataFile) {
+      this.dataFile = dataFile;
+    }
+
+    /**
+     * Add the results of the next chunk
+     *
+     * @param chunk
+     *          The chunk
+     */
+    private void add(Chunk chunk) {
+      if (firstChunk) {
+        dataFile.setValidatedStartDate(chunk.firstLineTime);
+        firstChunk = false;
+      }
+
+      boolean boundaryCheckFailed = null != lastValidTime
+        && null != chunk.firstValidTime
+        && chunk.firstValidTime.compareTo(lastValidTime) <= 0;
+
+      for (int i = 0; i <= chunk.messages.size(); i++) {
+        if (boundaryCheckFailed && i == chunk.firstValidMessageIndex) {
+          dataFile.addValidationMessage(chunk.firstValidLine,
+            DataFile.NOT_MONOTONIC_MESSAGE);
+        }
+
+        if (i < chunk.messages.size()) {
+          LineMessage message = chunk.messages.get(i);
+          dataFile.addValidationMessage(message.lineNumber, message.message);
+        }
+      }
+
+      dataFile.addMissingRunTypes(chunk.missingRunTypes);
+
+      if (null != chunk.lastValidTime) {
+        lastValidTime = chunk.lastValidTime;
+      }
+
+      if (chunk.startLine + chunk.lines.size() == contents.size()) {
+        dataFile.setValidatedEndDate(chunk.lastLineTime);
+      }
+    }
+  }
+}
@@ -1,10 +1,15 @@
 package uk.ac.exeter.QuinCe.data.Files;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.Writer;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
 import java.util.Properties;
 
 import javax.sql.DataSource;
@@ -25,8 +30,56 @@ import uk.ac.exeter.QuinCe.utils.MissingParamException;
  */
 public class FileStore {
 
+  /**
+   * Configuration property indicating whether new files should be compressed
+   */
+  public static final String COMPRESS_PROPERTY = "filestore.compress";
+
+  /**
+   * The character set of the files in the file store. This is fixed so that
+   * the stored bytes and their content hashes do not depend on the locale of
+   * the server.
+   *
+   * <p>
+   * Older versions wrote files in the server's default character set. On
+   * servers with a UTF-8 locale (the standard setup) the stored files are
+   * unchanged. Installations that ran with any other default character set
+   * must convert their stored files to UTF-8 (e.g. with {@code iconv}) before
+   * upgrading; files that contain only ASCII characters are not affected.
+   * </p>
+   */
+  public static final Charset CHARSET = StandardCharsets.UTF_8;
+
+  /**
+   * The suffix for the time index files stored alongside data files
+   *
+   * @see FileTimeIndex
+   */
+  private static final String INDEX_SUFFIX = ".tidx";
+
+  /**
+   * The suffix for the parsed file caches stored alongside data files
+   *
+   * @see ParsedFileCache
+   */
+  private static final String PARSE_CACHE_SUFFIX = ".pcache";
+
+  /**
+   * The suffix for the backups of stored files that are being replaced
+   *
+   * @see #backupFile(String, DataFile)
+   */
+  private static final String BACKUP_SUFFIX = ".bak";
+
+  /**
+   * The directory within the file store that holds uploaded files while they
+   * are being processed
+   */
+  private static final String SPOOL_DIRECTORY = "spool";
+
   /**
    * Store a file in the file store. This will overwrite any existing file.
+   * The file is stored uncompressed.
    *
    * @param fileStore
    *          The location of the file store
@@ -40,11 +93,47 @@ public class FileStore {
    */
   protected static void storeFile(String fileStore, DataFile dataFile)
     throws MissingParamException, FileStoreException {
+    storeFile(fileStore, dataFile, false);
+  }
+
+  /**
+   * Store a file in the file store, optionally compressing it. This will
+   * overwrite any existing file.
+   *
+   * <p>
+   * Compressed files are stored as a {@link BlockCompressedFile}. All the read
+   * methods in this class detect compressed files automatically, so files can
+   * be stored in either form.
+   * </p>
+   *
+   * <p>
+   * A {@link FileTimeIndex} is written alongside the file. If the index cannot
+   * be built the file is still stored, and will be read without an index.
+   * </p>
+   *
+   * <p>
+   * The file contents are copied from {@link DataFile#getContentStream()}, so
+   * files that were uploaded as a stream are never loaded into memory.
+   * </p>
+   *
+   * @param fileStore
+   *          The location of the file store
+   * @param dataFile
+   *          The data file
+   * @param compress
+   *          Indicates whether the file should be compressed
+   * @throws MissingParamException
+   *           If any of the parameters are missing
+   * @throws FileStoreException
+   *           If an error occurs while storing the file
+   * @see #isCompressionEnabled(Properties)
+   */
+  protected static void storeFile(String fileStore, DataFile dataFile,
+    boolean compress) throws MissingParamException, FileStoreException {
 
     MissingParam.checkMissing(fileStore, "fileStore");
     MissingParam.checkMissing(dataFile, "dataFile");
 
-    FileWriter fileWriter = null;
     File file = null;
 
     try {
@@ -56,18 +145,72 @@ public class FileStore {
         file.delete();
       }
 
-      fileWriter = new FileWriter(file);
-      fileWriter.write(dataFile.getContents());
-      fileWriter.close();
+      // The contents are streamed so large files are never held in memory
+      try (InputStream in = dataFile.getContentStream()) {
+        if (compress) {
+          BlockCompressedFile.write(in, file,
+            BlockCompressedFile.DEFAULT_BLOCK_SIZE);
+        } else {
+          Files.copy(in, file.toPath());
+        }
+      }
 
     } catch (Exception e) {
 
-      closeWriter(fileWriter);
       deleteFile(file);
+      deleteFile(getIndexFileObject(fileStore, dataFile));
+      deleteFile(getParseCacheFileObject(fileStore, dataFile));
 
       throw new FileStoreException("An error occurred while storing the file",
         e);
     }
+
+    // Any cached parse of a previous version of the file is now invalid
+    deleteFile(getParseCacheFileObject(fileStore, dataFile));
+    storeTimeIndex(fileStore, dataFile, file);
+  }
+
+  /**
+   * Build and store the time index for a stored file. Any existing index is
+   * replaced. Failures are not reported, since the file can be read without
+   * an index.
+   *
+   * @param fileStore
+   *          The location of the file store
+   * @param dataFile
+   *          The data file
+   * @param file
+   *          The stored file
+   */
+  private static void storeTimeIndex(String fileStore, DataFile dataFile,
+    File file) {
+
+    File indexFile = getIndexFileObject(fileStore, dataFile);
+    deleteFile(indexFile);
+
+    // Only the sampled line positions are needed, so the file is scanned
+    // with a sparse line index
+    try (MappedFileLines storedLines = new MappedFileLines(file,
+      CHARSET, FileTimeIndex.DEFAULT_STRIDE)) {
+
+      FileTimeIndex.build(dataFile, storedLines, FileTimeIndex.DEFAULT_STRIDE)
+        .write(indexFile);
+    } catch (Exception e) {
+      deleteFile(indexFile);
+    }
+  }
+
+  /**
+   * Determine whether new files should be compressed, according to the
+   * {@code filestore.compress} property in the application configuration.
+   *
+   * @param appConfig
+   *          The application configuration
+   * @return {@code true} if files should be compressed; {@code false} if not
+   */
+  protected static boolean isCompressionEnabled(Properties appConfig) {
+    return Boolean
+      .parseBoolean(appConfig.getProperty(COMPRESS_PROPERTY, "false"));
   }
 
   /**
@@ -87,12 +230,156 @@ public class FileStore {
     MissingParam.checkMissing(fileStore, "fileStore");
     MissingParam.checkMissing(dataFile, "dataFile");
 
+    // The file cannot be deleted on Windows while it is mapped
+    dataFile.closeContents();
+
     File fileToDelete = getFileObject(fileStore, dataFile);
     deleteFile(fileToDelete);
+    deleteFile(getIndexFileObject(fileStore, dataFile));
+    deleteFile(getParseCacheFileObject(fileStore, dataFile));
+    discardBackup(fileStore, dataFile);
+  }
+
+  /**
+   * Move a stored file, and its time index and parsed file cache, out of the
+   * way before the file is replaced. The backup can be restored with
+   * {@link #restoreFile(String, DataFile)} if the replacement is rolled back,
+   * and must be removed with {@link #discardBackup(String, DataFile)} once the
+   * replacement is committed.
+   *
+   * <p>
+   * If the file already has a backup, it has already been replaced in the
+   * current transaction and the existing backup is kept. If the time index or
+   * parsed file cache cannot be moved they are deleted, since the file can be
+   * read without them.
+   * </p>
+   *
+   * @param fileStore
+   *          The location of the file store
+   * @param dataFile
+   *          The data file being replaced
+   * @throws MissingParamException
+   *           If any of the parameters are missing
+   * @throws FileStoreException
+   *           If the stored file cannot be moved
+   */
+  protected static void backupFile(String fileStore, DataFile dataFile)
+    throws MissingParamException, FileStoreException {
+
+    MissingParam.checkMissing(fileStore, "fileStore");
+    MissingParam.checkMissing(dataFile, "dataFile");
+
+    // The file cannot be moved on Windows while it is mapped
+    dataFile.closeContents();
+
+    File file = getFileObject(fileStore, dataFile);
+    File backup = getBackupFileObject(file);
+
+    if (!backup.exists()) {
+      if (file.exists()) {
+        try {
+          Files.move(file.toPath(), backup.toPath());
+        } catch (IOException e) {
+          throw new FileStoreException("Unable to back up the stored file",
+            e);
+        }
+      }
+
+      for (File derivedFile : new File[] {
+        getIndexFileObject(fileStore, dataFile),
+        getParseCacheFileObject(fileStore, dataFile) }) {
+
+        if (derivedFile.exists()) {
+          try {
+            Files.move(derivedFile.toPath(),
+              getBackupFileObject(derivedFile).toPath());
+          } catch (IOException e) {
+            deleteFile(derivedFile);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Restore a stored file, and its time index and parsed file cache, from the
+   * backup made by {@link #backupFile(String, DataFile)}. The replacement
+   * files are discarded. If there is no backup of the file, nothing is
+   * changed.
+   *
+   * @param fileStore
+   *          The location of the file store
+   * @param dataFile
+   *          The data file
+   * @throws MissingParamException
+   *           If any of the parameters are missing
+   * @throws FileStoreException
+   *           If the backup cannot be restored
+   */
+  protected static void restoreFile(String fileStore, DataFile dataFile)
+    throws MissingParamException, FileStoreException {
+
+    MissingParam.checkMissing(fileStore, "fileStore");
+    MissingParam.checkMissing(dataFile, "dataFile");
+
+    File file = getFileObject(fileStore, dataFile);
+    File backup = getBackupFileObject(file);
+
+    if (backup.exists()) {
+      dataFile.closeContents();
+
+      try {
+        Files.move(backup.toPath(), file.toPath(),
+          StandardCopyOption.REPLACE_EXISTING);
+
+        // The replacement's index and cache must not be used with the
+        // restored file
+        for (File derivedFile : new File[] {
+          getIndexFileObject(fileStore, dataFile),
+          getParseCacheFileObject(fileStore, dataFile) }) {
+
+          deleteFile(derivedFile);
+          File derivedBackup = getBackupFileObject(derivedFile);
+          if (derivedBackup.exists()) {
+            Files.move(derivedBackup.toPath(), derivedFile.toPath());
+          }
+        }
+      } catch (IOException e) {
+        throw new FileStoreException("Unable to restore the stored file", e);
+      }
+    }
+  }
+
+  /**
+   * Remove the backup made by {@link #backupFile(String, DataFile)} once the
+   * replacement file has been committed. If there is no backup, no action is
+   * taken.
+   *
+   * @param fileStore
+   *          The location of the file store
+   * @param dataFile
+   *          The data file
+   * @throws MissingParamException
+   *           If any of the parameters are missing
+   */
+  protected static void discardBackup(String fileStore, DataFile dataFile)
+    throws MissingParamException {
+
+    MissingParam.checkMissing(fileStore, "fileStore");
+    MissingParam.checkMissing(dataFile, "dataFile");
+
+    deleteFile(getBackupFileObject(getFileObject(fileStore, dataFile)));
+    deleteFile(
+      getBackupFileObject(getIndexFileObject(fileStore, dataFile)));
+    deleteFile(
+      getBackupFileObject(getParseCacheFileObject(fileStore, dataFile)));
   }
 
   /**
-   * Retrieve a file from the file store
+   * Retrieve a file from the file store. The file is not read into memory;
+   * instead the data file is given a memory mapped view of the stored file
+   * from which lines are decoded on demand. The file's time index is also
+   * loaded if it exists.
    *
    * @param fileStore
    *          The location of the file store
@@ -102,14 +389,131 @@ public class FileStore {
    *           If a disk I/O error occurs
    * @throws MissingParamException
    *           If any required parameters are missing
+   * @see MappedFileLines
    */
   protected static void loadFileContents(String fileStore, DataFile dataFile)
     throws IOException, MissingParamException {
-    dataFile.setContents(new String(getBytes(fileStore, dataFile)));
+
+    FileTimeIndex index = FileTimeIndex
+      .read(getIndexFileObject(fileStore, dataFile));
+
+    dataFile.setContents(getLines(fileStore, dataFile, index));
+    dataFile.setTimeIndex(index);
+  }
+
+  /**
+   * Get a line-by-line view of a stored file. Lines are decoded using
+   * {@link #CHARSET}, which is also used when the file is written. Compressed files are decompressed as lines are read.
+   *
+   * @param fileStore
+   *          The file store
+   * @param dataFile
+   *          The file to be retrieved
+   * @param index
+   *          The file's time index, or {@code null} if it has none
+   * @return The file lines
+   * @throws IOException
+   *           If the file cannot be read
+   */
+  protected static List<String> getLines(String fileStore, DataFile dataFile,
+    FileTimeIndex index) throws IOException {
+    return new MappedFileLines(getFileObject(fileStore, dataFile),
+      CHARSET, index);
+  }
+
+  /**
+   * Get the parsed file cache for a stored file
+   *
+   * @param fileStore
+   *          The file store
+   * @param dataFile
+   *          The data file
+   * @param parseVersion
+   *          The current parse version of the file's definition
+   * @return The cache, or {@code null} if there is no up-to-date cache. The
+   *         cache must be closed after use.
+   * @see ParsedFileCache#read(File, long, long)
+   */
+  protected static ParsedFileCache getParseCache(String fileStore,
+    DataFile dataFile, long parseVersion) {
+    return ParsedFileCache.read(getParseCacheFileObject(fileStore, dataFile),
+      dataFile.getDatabaseId(), parseVersion);
+  }
+
+  /**
+   * Build and store the parsed file cache for a stored file, replacing any
+   * existing cache.
+   *
+   * @param fileStore
+   *          The file store
+   * @param dataFile
+   *          The data file
+   * @param parseVersion
+   *          The current parse version of the file's definition
+   * @return {@code true} if the cache was stored; {@code false} if the file
+   *         cannot be cached
+   * @throws DataFileException
+   *           If the file contents cannot be loaded
+   * @throws IOException
+   *           If the cache cannot be written
+   * @see ParsedFileCache#build(DataFile, long, File)
+   */
+  protected static boolean storeParseCache(String fileStore,
+    DataFile dataFile, long parseVersion)
+    throws DataFileException, IOException {
+
+    File cacheFile = getParseCacheFileObject(fileStore, dataFile);
+    File tempFile = new File(cacheFile.getParentFile(),
+      cacheFile.getName() + ".tmp");
+
+    boolean result = false;
+
+    try {
+      // Write to a temporary file so concurrent readers never see a partial
+      // cache
+      result = ParsedFileCache.build(dataFile, parseVersion, tempFile);
+      if (result) {
+        Files.move(tempFile.toPath(), cacheFile.toPath(),
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      }
+    } finally {
+      deleteFile(tempFile);
+    }
+
+    return result;
+  }
+
+  /**
+   * Get a stream of the raw bytes for a file. Compressed files are
+   * decompressed as the stream is read. The stream must be closed to release
+   * the file.
+   *
+   * @param fileStore
+   *          The file store
+   * @param dataFile
+   *          The file to be retrieved
+   * @return The stream
+   * @throws IOException
+   *           If the file cannot be opened
+   */
+  protected static InputStream getInputStream(String fileStore,
+    DataFile dataFile) throws IOException {
+
+    InputStream result;
+    File readFile = getFileObject(fileStore, dataFile);
+
+    if (BlockCompressedFile.isCompressed(readFile)) {
+      result = BlockCompressedFile.open(readFile).getInputStream();
+    } else {
+      result = new BufferedInputStream(new FileInputStream(readFile));
+    }
+
+    return result;
   }
 
   /**
-   * Get the raw bytes for a file
+   * Get the raw bytes for a file. Compressed files are decompressed.
    *
    * @param fileStore
    *          The file store
@@ -125,28 +529,60 @@ public class FileStore {
     byte[] fileData;
     File readFile = getFileObject(fileStore, dataFile);
 
-    FileInputStream inputStream = null;
-    try {
-      inputStream = new FileInputStream(readFile);
-      int fileLength = (int) readFile.length();
-      fileData = new byte[fileLength];
-      int bytesRead = inputStream.read(fileData);
-      if (bytesRead < fileLength) {
-        throw new IOException(
-          "Too few bytes read from file " + readFile.getAbsolutePath()
-            + ": got " + bytesRead + ", expected " + fileLength);
+    if (BlockCompressedFile.isCompressed(readFile)) {
+      try (BlockCompressedFile compressed = BlockCompressedFile
+        .open(readFile)) {
+        fileData = compressed.getBytes();
       }
-    } catch (IOException e) {
-      throw e;
-    } finally {
-      if (null != inputStream) {
-        inputStream.close();
+    } else {
+      FileInputStream inputStream = null;
+      try {
+        inputStream = new FileInputStream(readFile);
+        int fileLength = (int) readFile.length();
+        fileData = new byte[fileLength];
+        int bytesRead = inputStream.read(fileData);
+        if (bytesRead < fileLength) {
+          throw new IOException(
+            "Too few bytes read from file " + readFile.getAbsolutePath()
+              + ": got " + bytesRead + ", expected " + fileLength);
+        }
+      } catch (IOException e) {
+        throw e;
+      } finally {
+        if (null != inputStream) {
+          inputStream.close();
+        }
       }
     }
 
     return fileData;
   }
 
+  /**
+   * Get the directory used to hold uploaded files while they are being
+   * processed, creating it if necessary.
+   *
+   * @param fileStorePath
+   *          The root path of the file store
+   * @return The directory
+   * @throws FileStoreException
+   *           If the directory doesn't exist and can't be created
+   * @see SpooledFileLines
+   */
+  protected static File getSpoolDirectory(String fileStorePath)
+    throws FileStoreException {
+
+    File dir = new File(fileStorePath + File.separator + SPOOL_DIRECTORY);
+    if (!dir.exists() && !dir.mkdirs()) {
+      throw new FileStoreException("Unable to create spool directory");
+    } else if (!dir.isDirectory()) {
+      throw new FileStoreException(
+        "The path to the spool directory is not a directory!");
+    }
+
+    return dir;
+  }
+
   /**
    * Ensure that the directory for a given instrument's files exists
    *
@@ -205,20 +641,47 @@ public class FileStore {
   }
 
   /**
-   * Close a writer. Not strictly a database thing, but it's in the same spirit
-   * and used in the same places.
+   * Get the Java File object for a data file's time index
    *
-   * @param writer
-   *          The writer
+   * @param fileStorePath
+   *          The path to the data file within the file store
+   * @param dataFile
+   *          The data file
+   * @return The Java File object
    */
-  private static void closeWriter(Writer writer) {
-    if (null != writer) {
-      try {
-        writer.close();
-      } catch (IOException e) {
-        // Do nothing
-      }
-    }
+  private static File getIndexFileObject(String fileStorePath,
+    DataFile dataFile) {
+    return new File(getStorageDirectory(fileStorePath,
+      dataFile.getFileDefinition().getDatabaseId()) + File.separator
+      + dataFile.getDatabaseId() + INDEX_SUFFIX);
+  }
+
+  /**
+   * Get the Java File object for a data file's parsed file cache
+   *
+   * @param fileStorePath
+   *          The path to the data file within the file store
+   * @param dataFile
+   *          The data file
+   * @return The Java File object
+   */
+  private static File getParseCacheFileObject(String fileStorePath,
+    DataFile dataFile) {
+    return new File(getStorageDirectory(fileStorePath,
+      dataFile.getFileDefinition().getDatabaseId()) + File.separator
+      + dataFile.getDatabaseId() + PARSE_CACHE_SUFFIX);
+  }
+
+  /**
+   * Get the Java File object for the backup of a file in the file store
+   *
+   * @param file
+   *          The file
+   * @return The backup file object
+   * @see #backupFile(String, DataFile)
+   */
+  private static File getBackupFileObject(File file) {
+    return new File(file.getPath() + BACKUP_SUFFIX);
   }
 
   /**
@@ -0,0 +1,305 @@
+package uk.ac.exeter.QuinCe.data.Files;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Command line tool to convert the files in an existing file store to
+ * compressed form.
+ *
+ * <p>
+ * Each uncompressed file is compressed to a temporary file in the same
+ * directory, checked against the original, and then moved over the original.
+ * Files that are already compressed are skipped, so the tool can be safely
+ * re-run if it is interrupted.
+ * </p>
+ *
+ * <p>
+ * The file store reads both forms, so the application can remain running while
+ * the conversion takes place. If a file is replaced by the application while
+ * it is being compressed, its length or modification time will have changed
+ * by the time the compressed copy is ready. Such files are left as they are
+ * and can be converted by running the tool again. A file replaced in the
+ * instant between this check and the move would still be overwritten, so the
+ * application should be stopped if the file store is being changed heavily.
+ * </p>
+ *
+ * <p>
+ * Usage: {@code FileStoreCompressor <filestore path>}
+ * </p>
+ *
+ * @see BlockCompressedFile
+ * @see FileStore#COMPRESS_PROPERTY
+ */
+public class FileStoreCompressor {
+
+  /**
+   * Suffix for temporary files written during compression
+   */
+  private static final String TEMP_SUFFIX = ".compressing";
+
+  /**
+   * The number of files compressed
+   */
+  private int compressedCount = 0;
+
+  /**
+   * The number of files that were already compressed
+   */
+  private int skippedCount = 0;
+
+  /**
+   * The number of files that changed while they were being compressed
+   */
+  private int changedCount = 0;
+
+  /**
+   * The total size of the files before compression
+   */
+  private long bytesBefore = 0;
+
+  /**
+   * The total size of the files after compression
+   */
+  private long bytesAfter = 0;
+
+  /**
+   * Run the tool
+   *
+   * @param args
+   *          The file store path
+   * @throws IOException
+   *           If any file cannot be converted
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 1) {
+      System.err.println("Usage: FileStoreCompressor <filestore path>");
+      System.exit(1);
+    }
+
+    File fileStore = new File(args[0]);
+    if (!fileStore.isDirectory()) {
+      System.err.println(args[0] + " is not a directory");
+      System.exit(1);
+    }
+
+    FileStoreCompressor compressor = new FileStoreCompressor();
+    compressor.compressFileStore(fileStore);
+
+    System.out.println("Compressed " + compressor.compressedCount
+      + " files; " + compressor.skippedCount + " already compressed; "
+      + compressor.changedCount + " changed during compression");
+    System.out.println("Size before " + compressor.bytesBefore
+      + " bytes, after " + compressor.bytesAfter + " bytes");
+  }
+
+  /**
+   * Compress all the files in a file store. The file store contains one
+   * directory per file definition, each holding files named with their
+   * database ID.
+   *
+   * @param fileStore
+   *          The file store
+   * @throws IOException
+   *           If any file cannot be converted
+   */
+  public void compressFileStore(File fileStore) throws IOException {
+    File[] directories = fileStore.listFiles(File::isDirectory);
+    Arrays.sort(directories);
+
+    for (File directory : directories) {
+      if (isNumeric(directory.getName())) {
+        File[] files = directory.listFiles(File::isFile);
+        Arrays.sort(files);
+
+        for (File file : files) {
+          if (isNumeric(file.getName())) {
+            compressFile(file);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Compress a single file in place, unless it is already compressed. If the
+   * file changes while it is being compressed it is left unchanged.
+   *
+   * @param file
+   *          The file
+   * @throws IOException
+   *           If the file cannot be converted
+   */
+  public void compressFile(File file) throws IOException {
+    if (BlockCompressedFile.isCompressed(file)) {
+      skippedCount++;
+    } else {
+      File tempFile = new File(file.getParentFile(),
+        file.getName() + TEMP_SUFFIX);
+
+      long originalLength = file.length();
+      long originalModified = file.lastModified();
+
+      try {
+        writeCompressed(file, tempFile);
+
+        // Don't verify against or overwrite a file that was replaced while we
+        // were working. The check is repeated immediately before the move.
+        boolean changed = changed(file, originalLength, originalModified);
+        if (!changed) {
+          verify(file, tempFile);
+          changed = changed(file, originalLength, originalModified);
+        }
+
+        if (changed) {
+          changedCount++;
+        } else {
+          Files.move(tempFile.toPath(), file.toPath(),
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+
+          compressedCount++;
+          bytesBefore += originalLength;
+          bytesAfter += file.length();
+        }
+      } finally {
+        Files.deleteIfExists(tempFile.toPath());
+      }
+    }
+  }
+
+  /**
+   * Determine whether a file has changed since its length and modification
+   * time were recorded.
+   *
+   * @param file
+   *          The file
+   * @param length
+   *          The recorded length
+   * @param modified
+   *          The recorded modification time
+   * @return {@code true} if the file has changed; {@code false} if not
+   */
+  private boolean changed(File file, long length, long modified) {
+    return file.length() != length || file.lastModified() != modified;
+  }
+
+  /**
+   * Write the compressed form of a file
+   *
+   * @param file
+   *          The original file
+   * @param compressedFile
+   *          The file to write
+   * @throws IOException
+   *           If either file cannot be accessed
+   */
+  protected void writeCompressed(File file, File compressedFile)
+    throws IOException {
+
+    try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+      BlockCompressedFile.write(in, compressedFile,
+        BlockCompressedFile.DEFAULT_BLOCK_SIZE);
+    }
+  }
+
+  public int getCompressedCount() {
+    return compressedCount;
+  }
+
+  public int getChangedCount() {
+    return changedCount;
+  }
+
+  /**
+   * Check that a compressed file has the same contents as the original file
+   *
+   * @param original
+   *          The original file
+   * @param compressedFile
+   *          The compressed file
+   * @throws IOException
+   *           If the contents differ or either file cannot be read
+   */
+  private void verify(File original, File compressedFile) throws IOException {
+    // The mapping must be released before the file is moved
+    try (BlockCompressedFile compressed = BlockCompressedFile
+      .open(compressedFile)) {
+      verify(original, compressed);
+    }
+  }
+
+  /**
+   * Check that an open compressed file has the same contents as the original
+   * file
+   *
+   * @param original
+   *          The original file
+   * @param compressed
+   *          The compressed file
+   * @throws IOException
+   *           If the contents differ or either file cannot be read
+   */
+  private void verify(File original, BlockCompressedFile compressed)
+    throws IOException {
+
+    if (compressed.length() != original.length()) {
+      throw new IOException("Compressed length of " + original.getAbsolutePath()
+        + " does not match the original");
+    }
+
+    try (InputStream in = new BufferedInputStream(
+      new FileInputStream(original))) {
+
+      byte[] originalBlock = new byte[compressed.getBlockSize()];
+      byte[] compressedBlock = new byte[compressed.getBlockSize()];
+      int position = 0;
+
+      while (position < compressed.length()) {
+        int count = Math.min(originalBlock.length,
+          compressed.length() - position);
+
+        int read = 0;
+        while (read < count) {
+          int bytes = in.read(originalBlock, read, count - read);
+          if (bytes == -1) {
+            throw new IOException(
+              "Unexpected end of file " + original.getAbsolutePath());
+          }
+          read += bytes;
+        }
+
+        compressed.get(position, compressedBlock, 0, count);
+        for (int i = 0; i < count; i++) {
+          if (originalBlock[i] != compressedBlock[i]) {
+            throw new IOException("Compressed contents of "
+              + original.getAbsolutePath() + " do not match the original");
+          }
+        }
+
+        position += count;
+      }
+    }
+  }
+
+  /**
+   * Determine whether a file name is a database ID
+   *
+   * @param name
+   *          The file name
+   * @return {@code true} if the name is numeric; {@code false} if not
+   */
+  private static boolean isNumeric(String name) {
+    boolean result = name.length() > 0;
+    for (int i = 0; result && i < name.length(); i++) {
+      result = Character.isDigit(name.charAt(i));
+    }
+    return result;
+  }
+}
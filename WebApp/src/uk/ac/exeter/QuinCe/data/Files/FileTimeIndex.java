@@ -0,0 +1,405 @@
+package uk.ac.exeter.QuinCe.data.Files;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+import uk.ac.exeter.QuinCe.data.Instrument.FieldTokenizer;
+import uk.ac.exeter.QuinCe.data.Instrument.DataFormats.DateTimeSpecificationException;
+import uk.ac.exeter.QuinCe.utils.DateTimeUtils;
+
+/**
+ * A sparse index of the lines in a stored data file, written alongside the
+ * file in the file store.
+ *
+ * <p>
+ * Every {@link #getStride()}th line of the file is sampled, recording its byte
+ * offset and, for data lines, its timestamp. The index allows a stored file to
+ * be opened without scanning it for line breaks (see {@link MappedFileLines}),
+ * and allows readers that only need a time window from the file to skip
+ * directly to the relevant lines (see
+ * {@link DataFile#getLineCursor(LocalDateTime, LocalDateTime)}).
+ * </p>
+ *
+ * <p>
+ * Timestamps are only recorded if the sampled times increase through the
+ * file. Sampled lines whose timestamps cannot be parsed are recorded without a
+ * time, and are ignored when searching.
+ * </p>
+ *
+ * @see FileStore
+ */
+public class FileTimeIndex {
+
+  /**
+   * The magic number identifying an index file
+   */
+  private static final int MAGIC = 0x51544958;
+
+  /**
+   * The index file format version
+   */
+  private static final int VERSION = 1;
+
+  /**
+   * The default number of lines between index entries
+   */
+  public static final int DEFAULT_STRIDE = 256;
+
+  /**
+   * Value indicating that an entry has no timestamp
+   */
+  private static final long NO_TIME = Long.MIN_VALUE;
+
+  /**
+   * The uncompressed length of the indexed file
+   */
+  private final int fileLength;
+
+  /**
+   * The number of lines in the file
+   */
+  private final int lineCount;
+
+  /**
+   * The byte position of the end of the last line (exclusive)
+   */
+  private final int lastLineEnd;
+
+  /**
+   * The number of lines between index entries
+   */
+  private final int stride;
+
+  /**
+   * The first data line in the file
+   */
+  private final int firstDataLine;
+
+  /**
+   * The byte offset of each sampled line
+   */
+  private final int[] offsets;
+
+  /**
+   * The timestamp (in epoch milliseconds) of each sampled line
+   */
+  private final long[] times;
+
+  /**
+   * The indices of the entries that have timestamps, used for searching
+   */
+  private final int[] timedEntries;
+
+  /**
+   * Create an index from its component parts
+   *
+   * @param fileLength
+   *          The uncompressed length of the indexed file
+   * @param lineCount
+   *          The number of lines in the file
+   * @param lastLineEnd
+   *          The byte position of the end of the last line
+   * @param stride
+   *          The number of lines between index entries
+   * @param firstDataLine
+   *          The first data line in the file
+   * @param offsets
+   *          The byte offset of each sampled line
+   * @param times
+   *          The timestamp of each sampled line
+   */
+  private FileTimeIndex(int fileLength, int lineCount, int lastLineEnd,
+    int stride, int firstDataLine, int[] offsets, long[] times) {
+
+    this.fileLength = fileLength;
+    this.lineCount = lineCount;
+    this.lastLineEnd = lastLineEnd;
+    this.stride = stride;
+    this.firstDataLine = firstDataLine;
+    this.offsets = offsets;
+    this.times = times;
+
+    int[] timed = new int[times.length];
+    int timedCount = 0;
+    for (int i = 0; i < times.length; i++) {
+      if (times[i] != NO_TIME) {
+        timed[timedCount] = i;
+        timedCount++;
+      }
+    }
+
+    this.timedEntries = Arrays.copyOf(timed, timedCount);
+  }
+
+  /**
+   * Build the index for a stored file.
+   *
+   * @param dataFile
+   *          The data file, used to locate the data lines and parse their
+   *          timestamps
+   * @param storedLines
+   *          The lines of the stored file
+   * @param stride
+   *          The number of lines between index entries
+   * @return The index
+   * @throws DataFileException
+   *           If the data lines cannot be located
+   */
+  public static FileTimeIndex build(DataFile dataFile,
+    MappedFileLines storedLines, int stride) throws DataFileException {
+
+    int lineCount = storedLines.size();
+    int firstDataLine = dataFile.getFirstDataLine();
+    int entryCount = (lineCount + stride - 1) / stride;
+
+    int[] offsets = new int[entryCount];
+    long[] times = new long[entryCount];
+    boolean monotonic = true;
+    long lastTime = NO_TIME;
+
+    FieldTokenizer tokenizer = dataFile.getFileDefinition()
+      .makeFieldTokenizer();
+
+    for (int i = 0; i < entryCount; i++) {
+      int line = i * stride;
+      offsets[i] = storedLines.getLineStart(line);
+      times[i] = NO_TIME;
+
+      if (line >= firstDataLine) {
+        try {
+          tokenizer.tokenize(storedLines.get(line));
+          LocalDateTime time = dataFile.getDate(tokenizer.getFields());
+          if (null != time) {
+            times[i] = DateTimeUtils.dateToLong(time);
+          }
+        } catch (DataFileException | DateTimeSpecificationException
+          | RuntimeException e) {
+          // Leave the entry without a time
+        }
+
+        if (times[i] != NO_TIME) {
+          if (lastTime != NO_TIME && times[i] < lastTime) {
+            monotonic = false;
+          }
+          lastTime = times[i];
+        }
+      }
+    }
+
+    // Times are no use for searching if they're out of order
+    if (!monotonic) {
+      Arrays.fill(times, NO_TIME);
+    }
+
+    return new FileTimeIndex(storedLines.getFileLength(), lineCount,
+      storedLines.getLastLineEnd(), stride, firstDataLine, offsets, times);
+  }
+
+  /**
+   * Read an index file
+   *
+   * @param file
+   *          The index file
+   * @return The index, or {@code null} if the file does not exist or is not a
+   *         valid index
+   */
+  public static FileTimeIndex read(File file) {
+    FileTimeIndex result = null;
+
+    if (file.exists()) {
+      try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(file)))) {
+
+        if (in.readInt() == MAGIC && in.readInt() == VERSION) {
+          int fileLength = in.readInt();
+          int lineCount = in.readInt();
+          int lastLineEnd = in.readInt();
+          int stride = in.readInt();
+          int firstDataLine = in.readInt();
+          int entryCount = in.readInt();
+
+          if (stride > 0 && entryCount == (lineCount + stride - 1) / stride) {
+            int[] offsets = new int[entryCount];
+            long[] times = new long[entryCount];
+            for (int i = 0; i < entryCount; i++) {
+              offsets[i] = in.readInt();
+              times[i] = in.readLong();
+            }
+
+            result = new FileTimeIndex(fileLength, lineCount, lastLineEnd,
+              stride, firstDataLine, offsets, times);
+          }
+        }
+      } catch (IOException e) {
+        // An unreadable index is ignored; the file will be scanned instead
+        result = null;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Write the index to a file
+   *
+   * @param file
+   *          The index file
+   * @throws IOException
+   *           If the file cannot be written
+   */
+  public void write(File file) throws IOException {
+    try (DataOutputStream out = new DataOutputStream(
+      new BufferedOutputStream(new FileOutputStream(file)))) {
+
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(fileLength);
+      out.writeInt(lineCount);
+      out.writeInt(lastLineEnd);
+      out.writeInt(stride);
+      out.writeInt(firstDataLine);
+      out.writeInt(offsets.length);
+      for (int i = 0; i < offsets.length; i++) {
+        out.writeInt(offsets[i]);
+        out.writeLong(times[i]);
+      }
+    }
+  }
+
+  /**
+   * Get the uncompressed length of the indexed file
+   *
+   * @return The file length
+   */
+  public int getFileLength() {
+    return fileLength;
+  }
+
+  /**
+   * Get the number of lines in the file
+   *
+   * @return The line count
+   */
+  public int getLineCount() {
+    return lineCount;
+  }
+
+  /**
+   * Get the byte position of the end of the last line (exclusive)
+   *
+   * @return The end position
+   */
+  public int getLastLineEnd() {
+    return lastLineEnd;
+  }
+
+  /**
+   * Get the number of lines between index entries
+   *
+   * @return The stride
+   */
+  public int getStride() {
+    return stride;
+  }
+
+  /**
+   * Get the byte offsets of the sampled lines. Entry {@code i} is the offset
+   * of line {@code i * stride}.
+   *
+   * @return The offsets
+   */
+  protected int[] getOffsets() {
+    return offsets;
+  }
+
+  /**
+   * Determine whether the index contains any timestamps
+   *
+   * @return {@code true} if the index has timestamps; {@code false} if not
+   */
+  public boolean hasTimes() {
+    return timedEntries.length > 0;
+  }
+
+  /**
+   * Get the line from which a file must be read to find all lines at or after
+   * the specified time. This is the last sampled line before the time, or the
+   * first data line if there is no such line.
+   *
+   * @param start
+   *          The start time
+   * @return The line number
+   */
+  public int getStartLine(LocalDateTime start) {
+    int result = firstDataLine;
+
+    if (null != start) {
+      long target = DateTimeUtils.dateToLong(start);
+
+      // Find the last timed entry before the target
+      int low = 0;
+      int high = timedEntries.length - 1;
+      int found = -1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        if (times[timedEntries[mid]] < target) {
+          found = mid;
+          low = mid + 1;
+        } else {
+          high = mid - 1;
+        }
+      }
+
+      if (found > -1) {
+        result = Math.max(firstDataLine, timedEntries[found] * stride);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the line at which reading can stop when looking for lines at or
+   * before the specified time. This is the first sampled line after the time,
+   * or the number of lines in the file if there is no such line.
+   *
+   * @param end
+   *          The end time
+   * @return The line number (exclusive)
+   */
+  public int getEndLine(LocalDateTime end) {
+    int result = lineCount;
+
+    if (null != end) {
+      long target = DateTimeUtils.dateToLong(end);
+
+      // Find the first timed entry after the target
+      int low = 0;
+      int high = timedEntries.length - 1;
+      int found = -1;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        if (times[timedEntries[mid]] > target) {
+          found = mid;
+          high = mid - 1;
+        } else {
+          low = mid + 1;
+        }
+      }
+
+      if (found > -1) {
+        result = timedEntries[found] * stride;
+      }
+    }
+
+    return result;
+  }
+}
@@ -0,0 +1,487 @@
+package uk.ac.exeter.QuinCe.data.Files;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * A read-only view of the lines in a file in the file store.
+ *
+ * <p>
+ * The file is memory mapped, and only the start position of each line is held
+ * on the heap. Lines are decoded into {@link String}s when they are requested,
+ * so the complete file contents are never loaded into memory at once. Files
+ * stored in compressed form are read through a {@link BlockCompressedFile},
+ * so only the blocks containing the requested lines are decompressed.
+ * </p>
+ *
+ * <p>
+ * If a {@link FileTimeIndex} is available for the file, the line positions
+ * are taken from the index instead of scanning the whole file. Only every
+ * {@link FileTimeIndex#getStride()}th line position is known, and other lines
+ * are located by scanning forward from the nearest known position. The
+ * position of the most recently requested line is remembered, so reading the
+ * lines in order remains efficient.
+ * </p>
+ *
+ * <p>
+ * Lines are separated by {@code \n}, and any trailing {@code \r} is removed.
+ * Blank lines at the end of the file are not included in the list. This
+ * differs from splitting the file contents on {@code \n}, which kept the
+ * {@code \r} of Windows line endings: a line consisting of only {@code \r} is
+ * returned as an empty line, and the last field of each line no longer ends
+ * with {@code \r}.
+ * </p>
+ *
+ * <p>
+ * The file mapping is held until {@link #close()} is called or the object is
+ * garbage collected. On Windows a mapped file cannot be replaced or deleted, so
+ * the view should be closed once it is no longer needed.
+ * </p>
+ *
+ * @see FileStore#loadFileContents(String, DataFile)
+ */
+public class MappedFileLines extends AbstractList<String>
+  implements RandomAccess, Closeable {
+
+  /**
+   * The initial size of the line index
+   */
+  private static final int INITIAL_INDEX_SIZE = 4096;
+
+  /**
+   * The number of bytes examined at a time while building the line index
+   */
+  private static final int SCAN_CHUNK_SIZE = 64 * 1024;
+
+  /**
+   * The number of bytes read at a time while searching for the end of a line
+   */
+  private static final int LINE_SCAN_CHUNK_SIZE = 256;
+
+  /**
+   * The mapped file
+   */
+  private final ByteBuffer buffer;
+
+  /**
+   * The file contents
+   */
+  private final StoredBytes bytes;
+
+  /**
+   * Indicates whether the mapping has been released
+   */
+  private volatile boolean closed = false;
+
+  /**
+   * The character set used to decode the file
+   */
+  private final Charset charset;
+
+  /**
+   * The byte position of the start of every {@link #stride}th line
+   */
+  private int[] lineStarts;
+
+  /**
+   * The number of lines between the entries in {@link #lineStarts}
+   */
+  private int stride = 1;
+
+  /**
+   * The most recently located line, if {@link #stride} is greater than 1
+   */
+  private volatile LinePosition lastPosition = null;
+
+  /**
+   * The byte position of the end of the last line (exclusive)
+   */
+  private int lastLineEnd;
+
+  /**
+   * The number of lines in the file
+   */
+  private int lineCount;
+
+  /**
+   * Map a file and build its line index.
+   *
+   * @param file
+   *          The file
+   * @param charset
+   *          The character set used to decode the file
+   * @throws IOException
+   *           If the file cannot be mapped
+   */
+  public MappedFileLines(File file, Charset charset) throws IOException {
+    this(charset, BlockCompressedFile.map(file), null, 1);
+  }
+
+  /**
+   * Map a file, taking its line positions from an index. If the index does
+   * not match the file, the file is scanned as normal.
+   *
+   * @param file
+   *          The file
+   * @param charset
+   *          The character set used to decode the file
+   * @param index
+   *          The file's index
+   * @throws IOException
+   *           If the file cannot be mapped
+   */
+  public MappedFileLines(File file, Charset charset, FileTimeIndex index)
+    throws IOException {
+    this(charset, BlockCompressedFile.map(file), index, 1);
+  }
+
+  /**
+   * Map a file and build a sparse line index holding the position of every
+   * {@code stride}th line. This uses much less memory than a full index for
+   * large files, at the cost of scanning forward from the nearest indexed line
+   * when a line is requested.
+   *
+   * @param file
+   *          The file
+   * @param charset
+   *          The character set used to decode the file
+   * @param stride
+   *          The number of lines between index entries
+   * @throws IOException
+   *           If the file cannot be mapped
+   */
+  public MappedFileLines(File file, Charset charset, int stride)
+    throws IOException {
+    this(charset, BlockCompressedFile.map(file), null, Math.max(1, stride));
+  }
+
+  /**
+   * Set up the line view for mapped file contents
+   *
+   * @param charset
+   *          The character set used to decode the file
+   * @param buffer
+   *          The mapped file
+   * @param index
+   *          The file's index, or {@code null} if it has no index
+   * @param scanStride
+   *          The stride of the line index built if the file must be scanned
+   * @throws IOException
+   *           If the mapped data is not valid
+   */
+  private MappedFileLines(Charset charset, ByteBuffer buffer,
+    FileTimeIndex index, int scanStride) throws IOException {
+    this.charset = charset;
+    this.buffer = buffer;
+
+    if (BlockCompressedFile.isCompressed(buffer)) {
+      bytes = new BlockCompressedFile(buffer);
+    } else {
+      bytes = new MappedBytes(buffer);
+    }
+
+    if (null != index && index.getFileLength() == bytes.length()) {
+      lineStarts = index.getOffsets();
+      stride = index.getStride();
+      lineCount = index.getLineCount();
+      lastLineEnd = index.getLastLineEnd();
+    } else {
+      stride = scanStride;
+      indexLines();
+    }
+  }
+
+  /**
+   * Locate the start of every {@link #stride}th line in the file. Trailing
+   * blank lines are discarded.
+   */
+  private void indexLines() {
+    lineStarts = new int[INITIAL_INDEX_SIZE];
+    int linesFound = 0;
+    int contentLines = 0;
+    int limit = bytes.length();
+    boolean lineStarted = false;
+    boolean blank = true;
+
+    byte[] chunk = new byte[Math.min(SCAN_CHUNK_SIZE, Math.max(limit, 1))];
+    int chunkStart = 0;
+
+    while (chunkStart < limit) {
+      int chunkLength = Math.min(chunk.length, limit - chunkStart);
+      bytes.get(chunkStart, chunk, 0, chunkLength);
+
+      for (int i = 0; i < chunkLength; i++) {
+        int pos = chunkStart + i;
+
+        if (!lineStarted) {
+          if (linesFound % stride == 0) {
+            int entry = linesFound / stride;
+            if (entry == lineStarts.length) {
+              lineStarts = Arrays.copyOf(lineStarts, lineStarts.length * 2);
+            }
+
+            lineStarts[entry] = pos;
+          }
+
+          linesFound++;
+          lineStarted = true;
+          blank = true;
+        }
+
+        if (chunk[i] == '\n') {
+          if (!blank) {
+            contentLines = linesFound;
+            lastLineEnd = pos;
+          }
+          lineStarted = false;
+        } else if ((chunk[i] & 0xff) > ' ') {
+          blank = false;
+        }
+      }
+
+      chunkStart += chunkLength;
+    }
+
+    // Last line with no terminator
+    if (lineStarted && !blank) {
+      contentLines = linesFound;
+      lastLineEnd = limit;
+    }
+
+    lineCount = contentLines;
+  }
+
+  @Override
+  public String get(int index) {
+    checkLine(index);
+
+    int start;
+    int end;
+
+    if (stride == 1) {
+      start = lineStarts[index];
+      end = index < lineCount - 1 ? lineStarts[index + 1] - 1 : lastLineEnd;
+    } else {
+      LinePosition position = locateLine(index);
+      start = position.start;
+      end = position.end;
+    }
+
+    byte[] lineBytes = new byte[end - start];
+    bytes.get(start, lineBytes, 0, lineBytes.length);
+
+    int length = lineBytes.length;
+    if (length > 0 && lineBytes[length - 1] == '\r') {
+      length--;
+    }
+
+    return new String(lineBytes, 0, length, charset);
+  }
+
+  /**
+   * Get the byte position of the start of a line
+   *
+   * @param index
+   *          The line number
+   * @return The start position
+   */
+  public int getLineStart(int index) {
+    checkLine(index);
+    return stride == 1 ? lineStarts[index] : locateLine(index).start;
+  }
+
+  /**
+   * Get the byte position of the end of the last line (exclusive)
+   *
+   * @return The end position
+   */
+  public int getLastLineEnd() {
+    return lastLineEnd;
+  }
+
+  /**
+   * Get the (uncompressed) length of the file
+   *
+   * @return The file length
+   */
+  public int getFileLength() {
+    return bytes.length();
+  }
+
+  /**
+   * Ensure that a line number is valid
+   *
+   * @param index
+   *          The line number
+   * @throws IndexOutOfBoundsException
+   *           If the line does not exist
+   */
+  private void checkLine(int index) {
+    if (closed) {
+      throw new IllegalStateException("File lines have been closed");
+    }
+
+    if (index < 0 || index >= lineCount) {
+      throw new IndexOutOfBoundsException(
+        "Line " + index + " requested from file with " + lineCount + " lines");
+    }
+  }
+
+  /**
+   * Find the start and end of a line using the sparse line index, starting
+   * from the most recently located line if it is closer than the nearest
+   * index entry.
+   *
+   * @param index
+   *          The line number
+   * @return The line position
+   */
+  private LinePosition locateLine(int index) {
+    int line = (index / stride) * stride;
+    int start = lineStarts[index / stride];
+
+    LinePosition last = lastPosition;
+    if (null != last && last.line <= index && last.line >= line) {
+      line = last.line;
+      start = last.start;
+      if (line < index) {
+        line++;
+        start = last.end + 1;
+      }
+    }
+
+    while (line < index) {
+      start = findLineEnd(start) + 1;
+      line++;
+    }
+
+    int end = index == lineCount - 1 ? lastLineEnd : findLineEnd(start);
+
+    LinePosition result = new LinePosition(index, start, end);
+    lastPosition = result;
+    return result;
+  }
+
+  /**
+   * Find the end of the line starting at the specified position
+   *
+   * @param start
+   *          The start of the line
+   * @return The position of the line terminator, or the end of the file
+   */
+  private int findLineEnd(int start) {
+    int result = -1;
+    int limit = bytes.length();
+    byte[] chunk = new byte[LINE_SCAN_CHUNK_SIZE];
+    int chunkStart = start;
+
+    while (result == -1 && chunkStart < limit) {
+      int chunkLength = Math.min(chunk.length, limit - chunkStart);
+      bytes.get(chunkStart, chunk, 0, chunkLength);
+
+      for (int i = 0; result == -1 && i < chunkLength; i++) {
+        if (chunk[i] == '\n') {
+          result = chunkStart + i;
+        }
+      }
+
+      chunkStart += chunkLength;
+    }
+
+    return result == -1 ? limit : result;
+  }
+
+  @Override
+  public int size() {
+    return lineCount;
+  }
+
+  /**
+   * Release the file mapping. No lines can be read afterwards. This must not
+   * be called while other threads are reading lines.
+   */
+  @Override
+  public synchronized void close() {
+    if (!closed) {
+      closed = true;
+      BlockCompressedFile.unmap(buffer);
+    }
+  }
+
+  /**
+   * The location of a line in the file
+   */
+  private static class LinePosition {
+
+    /**
+     * The line number
+     */
+    private final int line;
+
+    /**
+     * The position of the start of the line
+     */
+    private final int start;
+
+    /**
+     * The position of the end of the line (exclusive)
+     */
+    private final int end;
+
+    /**
+     * Simple constructor
+     *
+     * @param line
+     *          The line number
+     * @param start
+     *          The position of the start of the line
+     * @param end
+     *          The position of the end of the line
+     */
+    private LinePosition(int line, int start, int end) {
+      this.line = line;
+      this.start = start;
+      this.end = end;
+    }
+  }
+
+  /**
+   * Access to the bytes of an uncompressed mapped file
+   */
+  private static class MappedBytes implements StoredBytes {
+
+    /**
+     * The mapped file
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Simple constructor
+     *
+     * @param buffer
+     *          The mapped file
+     */
+    private MappedBytes(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int length() {
+      return buffer.limit();
+    }
+
+    @Override
+    public void get(int position, byte[] dest, int offset, int count) {
+      // Work on a duplicate so concurrent readers don't disturb each other
+      ByteBuffer source = buffer.duplicate();
+      source.position(position);
+      source.get(dest, offset, count);
+    }
+  }
+}
@@ -0,0 +1,829 @@
+package uk.ac.exeter.QuinCe.data.Files;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+import uk.ac.exeter.QuinCe.data.Instrument.FileDefinition;
+import uk.ac.exeter.QuinCe.data.Instrument.DataFormats.DateTimeSpecificationException;
+import uk.ac.exeter.QuinCe.utils.DateTimeUtils;
+
+/**
+ * The parsed contents of a stored data file, held in a compact binary form.
+ *
+ * <p>
+ * Extracting a data set from a file means tokenising every line and parsing
+ * its timestamp, which is repeated every time the data set is re-extracted.
+ * This cache holds the results of that parsing for each data line of the
+ * file: the timestamp (in epoch milliseconds), the value of every field, the
+ * position values, and the resolved run type. It is written alongside the
+ * file in the file store, so later extractions can read the values without
+ * parsing the text again.
+ * </p>
+ *
+ * <p>
+ * The cache file holds one record per data line, followed by a row index
+ * giving the position, line number and timestamp of each record. Each value
+ * in a record is a kind code followed by the value. Numeric values are stored
+ * as a {@code double} with the number of decimal places as the kind, which
+ * allows the original text to be reproduced exactly. Other values are stored
+ * as UTF-8 text. Values are converted back to {@link String}s as they are
+ * requested, so extraction produces exactly the same values as it does from
+ * the text file.
+ * </p>
+ *
+ * <p>
+ * The cache is written as the file is parsed, so building it never holds more
+ * than one line of the file in memory. It is read through a memory mapping of
+ * the cache file, which is released when the cache is {@link #close() closed}.
+ * </p>
+ *
+ * <p>
+ * The cache is tied to the file's database ID and the
+ * {@link FileDefinition#getParseVersion() parse version} of its file
+ * definition. A cache with a different version is ignored, and is rebuilt the
+ * next time it is needed.
+ * </p>
+ *
+ * <p>
+ * Instances are not thread safe.
+ * </p>
+ *
+ * @see DataFile#getParseCache(LocalDateTime, LocalDateTime)
+ * @see FileStore
+ */
+public class ParsedFileCache implements Closeable {
+
+  /**
+   * The magic number identifying a cache file
+   */
+  private static final int MAGIC = 0x51435043;
+
+  /**
+   * The cache file format version
+   */
+  private static final int VERSION = 2;
+
+  /**
+   * Timestamp value indicating that a line's time could not be parsed
+   */
+  public static final long NO_TIME = Long.MIN_VALUE;
+
+  /**
+   * Kind code for an empty (null) value
+   */
+  private static final byte KIND_NULL = -1;
+
+  /**
+   * Kind code for a text value
+   */
+  private static final byte KIND_TEXT = -2;
+
+  /**
+   * The column index of the longitude values
+   */
+  private static final int LONGITUDE = 0;
+
+  /**
+   * The column index of the latitude values
+   */
+  private static final int LATITUDE = 1;
+
+  /**
+   * The column index of the run type values
+   */
+  private static final int RUN_TYPE = 2;
+
+  /**
+   * The number of special columns stored before the file's fields
+   */
+  private static final int SPECIAL_COLUMNS = 3;
+
+  /**
+   * The length of the fixed part of the cache file header
+   */
+  private static final int HEADER_LENGTH = 36;
+
+  /**
+   * The length of each entry in the row index
+   */
+  private static final int ROW_INDEX_ENTRY_LENGTH = 16;
+
+  /**
+   * The largest number of decimal places stored as a number
+   */
+  private static final int MAX_SCALE = 100;
+
+  /**
+   * The database ID of the cached file
+   */
+  private final long fileId;
+
+  /**
+   * The parse version of the file definition used to build the cache
+   */
+  private final long parseVersion;
+
+  /**
+   * The number of data lines in the file
+   */
+  private final int rowCount;
+
+  /**
+   * Indicates which columns are present in the cache. The special columns
+   * come first, followed by the file's fields.
+   */
+  private final boolean[] columnPresent;
+
+  /**
+   * The position of the row index in the {@link #buffer}
+   */
+  private final int rowIndexPosition;
+
+  /**
+   * The cache file contents
+   */
+  private final ByteBuffer buffer;
+
+  /**
+   * The position of each value of the {@link #currentRow} in the
+   * {@link #buffer}
+   */
+  private final int[] valuePositions;
+
+  /**
+   * The row whose value positions are held in {@link #valuePositions}
+   */
+  private int currentRow = -1;
+
+  /**
+   * Indicates whether the cache has been closed
+   */
+  private boolean closed = false;
+
+  /**
+   * Create a cache from the contents of a cache file
+   *
+   * @param buffer
+   *          The cache file contents
+   * @throws IOException
+   *           If the contents are not a valid cache file
+   */
+  private ParsedFileCache(ByteBuffer buffer) throws IOException {
+
+    if (buffer.limit() < HEADER_LENGTH || buffer.getInt(0) != MAGIC
+      || buffer.getInt(4) != VERSION) {
+      throw new IOException("Not a parsed file cache");
+    }
+
+    this.buffer = buffer;
+    fileId = buffer.getLong(8);
+    parseVersion = buffer.getLong(16);
+    rowCount = buffer.getInt(24);
+    int columnCount = buffer.getInt(28);
+    rowIndexPosition = buffer.getInt(32);
+
+    if (rowCount < 0 || columnCount < SPECIAL_COLUMNS
+      || rowIndexPosition < HEADER_LENGTH + columnCount
+      || rowIndexPosition + (long) rowCount
+        * ROW_INDEX_ENTRY_LENGTH != buffer.limit()) {
+      throw new IOException("Corrupt parsed file cache header");
+    }
+
+    columnPresent = new boolean[columnCount];
+    for (int i = 0; i < columnCount; i++) {
+      columnPresent[i] = buffer.get(HEADER_LENGTH + i) != 0;
+    }
+
+    valuePositions = new int[columnCount];
+  }
+
+  /**
+   * Build the cache for a data file by parsing its contents, writing it to
+   * the specified file as each line is parsed.
+   *
+   * <p>
+   * Lines whose timestamps cannot be parsed are recorded with a time of
+   * {@link #NO_TIME}. If any other value cannot be parsed, the cache is not
+   * built so that extraction from the text file will report the error.
+   * </p>
+   *
+   * @param file
+   *          The data file
+   * @param parseVersion
+   *          The parse version of the file's definition
+   * @param cacheFile
+   *          The destination file
+   * @return {@code true} if the cache was written; {@code false} if the file
+   *         cannot be cached
+   * @throws DataFileException
+   *           If the file contents cannot be loaded
+   * @throws IOException
+   *           If the cache file cannot be written
+   */
+  public static boolean build(DataFile file, long parseVersion,
+    File cacheFile) throws DataFileException, IOException {
+
+    FileDefinition fileDefinition = file.getFileDefinition();
+
+    boolean[] columnPresent = new boolean[SPECIAL_COLUMNS
+      + fileDefinition.getColumnCount()];
+    columnPresent[LONGITUDE] = null != fileDefinition
+      .getLongitudeSpecification();
+    columnPresent[LATITUDE] = null != fileDefinition.getLatitudeSpecification();
+    columnPresent[RUN_TYPE] = fileDefinition.hasRunTypes();
+    Arrays.fill(columnPresent, SPECIAL_COLUMNS, columnPresent.length, true);
+
+    // The row index is written to a separate file as the records are written,
+    // and appended to the cache once all the lines have been read
+    File rowIndexFile = new File(cacheFile.getParentFile(),
+      cacheFile.getName() + ".rows");
+
+    boolean cacheable = true;
+    boolean written = false;
+    int rowCount = 0;
+    long position = HEADER_LENGTH + columnPresent.length;
+
+    try {
+      try (
+        DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(cacheFile)));
+        DataOutputStream rowIndex = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(rowIndexFile)))) {
+
+        // The header is written once the row count is known
+        out.write(new byte[HEADER_LENGTH]);
+        for (boolean present : columnPresent) {
+          out.writeBoolean(present);
+        }
+
+        DataFileLineCursor cursor = file.getLineCursor();
+        String[] values = new String[columnPresent.length];
+
+        while (cacheable && cursor.next()) {
+          List<String> line = cursor.getFields();
+          long time = NO_TIME;
+          Arrays.fill(values, null);
+
+          try {
+            LocalDateTime lineTime = null;
+            boolean badTime = false;
+            try {
+              lineTime = file.getDate(line);
+            } catch (DateTimeSpecificationException e) {
+              badTime = true;
+            }
+
+            if (!badTime && (null == lineTime
+              || lineTime.getNano() % 1000000 != 0)) {
+              // A line with no time would stop extraction from the text
+              // file, and times are stored to the millisecond
+              cacheable = false;
+            } else if (!badTime) {
+              time = DateTimeUtils.dateToLong(lineTime);
+
+              if (columnPresent[LONGITUDE]) {
+                values[LONGITUDE] = file.getLongitude(line);
+              }
+
+              if (columnPresent[LATITUDE]) {
+                values[LATITUDE] = file.getLatitude(line);
+              }
+
+              if (columnPresent[RUN_TYPE]) {
+                values[RUN_TYPE] = fileDefinition.getRunType(line, true)
+                  .getRunName();
+              }
+
+              for (int i = SPECIAL_COLUMNS; i < values.length; i++) {
+                int field = i - SPECIAL_COLUMNS;
+                values[i] = field < line.size() ? line.get(field) : null;
+              }
+            }
+          } catch (Exception e) {
+            cacheable = false;
+          }
+
+          if (cacheable) {
+            rowIndex.writeInt((int) position);
+            rowIndex.writeInt(cursor.getLineNumber());
+            rowIndex.writeLong(time);
+
+            for (int i = 0; i < values.length; i++) {
+              if (columnPresent[i]) {
+                position += writeValue(out, values[i]);
+              }
+            }
+
+            rowCount++;
+
+            // Positions in the cache are stored as ints
+            cacheable = position
+              + (long) rowCount * ROW_INDEX_ENTRY_LENGTH <= Integer.MAX_VALUE;
+          }
+        }
+      }
+
+      if (cacheable) {
+        try (OutputStream out = new FileOutputStream(cacheFile, true)) {
+          Files.copy(rowIndexFile.toPath(), out);
+        }
+
+        try (RandomAccessFile header = new RandomAccessFile(cacheFile,
+          "rw")) {
+          header.writeInt(MAGIC);
+          header.writeInt(VERSION);
+          header.writeLong(file.getDatabaseId());
+          header.writeLong(parseVersion);
+          header.writeInt(rowCount);
+          header.writeInt(columnPresent.length);
+          header.writeInt((int) position);
+        }
+
+        written = true;
+      }
+    } finally {
+      rowIndexFile.delete();
+      if (!written) {
+        cacheFile.delete();
+      }
+    }
+
+    return written;
+  }
+
+  /**
+   * Write a value to a cache file record. Plain decimal numbers are stored as
+   * numbers if they can be reproduced exactly; everything else is stored as
+   * text.
+   *
+   * @param out
+   *          The cache file
+   * @param value
+   *          The value
+   * @return The number of bytes written
+   * @throws IOException
+   *           If the value cannot be written
+   */
+  private static int writeValue(DataOutputStream out, String value)
+    throws IOException {
+
+    int result;
+
+    int scale = null == value ? -1 : getScale(value);
+
+    if (null == value) {
+      out.writeByte(KIND_NULL);
+      result = 1;
+    } else if (isExactNumber(value, scale)) {
+      out.writeByte(scale);
+      out.writeDouble(Double.parseDouble(value));
+      result = 9;
+    } else {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      out.writeByte(KIND_TEXT);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+      result = 5 + bytes.length;
+    }
+
+    return result;
+  }
+
+  /**
+   * Read a cache file. The cache is only returned if it belongs to the
+   * specified file and file definition version. The returned cache must be
+   * closed to release the cache file.
+   *
+   * @param cacheFile
+   *          The cache file
+   * @param fileId
+   *          The database ID of the data file
+   * @param parseVersion
+   *          The current parse version of the data file's definition
+   * @return The cache, or {@code null} if the file does not exist, is not a
+   *         valid cache, or is out of date
+   */
+  public static ParsedFileCache read(File cacheFile, long fileId,
+    long parseVersion) {
+
+    ParsedFileCache result = null;
+
+    if (cacheFile.exists()) {
+      ByteBuffer buffer = null;
+
+      try {
+        buffer = BlockCompressedFile.map(cacheFile);
+        ParsedFileCache cache = new ParsedFileCache(buffer);
+        if (cache.fileId == fileId && cache.parseVersion == parseVersion) {
+          result = cache;
+        } else {
+          cache.close();
+        }
+      } catch (IOException | RuntimeException e) {
+        // An unreadable cache is ignored and will be rebuilt
+        if (null != buffer) {
+          BlockCompressedFile.unmap(buffer);
+        }
+        result = null;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the database ID of the cached file
+   *
+   * @return The file ID
+   */
+  public long getFileId() {
+    return fileId;
+  }
+
+  /**
+   * Get the parse version of the file definition used to build the cache
+   *
+   * @return The parse version
+   */
+  public long getParseVersion() {
+    return parseVersion;
+  }
+
+  /**
+   * Get the number of data lines in the file
+   *
+   * @return The number of rows
+   */
+  public int getRowCount() {
+    return rowCount;
+  }
+
+  /**
+   * Get the line number in the file of a data line
+   *
+   * @param row
+   *          The row
+   * @return The line number
+   */
+  public int getLineNumber(int row) {
+    return buffer.getInt(getRowIndexEntry(row) + 4);
+  }
+
+  /**
+   * Get the first row whose line number is at or after the specified line.
+   * Rows are stored in line order, so this can be used with the line range
+   * from a {@link FileTimeIndex} to find the rows within a time period.
+   *
+   * @param line
+   *          The line number
+   * @return The row, or the {@link #getRowCount() row count} if all rows are
+   *         before the line
+   */
+  public int getRow(int line) {
+    checkOpen();
+
+    int low = 0;
+    int high = rowCount;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (getLineNumber(mid) < line) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+
+    return low;
+  }
+
+  /**
+   * Get the timestamp of a data line in epoch milliseconds
+   *
+   * @param row
+   *          The row
+   * @return The time, or {@link #NO_TIME} if the line's time could not be
+   *         parsed
+   */
+  public long getTime(int row) {
+    return buffer.getLong(getRowIndexEntry(row) + 8);
+  }
+
+  /**
+   * Get the longitude of a data line, as returned by
+   * {@link DataFile#getLongitude(List)}
+   *
+   * @param row
+   *          The row
+   * @return The longitude
+   */
+  public String getLongitude(int row) {
+    return getValue(LONGITUDE, row);
+  }
+
+  /**
+   * Get the latitude of a data line, as returned by
+   * {@link DataFile#getLatitude(List)}
+   *
+   * @param row
+   *          The row
+   * @return The latitude
+   */
+  public String getLatitude(int row) {
+    return getValue(LATITUDE, row);
+  }
+
+  /**
+   * Get the run type of a data line, with aliases followed
+   *
+   * @param row
+   *          The row
+   * @return The run type
+   */
+  public String getRunType(int row) {
+    return getValue(RUN_TYPE, row);
+  }
+
+  /**
+   * Get the number of fields stored for each line. This is the column count
+   * of the file definition.
+   *
+   * @return The number of fields
+   */
+  public int getFieldCount() {
+    return columnPresent.length - SPECIAL_COLUMNS;
+  }
+
+  /**
+   * Determine whether the cache holds longitudes
+   *
+   * @return {@code true} if longitudes are cached; {@code false} if not
+   */
+  public boolean hasLongitude() {
+    return columnPresent[LONGITUDE];
+  }
+
+  /**
+   * Determine whether the cache holds latitudes
+   *
+   * @return {@code true} if latitudes are cached; {@code false} if not
+   */
+  public boolean hasLatitude() {
+    return columnPresent[LATITUDE];
+  }
+
+  /**
+   * Determine whether the cache holds run types
+   *
+   * @return {@code true} if run types are cached; {@code false} if not
+   */
+  public boolean hasRunTypes() {
+    return columnPresent[RUN_TYPE];
+  }
+
+  /**
+   * Get the raw text of a field from a data line
+   *
+   * @param field
+   *          The field index
+   * @param row
+   *          The row
+   * @return The field text, or {@code null} if the line has too few fields
+   */
+  public String getField(int field, int row) {
+    return getValue(SPECIAL_COLUMNS + field, row);
+  }
+
+  /**
+   * Release the cache file. The cache cannot be used after it is closed.
+   */
+  @Override
+  public void close() {
+    if (!closed) {
+      closed = true;
+      BlockCompressedFile.unmap(buffer);
+    }
+  }
+
+  /**
+   * Check that the cache has not been closed. Reading from the released
+   * mapping would crash the JVM.
+   *
+   * @throws IllegalStateException
+   *           If the cache has been closed
+   */
+  private void checkOpen() {
+    if (closed) {
+      throw new IllegalStateException("Parsed file cache is closed");
+    }
+  }
+
+  /**
+   * Get the position of a row's entry in the row index
+   *
+   * @param row
+   *          The row
+   * @return The position of the entry
+   * @throws IndexOutOfBoundsException
+   *           If the row does not exist
+   */
+  private int getRowIndexEntry(int row) {
+    checkOpen();
+    if (row < 0 || row >= rowCount) {
+      throw new IndexOutOfBoundsException("Row " + row + " does not exist");
+    }
+
+    return rowIndexPosition + row * ROW_INDEX_ENTRY_LENGTH;
+  }
+
+  /**
+   * Get a value from a row
+   *
+   * @param column
+   *          The column index
+   * @param row
+   *          The row
+   * @return The value
+   * @throws IndexOutOfBoundsException
+   *           If the column is not present in the cache
+   */
+  private String getValue(int column, int row) {
+    if (column >= columnPresent.length || !columnPresent[column]) {
+      throw new IndexOutOfBoundsException(
+        "Column " + column + " is not present in the cache");
+    }
+
+    if (row != currentRow) {
+      // Find all the values in the row, since callers usually need several
+      currentRow = -1;
+      int position = buffer.getInt(getRowIndexEntry(row));
+      for (int i = 0; i < columnPresent.length; i++) {
+        if (columnPresent[i]) {
+          valuePositions[i] = position;
+          position += getValueLength(position);
+        }
+      }
+      currentRow = row;
+    } else {
+      checkOpen();
+    }
+
+    String result;
+
+    int position = valuePositions[column];
+    byte kind = buffer.get(position);
+    if (kind == KIND_NULL) {
+      result = null;
+    } else if (kind == KIND_TEXT) {
+      byte[] bytes = new byte[buffer.getInt(position + 1)];
+      ByteBuffer source = buffer.duplicate();
+      source.position(position + 5);
+      source.get(bytes);
+      result = new String(bytes, StandardCharsets.UTF_8);
+    } else {
+      result = formatNumber(buffer.getDouble(position + 1), kind);
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the number of bytes used by a value in the cache file
+   *
+   * @param position
+   *          The position of the value
+   * @return The length of the value
+   */
+  private int getValueLength(int position) {
+    int result;
+
+    byte kind = buffer.get(position);
+    if (kind == KIND_NULL) {
+      result = 1;
+    } else if (kind == KIND_TEXT) {
+      result = 5 + buffer.getInt(position + 1);
+    } else {
+      result = 9;
+    }
+
+    return result;
+  }
+
+  /**
+   * Format a number with the specified number of decimal places. This is the
+   * inverse of the encoding in {@link #writeValue(DataOutputStream, String)}.
+   *
+   * @param value
+   *          The value
+   * @param scale
+   *          The number of decimal places
+   * @return The formatted number
+   */
+  protected static String formatNumber(double value, int scale) {
+    String result = Double.toString(value);
+
+    if (result.indexOf('E') > -1) {
+      result = new BigDecimal(result).setScale(scale).toPlainString();
+    } else {
+      int decimals = result.length() - result.indexOf('.') - 1;
+      if (scale == 0) {
+        result = result.substring(0, result.length() - decimals - 1);
+      } else if (decimals < scale) {
+        StringBuilder padded = new StringBuilder(result);
+        for (int i = decimals; i < scale; i++) {
+          padded.append('0');
+        }
+        result = padded.toString();
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Determine whether a plain decimal number can be stored as a
+   * {@code double} and reproduced exactly by
+   * {@link #formatNumber(double, int)}
+   *
+   * @param value
+   *          The value
+   * @param scale
+   *          The number of decimal places in the value
+   * @return {@code true} if the value can be stored as a number;
+   *         {@code false} if not
+   */
+  private static boolean isExactNumber(String value, int scale) {
+    boolean result = false;
+
+    if (scale > -1 && scale <= MAX_SCALE) {
+      try {
+        result = formatNumber(Double.parseDouble(value), scale).equals(value);
+      } catch (ArithmeticException e) {
+        // The number needs more precision than a double provides
+        result = false;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the number of decimal places in a plain decimal number
+   *
+   * @param value
+   *          The value
+   * @return The number of decimal places, or {@code -1} if the value is not a
+   *         plain decimal number
+   */
+  private static int getScale(String value) {
+    int result = -1;
+
+    int start = value.startsWith("-") ? 1 : 0;
+    int point = value.indexOf('.');
+    int integerEnd = point == -1 ? value.length() : point;
+
+    if (integerEnd > start && allDigits(value, start, integerEnd)) {
+      if (point == -1) {
+        result = 0;
+      } else if (point < value.length() - 1
+        && allDigits(value, point + 1, value.length())) {
+        result = value.length() - point - 1;
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Determine whether part of a string consists only of digits
+   *
+   * @param value
+   *          The string
+   * @param start
+   *          The start of the part (inclusive)
+   * @param end
+   *          The end of the part (exclusive)
+   * @return {@code true} if the part contains only digits; {@code false} if
+   *         not
+   */
+  private static boolean allDigits(String value, int start, int end) {
+    boolean result = true;
+    for (int i = start; result && i < end; i++) {
+      char c = value.charAt(i);
+      result = c >= '0' && c <= '9';
+    }
+    return result;
+  }
+}
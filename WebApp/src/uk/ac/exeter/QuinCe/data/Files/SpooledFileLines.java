@@ -0,0 +1,359 @@
+package uk.ac.exeter.QuinCe.data.Files;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A read-only view of the lines of an uploaded file that has been spooled to
+ * disk instead of being held in memory.
+ *
+ * <p>
+ * While the upload is spooled, the line breaks are normalised in the same way
+ * as {@code UploadedDataFile#getLines()}: runs of {@code \r} and {@code \n}
+ * characters are treated as a single line break, and trailing line breaks are
+ * removed. The spooled file therefore has exactly the same contents that
+ * {@link DataFile#getContents()} would produce for the file, and can be copied
+ * directly into the file store (see {@link DataFile#getContentStream()}).
+ * Files containing only whitespace are treated as empty.
+ * </p>
+ *
+ * <p>
+ * Lines are read from the spool file on demand. Reading the lines in order is
+ * efficient; reading backwards requires the file to be re-read from the start.
+ * The first {@link #HEAD_LINE_COUNT} lines are kept in memory, since the file
+ * header is examined repeatedly while the file is being matched to a file
+ * definition.
+ * </p>
+ *
+ * <p>
+ * The {@link ContentHash} of the spooled contents is calculated while the
+ * file is spooled.
+ * </p>
+ *
+ * <p>
+ * The spool file is deleted when {@link #close()} is called.
+ * </p>
+ */
+public class SpooledFileLines extends AbstractList<String>
+  implements Closeable {
+
+  /**
+   * The number of lines held in memory from the start of the file
+   */
+  private static final int HEAD_LINE_COUNT = 100;
+
+  /**
+   * The size of the buffer used while spooling
+   */
+  private static final int SPOOL_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * The spool file
+   */
+  private final File file;
+
+  /**
+   * The character set of the spool file
+   */
+  private final Charset charset;
+
+  /**
+   * The number of lines in the file
+   */
+  private final int lineCount;
+
+  /**
+   * The length of the spool file in bytes
+   */
+  private final long length;
+
+  /**
+   * The content hash of the spooled file
+   */
+  private final String contentHash;
+
+  /**
+   * The first {@link #HEAD_LINE_COUNT} lines of the file
+   */
+  private final List<String> headLines;
+
+  /**
+   * The reader for the file, positioned after {@link #currentIndex}
+   */
+  private BufferedReader reader = null;
+
+  /**
+   * The number of the most recently read line
+   */
+  private int currentIndex = -1;
+
+  /**
+   * The most recently read line
+   */
+  private String currentLine = null;
+
+  /**
+   * Set up the view of a spooled file
+   *
+   * @param file
+   *          The spool file
+   * @param charset
+   *          The character set of the spool file
+   * @param lineCount
+   *          The number of lines in the file
+   * @param contentHash
+   *          The content hash of the file
+   * @throws IOException
+   *           If the file cannot be read
+   */
+  private SpooledFileLines(File file, Charset charset, int lineCount,
+    String contentHash) throws IOException {
+    this.file = file;
+    this.charset = charset;
+    this.lineCount = lineCount;
+    this.contentHash = contentHash;
+    this.length = file.length();
+
+    headLines = new ArrayList<String>(Math.min(lineCount, HEAD_LINE_COUNT));
+    try (BufferedReader headReader = openReader()) {
+      while (headLines.size() < Math.min(lineCount, HEAD_LINE_COUNT)) {
+        headLines.add(headReader.readLine());
+      }
+    }
+  }
+
+  /**
+   * Spool an uploaded file to the file store's spool directory. The input
+   * stream is not closed.
+   *
+   * @param fileStore
+   *          The location of the file store
+   * @param in
+   *          The uploaded file
+   * @param inputCharset
+   *          The character set of the uploaded file
+   * @return The spooled file
+   * @throws IOException
+   *           If the file cannot be spooled
+   * @throws FileStoreException
+   *           If the spool directory cannot be created
+   */
+  public static SpooledFileLines spool(String fileStore, InputStream in,
+    Charset inputCharset) throws IOException, FileStoreException {
+    return spool(FileStore.getSpoolDirectory(fileStore), in, inputCharset);
+  }
+
+  /**
+   * Spool an uploaded file to the specified directory. The spool file is
+   * written using {@link FileStore#CHARSET}, which is also used for files in
+   * the file store. The input stream is not closed.
+   *
+   * @param directory
+   *          The directory in which to create the spool file
+   * @param in
+   *          The uploaded file
+   * @param inputCharset
+   *          The character set of the uploaded file
+   * @return The spooled file
+   * @throws IOException
+   *           If the file cannot be spooled
+   */
+  public static SpooledFileLines spool(File directory, InputStream in,
+    Charset inputCharset) throws IOException {
+
+    Charset charset = FileStore.CHARSET;
+    File file = File.createTempFile("upload", ".spool", directory);
+
+    SpooledFileLines result = null;
+
+    try {
+      int lineCount = 0;
+      boolean hasContent = false;
+
+      // A line break at the very start of the file produces an empty first
+      // line, as String.split does
+      boolean atStart = true;
+      boolean inLineBreak = false;
+
+      MessageDigest digest = ContentHash.newDigest();
+
+      Reader reader = new InputStreamReader(in, inputCharset);
+      try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+        new DigestOutputStream(new FileOutputStream(file), digest),
+        charset))) {
+
+        char[] buffer = new char[SPOOL_BUFFER_SIZE];
+        int read = reader.read(buffer);
+        while (read != -1) {
+          for (int i = 0; i < read; i++) {
+            char c = buffer[i];
+
+            if (c == '\r' || c == '\n') {
+              if (atStart) {
+                lineCount++;
+                atStart = false;
+              }
+              inLineBreak = true;
+            } else {
+              if (atStart) {
+                lineCount++;
+                atStart = false;
+              } else if (inLineBreak) {
+                // Line breaks are only written once the next line starts,
+                // so trailing line breaks are dropped
+                writer.write('\n');
+                lineCount++;
+                inLineBreak = false;
+              }
+
+              writer.write(c);
+              if (c > ' ') {
+                hasContent = true;
+              }
+            }
+          }
+
+          read = reader.read(buffer);
+        }
+      }
+
+      if (!hasContent) {
+        // Whitespace-only files are empty
+        new FileOutputStream(file).close();
+        lineCount = 0;
+        digest.reset();
+      }
+
+      result = new SpooledFileLines(file, charset, lineCount,
+        ContentHash.toHex(digest.digest()));
+    } finally {
+      if (null == result) {
+        file.delete();
+      }
+    }
+
+    return result;
+  }
+
+  @Override
+  public synchronized String get(int index) {
+    if (index < 0 || index >= lineCount) {
+      throw new IndexOutOfBoundsException(
+        "Line " + index + " requested from file with " + lineCount + " lines");
+    }
+
+    String result;
+
+    if (index < headLines.size()) {
+      result = headLines.get(index);
+    } else {
+      try {
+        if (null == reader || index < currentIndex) {
+          closeReader();
+          reader = openReader();
+          currentIndex = -1;
+        }
+
+        while (currentIndex < index) {
+          currentLine = reader.readLine();
+          currentIndex++;
+        }
+
+        result = currentLine;
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    return result;
+  }
+
+  @Override
+  public int size() {
+    return lineCount;
+  }
+
+  /**
+   * Get the length of the spooled file in bytes
+   *
+   * @return The file length
+   */
+  public long getLength() {
+    return length;
+  }
+
+  /**
+   * Get the content hash of the spooled file
+   *
+   * @return The content hash
+   * @see ContentHash
+   */
+  public String getContentHash() {
+    return contentHash;
+  }
+
+  /**
+   * Open a stream of the spooled file's contents. The caller must close the
+   * stream.
+   *
+   * @return The stream
+   * @throws IOException
+   *           If the file cannot be opened
+   */
+  public InputStream openStream() throws IOException {
+    return new BufferedInputStream(new FileInputStream(file));
+  }
+
+  /**
+   * Open a reader at the start of the spooled file
+   *
+   * @return The reader
+   * @throws IOException
+   *           If the file cannot be opened
+   */
+  private BufferedReader openReader() throws IOException {
+    return new BufferedReader(
+      new InputStreamReader(new FileInputStream(file), charset));
+  }
+
+  /**
+   * Close the current reader, if there is one
+   */
+  private void closeReader() {
+    if (null != reader) {
+      try {
+        reader.close();
+      } catch (IOException e) {
+        // Do nothing
+      }
+      reader = null;
+    }
+  }
+
+  /**
+   * Close the view and delete the spool file
+   */
+  @Override
+  public synchronized void close() {
+    closeReader();
+    file.delete();
+  }
+}
@@ -0,0 +1,33 @@
+package uk.ac.exeter.QuinCe.data.Files;
+
+/**
+ * Random access to the (uncompressed) bytes of a file in the file store.
+ *
+ * @see MappedFileLines
+ * @see BlockCompressedFile
+ */
+interface StoredBytes {
+
+  /**
+   * Get the number of bytes in the file
+   *
+   * @return The file length
+   */
+  int length();
+
+  /**
+   * Copy bytes from the file into an array
+   *
+   * @param position
+   *          The position in the file of the first byte to copy
+   * @param dest
+   *          The destination array
+   * @param offset
+   *          The position in the destination array of the first byte
+   * @param count
+   *          The number of bytes to copy
+   * @throws IndexOutOfBoundsException
+   *           If the requested bytes are outside the file or the array
+   */
+  void get(int position, byte[] dest, int offset, int count);
+}
@@ -0,0 +1,506 @@
+package uk.ac.exeter.QuinCe.data.Instrument.DataFormats;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+
+/**
+ * A date/time parser compiled from a complete {@link DateTimeSpecification}.
+ *
+ * <p>
+ * {@link DateTimeSpecification#parseDateTime(LocalDateTime, List)} looks up
+ * the column assignments and builds a new {@link DateTimeFormatter} for every
+ * line it parses. The compiled parser resolves the column layout and
+ * formatters once, and parses the common fixed width formats (e.g.
+ * {@code yyyy-MM-dd HH:mm:ss}) and UNIX times directly from their digits.
+ * Consecutive lines from the same day also share a single parsed date.
+ * </p>
+ *
+ * <p>
+ * The compiled parser always produces the same result as the specification.
+ * Any value it cannot handle itself, including all invalid values, is passed
+ * to the specification so that the results and error messages are unchanged.
+ * Layouts with no fast path (hours from start of file, Julian days and
+ * separate year/month/day columns) are always passed to the specification.
+ * </p>
+ *
+ * <p>
+ * Parsers are immutable apart from the shared date cache, and may be used by
+ * multiple threads.
+ * </p>
+ *
+ * @see DateTimeSpecification#compile()
+ */
+public class DateTimeParser {
+
+  /**
+   * Layout where all lines are parsed by the specification
+   */
+  private static final int LAYOUT_GENERIC = 0;
+
+  /**
+   * Layout with a single combined date/time column
+   */
+  private static final int LAYOUT_DATE_TIME = 1;
+
+  /**
+   * Layout with a UNIX time column
+   */
+  private static final int LAYOUT_UNIX = 2;
+
+  /**
+   * Layout with a date column and either a time column or separate
+   * hour/minute/second columns
+   */
+  private static final int LAYOUT_DATE_AND_TIME = 3;
+
+  /**
+   * The specification from which this parser was compiled
+   */
+  private final DateTimeSpecification spec;
+
+  /**
+   * The column layout
+   */
+  private final int layout;
+
+  /**
+   * The column containing the date, date/time or UNIX time, depending on the
+   * layout
+   */
+  private final int dateColumn;
+
+  /**
+   * The compiled pattern for the date or date/time column, or {@code null} if
+   * it is not a fixed width pattern
+   */
+  private final FixedWidthDateTimePattern datePattern;
+
+  /**
+   * The formatter for the date or date/time column
+   */
+  private final DateTimeFormatter dateFormatter;
+
+  /**
+   * The time column, or -1 if the time is held in separate hour/minute/second
+   * columns
+   */
+  private final int timeColumn;
+
+  /**
+   * The compiled pattern for the time column, or {@code null} if it is not a
+   * fixed width pattern
+   */
+  private final FixedWidthDateTimePattern timePattern;
+
+  /**
+   * The formatter for the time column
+   */
+  private final DateTimeFormatter timeFormatter;
+
+  /**
+   * The most recently parsed date
+   */
+  private volatile CachedDate lastDate = null;
+
+  /**
+   * Compile a parser for the specified specification. The specification must
+   * not be changed while the parser is in use.
+   *
+   * @param spec
+   *          The specification
+   */
+  protected DateTimeParser(DateTimeSpecification spec) {
+    this.spec = spec;
+
+    int layout = LAYOUT_GENERIC;
+    int dateColumn = -1;
+    String dateFormat = null;
+    int timeColumn = -1;
+    String timeFormat = null;
+
+    if (spec.isAssigned(DateTimeSpecification.HOURS_FROM_START)) {
+      layout = LAYOUT_GENERIC;
+    } else if (spec.isAssigned(DateTimeSpecification.DATE_TIME)) {
+      DateTimeColumnAssignment assignment = spec
+        .getAssignment(DateTimeSpecification.DATE_TIME);
+      dateColumn = assignment.getColumn();
+      dateFormat = assignment.getDateFormatString();
+      if (null != dateFormat) {
+        layout = LAYOUT_DATE_TIME;
+      }
+    } else if (spec.isAssigned(DateTimeSpecification.UNIX)) {
+      layout = LAYOUT_UNIX;
+      dateColumn = spec.getAssignment(DateTimeSpecification.UNIX).getColumn();
+    } else if (!spec.isAssigned(DateTimeSpecification.JDAY_TIME)
+      && spec.isAssigned(DateTimeSpecification.DATE)) {
+
+      DateTimeColumnAssignment assignment = spec
+        .getAssignment(DateTimeSpecification.DATE);
+      dateColumn = assignment.getColumn();
+      dateFormat = assignment.getDateFormatString();
+
+      if (spec.isAssigned(DateTimeSpecification.TIME)) {
+        DateTimeColumnAssignment timeAssignment = spec
+          .getAssignment(DateTimeSpecification.TIME);
+        timeColumn = timeAssignment.getColumn();
+        timeFormat = timeAssignment.getDateFormatString();
+      }
+
+      if (null != dateFormat && (timeColumn == -1 || null != timeFormat)) {
+        layout = LAYOUT_DATE_AND_TIME;
+      }
+    }
+
+    this.layout = layout;
+    this.dateColumn = dateColumn;
+    this.timeColumn = timeColumn;
+
+    if (layout == LAYOUT_DATE_TIME || layout == LAYOUT_DATE_AND_TIME) {
+      this.dateFormatter = DateTimeFormatter.ofPattern(dateFormat);
+      this.datePattern = compilePattern(dateFormat,
+        layout == LAYOUT_DATE_TIME);
+    } else {
+      this.dateFormatter = null;
+      this.datePattern = null;
+    }
+
+    if (layout == LAYOUT_DATE_AND_TIME && timeColumn > -1) {
+      this.timeFormatter = DateTimeFormatter.ofPattern(timeFormat);
+      FixedWidthDateTimePattern pattern = FixedWidthDateTimePattern
+        .compile(timeFormat);
+      this.timePattern = null != pattern && !pattern.hasDate()
+        && pattern.hasTime() ? pattern : null;
+    } else {
+      this.timeFormatter = null;
+      this.timePattern = null;
+    }
+  }
+
+  /**
+   * Compile a fixed width pattern for a date or date/time column.
+   *
+   * @param format
+   *          The format string
+   * @param withTime
+   *          Indicates whether the pattern must include a time
+   * @return The compiled pattern, or {@code null} if the format cannot be
+   *         compiled
+   */
+  private static FixedWidthDateTimePattern compilePattern(String format,
+    boolean withTime) {
+
+    FixedWidthDateTimePattern pattern = FixedWidthDateTimePattern
+      .compile(format);
+
+    if (null != pattern
+      && (!pattern.hasDate() || pattern.hasTime() != withTime)) {
+      pattern = null;
+    }
+
+    return pattern;
+  }
+
+  /**
+   * Get the date and time from a line in a file. The result is identical to
+   * that from
+   * {@link DateTimeSpecification#parseDateTime(LocalDateTime, List)}.
+   *
+   * @param headerDate
+   *          The date from the file header
+   * @param line
+   *          The line
+   * @return The date/time
+   * @throws DateTimeSpecificationException
+   *           If the date/time in the line is missing or invalid
+   */
+  public LocalDateTime parse(LocalDateTime headerDate, List<String> line)
+    throws DateTimeSpecificationException {
+
+    LocalDateTime result;
+
+    switch (layout) {
+    case LAYOUT_DATE_TIME: {
+      result = parseDateTime(line);
+      break;
+    }
+    case LAYOUT_UNIX: {
+      result = parseUnixTime(line);
+      break;
+    }
+    case LAYOUT_DATE_AND_TIME: {
+      result = parseDateAndTime(line);
+      break;
+    }
+    default: {
+      result = null;
+    }
+    }
+
+    if (null == result) {
+      result = spec.parseDateTime(headerDate, line);
+    }
+
+    return result;
+  }
+
+  /**
+   * Parse a combined date/time column
+   *
+   * @param line
+   *          The line
+   * @return The date/time, or {@code null} if it cannot be parsed
+   */
+  private LocalDateTime parseDateTime(List<String> line) {
+    LocalDateTime result = null;
+    String value = getValue(line, dateColumn);
+
+    if (null != value) {
+      if (null != datePattern) {
+        if (datePattern.matches(value)) {
+          LocalDate date = getDate(value);
+          LocalTime time = datePattern.getTime(value);
+          if (null != date && null != time) {
+            result = LocalDateTime.of(date, time);
+          }
+        }
+      } else {
+        try {
+          result = LocalDateTime.parse(value, dateFormatter);
+        } catch (DateTimeParseException e) {
+          result = null;
+        }
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the date from a value matching the fixed width date pattern, using
+   * the cached date if possible
+   *
+   * @param value
+   *          The value
+   * @return The date, or {@code null} if the date is invalid
+   */
+  private LocalDate getDate(String value) {
+    LocalDate result;
+    int key = datePattern.getDateKey(value);
+
+    CachedDate cached = lastDate;
+    if (null != cached && null == cached.text && cached.key == key) {
+      result = cached.date;
+    } else {
+      result = datePattern.getDate(value);
+      if (null != result) {
+        lastDate = new CachedDate(key, null, result);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Parse a UNIX time column. Only plain integers within the range accepted
+   * by the specification are handled.
+   *
+   * @param line
+   *          The line
+   * @return The date/time, or {@code null} if it cannot be parsed
+   */
+  private LocalDateTime parseUnixTime(List<String> line) {
+    LocalDateTime result = null;
+    String value = getValue(line, dateColumn);
+
+    if (null != value && value.length() > 0 && value.length() <= 11) {
+      boolean negative = value.charAt(0) == '-';
+      int start = negative ? 1 : 0;
+      boolean valid = value.length() > start;
+      long seconds = 0;
+
+      for (int i = start; valid && i < value.length(); i++) {
+        char c = value.charAt(i);
+        if (c >= '0' && c <= '9') {
+          seconds = seconds * 10 + (c - '0');
+        } else {
+          valid = false;
+        }
+      }
+
+      if (negative) {
+        seconds = -seconds;
+      }
+
+      if (valid && seconds >= Integer.MIN_VALUE
+        && seconds <= Integer.MAX_VALUE) {
+        result = LocalDateTime.ofEpochSecond(seconds, 0, ZoneOffset.UTC);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Parse a line with a date column and either a time column or separate
+   * hour/minute/second columns
+   *
+   * @param line
+   *          The line
+   * @return The date/time, or {@code null} if it cannot be parsed
+   * @throws DateTimeSpecificationException
+   *           If the hour/minute/second columns are invalid
+   */
+  private LocalDateTime parseDateAndTime(List<String> line)
+    throws DateTimeSpecificationException {
+
+    LocalDateTime result = null;
+
+    LocalDate date = getDateColumnValue(line);
+    if (null != date) {
+      LocalTime time;
+
+      if (timeColumn == -1) {
+        time = spec.getHMSTime(line);
+      } else {
+        time = getTimeColumnValue(line);
+      }
+
+      if (null != time) {
+        result = LocalDateTime.of(date, time);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the value of the date column. Lines with the same date string as the
+   * previous line reuse its date.
+   *
+   * @param line
+   *          The line
+   * @return The date, or {@code null} if it cannot be parsed
+   */
+  private LocalDate getDateColumnValue(List<String> line) {
+    LocalDate result = null;
+    String value = getValue(line, dateColumn);
+
+    if (null != value) {
+      CachedDate cached = lastDate;
+      if (null != cached && value.equals(cached.text)) {
+        result = cached.date;
+      } else {
+        if (null != datePattern) {
+          if (datePattern.matches(value)) {
+            result = datePattern.getDate(value);
+          }
+        } else {
+          try {
+            result = LocalDate.parse(value, dateFormatter);
+          } catch (DateTimeParseException e) {
+            result = null;
+          }
+        }
+
+        if (null != result) {
+          lastDate = new CachedDate(0, value, result);
+        }
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the value of the time column.
+   *
+   * @param line
+   *          The line
+   * @return The time, or {@code null} if it cannot be parsed
+   */
+  private LocalTime getTimeColumnValue(List<String> line) {
+    LocalTime result = null;
+    String value = getValue(line, timeColumn);
+
+    if (null != value) {
+      if (null != timePattern) {
+        if (timePattern.matches(value)) {
+          result = timePattern.getTime(value);
+        }
+      } else {
+        try {
+          result = LocalTime.parse(value, timeFormatter);
+        } catch (DateTimeParseException e) {
+          result = null;
+        }
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the trimmed value of a field from a line
+   *
+   * @param line
+   *          The line
+   * @param column
+   *          The column index
+   * @return The field value, or {@code null} if the field is missing
+   */
+  private static String getValue(List<String> line, int column) {
+    String result = null;
+
+    if (column < line.size()) {
+      String field = line.get(column);
+      if (null != field) {
+        result = field.trim();
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * A parsed date, identified either by the original date string or a
+   * numeric year/month/day key
+   */
+  private static class CachedDate {
+
+    /**
+     * The numeric date key
+     */
+    private final int key;
+
+    /**
+     * The date string
+     */
+    private final String text;
+
+    /**
+     * The parsed date
+     */
+    private final LocalDate date;
+
+    /**
+     * Simple constructor
+     *
+     * @param key
+     *          The numeric date key
+     * @param text
+     *          The date string
+     * @param date
+     *          The parsed date
+     */
+    private CachedDate(int key, String text, LocalDate date) {
+      this.key = key;
+      this.text = text;
+      this.date = date;
+    }
+  }
+}
@@ -172,6 +172,12 @@ public class DateTimeSpecification {
    */
   private boolean fileHasHeader;
 
+  /**
+   * The compiled parser for this specification. This is discarded whenever
+   * the specification is changed.
+   */
+  private DateTimeParser parser = null;
+
   /**
    * Constructs an empty specification
    *
@@ -276,6 +282,8 @@ public class DateTimeSpecification {
     if (!assignmentComplete()) {
       throw new DateTimeSpecificationException("Specification is not complete");
     }
+
+    compile();
   }
 
   /**
@@ -711,6 +719,8 @@ public class DateTimeSpecification {
         "Cannot use assign with Hours From Start Of File; use assignHoursFromStart");
     }
 
+    parser = null;
+
     DateTimeColumnAssignment assignment = assignments.get(assignmentIndex);
     assignment.setColumn(column);
 
@@ -736,6 +746,8 @@ public class DateTimeSpecification {
    */
   public void assignHoursFromStart(int column, String headerPrefix,
     String headerSuffix, String format) throws DateTimeSpecificationException {
+    parser = null;
+
     DateTimeColumnAssignment assignment = assignments.get(HOURS_FROM_START);
     assignment.setColumn(column);
     assignment.setDateFormatString(format);
@@ -764,6 +776,10 @@ public class DateTimeSpecification {
       }
     }
 
+    if (assignmentRemoved) {
+      parser = null;
+    }
+
     return assignmentRemoved;
 
   }
@@ -779,7 +795,21 @@ public class DateTimeSpecification {
   }
 
   /**
-   * Get the date and time from a line in a file
+   * Compile a {@link DateTimeParser} for this specification, which will be
+   * used by {@link #getDateTime(LocalDateTime, List)} until the specification
+   * is changed. Complete specifications loaded from the database are compiled
+   * automatically.
+   *
+   * @return The compiled parser
+   */
+  public DateTimeParser compile() {
+    parser = new DateTimeParser(this);
+    return parser;
+  }
+
+  /**
+   * Get the date and time from a line in a file. If the specification has
+   * been compiled, the compiled {@link DateTimeParser} is used.
    *
    * @param headerDate
    *          The date from the file header
@@ -788,9 +818,30 @@ public class DateTimeSpecification {
    * @return The date/time
    * @throws DataFileException
    *           If the date/time in the line is missing or invalid
+   * @see #compile()
    */
   public LocalDateTime getDateTime(LocalDateTime headerDate, List<String> line)
     throws DateTimeSpecificationException {
+    DateTimeParser compiledParser = parser;
+    return null == compiledParser ? parseDateTime(headerDate, line)
+      : compiledParser.parse(headerDate, line);
+  }
+
+  /**
+   * Get the date and time from a line in a file by examining the column
+   * assignments and parsing the values with the assigned formats. This does
+   * not use the compiled {@link DateTimeParser}.
+   *
+   * @param headerDate
+   *          The date from the file header
+   * @param line
+   *          The line
+   * @return The date/time
+   * @throws DataFileException
+   *           If the date/time in the line is missing or invalid
+   */
+  public LocalDateTime parseDateTime(LocalDateTime headerDate,
+    List<String> line) throws DateTimeSpecificationException {
     LocalDateTime result = null;
 
     if (isAssigned(HOURS_FROM_START)) {
@@ -1164,7 +1215,7 @@ public class DateTimeSpecification {
    * @throws DataFileException
    *           If any fields are empty or invalid
    */
-  private LocalTime getHMSTime(List<String> line)
+  protected LocalTime getHMSTime(List<String> line)
     throws DateTimeSpecificationException {
     int hourField = getAssignment(HOUR).getColumn();
     int minuteField = getAssignment(MINUTE).getColumn();
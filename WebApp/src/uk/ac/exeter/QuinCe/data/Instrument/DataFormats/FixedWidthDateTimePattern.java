@@ -0,0 +1,447 @@
+package uk.ac.exeter.QuinCe.data.Instrument.DataFormats;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Arrays;
+
+/**
+ * A date/time format pattern in which every field has a fixed width, such as
+ * {@code yyyy-MM-dd HH:mm:ss} or {@code yyyyMMdd}.
+ *
+ * <p>
+ * Values matching such patterns can be parsed by reading digits at known
+ * positions, which is much faster than using a
+ * {@link java.time.format.DateTimeFormatter}. Only the numeric pattern letters
+ * {@code y} (2 or 4 digits), {@code M}, {@code d}, {@code H}, {@code m},
+ * {@code s} (2 digits each) and {@code S} (1 to 9 digits) are supported, along
+ * with literal characters. Patterns using anything else cannot be compiled.
+ * </p>
+ *
+ * <p>
+ * Values that do not exactly match the pattern, or that contain invalid field
+ * values, are rejected so that the caller can fall back to the formatter.
+ * </p>
+ *
+ * @see DateTimeParser
+ */
+class FixedWidthDateTimePattern {
+
+  /**
+   * Field index for the year
+   */
+  private static final int YEAR = 0;
+
+  /**
+   * Field index for the month
+   */
+  private static final int MONTH = 1;
+
+  /**
+   * Field index for the day of month
+   */
+  private static final int DAY = 2;
+
+  /**
+   * Field index for the hour of day
+   */
+  private static final int HOUR = 3;
+
+  /**
+   * Field index for the minute
+   */
+  private static final int MINUTE = 4;
+
+  /**
+   * Field index for the second
+   */
+  private static final int SECOND = 5;
+
+  /**
+   * Field index for the fraction of a second
+   */
+  private static final int FRACTION = 6;
+
+  /**
+   * The number of supported fields
+   */
+  private static final int FIELD_COUNT = 7;
+
+  /**
+   * Two-digit years are counted from this year, as with
+   * {@link java.time.format.DateTimeFormatter} patterns.
+   */
+  private static final int TWO_DIGIT_YEAR_BASE = 2000;
+
+  /**
+   * The expected characters of a value. Positions holding digits are
+   * identified in {@link #digitPositions}.
+   */
+  private final char[] template;
+
+  /**
+   * Indicates which positions in the value must be digits
+   */
+  private final boolean[] digitPositions;
+
+  /**
+   * The position of each field in the value, or -1 if the field is not present
+   */
+  private final int[] fieldStarts;
+
+  /**
+   * The width of each field
+   */
+  private final int[] fieldWidths;
+
+  /**
+   * Indicates whether the pattern contains a complete date
+   */
+  private final boolean hasDate;
+
+  /**
+   * Indicates whether the pattern contains a complete time
+   */
+  private final boolean hasTime;
+
+  /**
+   * Private constructor; use {@link #compile(String)}.
+   *
+   * @param template
+   *          The value template
+   * @param digitPositions
+   *          The digit positions
+   * @param fieldStarts
+   *          The field positions
+   * @param fieldWidths
+   *          The field widths
+   */
+  private FixedWidthDateTimePattern(char[] template, boolean[] digitPositions,
+    int[] fieldStarts, int[] fieldWidths) {
+    this.template = template;
+    this.digitPositions = digitPositions;
+    this.fieldStarts = fieldStarts;
+    this.fieldWidths = fieldWidths;
+    this.hasDate = fieldStarts[YEAR] > -1;
+    this.hasTime = fieldStarts[HOUR] > -1;
+  }
+
+  /**
+   * Compile a {@link java.time.format.DateTimeFormatter} pattern string.
+   *
+   * @param pattern
+   *          The pattern
+   * @return The compiled pattern, or {@code null} if the pattern is not a
+   *         supported fixed width pattern
+   */
+  static FixedWidthDateTimePattern compile(String pattern) {
+    if (null == pattern || pattern.length() == 0) {
+      return null;
+    }
+
+    int patternLength = pattern.length();
+    char[] template = new char[patternLength];
+    boolean[] digitPositions = new boolean[patternLength];
+    int[] fieldStarts = new int[FIELD_COUNT];
+    int[] fieldWidths = new int[FIELD_COUNT];
+    Arrays.fill(fieldStarts, -1);
+
+    int pos = 0;
+    int i = 0;
+    while (i < patternLength) {
+      char c = pattern.charAt(i);
+
+      if (c == '\'') {
+        // Quoted literal text. Two quotes represent a single quote character.
+        i++;
+        if (i < patternLength && pattern.charAt(i) == '\'') {
+          template[pos++] = '\'';
+          i++;
+        } else {
+          boolean closed = false;
+          while (!closed) {
+            if (i >= patternLength) {
+              // Unterminated quote
+              return null;
+            }
+
+            char quoted = pattern.charAt(i);
+            if (quoted == '\'') {
+              if (i + 1 < patternLength && pattern.charAt(i + 1) == '\'') {
+                template[pos++] = '\'';
+                i += 2;
+              } else {
+                closed = true;
+                i++;
+              }
+            } else {
+              template[pos++] = quoted;
+              i++;
+            }
+          }
+        }
+      } else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+        int runEnd = i;
+        while (runEnd < patternLength && pattern.charAt(runEnd) == c) {
+          runEnd++;
+        }
+
+        int width = runEnd - i;
+        int field = getField(c);
+        if (field == -1 || fieldStarts[field] != -1
+          || !validWidth(field, width)) {
+          return null;
+        }
+
+        fieldStarts[field] = pos;
+        fieldWidths[field] = width;
+        for (int d = 0; d < width; d++) {
+          digitPositions[pos++] = true;
+        }
+
+        i = runEnd;
+      } else {
+        template[pos++] = c;
+        i++;
+      }
+    }
+
+    // Dates and times must be complete
+    boolean anyDate = fieldStarts[YEAR] > -1 || fieldStarts[MONTH] > -1
+      || fieldStarts[DAY] > -1;
+    boolean fullDate = fieldStarts[YEAR] > -1 && fieldStarts[MONTH] > -1
+      && fieldStarts[DAY] > -1;
+    boolean anyTime = fieldStarts[HOUR] > -1 || fieldStarts[MINUTE] > -1
+      || fieldStarts[SECOND] > -1 || fieldStarts[FRACTION] > -1;
+    boolean fullTime = fieldStarts[HOUR] > -1 && fieldStarts[MINUTE] > -1
+      && (fieldStarts[FRACTION] == -1 || fieldStarts[SECOND] > -1);
+
+    if ((anyDate && !fullDate) || (anyTime && !fullTime)
+      || (!anyDate && !anyTime)) {
+      return null;
+    }
+
+    return new FixedWidthDateTimePattern(Arrays.copyOf(template, pos),
+      Arrays.copyOf(digitPositions, pos), fieldStarts, fieldWidths);
+  }
+
+  /**
+   * Get the field index for a pattern letter
+   *
+   * @param c
+   *          The pattern letter
+   * @return The field index, or -1 if the letter is not supported
+   */
+  private static int getField(char c) {
+    int result;
+
+    switch (c) {
+    case 'y': {
+      result = YEAR;
+      break;
+    }
+    case 'M': {
+      result = MONTH;
+      break;
+    }
+    case 'd': {
+      result = DAY;
+      break;
+    }
+    case 'H': {
+      result = HOUR;
+      break;
+    }
+    case 'm': {
+      result = MINUTE;
+      break;
+    }
+    case 's': {
+      result = SECOND;
+      break;
+    }
+    case 'S': {
+      result = FRACTION;
+      break;
+    }
+    default: {
+      result = -1;
+    }
+    }
+
+    return result;
+  }
+
+  /**
+   * Determine whether a pattern letter has been repeated a supported number of
+   * times
+   *
+   * @param field
+   *          The field index
+   * @param width
+   *          The number of pattern letters
+   * @return {@code true} if the width is supported; {@code false} if not
+   */
+  private static boolean validWidth(int field, int width) {
+    boolean result;
+
+    switch (field) {
+    case YEAR: {
+      result = width == 2 || width == 4;
+      break;
+    }
+    case FRACTION: {
+      result = width >= 1 && width <= 9;
+      break;
+    }
+    default: {
+      result = width == 2;
+    }
+    }
+
+    return result;
+  }
+
+  /**
+   * Determine whether the pattern contains a date
+   *
+   * @return {@code true} if the pattern has a date; {@code false} if not
+   */
+  boolean hasDate() {
+    return hasDate;
+  }
+
+  /**
+   * Determine whether the pattern contains a time
+   *
+   * @return {@code true} if the pattern has a time; {@code false} if not
+   */
+  boolean hasTime() {
+    return hasTime;
+  }
+
+  /**
+   * Determine whether a value has exactly the layout of this pattern
+   *
+   * @param value
+   *          The value
+   * @return {@code true} if the value matches; {@code false} if it does not
+   */
+  boolean matches(String value) {
+    boolean result = value.length() == template.length;
+
+    for (int i = 0; result && i < template.length; i++) {
+      char c = value.charAt(i);
+      if (digitPositions[i]) {
+        result = c >= '0' && c <= '9';
+      } else {
+        result = c == template[i];
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Calculate a key that uniquely identifies the date in a matching value
+   *
+   * @param value
+   *          The value
+   * @return The date key
+   */
+  int getDateKey(String value) {
+    return getYear(value) * 10000 + getDigits(value, MONTH) * 100
+      + getDigits(value, DAY);
+  }
+
+  /**
+   * Get the date from a matching value
+   *
+   * @param value
+   *          The value
+   * @return The date, or {@code null} if the date is invalid
+   */
+  LocalDate getDate(String value) {
+    LocalDate result;
+
+    try {
+      result = LocalDate.of(getYear(value), getDigits(value, MONTH),
+        getDigits(value, DAY));
+    } catch (DateTimeException e) {
+      result = null;
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the time from a matching value
+   *
+   * @param value
+   *          The value
+   * @return The time, or {@code null} if the time is invalid
+   */
+  LocalTime getTime(String value) {
+    LocalTime result;
+
+    int second = 0;
+    if (fieldStarts[SECOND] > -1) {
+      second = getDigits(value, SECOND);
+    }
+
+    int nanos = 0;
+    if (fieldStarts[FRACTION] > -1) {
+      nanos = getDigits(value, FRACTION);
+      for (int i = fieldWidths[FRACTION]; i < 9; i++) {
+        nanos *= 10;
+      }
+    }
+
+    try {
+      result = LocalTime.of(getDigits(value, HOUR), getDigits(value, MINUTE),
+        second, nanos);
+    } catch (DateTimeException e) {
+      result = null;
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the year from a matching value. Two-digit years are converted to the
+   * range 2000-2099.
+   *
+   * @param value
+   *          The value
+   * @return The year
+   */
+  private int getYear(String value) {
+    int year = getDigits(value, YEAR);
+    if (fieldWidths[YEAR] == 2) {
+      year += TWO_DIGIT_YEAR_BASE;
+    }
+
+    return year;
+  }
+
+  /**
+   * Read the digits of a field from a matching value
+   *
+   * @param value
+   *          The value
+   * @param field
+   *          The field index
+   * @return The field value
+   */
+  private int getDigits(String value, int field) {
+    int result = 0;
+    int start = fieldStarts[field];
+    int end = start + fieldWidths[field];
+
+    for (int i = start; i < end; i++) {
+      result = result * 10 + (value.charAt(i) - '0');
+    }
+
+    return result;
+  }
+}
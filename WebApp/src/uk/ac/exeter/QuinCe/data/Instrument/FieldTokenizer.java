@@ -0,0 +1,381 @@
+package uk.ac.exeter.QuinCe.data.Instrument;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Splits lines from a data file into fields using a single character
+ * separator.
+ *
+ * <p>
+ * Tokenising a line records the start and end position of each field in the
+ * line; no substrings are created until a field value is actually requested.
+ * The position arrays are reused for each line, so a single tokenizer can be
+ * used for a whole file without further allocation. Tokenizers hold the state
+ * of the most recent line, and must not be shared between threads.
+ * </p>
+ *
+ * <p>
+ * The fields are identical to those produced by splitting the line on the
+ * separator and trimming whitespace and quotes from each field (see
+ * {@link FileDefinition#extractFields(String)}). If the separator is a space,
+ * the line is trimmed and runs of consecutive spaces are treated as a single
+ * separator.
+ * </p>
+ *
+ * @see FileDefinition#makeFieldTokenizer()
+ */
+public class FieldTokenizer {
+
+  /**
+   * The initial number of fields that can be held before the position arrays
+   * must be expanded
+   */
+  private static final int INITIAL_FIELD_CAPACITY = 32;
+
+  /**
+   * The separator character
+   */
+  private final char separator;
+
+  /**
+   * Indicates whether runs of separators should be treated as a single
+   * separator
+   */
+  private final boolean collapseSeparators;
+
+  /**
+   * The current line
+   */
+  private String line = null;
+
+  /**
+   * The number of fields in the current line
+   */
+  private int fieldCount = 0;
+
+  /**
+   * The start position of each field in the current line
+   */
+  private int[] fieldStarts = new int[INITIAL_FIELD_CAPACITY];
+
+  /**
+   * The end position (exclusive) of each field in the current line
+   */
+  private int[] fieldEnds = new int[INITIAL_FIELD_CAPACITY];
+
+  /**
+   * A {@link List} view of the current line's fields
+   */
+  private final List<String> fieldsView = new FieldsView();
+
+  /**
+   * Create a tokenizer for the specified separator.
+   *
+   * @param separator
+   *          The separator
+   * @throws IllegalArgumentException
+   *           If the separator is not a single character
+   */
+  public FieldTokenizer(String separator) {
+    if (null == separator || separator.length() != 1) {
+      throw new IllegalArgumentException(
+        "Separator must be a single character");
+    }
+
+    this.separator = separator.charAt(0);
+    this.collapseSeparators = this.separator == ' ';
+  }
+
+  /**
+   * Split a line into fields. Any previously tokenised line is discarded.
+   *
+   * @param line
+   *          The line
+   * @return The number of fields in the line
+   */
+  public int tokenize(String line) {
+    this.line = line;
+    fieldCount = 0;
+
+    if (collapseSeparators) {
+      tokenizeCollapsed();
+    } else {
+      tokenizeSimple();
+    }
+
+    return fieldCount;
+  }
+
+  /**
+   * Split the current line on every occurrence of the separator.
+   *
+   * <p>
+   * As with {@code String.split(separator, line.length())}, the number of
+   * fields is limited to the length of the line; once that limit is reached,
+   * the remainder of the line forms the last field.
+   * </p>
+   */
+  private void tokenizeSimple() {
+    int length = line.length();
+    int maxFields = Math.max(length, 1);
+    int fieldStart = 0;
+
+    for (int i = 0; i < length && fieldCount < maxFields - 1; i++) {
+      if (line.charAt(i) == separator) {
+        addField(fieldStart, i);
+        fieldStart = i + 1;
+      }
+    }
+
+    addField(fieldStart, length);
+  }
+
+  /**
+   * Split the trimmed current line on runs of the separator.
+   */
+  private void tokenizeCollapsed() {
+    int start = 0;
+    int end = line.length();
+
+    while (start < end && line.charAt(start) <= ' ') {
+      start++;
+    }
+
+    while (end > start && line.charAt(end - 1) <= ' ') {
+      end--;
+    }
+
+    int fieldStart = start;
+    int pos = start;
+    while (pos < end) {
+      if (line.charAt(pos) == separator) {
+        addField(fieldStart, pos);
+        while (pos < end && line.charAt(pos) == separator) {
+          pos++;
+        }
+        fieldStart = pos;
+      } else {
+        pos++;
+      }
+    }
+
+    addField(fieldStart, end);
+  }
+
+  /**
+   * Record a field, trimming whitespace and quotes from each end. A leading
+   * escape character ({@code \}) is also removed.
+   *
+   * @param start
+   *          The start position of the field
+   * @param end
+   *          The end position of the field (exclusive)
+   */
+  private void addField(int start, int end) {
+    while (start < end && isTrimChar(line.charAt(start))) {
+      start++;
+    }
+
+    while (end > start && isTrimChar(line.charAt(end - 1))) {
+      end--;
+    }
+
+    boolean escapesDone = false;
+    while (!escapesDone) {
+      if (start < end && line.charAt(start) == '\\') {
+        if (start + 1 < end && line.charAt(start + 1) == '\\') {
+          // An escaped backslash - remove the first one and stop
+          start++;
+          escapesDone = true;
+        } else {
+          // Remove the backslash and trim the front again
+          start++;
+          while (start < end && isTrimChar(line.charAt(start))) {
+            start++;
+          }
+        }
+      } else {
+        escapesDone = true;
+      }
+    }
+
+    if (fieldCount == fieldStarts.length) {
+      fieldStarts = Arrays.copyOf(fieldStarts, fieldStarts.length * 2);
+      fieldEnds = Arrays.copyOf(fieldEnds, fieldEnds.length * 2);
+    }
+
+    fieldStarts[fieldCount] = start;
+    fieldEnds[fieldCount] = end;
+    fieldCount++;
+  }
+
+  /**
+   * Determine whether a character is trimmed from the ends of fields
+   *
+   * @param c
+   *          The character
+   * @return {@code true} if the character should be trimmed; {@code false}
+   *         otherwise
+   */
+  private static boolean isTrimChar(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f'
+      || c == '\r' || c == '"';
+  }
+
+  /**
+   * Get the line that was most recently tokenised
+   *
+   * @return The line
+   */
+  public String getLine() {
+    return line;
+  }
+
+  /**
+   * Get the number of fields in the current line
+   *
+   * @return The field count
+   */
+  public int getFieldCount() {
+    return fieldCount;
+  }
+
+  /**
+   * Get the position in the current line of the first character of a field
+   *
+   * @param field
+   *          The field index
+   * @return The start position
+   */
+  public int getFieldStart(int field) {
+    checkField(field);
+    return fieldStarts[field];
+  }
+
+  /**
+   * Get the position in the current line immediately after the last character
+   * of a field
+   *
+   * @param field
+   *          The field index
+   * @return The end position
+   */
+  public int getFieldEnd(int field) {
+    checkField(field);
+    return fieldEnds[field];
+  }
+
+  /**
+   * Get the length of a field
+   *
+   * @param field
+   *          The field index
+   * @return The field length
+   */
+  public int getFieldLength(int field) {
+    checkField(field);
+    return fieldEnds[field] - fieldStarts[field];
+  }
+
+  /**
+   * Determine whether or not a field is empty
+   *
+   * @param field
+   *          The field index
+   * @return {@code true} if the field is empty; {@code false} if it is not
+   */
+  public boolean isEmpty(int field) {
+    return getFieldLength(field) == 0;
+  }
+
+  /**
+   * See whether a field's value equals the specified string, without
+   * extracting the field value
+   *
+   * @param field
+   *          The field index
+   * @param value
+   *          The value to compare
+   * @return {@code true} if the field equals the value; {@code false} if it
+   *         does not
+   */
+  public boolean fieldEquals(int field, String value) {
+    int length = getFieldLength(field);
+    return null != value && value.length() == length
+      && line.regionMatches(fieldStarts[field], value, 0, length);
+  }
+
+  /**
+   * Get the value of a field
+   *
+   * @param field
+   *          The field index
+   * @return The field value
+   */
+  public String getField(int field) {
+    checkField(field);
+    return line.substring(fieldStarts[field], fieldEnds[field]);
+  }
+
+  /**
+   * Get a {@link List} view of the current line's fields. Field values are
+   * extracted as they are requested from the list.
+   *
+   * <p>
+   * The view reflects the most recently tokenised line, so it must not be
+   * retained after the next call to {@link #tokenize(String)}. Use
+   * {@link #getFieldsCopy()} if the values must be kept.
+   * </p>
+   *
+   * @return The fields
+   */
+  public List<String> getFields() {
+    return fieldsView;
+  }
+
+  /**
+   * Get a copy of the current line's fields
+   *
+   * @return The fields
+   */
+  public List<String> getFieldsCopy() {
+    return new ArrayList<String>(fieldsView);
+  }
+
+  /**
+   * Ensure that a field index is valid for the current line
+   *
+   * @param field
+   *          The field index
+   * @throws IndexOutOfBoundsException
+   *           If the field does not exist
+   */
+  private void checkField(int field) {
+    if (field < 0 || field >= fieldCount) {
+      throw new IndexOutOfBoundsException(
+        "Field " + field + " requested from line with " + fieldCount
+          + " fields");
+    }
+  }
+
+  /**
+   * Read-only list of the current line's fields
+   */
+  private class FieldsView extends AbstractList<String>
+    implements RandomAccess {
+
+    @Override
+    public String get(int index) {
+      return getField(index);
+    }
+
+    @Override
+    public int size() {
+      return fieldCount;
+    }
+  }
+}
@@ -1,13 +1,13 @@
 package uk.ac.exeter.QuinCe.data.Instrument;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import uk.ac.exeter.QuinCe.data.Dataset.ColumnHeading;
 import uk.ac.exeter.QuinCe.data.Instrument.DataFormats.DateTimeSpecification;
+import uk.ac.exeter.QuinCe.data.Instrument.DataFormats.DateTimeSpecificationException;
 import uk.ac.exeter.QuinCe.data.Instrument.DataFormats.LatitudeSpecification;
 import uk.ac.exeter.QuinCe.data.Instrument.DataFormats.LongitudeSpecification;
 import uk.ac.exeter.QuinCe.data.Instrument.RunTypes.RunTypeAssignment;
@@ -16,7 +16,6 @@ import uk.ac.exeter.QuinCe.data.Instrument.RunTypes.RunTypeCategory;
 import uk.ac.exeter.QuinCe.data.Instrument.SensorDefinition.SensorAssignmentException;
 import uk.ac.exeter.QuinCe.utils.HighlightedString;
 import uk.ac.exeter.QuinCe.utils.HighlightedStringException;
-import uk.ac.exeter.QuinCe.utils.StringUtils;
 
 /**
  * Holds a description of a sample data file uploaded during the creation of a
@@ -355,6 +354,7 @@ public class FileDefinition implements Comparable<FileDefinition> {
   public void setHeaderLines(int headerLines) {
     this.headerLines = headerLines;
     dateTimeSpecification.setFileHasHeader(headerLines > 0);
+    layoutChanged();
   }
 
   /**
@@ -375,6 +375,7 @@ public class FileDefinition implements Comparable<FileDefinition> {
    */
   public void setHeaderEndString(String headerEndString) {
     this.headerEndString = headerEndString;
+    layoutChanged();
   }
 
   /**
@@ -394,6 +395,7 @@ public class FileDefinition implements Comparable<FileDefinition> {
    */
   public void setColumnHeaderRows(int columnHeaderRows) {
     this.columnHeaderRows = columnHeaderRows;
+    layoutChanged();
   }
 
   /**
@@ -440,6 +442,7 @@ public class FileDefinition implements Comparable<FileDefinition> {
       throw new InvalidSeparatorException(separator);
     }
     this.separator = separator;
+    layoutChanged();
   }
 
   /**
@@ -456,6 +459,7 @@ public class FileDefinition implements Comparable<FileDefinition> {
       throw new InvalidSeparatorException(separatorName);
     } else {
       this.separator = SEPARATOR_LOOKUP.get(separatorName);
+      layoutChanged();
     }
   }
 
@@ -504,6 +508,7 @@ public class FileDefinition implements Comparable<FileDefinition> {
       throw new InvalidHeaderTypeException();
     }
     this.headerType = headerType;
+    layoutChanged();
   }
 
   /**
@@ -515,6 +520,7 @@ public class FileDefinition implements Comparable<FileDefinition> {
   public void setLineCountHeaderType(int headerLines) {
     this.headerType = HEADER_TYPE_LINE_COUNT;
     this.headerLines = headerLines;
+    layoutChanged();
   }
 
   /**
@@ -526,6 +532,7 @@ public class FileDefinition implements Comparable<FileDefinition> {
   public void setStringHeaderType(String headerString) {
     this.headerType = HEADER_TYPE_STRING;
     this.headerEndString = headerString;
+    layoutChanged();
   }
 
   /**
@@ -536,6 +543,19 @@ public class FileDefinition implements Comparable<FileDefinition> {
    */
   public void setColumnCount(int columnCount) {
     this.columnCount = columnCount;
+    layoutChanged();
+  }
+
+  /**
+   * Notify the parent file set that the layout of this definition has
+   * changed, so that files will be matched against the new layout.
+   *
+   * @see InstrumentFileSet#getSignatureIndex()
+   */
+  private void layoutChanged() {
+    if (null != fileSet) {
+      fileSet.invalidateSignatureIndex();
+    }
   }
 
   /**
@@ -553,16 +573,23 @@ public class FileDefinition implements Comparable<FileDefinition> {
    * @param dataLine
    *          The data line
    * @return The column values
+   * @see FieldTokenizer
    */
   public List<String> extractFields(String dataLine) {
-    List<String> values = new ArrayList<String>();
-
-    if (separator.equals(" ")) {
-      dataLine = dataLine.trim().replaceAll("  *", " ");
-    }
+    FieldTokenizer tokenizer = makeFieldTokenizer();
+    tokenizer.tokenize(dataLine);
+    return tokenizer.getFieldsCopy();
+  }
 
-    values = Arrays.asList(dataLine.split(separator, dataLine.length()));
-    return StringUtils.trimListAndQuotes(values);
+  /**
+   * Create a tokenizer that splits lines into fields using this file's column
+   * separator. Code that processes many lines should create one tokenizer and
+   * reuse it for each line, rather than calling {@link #extractFields(String)}.
+   *
+   * @return The tokenizer
+   */
+  public FieldTokenizer makeFieldTokenizer() {
+    return new FieldTokenizer(separator);
   }
 
   /**
@@ -761,6 +788,54 @@ public class FileDefinition implements Comparable<FileDefinition> {
     this.runTypes = runTypes;
   }
 
+  /**
+   * Get a version identifier for the parts of this definition that control how
+   * values are read from a file: the file layout, the date/time and position
+   * specifications, and the run type assignments. The version changes whenever
+   * any of these change, so it can be used to detect information derived from
+   * parsed files that is out of date.
+   *
+   * @return The parse version
+   * @throws DateTimeSpecificationException
+   *           If the date/time specification cannot be described
+   */
+  public long getParseVersion() throws DateTimeSpecificationException {
+    StringBuilder settings = new StringBuilder();
+    settings.append(separator).append('|');
+    settings.append(headerType).append('|');
+    settings.append(headerLines).append('|');
+    settings.append(headerEndString).append('|');
+    settings.append(columnHeaderRows).append('|');
+    settings.append(columnCount).append('|');
+    settings.append(dateTimeSpecification.getJsonString()).append('|');
+
+    if (null != longitudeSpecification) {
+      settings.append(longitudeSpecification.getJsonString());
+    }
+    settings.append('|');
+
+    if (null != latitudeSpecification) {
+      settings.append(latitudeSpecification.getJsonString());
+    }
+    settings.append('|');
+
+    if (null != runTypes) {
+      settings.append(runTypes.getColumn());
+      for (RunTypeAssignment assignment : runTypes.values()) {
+        settings.append('|').append(assignment.toString());
+      }
+    }
+
+    // 64-bit FNV-1a hash
+    long result = 0xcbf29ce484222325L;
+    for (int i = 0; i < settings.length(); i++) {
+      result ^= settings.charAt(i);
+      result *= 0x100000001b3L;
+    }
+
+    return result;
+  }
+
   /**
    * Compare the layout of this file definition to a supplied definition to see
    * if they are identical.
@@ -989,10 +1064,28 @@ public class FileDefinition implements Comparable<FileDefinition> {
    *         {@code false} if not.
    */
   public boolean fileMatches(List<String> lines) {
+    return fileMatches(lines, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Examine the contents of a file to see if they match the format of this file
+   * definition, checking the header and at most the specified number of data
+   * rows. Limiting the number of rows means that large files can be matched
+   * without reading them completely.
+   *
+   * @param lines
+   *          The file lines
+   * @param maxDataRows
+   *          The maximum number of data rows to check
+   * @return {@code true} if the file contents are compatible with this format;
+   *         {@code false} if not.
+   */
+  public boolean fileMatches(List<String> lines, int maxDataRows) {
 
     boolean matches = true;
 
     int currentLine = 0;
+    FieldTokenizer tokenizer = makeFieldTokenizer();
 
     // Check the header
     if (headerType == HEADER_TYPE_LINE_COUNT) {
@@ -1018,7 +1111,7 @@ public class FileDefinition implements Comparable<FileDefinition> {
       // Check that the first column header row contains the correct number
       // of columns. If it does, skip the total number of header rows.
       if (columnHeaderRows > 0) {
-        int firstRowColumnCount = extractFields(lines.get(currentLine)).size();
+        int firstRowColumnCount = tokenizer.tokenize(lines.get(currentLine));
 
         if (firstRowColumnCount != columnCount) {
           matches = false;
@@ -1033,12 +1126,13 @@ public class FileDefinition implements Comparable<FileDefinition> {
       // Check the remaining rows to make sure that most of them contain the
       // correct number of columns.
       // The percentage threshold is entirely arbitrary and may need adjustment.
-      int dataRows = lines.size() - currentLine;
+      int dataRows = Math.min(lines.size() - currentLine, maxDataRows);
+      int lastLine = currentLine + dataRows;
       int correctColumnCountRows = 0;
 
       if (dataRows > 0) {
-        while (currentLine < lines.size()) {
-          if (extractFields(lines.get(currentLine)).size() == columnCount) {
+        while (currentLine < lastLine) {
+          if (tokenizer.tokenize(lines.get(currentLine)) == columnCount) {
             correctColumnCountRows++;
           }
           currentLine++;
@@ -0,0 +1,388 @@
+package uk.ac.exeter.QuinCe.data.Instrument;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A precomputed index of the layouts of the file definitions in an
+ * {@link InstrumentFileSet}, used to find the definition that matches an
+ * uploaded file.
+ *
+ * <p>
+ * Matching a file against each definition in turn with
+ * {@link FileDefinition#fileMatches(List, int)} searches the header and splits
+ * the column header and data rows once per definition. The index groups
+ * definitions with identical layout signatures (header type and size, header
+ * end string, column header rows, separator and column count), since these
+ * will always give the same result. A file is then classified by locating all
+ * the header end strings in a single pass over its header, and splitting each
+ * of the first data rows once per distinct separator.
+ * </p>
+ *
+ * <p>
+ * The results are identical to calling {@link FileDefinition#fileMatches(List,
+ * int)} on each definition in order, except that a file that ends before a
+ * definition's column header row simply does not match that definition.
+ * </p>
+ *
+ * <p>
+ * The index is built on demand by {@link InstrumentFileSet#getSignatureIndex()}
+ * and discarded whenever the file set or any of its definitions' layouts
+ * change.
+ * </p>
+ */
+public class FileSignatureIndex {
+
+  /**
+   * The proportion of data rows that must have the correct number of columns
+   * for a file to match
+   */
+  private static final float MATCH_THRESHOLD = 0.75F;
+
+  /**
+   * The distinct layout signatures in the file set, in the order of their
+   * first definition
+   */
+  private final List<Signature> signatures;
+
+  /**
+   * The file definitions in the set, in order
+   */
+  private final List<FileDefinition> definitions;
+
+  /**
+   * The signature of each definition, in the same order as
+   * {@link #definitions}
+   */
+  private final List<Signature> definitionSignatures;
+
+  /**
+   * The distinct header end strings used by the definitions
+   */
+  private final List<String> headerEndStrings;
+
+  /**
+   * The distinct column separators used by the definitions
+   */
+  private final List<String> separators;
+
+  /**
+   * Build the index for a set of file definitions
+   *
+   * @param fileDefinitions
+   *          The file definitions
+   */
+  public FileSignatureIndex(List<FileDefinition> fileDefinitions) {
+    Map<String, Signature> signatureLookup = new LinkedHashMap<String, Signature>();
+
+    definitions = new ArrayList<FileDefinition>(fileDefinitions);
+    definitionSignatures = new ArrayList<Signature>(definitions.size());
+    headerEndStrings = new ArrayList<String>();
+    separators = new ArrayList<String>();
+
+    for (FileDefinition definition : definitions) {
+      Signature signature = new Signature(definition);
+      String key = signature.getKey();
+
+      if (!signatureLookup.containsKey(key)) {
+        signatureLookup.put(key, signature);
+
+        if (signature.headerType == FileDefinition.HEADER_TYPE_STRING
+          && !headerEndStrings.contains(signature.headerEndString)) {
+          headerEndStrings.add(signature.headerEndString);
+        }
+
+        if (!separators.contains(signature.separator)) {
+          separators.add(signature.separator);
+        }
+      }
+
+      definitionSignatures.add(signatureLookup.get(key));
+    }
+
+    signatures = new ArrayList<Signature>(signatureLookup.values());
+  }
+
+  /**
+   * Find the first file definition that matches the layout of a file,
+   * examining at most the specified number of data rows.
+   *
+   * @param lines
+   *          The file lines
+   * @param maxDataRows
+   *          The maximum number of data rows to check
+   * @return The matching definition, or {@code null} if no definition matches
+   */
+  public FileDefinition match(List<String> lines, int maxDataRows) {
+
+    Map<Signature, Boolean> results = classify(lines, maxDataRows);
+
+    FileDefinition result = null;
+    for (int i = 0; null == result && i < definitions.size(); i++) {
+      if (results.get(definitionSignatures.get(i))) {
+        result = definitions.get(i);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the number of distinct layout signatures in the index
+   *
+   * @return The signature count
+   */
+  public int getSignatureCount() {
+    return signatures.size();
+  }
+
+  /**
+   * Determine which signatures match a file
+   *
+   * @param lines
+   *          The file lines
+   * @param maxDataRows
+   *          The maximum number of data rows to check
+   * @return The result for each signature
+   */
+  private Map<Signature, Boolean> classify(List<String> lines,
+    int maxDataRows) {
+
+    Map<String, Integer> headerEnds = findHeaderEnds(lines);
+
+    // Work out where each signature's column headers start, and how far
+    // through the file we need to look
+    Map<Signature, Integer> columnHeaderStarts = new HashMap<Signature, Integer>();
+    int firstLine = lines.size();
+    int lastLine = 0;
+
+    for (Signature signature : signatures) {
+      int start = -1;
+
+      if (signature.headerType == FileDefinition.HEADER_TYPE_LINE_COUNT) {
+        start = signature.headerLines;
+      } else if (headerEnds.containsKey(signature.headerEndString)) {
+        start = headerEnds.get(signature.headerEndString) + 1;
+      }
+
+      columnHeaderStarts.put(signature, start);
+
+      if (start > -1 && start < lines.size()) {
+        firstLine = Math.min(firstLine, start);
+        long end = (long) start + signature.columnHeaderRows + maxDataRows;
+        lastLine = (int) Math.max(lastLine, Math.min(end, lines.size()));
+      }
+    }
+
+    // Count the fields in each line for each separator, reading each line
+    // only once
+    Map<String, int[]> fieldCounts = countFields(lines, firstLine, lastLine);
+
+    Map<Signature, Boolean> result = new HashMap<Signature, Boolean>();
+
+    for (Signature signature : signatures) {
+      boolean matches;
+      int start = columnHeaderStarts.get(signature);
+
+      if (start == -1) {
+        // The header end was not found
+        matches = false;
+      } else if (start >= lines.size()) {
+        // The file contains only a header. This matches if no column headers
+        // are expected (as in FileDefinition#fileMatches)
+        matches = signature.columnHeaderRows == 0;
+      } else {
+        matches = signature.matches(fieldCounts.get(signature.separator),
+          firstLine, start, lines.size(), maxDataRows);
+      }
+
+      result.put(signature, matches);
+    }
+
+    return result;
+  }
+
+  /**
+   * Find the first occurrence of each header end string in a file. Lines are
+   * read in order until all the strings are found or the file ends.
+   *
+   * @param lines
+   *          The file lines
+   * @return The line containing each header end string that was found
+   */
+  private Map<String, Integer> findHeaderEnds(List<String> lines) {
+    Map<String, Integer> result = new HashMap<String, Integer>();
+
+    for (int i = 0; result.size() < headerEndStrings.size()
+      && i < lines.size(); i++) {
+
+      String line = lines.get(i);
+      if (headerEndStrings.contains(line) && !result.containsKey(line)) {
+        result.put(line, i);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Count the fields in a range of lines for each of the separators used by
+   * the file definitions
+   *
+   * @param lines
+   *          The file lines
+   * @param firstLine
+   *          The first line to count
+   * @param lastLine
+   *          The line after the last line to count
+   * @return The field counts for each separator. Entry {@code i} is the count
+   *         for line {@code firstLine + i}.
+   */
+  private Map<String, int[]> countFields(List<String> lines, int firstLine,
+    int lastLine) {
+
+    Map<String, int[]> result = new HashMap<String, int[]>();
+    List<FieldTokenizer> tokenizers = new ArrayList<FieldTokenizer>(
+      separators.size());
+    List<int[]> counts = new ArrayList<int[]>(separators.size());
+
+    int lineCount = Math.max(0, lastLine - firstLine);
+
+    for (String separator : separators) {
+      tokenizers.add(new FieldTokenizer(separator));
+      int[] separatorCounts = new int[lineCount];
+      counts.add(separatorCounts);
+      result.put(separator, separatorCounts);
+    }
+
+    for (int i = 0; i < lineCount; i++) {
+      String line = lines.get(firstLine + i);
+      for (int s = 0; s < tokenizers.size(); s++) {
+        counts.get(s)[i] = tokenizers.get(s).tokenize(line);
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * The layout signature of a file definition. Definitions with the same
+   * signature match exactly the same files.
+   */
+  private static class Signature {
+
+    /**
+     * The header type
+     */
+    private final int headerType;
+
+    /**
+     * The number of header lines
+     */
+    private final int headerLines;
+
+    /**
+     * The header end string
+     */
+    private final String headerEndString;
+
+    /**
+     * The number of column header rows
+     */
+    private final int columnHeaderRows;
+
+    /**
+     * The column separator
+     */
+    private final String separator;
+
+    /**
+     * The number of columns
+     */
+    private final int columnCount;
+
+    /**
+     * Extract the signature of a file definition
+     *
+     * @param definition
+     *          The file definition
+     */
+    private Signature(FileDefinition definition) {
+      this.headerType = definition.getHeaderType();
+      this.headerLines = headerType == FileDefinition.HEADER_TYPE_LINE_COUNT
+        ? definition.getHeaderLines()
+        : 0;
+      this.headerEndString = headerType == FileDefinition.HEADER_TYPE_STRING
+        ? definition.getHeaderEndString()
+        : null;
+      this.columnHeaderRows = definition.getColumnHeaderRows();
+      this.separator = definition.getSeparator();
+      this.columnCount = definition.getColumnCount();
+    }
+
+    /**
+     * Get a key that uniquely identifies the signature
+     *
+     * @return The key
+     */
+    private String getKey() {
+      return headerType + "\u0000" + headerLines + "\u0000" + headerEndString
+        + "\u0000" + columnHeaderRows + "\u0000" + separator + "\u0000"
+        + columnCount;
+    }
+
+    /**
+     * Determine whether a file matches this signature, using the precomputed
+     * field counts for the file's lines
+     *
+     * @param fieldCounts
+     *          The field counts for this signature's separator
+     * @param countsStart
+     *          The line number of the first entry in {@code fieldCounts}
+     * @param start
+     *          The line number of the first column header row
+     * @param lineCount
+     *          The number of lines in the file
+     * @param maxDataRows
+     *          The maximum number of data rows to check
+     * @return {@code true} if the file matches; {@code false} if not
+     */
+    private boolean matches(int[] fieldCounts, int countsStart, int start,
+      int lineCount, int maxDataRows) {
+
+      boolean result = true;
+      int currentLine = start;
+
+      if (columnHeaderRows > 0) {
+        if (fieldCounts[currentLine - countsStart] != columnCount) {
+          result = false;
+        } else {
+          currentLine += columnHeaderRows;
+        }
+      }
+
+      if (result) {
+        int dataRows = Math.min(lineCount - currentLine, maxDataRows);
+        int correctColumnCountRows = 0;
+
+        if (dataRows > 0) {
+          for (int i = 0; i < dataRows; i++) {
+            if (fieldCounts[currentLine + i - countsStart] == columnCount) {
+              correctColumnCountRows++;
+            }
+          }
+
+          if ((float) correctColumnCountRows
+            / (float) dataRows < MATCH_THRESHOLD) {
+            result = false;
+          }
+        }
+      }
+
+      return result;
+    }
+  }
+}
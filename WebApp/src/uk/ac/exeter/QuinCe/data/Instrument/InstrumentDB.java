@@ -347,6 +347,9 @@ public class InstrumentDB {
             keyResultSets.add(fileColumnKey);
           }
         }
+
+        // The assignments now have database IDs
+        instrument.getSensorAssignments().rebuildLookups();
       }
 
       conn.commit();
@@ -16,6 +16,18 @@ public class InstrumentFileSet extends ArrayList<FileDefinition> {
    */
   private static final long serialVersionUID = -998081927701592751L;
 
+  /**
+   * The cached signature index for the file definitions
+   *
+   * @see #getSignatureIndex()
+   */
+  private transient volatile FileSignatureIndex signatureIndex = null;
+
+  /**
+   * The value of {@link #modCount} when the {@link #signatureIndex} was built
+   */
+  private transient int signatureIndexModCount = -1;
+
   /**
    * Simple constructor to create an empty set
    */
@@ -39,6 +51,54 @@ public class InstrumentFileSet extends ArrayList<FileDefinition> {
     return result;
   }
 
+  @Override
+  public FileDefinition set(int index, FileDefinition file) {
+    invalidateSignatureIndex();
+    return super.set(index, file);
+  }
+
+  /**
+   * Get the signature index used to match files to the file definitions in
+   * this set. The index is built when it is first requested, and rebuilt if
+   * the set or any of its definitions have changed since.
+   *
+   * @return The signature index
+   */
+  public FileSignatureIndex getSignatureIndex() {
+    FileSignatureIndex result = signatureIndex;
+
+    if (null == result || signatureIndexModCount != modCount) {
+      result = new FileSignatureIndex(this);
+      signatureIndexModCount = modCount;
+      signatureIndex = result;
+    }
+
+    return result;
+  }
+
+  /**
+   * Discard the cached signature index. This must be called if the layout of
+   * any file definition in the set is changed.
+   */
+  protected void invalidateSignatureIndex() {
+    signatureIndex = null;
+  }
+
+  /**
+   * Find the first file definition in the set that matches the layout of a
+   * file, examining at most the specified number of data rows.
+   *
+   * @param lines
+   *          The file lines
+   * @param maxDataRows
+   *          The maximum number of data rows to check
+   * @return The matching definition, or {@code null} if no definition matches
+   * @see FileSignatureIndex#match(List, int)
+   */
+  public FileDefinition matchFile(List<String> lines, int maxDataRows) {
+    return getSignatureIndex().match(lines, maxDataRows);
+  }
+
   /**
    * Determine whether or not the file set contains a file definition with the
    * specified description
@@ -3,6 +3,8 @@ package uk.ac.exeter.QuinCe.data.Instrument.SensorDefinition;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -43,6 +45,30 @@ public class SensorAssignments
    */
   private List<Long> variableIDs;
 
+  /**
+   * Lookup of file column database IDs to their {@link SensorType}s.
+   *
+   * <p>
+   * This and the other lookup tables are derived from the assignments, and are
+   * replaced whenever the assignments change (see {@link #rebuildLookups()}).
+   * </p>
+   */
+  private Map<Long, SensorType> columnSensorTypes = Collections.emptyMap();
+
+  /**
+   * Lookup of file column database IDs to their {@link SensorAssignment}s.
+   */
+  private Map<Long, SensorAssignment> columnAssignments = Collections
+    .emptyMap();
+
+  /**
+   * Lookup of {@link SensorType}s to the database IDs of their assigned
+   * columns. Only {@link SensorType}s with at least one assignment are
+   * included.
+   */
+  private Map<SensorType, List<Long>> sensorTypeColumns = Collections
+    .emptyMap();
+
   /**
    * Initialise the assignments for the specified list of {@link Variable}s,
    * using a database {@link Connection}.
@@ -276,7 +302,7 @@ public class SensorAssignments
    * @return {@code true} if the sensor has been assigned; {@code false} if not
    */
   public boolean isAssigned(SensorType sensorType) {
-    return isAssigned(sensorType, false, false);
+    return sensorTypeColumns.containsKey(sensorType);
   }
 
   /**
@@ -549,6 +575,7 @@ public class SensorAssignments
           + " is not valid for this instrument");
     }
     assignments.add(assignment);
+    rebuildLookups();
   }
 
   /**
@@ -579,6 +606,10 @@ public class SensorAssignments
       }
     }
 
+    if (null != removed) {
+      rebuildLookups();
+    }
+
     return removed;
   }
 
@@ -602,6 +633,53 @@ public class SensorAssignments
 
       assignments.removeAll(assignmentsToRemove);
     }
+
+    rebuildLookups();
+  }
+
+  /**
+   * Rebuild the lookup tables of column IDs and {@link SensorType}s from the
+   * current assignments.
+   *
+   * <p>
+   * This is called automatically when assignments are added or removed. It
+   * must also be called if the database IDs of the assignments are changed
+   * after they have been added, e.g. when a new instrument is stored.
+   * </p>
+   *
+   * <p>
+   * Assignments that have not yet been stored in the database do not appear
+   * in the column ID lookups.
+   * </p>
+   */
+  public void rebuildLookups() {
+    Map<Long, SensorType> newColumnSensorTypes = new HashMap<Long, SensorType>();
+    Map<Long, SensorAssignment> newColumnAssignments = new HashMap<Long, SensorAssignment>();
+    Map<SensorType, List<Long>> newSensorTypeColumns = new HashMap<SensorType, List<Long>>();
+
+    for (Map.Entry<SensorType, List<SensorAssignment>> entry : entrySet()) {
+      List<SensorAssignment> assignments = entry.getValue();
+      if (assignments.size() > 0) {
+        List<Long> columnIds = new ArrayList<Long>(assignments.size());
+
+        for (SensorAssignment assignment : assignments) {
+          long columnId = assignment.getDatabaseId();
+          columnIds.add(columnId);
+
+          if (columnId != DatabaseUtils.NO_DATABASE_RECORD) {
+            newColumnSensorTypes.put(columnId, entry.getKey());
+            newColumnAssignments.put(columnId, assignment);
+          }
+        }
+
+        newSensorTypeColumns.put(entry.getKey(),
+          Collections.unmodifiableList(columnIds));
+      }
+    }
+
+    columnSensorTypes = Collections.unmodifiableMap(newColumnSensorTypes);
+    columnAssignments = Collections.unmodifiableMap(newColumnAssignments);
+    sensorTypeColumns = Collections.unmodifiableMap(newSensorTypeColumns);
   }
 
   /**
@@ -695,23 +773,24 @@ public class SensorAssignments
     } else if (columnId == FileDefinition.LATITUDE_COLUMN_ID) {
       result = SensorType.LATITUDE_SENSOR_TYPE;
     } else {
-      for (SensorType sensorType : keySet()) {
-        for (SensorAssignment assignment : get(sensorType)) {
-          if (assignment.getDatabaseId() == columnId) {
-            result = sensorType;
-            break;
-          }
-        }
-
-        if (null != result) {
-          break;
-        }
-      }
+      result = columnSensorTypes.get(columnId);
     }
 
     return result;
   }
 
+  /**
+   * Get the sensor assignment with a given File Column database ID. Returns
+   * {@code null} if there is no such assignment.
+   *
+   * @param columnId
+   *          The file column database ID
+   * @return The sensor assignment
+   */
+  public SensorAssignment getAssignmentForDBColumn(long columnId) {
+    return columnAssignments.get(columnId);
+  }
+
   /**
    * Get the database IDs for the columns assigned as Run Type.
    *
@@ -823,30 +902,21 @@ public class SensorAssignments
       SensorsConfiguration sensorConfig = ResourceManager.getInstance()
         .getSensorsConfiguration();
 
-      Set<SensorType> sensorTypes;
-
       if (sensorConfig.isParent(sensorType)) {
-        sensorTypes = sensorConfig.getChildren(sensorType);
-      } else {
-        sensorTypes = new HashSet<SensorType>();
-        sensorTypes.add(sensorType);
-      }
-
-      for (SensorType type : sensorTypes) {
-        List<SensorAssignment> assignments = get(type);
-        if (null != assignments) {
-
-          result = new ArrayList<Long>(assignments.size());
-
-          for (SensorAssignment assignment : assignments) {
-            result.add(assignment.getDatabaseId());
+        result = new ArrayList<Long>();
+        for (SensorType child : sensorConfig.getChildren(sensorType)) {
+          List<Long> childColumns = sensorTypeColumns.get(child);
+          if (null != childColumns) {
+            result.addAll(childColumns);
           }
         }
+      } else {
+        result = sensorTypeColumns.get(sensorType);
       }
     }
 
     if (null == result) {
-      result = new ArrayList<Long>(0);
+      result = Collections.emptyList();
     }
 
     return result;
@@ -14,6 +14,7 @@ import org.apache.commons.lang3.exception.ExceptionUtils;
 import uk.ac.exeter.QuinCe.data.Dataset.DataSet;
 import uk.ac.exeter.QuinCe.data.Dataset.DataSetDB;
 import uk.ac.exeter.QuinCe.data.Dataset.DataSetDataDB;
+import uk.ac.exeter.QuinCe.data.Dataset.DatasetCache;
 import uk.ac.exeter.QuinCe.data.Dataset.DatasetSensorValues;
 import uk.ac.exeter.QuinCe.data.Dataset.InvalidDataSetStatusException;
 import uk.ac.exeter.QuinCe.data.Dataset.SearchableSensorValuesList;
@@ -241,9 +242,14 @@ public class AutoQCJob extends DataSetJob {
 
       conn.commit();
 
+      // Sensor values loaded before the commit are out of date
+      DataSetDataDB.getDatasetCache().invalidate(dataSet.getId(),
+        DatasetCache.Item.SENSOR_VALUES);
+
     } catch (Exception e) {
       e.printStackTrace();
       DatabaseUtils.rollBack(conn);
+      DataSetDataDB.getDatasetCache().invalidate(getDatsetId());
       try {
         // Set the dataset to Error status
         getDataset(conn).setStatus(DataSet.STATUS_ERROR);
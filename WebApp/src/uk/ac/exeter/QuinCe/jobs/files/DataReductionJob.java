@@ -13,6 +13,8 @@ import uk.ac.exeter.QuinCe.api.nrt.MakeNrtDataset;
 import uk.ac.exeter.QuinCe.data.Dataset.DataSet;
 import uk.ac.exeter.QuinCe.data.Dataset.DataSetDB;
 import uk.ac.exeter.QuinCe.data.Dataset.DataSetDataDB;
+import uk.ac.exeter.QuinCe.data.Dataset.DatasetCache;
+import uk.ac.exeter.QuinCe.data.Dataset.DatasetCache.Lease;
 import uk.ac.exeter.QuinCe.data.Dataset.DatasetMeasurements;
 import uk.ac.exeter.QuinCe.data.Dataset.DatasetSensorValues;
 import uk.ac.exeter.QuinCe.data.Dataset.InvalidDataSetStatusException;
@@ -79,6 +81,8 @@ public class DataReductionJob extends DataSetJob {
   protected void execute(JobThread thread) throws JobFailedException {
 
     Connection conn = null;
+    Lease<DatasetSensorValues> sensorValuesLease = null;
+    Lease<DatasetMeasurements> measurementsLease = null;
 
     try {
       conn = dataSource.getConnection();
@@ -93,13 +97,16 @@ public class DataReductionJob extends DataSetJob {
 
       conn.setAutoCommit(false);
 
-      // Load all the sensor values for this dataset
-      DatasetSensorValues allSensorValues = DataSetDataDB.getSensorValues(conn,
-        instrument, dataSet.getId(), false);
+      // Load all the sensor values for this dataset. These are shared with
+      // any other users of the dataset through the cache.
+      sensorValuesLease = DataSetDataDB.getDatasetCache()
+        .getSensorValues(conn, instrument, dataSet.getId());
+      DatasetSensorValues allSensorValues = sensorValuesLease.get();
 
       // Get all the measurements grouped by run type
-      DatasetMeasurements allMeasurements = DataSetDataDB
-        .getMeasurementsByRunType(conn, instrument, dataSet.getId());
+      measurementsLease = DataSetDataDB.getDatasetCache()
+        .getMeasurements(conn, instrument, dataSet.getId());
+      DatasetMeasurements allMeasurements = measurementsLease.get();
 
       // Cache of data reducers
       Map<Variable, DataReducer> reducers = new HashMap<Variable, DataReducer>();
@@ -187,12 +194,16 @@ public class DataReductionJob extends DataSetJob {
         }
       }
 
-      DataSetDataDB.storeDataReduction(conn, dataReductionRecords);
+      DataSetDataDB.storeDataReduction(conn, dataSet.getId(),
+        dataReductionRecords);
 
       // If the thread was interrupted, undo everything
       if (thread.isInterrupted()) {
         conn.rollback();
 
+        // The cached measurements have values that are no longer stored
+        DataSetDataDB.getDatasetCache().invalidate(dataSet.getId());
+
         // Requeue the data reduction job
         JobManager.requeueJob(conn, id);
       } else {
@@ -218,8 +229,13 @@ public class DataReductionJob extends DataSetJob {
       }
 
       conn.commit();
+
+      // Data reduction records loaded before the commit are out of date
+      DataSetDataDB.getDatasetCache().invalidate(dataSet.getId(),
+        DatasetCache.Item.DATA_REDUCTION);
     } catch (Exception e) {
       DatabaseUtils.rollBack(conn);
+      DataSetDataDB.getDatasetCache().invalidate(getDatsetId());
       e.printStackTrace();
       try {
         // Change dataset status to Error, and append an error message
@@ -239,6 +255,12 @@ public class DataReductionJob extends DataSetJob {
 
       throw new JobFailedException(id, e);
     } finally {
+      if (null != sensorValuesLease) {
+        sensorValuesLease.close();
+      }
+      if (null != measurementsLease) {
+        measurementsLease.close();
+      }
       if (null != conn) {
         try {
           conn.setAutoCommit(true);
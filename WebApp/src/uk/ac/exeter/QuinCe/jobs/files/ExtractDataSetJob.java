@@ -3,17 +3,25 @@ package uk.ac.exeter.QuinCe.jobs.files;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map.Entry;
+import java.util.Map;
 import java.util.Properties;
-import java.util.TreeSet;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.lang3.exception.ExceptionUtils;
 
 import uk.ac.exeter.QuinCe.data.Dataset.DataSet;
 import uk.ac.exeter.QuinCe.data.Dataset.DataSetDB;
 import uk.ac.exeter.QuinCe.data.Dataset.DataSetDataDB;
+import uk.ac.exeter.QuinCe.data.Dataset.DatasetCache;
 import uk.ac.exeter.QuinCe.data.Dataset.InvalidDataSetStatusException;
 import uk.ac.exeter.QuinCe.data.Dataset.RunTypePeriod;
 import uk.ac.exeter.QuinCe.data.Dataset.RunTypePeriods;
@@ -21,12 +29,9 @@ import uk.ac.exeter.QuinCe.data.Dataset.SensorValue;
 import uk.ac.exeter.QuinCe.data.Dataset.QC.Flag;
 import uk.ac.exeter.QuinCe.data.Files.DataFile;
 import uk.ac.exeter.QuinCe.data.Files.DataFileDB;
-import uk.ac.exeter.QuinCe.data.Instrument.FileDefinition;
 import uk.ac.exeter.QuinCe.data.Instrument.Instrument;
-import uk.ac.exeter.QuinCe.data.Instrument.Calibration.Calibration;
 import uk.ac.exeter.QuinCe.data.Instrument.Calibration.CalibrationSet;
 import uk.ac.exeter.QuinCe.data.Instrument.Calibration.SensorCalibrationDB;
-import uk.ac.exeter.QuinCe.data.Instrument.DataFormats.DateTimeSpecificationException;
 import uk.ac.exeter.QuinCe.data.Instrument.RunTypes.RunTypeCategory;
 import uk.ac.exeter.QuinCe.data.Instrument.SensorDefinition.SensorAssignment;
 import uk.ac.exeter.QuinCe.data.Instrument.SensorDefinition.SensorType;
@@ -36,9 +41,9 @@ import uk.ac.exeter.QuinCe.jobs.JobManager;
 import uk.ac.exeter.QuinCe.jobs.JobThread;
 import uk.ac.exeter.QuinCe.utils.DatabaseException;
 import uk.ac.exeter.QuinCe.utils.DatabaseUtils;
-import uk.ac.exeter.QuinCe.utils.DateTimeUtils;
 import uk.ac.exeter.QuinCe.utils.MissingParamException;
 import uk.ac.exeter.QuinCe.utils.RecordNotFoundException;
+import uk.ac.exeter.QuinCe.utils.SortedRunMerger;
 import uk.ac.exeter.QuinCe.web.system.ResourceManager;
 
 /**
@@ -88,6 +93,11 @@ public class ExtractDataSetJob extends DataSetJob {
     try {
 
       conn = dataSource.getConnection();
+
+      // This reset runs outside the transaction, so a partitioned
+      // sensor_values table has the dataset's partition truncated or created
+      // here. The reset inside the transaction below can then use plain
+      // deletes that are rolled back if the job fails.
       reset(conn);
 
       // Get the new data set from the database
@@ -109,12 +119,13 @@ public class ExtractDataSetJob extends DataSetJob {
       reset(conn);
       conn.commit();
 
+      // Data loaded before the commit is out of date
+      DataSetDataDB.getDatasetCache().invalidate(dataSet.getId());
+
       List<DataFile> files = DataFileDB.getDataFiles(conn,
         ResourceManager.getInstance().getConfig(),
         dataSet.getSourceFiles(conn));
 
-      TreeSet<SensorValue> sensorValues = new TreeSet<SensorValue>();
-
       // We want to store when run types begin and end
       RunTypePeriods runTypePeriods = new RunTypePeriods();
 
@@ -122,10 +133,20 @@ public class ExtractDataSetJob extends DataSetJob {
         .getMostRecentCalibrations(conn, instrument.getDatabaseId(),
           dataSet.getStart());
 
+      // Extract the files for each file definition in parallel, and merge the
+      // time-sorted results
+      List<FileDefinitionExtractor> extractors = extractFiles(dataSet,
+        instrument, sensorCalibrations, files);
+
+      List<List<SensorValue>> runs = new ArrayList<List<SensorValue>>(
+        extractors.size());
+      int valueCount = 0;
+
       // Collect the true start and end times of the dataset based on the
       // actual data
       LocalDateTime realStartTime = null;
       LocalDateTime realEndTime = dataSet.getEnd();
+      LocalDateTime lastExtractedTime = null;
 
       // Collect the data bounds
       double minLon = Double.MAX_VALUE;
@@ -133,125 +154,48 @@ public class ExtractDataSetJob extends DataSetJob {
       double minLat = Double.MAX_VALUE;
       double maxLat = -Double.MAX_VALUE;
 
-      for (DataFile file : files) {
-        FileDefinition fileDefinition = file.getFileDefinition();
-
-        int currentLine = file.getFirstDataLine();
-        while (currentLine < file.getContentLineCount()) {
-
-          try {
-
-            List<String> line = file.getLine(currentLine);
-            LocalDateTime time = file.getDate(line);
-
-            if ((time.equals(dataSet.getStart())
-              || time.isAfter(dataSet.getStart()))
-              && (time.isBefore(dataSet.getEnd())
-                || time.isEqual(dataSet.getEnd()))) {
-
-              if (null == realStartTime && null != time) {
-                realStartTime = time;
-              }
-
-              realEndTime = time;
+      for (FileDefinitionExtractor extractor : extractors) {
+        runs.add(extractor.getSensorValues());
+        valueCount += extractor.getSensorValues().size();
 
-              if (null != fileDefinition.getLongitudeSpecification()) {
-
-                String longitude = file.getLongitude(line);
-
-                sensorValues.add(new SensorValue(dataSet.getId(),
-                  FileDefinition.LONGITUDE_COLUMN_ID, time, longitude));
-
-                if (null != longitude) {
-                  try {
-                    double lonDouble = Double.parseDouble(longitude);
-                    if (lonDouble < minLon) {
-                      minLon = lonDouble;
-                    }
-
-                    if (lonDouble > maxLon) {
-                      maxLon = lonDouble;
-                    }
-                  } catch (NumberFormatException e) {
-                    // Ignore it now. QC will pick it up later.
-                  }
-                }
-              }
-
-              if (null != fileDefinition.getLatitudeSpecification()) {
+        if (null != extractor.getFirstTime() && (null == realStartTime
+          || extractor.getFirstTime().isBefore(realStartTime))) {
+          realStartTime = extractor.getFirstTime();
+        }
 
-                String latitude = file.getLatitude(line);
+        if (null != extractor.getLastTime() && (null == lastExtractedTime
+          || extractor.getLastTime().isAfter(lastExtractedTime))) {
+          lastExtractedTime = extractor.getLastTime();
+        }
 
-                sensorValues.add(new SensorValue(dataSet.getId(),
-                  FileDefinition.LATITUDE_COLUMN_ID, time, latitude));
+        minLon = Math.min(minLon, extractor.getMinLon());
+        maxLon = Math.max(maxLon, extractor.getMaxLon());
+        minLat = Math.min(minLat, extractor.getMinLat());
+        maxLat = Math.max(maxLat, extractor.getMaxLat());
+      }
 
-                if (null != latitude) {
-                  try {
-                    double latDouble = Double.parseDouble(latitude);
-                    if (latDouble < minLat) {
-                      minLat = latDouble;
-                    }
+      if (null != lastExtractedTime) {
+        realEndTime = lastExtractedTime;
+      }
 
-                    if (latDouble > maxLat) {
-                      maxLat = latDouble;
-                    }
-                  } catch (NumberFormatException e) {
-                    // Ignore it now. QC will pick it up later.
-                  }
-                }
-              }
+      Set<Long> runTypeColumns = new HashSet<Long>();
+      List<SensorAssignment> runTypeAssignments = instrument
+        .getSensorAssignments().get(SensorType.RUN_TYPE_SENSOR_TYPE);
+      if (null != runTypeAssignments) {
+        for (SensorAssignment assignment : runTypeAssignments) {
+          runTypeColumns.add(assignment.getDatabaseId());
+        }
+      }
 
-              // Assigned columns
-              for (Entry<SensorType, List<SensorAssignment>> entry : instrument
-                .getSensorAssignments().entrySet()) {
-
-                for (SensorAssignment assignment : entry.getValue()) {
-                  if (assignment.getDataFile()
-                    .equals(fileDefinition.getFileDescription())) {
-
-                    // For run types, follow all aliases
-                    if (entry.getKey()
-                      .equals(SensorType.RUN_TYPE_SENSOR_TYPE)) {
-                      String runType = file.getFileDefinition()
-                        .getRunType(line, true).getRunName();
-
-                      sensorValues.add(new SensorValue(dataSet.getId(),
-                        assignment.getDatabaseId(), time, runType));
-
-                      runTypePeriods.add(runType, time);
-                    } else {
-
-                      // Create the SensorValue object
-                      SensorValue value = new SensorValue(dataSet.getId(),
-                        assignment.getDatabaseId(), time,
-                        file.getStringValue(line, assignment.getColumn(),
-                          assignment.getMissingValue()));
-
-                      // Apply calibration if required
-                      Calibration sensorCalibration = sensorCalibrations
-                        .getTargetCalibration(
-                          String.valueOf(assignment.getDatabaseId()));
-
-                      if (null != sensorCalibration) {
-                        value.calibrateValue(sensorCalibration);
-                      }
-
-                      // Add to storage list
-                      sensorValues.add(value);
-                    }
-                  }
-                }
-              }
-            }
-          } catch (DateTimeSpecificationException e) {
-            // Log the error but continue with the next line
-            System.out.println(
-              "*** DATA EXTRACTION ERROR IN FILE " + file.getDatabaseId() + "("
-                + file.getFilename() + ") line " + currentLine);
-            e.printStackTrace();
-          }
+      List<SensorValue> sensorValues = new ArrayList<SensorValue>(valueCount);
+      SortedRunMerger<SensorValue> merger = new SortedRunMerger<SensorValue>(
+        runs);
+      while (merger.hasNext()) {
+        SensorValue value = merger.next();
+        sensorValues.add(value);
 
-          currentLine++;
+        if (runTypeColumns.contains(value.getColumnId())) {
+          runTypePeriods.add(value.getValue(), value.getTimeMillis());
         }
       }
 
@@ -283,8 +227,8 @@ public class ExtractDataSetJob extends DataSetJob {
               //
               // In this case, simply use the next known run type. Otherwise we
               // find the run type that the timestamp is in.
-              if (value.getTime().isBefore(currentPeriod.getStart())
-                || currentPeriod.encompasses(value.getTime())) {
+              if (value.getTimeMillis() < currentPeriod.getStartMillis()
+                || currentPeriod.encompasses(value.getTimeMillis())) {
                 periodFound = true;
               } else {
                 currentPeriodIndex++;
@@ -296,7 +240,7 @@ public class ExtractDataSetJob extends DataSetJob {
             if (instrument.getRunTypeCategory(currentPeriod.getRunType())
               .equals(RunTypeCategory.IGNORED)) {
               value.setValue(null);
-            } else if (inFlushingPeriod(value.getTime(), currentPeriod,
+            } else if (inFlushingPeriod(value.getTimeMillis(), currentPeriod,
               instrument)) {
 
               // Flag flushing values
@@ -308,7 +252,13 @@ public class ExtractDataSetJob extends DataSetJob {
 
       // Store the remaining values
       if (sensorValues.size() > 0) {
+        long storeStart = System.currentTimeMillis();
         DataSetDataDB.storeSensorValues(conn, sensorValues);
+        long storeTime = Math.max(1, System.currentTimeMillis() - storeStart);
+
+        System.out.println("Job " + id + ": Stored " + sensorValues.size()
+          + " sensor values in " + storeTime + "ms ("
+          + (sensorValues.size() * 1000L / storeTime) + " rows/s)");
       }
 
       // Adjust the Dataset limits to the actual extracted data
@@ -332,9 +282,14 @@ public class ExtractDataSetJob extends DataSetJob {
         AutoQCJob.class.getCanonicalName(), jobProperties);
 
       conn.commit();
+
+      // Sensor values loaded before the commit are out of date
+      DataSetDataDB.getDatasetCache().invalidate(dataSet.getId(),
+        DatasetCache.Item.SENSOR_VALUES);
     } catch (Exception e) {
       e.printStackTrace();
       DatabaseUtils.rollBack(conn);
+      DataSetDataDB.getDatasetCache().invalidate(getDatsetId());
       try {
         // Set the dataset to Error status
         getDataset(conn).setStatus(DataSet.STATUS_ERROR);
@@ -363,8 +318,81 @@ public class ExtractDataSetJob extends DataSetJob {
     }
   }
 
-  private boolean inFlushingPeriod(LocalDateTime time,
-    RunTypePeriod runTypePeriod, Instrument instrument) {
+  /**
+   * Extract the sensor values from a set of data files. The files for each
+   * file definition are extracted by a separate {@link FileDefinitionExtractor}
+   * and, if there is more than one file definition, the extractors are run in
+   * parallel.
+   *
+   * @param dataSet
+   *          The data set being extracted
+   * @param instrument
+   *          The instrument that the data set belongs to
+   * @param sensorCalibrations
+   *          The sensor calibrations for the data set
+   * @param files
+   *          The files, in time order
+   * @return The completed extractors, in order of the first file for each file
+   *         definition
+   * @throws Exception
+   *           If any extraction fails
+   */
+  private List<FileDefinitionExtractor> extractFiles(DataSet dataSet,
+    Instrument instrument, CalibrationSet sensorCalibrations,
+    List<DataFile> files) throws Exception {
+
+    // Group the files by file definition, preserving their order
+    Map<String, List<DataFile>> definitionFiles = new LinkedHashMap<String, List<DataFile>>();
+    for (DataFile file : files) {
+      String key = file.getFileDefinition().getFileDescription().toLowerCase();
+      if (!definitionFiles.containsKey(key)) {
+        definitionFiles.put(key, new ArrayList<DataFile>());
+      }
+      definitionFiles.get(key).add(file);
+    }
+
+    List<FileDefinitionExtractor> extractors = new ArrayList<FileDefinitionExtractor>(
+      definitionFiles.size());
+    for (List<DataFile> group : definitionFiles.values()) {
+      extractors.add(new FileDefinitionExtractor(dataSet, instrument,
+        sensorCalibrations, group));
+    }
+
+    int threads = Math.min(extractors.size(),
+      Runtime.getRuntime().availableProcessors());
+
+    if (threads <= 1) {
+      for (FileDefinitionExtractor extractor : extractors) {
+        extractor.call();
+      }
+    } else {
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      try {
+        List<Future<FileDefinitionExtractor>> results = executor
+          .invokeAll(extractors);
+
+        for (Future<FileDefinitionExtractor> result : results) {
+          try {
+            result.get();
+          } catch (ExecutionException e) {
+            // Report the underlying failure
+            if (e.getCause() instanceof Exception) {
+              throw (Exception) e.getCause();
+            } else {
+              throw e;
+            }
+          }
+        }
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+
+    return extractors;
+  }
+
+  private boolean inFlushingPeriod(long time, RunTypePeriod runTypePeriod,
+    Instrument instrument) {
 
     boolean result = false;
 
@@ -373,11 +401,14 @@ public class ExtractDataSetJob extends DataSetJob {
     Integer postFlushingTime = instrument
       .getIntProperty(Instrument.PROP_POST_FLUSHING_TIME);
 
-    if (null != preFlushingTime && preFlushingTime > 0 && DateTimeUtils
-      .secondsBetween(runTypePeriod.getStart(), time) <= preFlushingTime) {
+    // Times are in milliseconds. The last period never ends, so it has no
+    // post-flushing time.
+    if (null != preFlushingTime && preFlushingTime > 0
+      && (time - runTypePeriod.getStartMillis()) / 1000 <= preFlushingTime) {
       result = true;
-    } else if (null != postFlushingTime && postFlushingTime > 0 && DateTimeUtils
-      .secondsBetween(time, runTypePeriod.getEnd()) <= postFlushingTime) {
+    } else if (null != postFlushingTime && postFlushingTime > 0
+      && runTypePeriod.getEndMillis() != Long.MAX_VALUE
+      && (runTypePeriod.getEndMillis() - time) / 1000 <= postFlushingTime) {
       result = true;
     }
 
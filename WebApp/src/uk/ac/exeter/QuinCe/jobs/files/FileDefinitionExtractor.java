@@ -0,0 +1,471 @@
+package uk.ac.exeter.QuinCe.jobs.files;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+
+import uk.ac.exeter.QuinCe.data.Dataset.DataSet;
+import uk.ac.exeter.QuinCe.data.Dataset.SensorValue;
+import uk.ac.exeter.QuinCe.data.Files.DataFile;
+import uk.ac.exeter.QuinCe.data.Files.DataFileLineCursor;
+import uk.ac.exeter.QuinCe.data.Files.ParsedFileCache;
+import uk.ac.exeter.QuinCe.data.Instrument.FileDefinition;
+import uk.ac.exeter.QuinCe.data.Instrument.Instrument;
+import uk.ac.exeter.QuinCe.data.Instrument.Calibration.Calibration;
+import uk.ac.exeter.QuinCe.data.Instrument.Calibration.CalibrationSet;
+import uk.ac.exeter.QuinCe.data.Instrument.DataFormats.DateTimeSpecificationException;
+import uk.ac.exeter.QuinCe.data.Instrument.SensorDefinition.SensorAssignment;
+import uk.ac.exeter.QuinCe.data.Instrument.SensorDefinition.SensorType;
+import uk.ac.exeter.QuinCe.utils.DateTimeUtils;
+
+/**
+ * Extracts the {@link SensorValue}s for a {@link DataSet} from all the files
+ * of a single {@link FileDefinition}.
+ *
+ * <p>
+ * The files are processed in the order given, and the extracted values are
+ * returned as a single list sorted in {@link SensorValue} order. Extractors
+ * for different file definitions share no mutable state, so they can be run
+ * in parallel and their results merged (see {@link ExtractDataSetJob}).
+ * </p>
+ */
+class FileDefinitionExtractor implements Callable<FileDefinitionExtractor> {
+
+  /**
+   * The data set being extracted
+   */
+  private final DataSet dataSet;
+
+  /**
+   * The files to be extracted
+   */
+  private final List<DataFile> files;
+
+  /**
+   * The file definition of the files
+   */
+  private final FileDefinition fileDefinition;
+
+  /**
+   * The sensor assignments for the file definition
+   */
+  private final List<SensorAssignment> assignments;
+
+  /**
+   * Indicates which of the {@link #assignments} are run types
+   */
+  private final boolean[] runTypeAssignments;
+
+  /**
+   * The calibrations to apply to each of the {@link #assignments}
+   */
+  private final Calibration[] calibrations;
+
+  /**
+   * The values of the {@link #assignments} for the line being extracted
+   */
+  private final String[] lineValues;
+
+  /**
+   * The extracted values
+   */
+  private List<SensorValue> sensorValues = null;
+
+  /**
+   * The time of the first line within the data set
+   */
+  private LocalDateTime firstTime = null;
+
+  /**
+   * The time of the last line within the data set
+   */
+  private LocalDateTime lastTime = null;
+
+  /**
+   * The minimum longitude
+   */
+  private double minLon = Double.MAX_VALUE;
+
+  /**
+   * The maximum longitude
+   */
+  private double maxLon = -Double.MAX_VALUE;
+
+  /**
+   * The minimum latitude
+   */
+  private double minLat = Double.MAX_VALUE;
+
+  /**
+   * The maximum latitude
+   */
+  private double maxLat = -Double.MAX_VALUE;
+
+  /**
+   * Set up an extractor for a set of files. All files must have the same file
+   * definition.
+   *
+   * @param dataSet
+   *          The data set being extracted
+   * @param instrument
+   *          The instrument that the data set belongs to
+   * @param sensorCalibrations
+   *          The sensor calibrations for the data set
+   * @param files
+   *          The files
+   */
+  protected FileDefinitionExtractor(DataSet dataSet, Instrument instrument,
+    CalibrationSet sensorCalibrations, List<DataFile> files) {
+
+    this.dataSet = dataSet;
+    this.files = files;
+    this.fileDefinition = files.get(0).getFileDefinition();
+
+    // Resolve the assignments and calibrations once instead of for every line
+    assignments = new ArrayList<SensorAssignment>();
+    List<Boolean> runTypes = new ArrayList<Boolean>();
+
+    for (Entry<SensorType, List<SensorAssignment>> entry : instrument
+      .getSensorAssignments().entrySet()) {
+
+      for (SensorAssignment assignment : entry.getValue()) {
+        if (assignment.getDataFile()
+          .equals(fileDefinition.getFileDescription())) {
+          assignments.add(assignment);
+          runTypes.add(entry.getKey().equals(SensorType.RUN_TYPE_SENSOR_TYPE));
+        }
+      }
+    }
+
+    lineValues = new String[assignments.size()];
+    runTypeAssignments = new boolean[assignments.size()];
+    calibrations = new Calibration[assignments.size()];
+    for (int i = 0; i < assignments.size(); i++) {
+      runTypeAssignments[i] = runTypes.get(i);
+      calibrations[i] = sensorCalibrations.getTargetCalibration(
+        String.valueOf(assignments.get(i).getDatabaseId()));
+    }
+  }
+
+  @Override
+  public FileDefinitionExtractor call() throws Exception {
+    sensorValues = new ArrayList<SensorValue>();
+
+    for (DataFile file : files) {
+      extractFile(file);
+    }
+
+    // Lines are normally in time order already, so this is close to linear
+    Collections.sort(sensorValues);
+    return this;
+  }
+
+  /**
+   * Extract the values from a single file. The file's parsed contents are
+   * read from the file store's cache if possible; otherwise the file text is
+   * parsed.
+   *
+   * @param file
+   *          The file
+   * @throws Exception
+   *           If the file cannot be read
+   */
+  private void extractFile(DataFile file) throws Exception {
+    try (ParsedFileCache cache = file.getParseCache(dataSet.getStart(),
+      dataSet.getEnd())) {
+
+      if (null != cache && canUseCache(cache)) {
+        extractCachedFile(file, cache);
+      } else {
+        extractTextFile(file);
+      }
+    }
+  }
+
+  /**
+   * Determine whether a file's cached contents include all the values needed
+   * for extraction
+   *
+   * @param cache
+   *          The cache
+   * @return {@code true} if the cache can be used; {@code false} if not
+   */
+  private boolean canUseCache(ParsedFileCache cache) {
+    boolean result = (null == fileDefinition.getLongitudeSpecification()
+      || cache.hasLongitude())
+      && (null == fileDefinition.getLatitudeSpecification()
+        || cache.hasLatitude());
+
+    for (int i = 0; result && i < assignments.size(); i++) {
+      if (runTypeAssignments[i]) {
+        result = cache.hasRunTypes();
+      } else {
+        result = assignments.get(i).getColumn() < cache.getFieldCount();
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Extract the values from a file's cached contents. The file's time index
+   * is used to skip rows that lie outside the data set's time period, and
+   * only the rows within the period are converted to values.
+   *
+   * @param file
+   *          The file
+   * @param cache
+   *          The file's cached contents
+   * @throws Exception
+   *           If the values cannot be extracted
+   */
+  private void extractCachedFile(DataFile file, ParsedFileCache cache)
+    throws Exception {
+
+    long start = DateTimeUtils.dateToLong(dataSet.getStart());
+    long end = DateTimeUtils.dateToLong(dataSet.getEnd());
+
+    int firstRow = cache.getRow(file.getStartLine(dataSet.getStart()));
+    int endRow = cache.getRow(file.getEndLine(dataSet.getEnd()));
+
+    for (int row = firstRow; row < endRow; row++) {
+      long time = cache.getTime(row);
+
+      if (time == ParsedFileCache.NO_TIME) {
+        // Log the error but continue with the next line
+        System.out.println(
+          "*** DATA EXTRACTION ERROR IN FILE " + file.getDatabaseId() + "("
+            + file.getFilename() + ") line " + cache.getLineNumber(row));
+      } else if (time >= start && time <= end) {
+
+        String longitude = null;
+        if (null != fileDefinition.getLongitudeSpecification()) {
+          longitude = cache.getLongitude(row);
+        }
+
+        String latitude = null;
+        if (null != fileDefinition.getLatitudeSpecification()) {
+          latitude = cache.getLatitude(row);
+        }
+
+        for (int i = 0; i < assignments.size(); i++) {
+          if (runTypeAssignments[i]) {
+            lineValues[i] = cache.getRunType(row);
+          } else {
+            SensorAssignment assignment = assignments.get(i);
+            lineValues[i] = DataFile.extractSensorFieldValue(
+              cache.getField(assignment.getColumn(), row),
+              assignment.getMissingValue());
+          }
+        }
+
+        addLine(DateTimeUtils.longToDate(time), longitude, latitude);
+      }
+    }
+  }
+
+  /**
+   * Extract the values from a file by parsing its text
+   *
+   * @param file
+   *          The file
+   * @throws Exception
+   *           If the file cannot be read
+   */
+  private void extractTextFile(DataFile file) throws Exception {
+    DataFileLineCursor cursor = file.getLineCursor(dataSet.getStart(),
+      dataSet.getEnd());
+    while (cursor.next()) {
+
+      try {
+
+        List<String> line = cursor.getFields();
+        LocalDateTime time = file.getDate(line);
+
+        if ((time.equals(dataSet.getStart())
+          || time.isAfter(dataSet.getStart()))
+          && (time.isBefore(dataSet.getEnd())
+            || time.isEqual(dataSet.getEnd()))) {
+
+          String longitude = null;
+          if (null != fileDefinition.getLongitudeSpecification()) {
+            longitude = file.getLongitude(line);
+          }
+
+          String latitude = null;
+          if (null != fileDefinition.getLatitudeSpecification()) {
+            latitude = file.getLatitude(line);
+          }
+
+          for (int i = 0; i < assignments.size(); i++) {
+            SensorAssignment assignment = assignments.get(i);
+
+            // For run types, follow all aliases
+            if (runTypeAssignments[i]) {
+              lineValues[i] = fileDefinition.getRunType(line, true)
+                .getRunName();
+            } else {
+              lineValues[i] = file.getStringValue(line,
+                assignment.getColumn(), assignment.getMissingValue());
+            }
+          }
+
+          addLine(time, longitude, latitude);
+        }
+      } catch (DateTimeSpecificationException e) {
+        // Log the error but continue with the next line
+        System.out.println(
+          "*** DATA EXTRACTION ERROR IN FILE " + file.getDatabaseId() + "("
+            + file.getFilename() + ") line " + cursor.getLineNumber());
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Add the values from a line within the data set's time period. The values
+   * for the assigned columns are taken from {@link #lineValues}.
+   *
+   * @param time
+   *          The line's time
+   * @param longitude
+   *          The longitude, if the file has positions
+   * @param latitude
+   *          The latitude, if the file has positions
+   */
+  private void addLine(LocalDateTime time, String longitude,
+    String latitude) {
+
+    if (null == firstTime || time.isBefore(firstTime)) {
+      firstTime = time;
+    }
+
+    if (null == lastTime || time.isAfter(lastTime)) {
+      lastTime = time;
+    }
+
+    if (null != fileDefinition.getLongitudeSpecification()) {
+
+      sensorValues.add(new SensorValue(dataSet.getId(),
+        FileDefinition.LONGITUDE_COLUMN_ID, time, longitude));
+
+      if (null != longitude) {
+        try {
+          double lonDouble = Double.parseDouble(longitude);
+          if (lonDouble < minLon) {
+            minLon = lonDouble;
+          }
+
+          if (lonDouble > maxLon) {
+            maxLon = lonDouble;
+          }
+        } catch (NumberFormatException e) {
+          // Ignore it now. QC will pick it up later.
+        }
+      }
+    }
+
+    if (null != fileDefinition.getLatitudeSpecification()) {
+
+      sensorValues.add(new SensorValue(dataSet.getId(),
+        FileDefinition.LATITUDE_COLUMN_ID, time, latitude));
+
+      if (null != latitude) {
+        try {
+          double latDouble = Double.parseDouble(latitude);
+          if (latDouble < minLat) {
+            minLat = latDouble;
+          }
+
+          if (latDouble > maxLat) {
+            maxLat = latDouble;
+          }
+        } catch (NumberFormatException e) {
+          // Ignore it now. QC will pick it up later.
+        }
+      }
+    }
+
+    // Assigned columns
+    for (int i = 0; i < assignments.size(); i++) {
+
+      // Create the SensorValue object
+      SensorValue value = new SensorValue(dataSet.getId(),
+        assignments.get(i).getDatabaseId(), time, lineValues[i]);
+
+      // Apply calibration if required. Run types are never calibrated.
+      if (!runTypeAssignments[i] && null != calibrations[i]) {
+        value.calibrateValue(calibrations[i]);
+      }
+
+      // Add to storage list
+      sensorValues.add(value);
+    }
+  }
+
+  /**
+   * Get the extracted values, sorted in {@link SensorValue} order
+   *
+   * @return The values
+   */
+  protected List<SensorValue> getSensorValues() {
+    return sensorValues;
+  }
+
+  /**
+   * Get the time of the first line within the data set
+   *
+   * @return The first time, or {@code null} if no lines were extracted
+   */
+  protected LocalDateTime getFirstTime() {
+    return firstTime;
+  }
+
+  /**
+   * Get the time of the last line within the data set
+   *
+   * @return The last time, or {@code null} if no lines were extracted
+   */
+  protected LocalDateTime getLastTime() {
+    return lastTime;
+  }
+
+  /**
+   * Get the minimum longitude
+   *
+   * @return The minimum longitude
+   */
+  protected double getMinLon() {
+    return minLon;
+  }
+
+  /**
+   * Get the maximum longitude
+   *
+   * @return The maximum longitude
+   */
+  protected double getMaxLon() {
+    return maxLon;
+  }
+
+  /**
+   * Get the minimum latitude
+   *
+   * @return The minimum latitude
+   */
+  protected double getMinLat() {
+    return minLat;
+  }
+
+  /**
+   * Get the maximum latitude
+   *
+   * @return The maximum latitude
+   */
+  protected double getMaxLat() {
+    return maxLat;
+  }
+}
@@ -2,10 +2,12 @@ package uk.ac.exeter.QuinCe.jobs.files;
 
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeMap;
@@ -15,6 +17,7 @@ import org.apache.commons.lang3.exception.ExceptionUtils;
 import uk.ac.exeter.QuinCe.data.Dataset.DataSet;
 import uk.ac.exeter.QuinCe.data.Dataset.DataSetDB;
 import uk.ac.exeter.QuinCe.data.Dataset.DataSetDataDB;
+import uk.ac.exeter.QuinCe.data.Dataset.DatasetCache;
 import uk.ac.exeter.QuinCe.data.Dataset.InvalidDataSetStatusException;
 import uk.ac.exeter.QuinCe.data.Dataset.Measurement;
 import uk.ac.exeter.QuinCe.data.Dataset.SensorValue;
@@ -27,6 +30,7 @@ import uk.ac.exeter.QuinCe.jobs.JobManager;
 import uk.ac.exeter.QuinCe.jobs.JobThread;
 import uk.ac.exeter.QuinCe.utils.DatabaseException;
 import uk.ac.exeter.QuinCe.utils.DatabaseUtils;
+import uk.ac.exeter.QuinCe.utils.DateTimeUtils;
 import uk.ac.exeter.QuinCe.utils.MissingParamException;
 import uk.ac.exeter.QuinCe.utils.RecordNotFoundException;
 import uk.ac.exeter.QuinCe.web.system.ResourceManager;
@@ -90,17 +94,17 @@ public class LocateMeasurementsJob extends DataSetJob {
       conn.setAutoCommit(false);
 
       // Get the run types for the dataset
-      TreeMap<LocalDateTime, String> runTypes = null;
+      TreeMap<Long, String> runTypes = null;
 
       if (instrument.hasRunTypes()) {
-        runTypes = new TreeMap<LocalDateTime, String>();
+        runTypes = new TreeMap<Long, String>();
 
         List<SensorValue> runTypeSensorValues = DataSetDataDB
           .getSensorValuesForColumns(conn, dataSet.getId(),
             instrument.getSensorAssignments().getRunTypeColumnIDs());
 
         for (SensorValue value : runTypeSensorValues) {
-          runTypes.put(value.getTime(), value.getValue());
+          runTypes.put(value.getTimeMillis(), value.getValue());
         }
       }
 
@@ -127,53 +131,50 @@ public class LocateMeasurementsJob extends DataSetJob {
         }
       }
 
-      List<SensorValue> sensorValues = DataSetDataDB.getSensorValuesForColumns(
-        conn, dataSet.getId(), new ArrayList<Long>(measurementColumnIds));
-
       // Now log all the times as new measurements, with the run type from the
-      // same time or immediately before.
-      List<Measurement> measurements = new ArrayList<Measurement>(
-        sensorValues.size());
-
-      ArrayList<LocalDateTime> runTypeTimes = null;
-
-      if (null != runTypes) {
-        runTypeTimes = new ArrayList<LocalDateTime>(runTypes.keySet());
-      }
-
-      int currentRunTypeTime = 0;
-
-      for (SensorValue sensorValue : sensorValues) {
-        if (null != sensorValue.getValue()) {
-          LocalDateTime measurementTime = sensorValue.getTime();
-
-          // Get the run type for this measurement
-          String runType = null;
-          if (null != runTypes) {
-
-            // Find the run type immediately before or at the same time as the
-            // measurement
-            if (runTypeTimes.get(currentRunTypeTime).isAfter(measurementTime)) {
-              // There is no run type for this measurement. This isn't allowed!
-              throw new JobFailedException(id,
-                "No run type available in Dataset " + dataSet.getId()
-                  + " at time " + measurementTime.toString());
-            } else {
-              while (currentRunTypeTime < runTypeTimes.size() - 1
-                && runTypeTimes.get(currentRunTypeTime)
-                  .isBefore(measurementTime)) {
-                currentRunTypeTime++;
+      // same time or immediately before. The sensor values are streamed so
+      // only the measurements are held in memory.
+      List<Measurement> measurements = new ArrayList<Measurement>();
+      List<Long> missingRunTypeTimes = new ArrayList<Long>();
+      final TreeMap<Long, String> measurementRunTypes = runTypes;
+
+      DataSetDataDB.streamSensorValues(conn, dataSet.getId(),
+        new ArrayList<Long>(measurementColumnIds), false, false,
+        sensorValue -> {
+          if (null != sensorValue.getValue()) {
+            long measurementTime = sensorValue.getTimeMillis();
+
+            // Get the run type for this measurement
+            String runType = null;
+            if (null != measurementRunTypes) {
+              Map.Entry<Long, String> runTypeEntry = measurementRunTypes
+                .floorEntry(measurementTime);
+
+              if (null == runTypeEntry) {
+                // There is no run type for this measurement. This isn't
+                // allowed!
+                missingRunTypeTimes.add(measurementTime);
+              } else {
+                runType = runTypeEntry.getValue();
               }
-
-              runType = runTypes.get(runTypeTimes.get(currentRunTypeTime));
             }
+
+            measurements.add(new Measurement(dataSet.getId(),
+              DateTimeUtils.longToDate(measurementTime), runType));
           }
+        });
 
-          measurements
-            .add(new Measurement(dataSet.getId(), measurementTime, runType));
-        }
+      if (missingRunTypeTimes.size() > 0) {
+        throw new JobFailedException(id,
+          "No run type available in Dataset " + dataSet.getId() + " at time "
+            + DateTimeUtils.longToDate(Collections.min(missingRunTypeTimes))
+              .toString());
       }
 
+      // Store the measurements in time order
+      Collections.sort(measurements,
+        Comparator.comparingLong(Measurement::getTimeMillis));
+
       DataSetDataDB.storeMeasurements(conn, measurements);
 
       // Trigger the Build Measurements job
@@ -186,11 +187,16 @@ public class LocateMeasurementsJob extends DataSetJob {
         DataReductionJob.class.getCanonicalName(), jobProperties);
 
       conn.commit();
+
+      // Measurements loaded before the commit are out of date
+      DataSetDataDB.getDatasetCache().invalidate(dataSet.getId(),
+        DatasetCache.Item.MEASUREMENTS);
     } catch (
 
     Exception e) {
       e.printStackTrace();
       DatabaseUtils.rollBack(conn);
+      DataSetDataDB.getDatasetCache().invalidate(getDatsetId());
       try {
         // Set the dataset to Error status
         getDataset(conn).setStatus(DataSet.STATUS_ERROR);
@@ -29,6 +29,13 @@ public class DatabaseUtils {
    */
   public static final String IN_PARAMS_TOKEN = "%%IN_PARAMS%%";
 
+  /**
+   * The fetch size for streaming statements on databases other than MySQL
+   *
+   * @see #prepareStreamingStatement(Connection, String)
+   */
+  public static final int STREAMING_FETCH_SIZE = 1000;
+
   /**
    * Close a set of {@link java.sql.ResultSet} objects, ignoring any errors
    *
@@ -114,6 +121,58 @@ public class DatabaseUtils {
     }
   }
 
+  /**
+   * Determine whether a connection is to a MySQL (or MariaDB) database.
+   *
+   * @param conn
+   *          The database connection
+   * @return {@code true} if the database is MySQL; {@code false} if not
+   * @throws SQLException
+   *           If the database details cannot be retrieved
+   */
+  public static boolean isMySQL(Connection conn) throws SQLException {
+    String product = conn.getMetaData().getDatabaseProductName();
+    return product.equalsIgnoreCase("MySQL")
+      || product.equalsIgnoreCase("MariaDB");
+  }
+
+  /**
+   * Prepare a query whose results will be read once from start to finish
+   * without being held in memory.
+   *
+   * <p>
+   * MySQL Connector/J normally reads the complete result set into memory
+   * before returning the first row. The statement returned here makes it
+   * fetch the rows one at a time instead. While the results are being read, no
+   * other statements can be run on the connection. Other databases fetch
+   * {@link #STREAMING_FETCH_SIZE} rows at a time.
+   * </p>
+   *
+   * @param conn
+   *          The database connection
+   * @param sql
+   *          The query SQL
+   * @return The prepared statement
+   * @throws SQLException
+   *           If the statement cannot be prepared
+   */
+  public static PreparedStatement prepareStreamingStatement(Connection conn,
+    String sql) throws SQLException {
+
+    PreparedStatement stmt = conn.prepareStatement(sql,
+      ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+
+    try {
+      stmt.setFetchSize(
+        isMySQL(conn) ? Integer.MIN_VALUE : STREAMING_FETCH_SIZE);
+    } catch (SQLException e) {
+      stmt.close();
+      throw e;
+    }
+
+    return stmt;
+  }
+
   /**
    * Roll back an open transaction
    *
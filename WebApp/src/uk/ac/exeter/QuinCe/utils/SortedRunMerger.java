@@ -0,0 +1,161 @@
+package uk.ac.exeter.QuinCe.utils;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Merges a number of individually sorted lists into a single sorted sequence.
+ *
+ * <p>
+ * The merge is performed lazily as the iterator is consumed, using a heap
+ * holding the head of each list; producing {@code n} elements from {@code k}
+ * lists costs {@code O(n log k)}.
+ * </p>
+ *
+ * <p>
+ * Elements that compare equal to the previously returned element are skipped,
+ * so the output is the same as adding every element to a
+ * {@link java.util.TreeSet}. Where equal elements occur, the first one from
+ * the earliest list is kept.
+ * </p>
+ *
+ * @param <T>
+ *          The type of element being merged
+ */
+public class SortedRunMerger<T extends Comparable<T>> implements Iterator<T> {
+
+  /**
+   * The heads of the lists that have not been exhausted
+   */
+  private final PriorityQueue<RunHead<T>> heads;
+
+  /**
+   * The most recently returned element
+   */
+  private T last = null;
+
+  /**
+   * The next element to be returned
+   */
+  private T next = null;
+
+  /**
+   * Create a merger for the specified lists. Each list must already be sorted
+   * according to its elements' natural ordering.
+   *
+   * @param runs
+   *          The sorted lists
+   */
+  public SortedRunMerger(List<? extends List<T>> runs) {
+    heads = new PriorityQueue<RunHead<T>>(Math.max(runs.size(), 1));
+
+    for (int i = 0; i < runs.size(); i++) {
+      Iterator<T> iterator = runs.get(i).iterator();
+      if (iterator.hasNext()) {
+        heads.add(new RunHead<T>(i, iterator));
+      }
+    }
+
+    advance();
+  }
+
+  /**
+   * Find the next element to return, skipping duplicates of the last returned
+   * element
+   */
+  private void advance() {
+    next = null;
+
+    while (null == next && !heads.isEmpty()) {
+      RunHead<T> head = heads.poll();
+      T candidate = head.current;
+
+      if (head.advance()) {
+        heads.add(head);
+      }
+
+      if (null == last || candidate.compareTo(last) != 0) {
+        next = candidate;
+      }
+    }
+  }
+
+  @Override
+  public boolean hasNext() {
+    return null != next;
+  }
+
+  @Override
+  public T next() {
+    if (null == next) {
+      throw new NoSuchElementException();
+    }
+
+    last = next;
+    advance();
+    return last;
+  }
+
+  /**
+   * The current position in one of the lists being merged
+   *
+   * @param <T>
+   *          The type of element being merged
+   */
+  private static class RunHead<T extends Comparable<T>>
+    implements Comparable<RunHead<T>> {
+
+    /**
+     * The index of the list, used to order equal elements
+     */
+    private final int runIndex;
+
+    /**
+     * The iterator over the list
+     */
+    private final Iterator<T> iterator;
+
+    /**
+     * The current element
+     */
+    private T current;
+
+    /**
+     * Create the head of a non-empty list
+     *
+     * @param runIndex
+     *          The index of the list
+     * @param iterator
+     *          The iterator over the list
+     */
+    private RunHead(int runIndex, Iterator<T> iterator) {
+      this.runIndex = runIndex;
+      this.iterator = iterator;
+      this.current = iterator.next();
+    }
+
+    /**
+     * Move to the next element in the list
+     *
+     * @return {@code true} if there is another element; {@code false} if the
+     *         list is exhausted
+     */
+    private boolean advance() {
+      boolean result = iterator.hasNext();
+      current = result ? iterator.next() : null;
+      return result;
+    }
+
+    @Override
+    public int compareTo(RunHead<T> o) {
+      int result = current.compareTo(o.current);
+      if (result == 0) {
+        result = Integer.compare(runIndex, o.runIndex);
+      }
+
+      return result;
+    }
+  }
+}
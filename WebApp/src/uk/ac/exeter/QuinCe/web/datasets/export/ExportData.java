@@ -62,6 +62,15 @@ public class ExportData extends ManualQCData {
     super(dataSource, instrument, dataset);
   }
 
+  /**
+   * Exports override QC flags in memory without storing them, so they must not
+   * use the shared copy of the dataset.
+   */
+  @Override
+  protected boolean useDatasetCache() {
+    return false;
+  }
+
   @Override
   public void loadData() {
     try {
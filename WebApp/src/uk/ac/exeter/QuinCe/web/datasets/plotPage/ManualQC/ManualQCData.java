@@ -4,6 +4,7 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -16,6 +17,8 @@ import javax.sql.DataSource;
 
 import uk.ac.exeter.QuinCe.data.Dataset.DataSet;
 import uk.ac.exeter.QuinCe.data.Dataset.DataSetDataDB;
+import uk.ac.exeter.QuinCe.data.Dataset.DatasetCache;
+import uk.ac.exeter.QuinCe.data.Dataset.DatasetCache.Lease;
 import uk.ac.exeter.QuinCe.data.Dataset.DatasetSensorValues;
 import uk.ac.exeter.QuinCe.data.Dataset.Measurement;
 import uk.ac.exeter.QuinCe.data.Dataset.MeasurementValue;
@@ -115,6 +118,16 @@ public class ManualQCData extends PlotPageData {
    */
   protected Map<Long, Map<Variable, DataReductionRecord>> dataReduction = null;
 
+  /**
+   * The lease on {@link #sensorValues} from the {@link DatasetCache}
+   */
+  private Lease<DatasetSensorValues> sensorValuesLease = null;
+
+  /**
+   * The lease on {@link #dataReduction} from the {@link DatasetCache}
+   */
+  private Lease<Map<Long, Map<Variable, DataReductionRecord>>> dataReductionLease = null;
+
   /**
    * The list of sensor column IDs in the same order as they are represented in
    * {@link #columnHeaders}.
@@ -182,8 +195,17 @@ public class ManualQCData extends PlotPageData {
   public void loadDataAction() throws Exception {
 
     try (Connection conn = dataSource.getConnection()) {
-      sensorValues = DataSetDataDB.getSensorValues(conn, instrument,
-        dataset.getId(), false);
+      if (useDatasetCache()) {
+        // Share the data with other users of the dataset
+        releaseCachedData();
+
+        sensorValuesLease = DataSetDataDB.getDatasetCache()
+          .getSensorValues(conn, instrument, dataset.getId());
+        sensorValues = sensorValuesLease.get();
+      } else {
+        sensorValues = DataSetDataDB.getSensorValues(conn, instrument,
+          dataset.getId(), false);
+      }
 
       List<Measurement> measurementsList = DataSetDataDB.getMeasurements(conn,
         dataset.getId());
@@ -192,12 +214,50 @@ public class ManualQCData extends PlotPageData {
 
       measurementsList.forEach(m -> measurements.put(m.getTime(), m));
 
-      dataReduction = DataSetDataDB.getDataReductionData(conn, instrument,
-        dataset);
+      if (useDatasetCache()) {
+        dataReductionLease = DataSetDataDB.getDatasetCache()
+          .getDataReduction(conn, instrument, dataset);
+        dataReduction = dataReductionLease.get();
+      } else {
+        dataReduction = DataSetDataDB.getDataReductionData(conn, instrument,
+          dataset);
+      }
 
       // Build the row IDs
-      rowIDs = sensorValues.getTimes().stream()
-        .map(t -> DateTimeUtils.dateToLong(t)).collect(Collectors.toList());
+      rowIDs = Arrays.stream(sensorValues.getTimeIndex()).boxed()
+        .collect(Collectors.toList());
+    }
+  }
+
+  /**
+   * Determines whether the data should be shared with other users through the
+   * {@link DatasetCache}. The shared data must only be changed if the changes
+   * are written to the database.
+   *
+   * @return {@code true} if the cache should be used; {@code false} if a
+   *         private copy of the data should be loaded
+   */
+  protected boolean useDatasetCache() {
+    return true;
+  }
+
+  @Override
+  public void destroy() {
+    releaseCachedData();
+  }
+
+  /**
+   * Release the leases on any data obtained from the {@link DatasetCache}.
+   */
+  private void releaseCachedData() {
+    if (null != sensorValuesLease) {
+      sensorValuesLease.close();
+      sensorValuesLease = null;
+    }
+
+    if (null != dataReductionLease) {
+      dataReductionLease.close();
+      dataReductionLease = null;
     }
   }
 
@@ -547,8 +607,7 @@ public class ManualQCData extends PlotPageData {
 
     if (null != selectedRows) {
       for (Long rowId : selectedRows) {
-        values.add(sensorValues.getSensorValue(DateTimeUtils.longToDate(rowId),
-          selectedColumn));
+        values.add(sensorValues.getSensorValue(rowId, selectedColumn));
       }
     }
 
@@ -763,8 +822,7 @@ public class ManualQCData extends PlotPageData {
     boolean selectable = isColumnEditable(column);
 
     if (selectable) {
-      SensorValue sensorValue = sensorValues.get(DateTimeUtils.longToDate(row))
-        .get(column);
+      SensorValue sensorValue = sensorValues.get(row).get(column);
       if (sensorValue.isNaN() || isGhost(sensorValue)) {
         selectable = false;
       }
@@ -955,7 +1013,7 @@ public class ManualQCData extends PlotPageData {
       } else if (sensorValues.containsColumn(columnId)) {
 
         // Get the SensorValue
-        SensorValue sensorValue = sensorValues.getSensorValue(rowTime,
+        SensorValue sensorValue = sensorValues.getSensorValue(rowId,
           columnId);
         if (null != sensorValue) {
 
@@ -1,5 +1,6 @@
 package uk.ac.exeter.QuinCe.web.files;
 
+import java.sql.Connection;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.ArrayList;
@@ -11,12 +12,12 @@ import java.util.Properties;
 
 import javax.faces.application.FacesMessage;
 import javax.faces.application.FacesMessage.Severity;
-import javax.sql.DataSource;
 import javax.ws.rs.core.Response.Status;
 
 import org.primefaces.json.JSONArray;
 import org.primefaces.json.JSONObject;
 
+import uk.ac.exeter.QuinCe.data.Files.ContentHash;
 import uk.ac.exeter.QuinCe.data.Files.DataFile;
 import uk.ac.exeter.QuinCe.data.Files.DataFileDB;
 import uk.ac.exeter.QuinCe.data.Files.DataFileException;
@@ -24,6 +25,7 @@ import uk.ac.exeter.QuinCe.data.Files.DataFileMessage;
 import uk.ac.exeter.QuinCe.data.Instrument.FileDefinition;
 import uk.ac.exeter.QuinCe.data.Instrument.Instrument;
 import uk.ac.exeter.QuinCe.data.Instrument.InstrumentFileSet;
+import uk.ac.exeter.QuinCe.utils.DatabaseUtils;
 import uk.ac.exeter.QuinCe.web.system.ResourceManager;
 
 /**
@@ -38,6 +40,14 @@ public abstract class UploadedDataFile implements Comparable<UploadedDataFile> {
    */
   private static final int UNPROCESSABLE_STATUS = 422;
 
+  /**
+   * The number of data rows examined when matching a file to a file
+   * definition
+   *
+   * @see InstrumentFileSet#matchFile(List, int)
+   */
+  private static final int MATCH_DATA_ROWS = 1000;
+
   /**
    * The contents of the file split into lines
    */
@@ -92,6 +102,18 @@ public abstract class UploadedDataFile implements Comparable<UploadedDataFile> {
     return fileLines;
   }
 
+  /**
+   * Get the lines of the file as a list. By default this is a view of
+   * {@link #getLines()}; subclasses may override this to provide the lines
+   * without loading the whole file into memory.
+   *
+   * @return The file lines, or {@code null} if the file is empty
+   */
+  protected List<String> getLineList() {
+    String[] lines = getLines();
+    return null == lines ? null : Arrays.asList(lines);
+  }
+
   /**
    * Get the filename of the file
    *
@@ -299,13 +321,157 @@ public abstract class UploadedDataFile implements Comparable<UploadedDataFile> {
    */
   public void extractFile(Instrument instrument, Properties appConfig,
     boolean allowExactDuplicate, boolean allowEmpty) {
-    boolean fileEmpty = false;
+
+    if (!checkDuplicate(instrument, allowExactDuplicate)
+      && validateFile(instrument, appConfig, allowEmpty)) {
+      Connection conn = null;
+      try {
+        conn = ResourceManager.getInstance().getDBDataSource().getConnection();
+        checkExistingFiles(conn, instrument, allowExactDuplicate);
+      } catch (Exception e) {
+        processingError(e);
+      } finally {
+        DatabaseUtils.closeConnection(conn);
+      }
+    }
+
+    setProcessed(true);
+  }
+
+  /**
+   * Determine whether the file is an exact copy of a file already stored for
+   * the instrument, using a new database connection.
+   *
+   * @param instrument
+   *          The instrument to which the file belongs
+   * @param allowExactDuplicate
+   *          Indicates whether exact duplicate files are accepted
+   * @return {@code true} if the file is a duplicate and needs no further
+   *         processing; {@code false} otherwise
+   * @see #checkDuplicate(Connection, Instrument, boolean)
+   */
+  private boolean checkDuplicate(Instrument instrument,
+    boolean allowExactDuplicate) {
+
+    boolean result = false;
+    Connection conn = null;
+    try {
+      conn = ResourceManager.getInstance().getDBDataSource().getConnection();
+      result = checkDuplicate(conn, instrument, allowExactDuplicate);
+    } catch (Exception e) {
+      processingError(e);
+      result = true;
+    } finally {
+      DatabaseUtils.closeConnection(conn);
+    }
+
+    return result;
+  }
+
+  /**
+   * Determine whether the file is an exact copy of a file already stored for
+   * the instrument by looking up its content hash. This is much quicker than
+   * parsing and validating the file, so it should be done first.
+   *
+   * <p>
+   * If the file is a duplicate, a suitable message is recorded and the file
+   * will not be stored. Exact duplicates with the same name as the existing
+   * file are accepted if {@code allowExactDuplicate} is set; duplicates with
+   * a different name are always rejected. Files that are not duplicates must
+   * then be validated with
+   * {@link #validateFile(Instrument, Properties, boolean)}.
+   * </p>
+   *
+   * @param conn
+   *          A database connection
+   * @param instrument
+   *          The instrument to which the file belongs
+   * @param allowExactDuplicate
+   *          Indicates whether exact duplicate files are accepted
+   * @return {@code true} if the file is a duplicate and needs no further
+   *         processing; {@code false} otherwise
+   * @see DataFileDB#getFilenameWithHash(Connection, long, String)
+   */
+  public boolean checkDuplicate(Connection conn, Instrument instrument,
+    boolean allowExactDuplicate) {
+
+    boolean result = false;
 
     try {
-      DataSource dataSource = ResourceManager.getInstance().getDBDataSource();
+      List<String> lines = getLineList();
+      if (null != lines) {
+        String existingName = DataFileDB.getFilenameWithHash(conn,
+          instrument.getDatabaseId(), getContentHash(lines));
+
+        if (null != existingName) {
+          result = true;
+
+          if (!existingName.equals(getName())) {
+            putMessage(Status.CONFLICT.getStatusCode(),
+              "This is an exact copy of an existing file with a different name",
+              FacesMessage.SEVERITY_ERROR);
+          } else if (!allowExactDuplicate) {
+            putMessage(Status.CONFLICT.getStatusCode(),
+              "This is an exact copy of an existing file",
+              FacesMessage.SEVERITY_ERROR);
+          } else {
+            putMessage(Status.OK.getStatusCode(), getName()
+              + " is identical to an existing file. File accepted but not stored",
+              FacesMessage.SEVERITY_INFO);
+          }
+        }
+      }
+    } catch (Exception e) {
+      processingError(e);
+      result = true;
+    }
+
+    return result;
+  }
+
+  /**
+   * Get the content hash of the file's lines. Subclasses that calculate the
+   * hash while receiving the file should override this.
+   *
+   * @param lines
+   *          The file lines, as returned by {@link #getLineList()}
+   * @return The content hash
+   * @see ContentHash
+   */
+  protected String getContentHash(List<String> lines) {
+    return ContentHash.hash(lines);
+  }
+
+  /**
+   * Extract the file contents, match them to one of the instrument's file
+   * definitions and validate them. This does not access the database, so
+   * several files can be validated in parallel.
+   *
+   * <p>
+   * If this returns {@code true}, the file must be checked against the
+   * existing files using
+   * {@link #checkExistingFiles(Connection, Instrument, boolean)} before it is
+   * stored.
+   * </p>
+   *
+   * @param instrument
+   *          The instrument to which the file belongs
+   * @param appConfig
+   *          The application configuration
+   * @param allowEmpty
+   *          Indicates whether empty files are accepted
+   * @return {@code true} if the file is valid and contains data;
+   *         {@code false} if it cannot be stored
+   */
+  public boolean validateFile(Instrument instrument, Properties appConfig,
+    boolean allowEmpty) {
+
+    boolean fileEmpty = false;
+    boolean result = false;
 
+    try {
       InstrumentFileSet fileDefinitions = instrument.getFileDefinitions();
-      List<String> lines = Arrays.asList(getLines());
+      List<String> lines = getLineList();
       if (null == lines) {
         if (allowEmpty) {
           fileEmpty = true;
@@ -317,17 +483,11 @@ public abstract class UploadedDataFile implements Comparable<UploadedDataFile> {
 
       if (!fileEmpty) {
 
-        FileDefinition matchedDefinition = null;
-
         // TODO We're assuming we'll get one match. No matches will throw a
         // NoSuchElementException
         // (handled below), and multiple matches just choose the first one
-        for (FileDefinition matchTest : fileDefinitions) {
-          if (matchTest.fileMatches(lines)) {
-            matchedDefinition = matchTest;
-            break;
-          }
-        }
+        FileDefinition matchedDefinition = fileDefinitions.matchFile(lines,
+          MATCH_DATA_ROWS);
 
         if (null == matchedDefinition) {
           throw new NoSuchElementException();
@@ -345,99 +505,136 @@ public abstract class UploadedDataFile implements Comparable<UploadedDataFile> {
               "File contains headers but no data");
           }
         }
+      }
 
-        if (fileEmpty) {
-          putMessage(Status.OK.getStatusCode(),
-            getName() + " is empty. File accepted but not processed",
-            FacesMessage.SEVERITY_INFO);
-        } else {
-          if (null == getDataFile().getStartDate()
-            || null == getDataFile().getEndDate()) {
-            putMessage(UNPROCESSABLE_STATUS, getName()
-              + " has date issues, see messages below. Please fix these problems and upload the file again.",
-              FacesMessage.SEVERITY_ERROR);
-          } else if (getDataFile().getMessageCount() > 0) {
-            putMessage(UNPROCESSABLE_STATUS, getName()
-              + " could not be processed (see messages below). Please fix these problems and upload the file again.",
-              FacesMessage.SEVERITY_ERROR);
-          } else {
-            List<DataFile> overlappingFiles = DataFileDB.getFilesWithinDates(
-              dataSource, matchedDefinition, getDataFile().getStartDate(),
-              getDataFile().getEndDate());
+      if (fileEmpty) {
+        putMessage(Status.OK.getStatusCode(),
+          getName() + " is empty. File accepted but not processed",
+          FacesMessage.SEVERITY_INFO);
+      } else if (null == getDataFile().getStartDate()
+        || null == getDataFile().getEndDate()) {
+        putMessage(UNPROCESSABLE_STATUS, getName()
+          + " has date issues, see messages below. Please fix these problems and upload the file again.",
+          FacesMessage.SEVERITY_ERROR);
+      } else if (getDataFile().getMessageCount() > 0) {
+        putMessage(UNPROCESSABLE_STATUS, getName()
+          + " could not be processed (see messages below). Please fix these problems and upload the file again.",
+          FacesMessage.SEVERITY_ERROR);
+      } else {
+        result = true;
+      }
+    } catch (NoSuchElementException nose) {
+      setDataFile(null);
+      putMessage(Status.BAD_REQUEST.getStatusCode(),
+        "The format of " + getName()
+          + " was not recognised. Please upload a different file.",
+        FacesMessage.SEVERITY_ERROR);
+    } catch (Exception e) {
+      processingError(e);
+    }
 
-            boolean fileOK = true;
-            String fileMessage = null;
-            int fileStatus = Status.OK.getStatusCode();
+    return result;
+  }
 
-            if (overlappingFiles.size() > 0 && overlappingFiles.size() > 1) {
-              fileOK = false;
-              fileMessage = "This file overlaps one or more existing files";
-              fileStatus = Status.CONFLICT.getStatusCode();
-            } else if (overlappingFiles.size() == 1) {
-              DataFile existingFile = overlappingFiles.get(0);
-              DataFile newFile = getDataFile();
-
-              if (!existingFile.getFilename().equals(newFile.getFilename())) {
-                fileOK = false;
-                fileMessage = "This file overlaps an existing file with a different name";
-                fileStatus = Status.CONFLICT.getStatusCode();
-              } else {
-                String oldContents = existingFile.getContents();
-                String newContents = newFile.getContents();
-
-                if (newContents.length() < oldContents.length()) {
-                  fileOK = false;
-                  fileMessage = "This file would replace an existing file with fewer records";
-                  fileStatus = Status.CONFLICT.getStatusCode();
-                } else if (!allowExactDuplicate
-                  && newContents.length() == oldContents.length()) {
-                  fileOK = false;
-                  fileMessage = "This is an exact copy of an existing file";
-                  fileStatus = Status.CONFLICT.getStatusCode();
-                } else {
-                  String oldPartOfNewContents = newContents.substring(0,
-                    oldContents.length());
-                  if (!oldPartOfNewContents.equals(oldContents)) {
-                    fileOK = false;
-                    fileMessage = "This file would update an existing file but change existing data";
-                    fileStatus = Status.CONFLICT.getStatusCode();
-                  } else {
-                    setReplacementFile(existingFile.getDatabaseId());
-                  }
-                }
-              }
-            } else if (DataFileDB.hasFileWithName(dataSource,
-              instrument.getDatabaseId(), getName())) {
-
-              // We don't allow duplicate filenames
+  /**
+   * Ensure that a validated file doesn't clash with the files already stored
+   * for the instrument. If the file is an extension of an existing file with
+   * the same name, it is marked as a replacement for that file.
+   *
+   * <p>
+   * The checks use the supplied connection, so files stored earlier in the
+   * same transaction are included.
+   * </p>
+   *
+   * @param conn
+   *          A database connection
+   * @param instrument
+   *          The instrument to which the file belongs
+   * @param allowExactDuplicate
+   *          Indicates whether exact duplicate files are accepted
+   * @see #validateFile(Instrument, Properties, boolean)
+   */
+  public void checkExistingFiles(Connection conn, Instrument instrument,
+    boolean allowExactDuplicate) {
+
+    try {
+      FileDefinition matchedDefinition = getDataFile().getFileDefinition();
+
+      List<DataFile> overlappingFiles = DataFileDB.getFilesWithinDates(conn,
+        matchedDefinition, getDataFile().getStartDate(),
+        getDataFile().getEndDate());
+
+      boolean fileOK = true;
+      String fileMessage = null;
+      int fileStatus = Status.OK.getStatusCode();
+
+      if (overlappingFiles.size() > 0 && overlappingFiles.size() > 1) {
+        fileOK = false;
+        fileMessage = "This file overlaps one or more existing files";
+        fileStatus = Status.CONFLICT.getStatusCode();
+      } else if (overlappingFiles.size() == 1) {
+        DataFile existingFile = overlappingFiles.get(0);
+        DataFile newFile = getDataFile();
+
+        if (!existingFile.getFilename().equals(newFile.getFilename())) {
+          fileOK = false;
+          fileMessage = "This file overlaps an existing file with a different name";
+          fileStatus = Status.CONFLICT.getStatusCode();
+        } else {
+          // The contents are compared as streams so that neither file
+          // has to be loaded into memory
+          long oldLength = existingFile.getContentLength();
+          long newLength = newFile.getContentLength();
+
+          if (newLength < oldLength) {
+            fileOK = false;
+            fileMessage = "This file would replace an existing file with fewer records";
+            fileStatus = Status.CONFLICT.getStatusCode();
+          } else if (!allowExactDuplicate && newLength == oldLength) {
+            fileOK = false;
+            fileMessage = "This is an exact copy of an existing file";
+            fileStatus = Status.CONFLICT.getStatusCode();
+          } else {
+            if (!newFile.contentStartsWith(existingFile)) {
               fileOK = false;
-              fileMessage = "A file with that name already exists";
+              fileMessage = "This file would update an existing file but change existing data";
               fileStatus = Status.CONFLICT.getStatusCode();
-            }
-
-            if (!fileOK) {
-              matchedDefinition = null;
-              setDataFile(null);
-              putMessage(fileStatus, fileMessage, FacesMessage.SEVERITY_ERROR);
+            } else {
+              setReplacementFile(existingFile.getDatabaseId());
             }
           }
         }
+      } else if (DataFileDB.hasFileWithName(conn, instrument.getDatabaseId(),
+        getName())) {
+
+        // We don't allow duplicate filenames
+        fileOK = false;
+        fileMessage = "A file with that name already exists";
+        fileStatus = Status.CONFLICT.getStatusCode();
+      }
+
+      if (!fileOK) {
+        setDataFile(null);
+        putMessage(fileStatus, fileMessage, FacesMessage.SEVERITY_ERROR);
       }
-    } catch (NoSuchElementException nose) {
-      setDataFile(null);
-      putMessage(Status.BAD_REQUEST.getStatusCode(),
-        "The format of " + getName()
-          + " was not recognised. Please upload a different file.",
-        FacesMessage.SEVERITY_ERROR);
     } catch (Exception e) {
-      e.printStackTrace();
-      setDataFile(null);
-      putMessage(Status.INTERNAL_SERVER_ERROR.getStatusCode(),
-        "The file could not be processed: " + e.getMessage(),
-        FacesMessage.SEVERITY_ERROR);
+      processingError(e);
     }
+  }
 
-    setProcessed(true);
+  /**
+   * Record an unexpected error while processing the file. The file will not be
+   * stored.
+   *
+   * @param e
+   *          The error
+   */
+  private void processingError(Exception e) {
+    e.printStackTrace();
+    setDataFile(null);
+    putMessage(Status.INTERNAL_SERVER_ERROR.getStatusCode(),
+      "The file could not be processed: " + e.getMessage(),
+      FacesMessage.SEVERITY_ERROR);
   }
 
   /**
@@ -15,12 +15,18 @@ import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 import javax.sql.DataSource;
 
+import uk.ac.exeter.QuinCe.data.Dataset.ColumnSensorValueStore;
+import uk.ac.exeter.QuinCe.data.Dataset.DatasetCache;
+import uk.ac.exeter.QuinCe.data.Dataset.RowSensorValueStore;
+import uk.ac.exeter.QuinCe.data.Dataset.SensorValueStore;
 import uk.ac.exeter.QuinCe.data.Dataset.QC.Routines.QCRoutinesConfiguration;
 import uk.ac.exeter.QuinCe.data.Export.ExportConfig;
+import uk.ac.exeter.QuinCe.data.Files.DataFileIndex;
 import uk.ac.exeter.QuinCe.data.Instrument.RunTypes.RunTypeCategoryConfiguration;
 import uk.ac.exeter.QuinCe.data.Instrument.SensorDefinition.SensorsConfiguration;
 import uk.ac.exeter.QuinCe.jobs.InvalidThreadCountException;
 import uk.ac.exeter.QuinCe.jobs.JobThreadPool;
+import uk.ac.exeter.QuinCe.utils.DatabaseException;
 import uk.ac.exeter.QuinCe.utils.DatabaseUtils;
 
 /**
@@ -61,6 +67,16 @@ public class ResourceManager implements ServletContextListener {
 
   private QCRoutinesConfiguration qcRoutinesConfiguration;
 
+  /**
+   * The persistence backend for sensor values
+   */
+  private SensorValueStore sensorValueStore;
+
+  /**
+   * The cache of loaded dataset data
+   */
+  private DatasetCache datasetCache;
+
   /**
    * The singleton instance of the resource manage
    */
@@ -93,6 +109,48 @@ public class ResourceManager implements ServletContextListener {
         e);
     }
 
+    // Choose the sensor value store
+    String storeType = configuration.getProperty(
+      SensorValueStore.STORE_PROPERTY, SensorValueStore.ROW_STORE).trim();
+    switch (storeType) {
+    case SensorValueStore.ROW_STORE: {
+      sensorValueStore = new RowSensorValueStore();
+      break;
+    }
+    case SensorValueStore.COLUMN_STORE: {
+      // Existing values in the row store would not be visible
+      try {
+        if (ColumnSensorValueStore.rowValuesExist(conn)) {
+          throw new RuntimeException("Config failed: "
+            + SensorValueStore.STORE_PROPERTY + " cannot be set to '"
+            + SensorValueStore.COLUMN_STORE
+            + "' because the sensor_values table contains data. The column "
+            + "store is for new installations only");
+        }
+      } catch (DatabaseException e) {
+        throw new RuntimeException("Config failed: could not check "
+          + "existing sensor values", e);
+      }
+
+      sensorValueStore = new ColumnSensorValueStore();
+      break;
+    }
+    default: {
+      throw new RuntimeException("Config failed: unrecognised "
+        + SensorValueStore.STORE_PROPERTY + " '" + storeType + "'");
+    }
+    }
+
+    try {
+      datasetCache = DatasetCache.fromConfig(configuration);
+    } catch (NumberFormatException e) {
+      throw new RuntimeException("Config failed: invalid "
+        + DatasetCache.MAX_SIZE_PROPERTY, e);
+    }
+
+    DataFileIndex.setEnabled(Boolean.parseBoolean(
+      configuration.getProperty(DataFileIndex.ENABLED_PROPERTY, "false")));
+
     // Initialise the job thread pool
     try {
       JobThreadPool.initialise(1);
@@ -177,6 +235,24 @@ public class ResourceManager implements ServletContextListener {
     return qcRoutinesConfiguration;
   }
 
+  /**
+   * Get the configured persistence backend for sensor values
+   *
+   * @return The sensor value store
+   */
+  public SensorValueStore getSensorValueStore() {
+    return sensorValueStore;
+  }
+
+  /**
+   * Get the cache of loaded dataset data shared by jobs and user sessions
+   *
+   * @return The dataset cache
+   */
+  public DatasetCache getDatasetCache() {
+    return datasetCache;
+  }
+
   /**
    * Load the application configuration
    *
@@ -46,6 +46,21 @@ def upload_file(config, instrument_id, filename, contents):
   response = requests.post(url, data=params, files=files, auth=(user, password))
   return response
 
+# Upload several files to QuinCe in one request. files is a list of
+# (filename, contents) tuples. QuinCe requests an NRT dataset itself if any
+# of the files are stored.
+def upload_files(config, instrument_id, files):
+  quince_url = config["QuinCe"]["url"]
+  user = config["QuinCe"]["user"]
+  password = config["QuinCe"]["password"]
+
+  url = quince_url + "/api/nrt/UploadFiles"
+
+  file_params = [("file", (filename, contents)) for filename, contents in files]
+  params = {"instrument" : instrument_id}
+  response = requests.post(url, data=params, files=file_params, auth=(user, password))
+  return response
+
 # Trigger creation of an NRT dataset
 def make_nrt_dataset(config, instrument_id):
   quince_url = config["QuinCe"]["url"]
@@ -0,0 +1,45 @@
+-- Partition the sensor_values table by dataset (MySQL only).
+--
+-- This is an optional change that is not part of the normal migrations. Once
+-- it has been applied, QuinCe detects the partitioning and:
+--
+-- * truncates a dataset's partition when the dataset is re-extracted, instead
+--   of deleting its rows one by one;
+-- * creates a new partition when a dataset is extracted for the first time;
+-- * drops the partition when the dataset is deleted.
+--
+-- MySQL does not allow foreign keys on partitioned tables, so the link between
+-- sensor_values and dataset is removed, and every unique key must include the
+-- partitioning column, so the primary key becomes (id, dataset_id).
+-- MySQL allows at most 8192 partitions per table.
+--
+-- The measurements and data_reduction tables are not partitioned:
+-- data_reduction is linked to measurements by a foreign key and has no
+-- dataset_id column.
+--
+-- Run with:
+--   mysql -u <user> -p <database> < partition_sensor_values.sql
+--
+-- The ALTER TABLE statements rebuild the table, so QuinCe should be stopped
+-- while this runs.
+
+ALTER TABLE sensor_values DROP FOREIGN KEY SENSORVALUE_DATASET;
+ALTER TABLE sensor_values DROP PRIMARY KEY, ADD PRIMARY KEY (id, dataset_id);
+
+-- Build one partition for each existing dataset. Partition p0 is never used,
+-- but ensures that there is at least one partition.
+SET SESSION group_concat_max_len = 1000000;
+
+SELECT CONCAT('ALTER TABLE sensor_values PARTITION BY LIST (dataset_id) (',
+  GROUP_CONCAT(CONCAT('PARTITION p', id, ' VALUES IN (', id, ')')
+    ORDER BY id SEPARATOR ', '), ')')
+  INTO @partition_sql
+  FROM (
+    SELECT 0 AS id
+    UNION SELECT id FROM dataset
+    UNION SELECT DISTINCT dataset_id FROM sensor_values
+  ) AS datasets;
+
+PREPARE partition_stmt FROM @partition_sql;
+EXECUTE partition_stmt;
+DEALLOCATE PREPARE partition_stmt;
@@ -0,0 +1,5 @@
+-- Store a SHA-256 hash of each data file's contents so uploads of files that
+-- are already stored can be recognised without parsing them. Files stored
+-- before this migration have no hash.
+ALTER TABLE data_file ADD COLUMN content_hash CHAR(64) NULL AFTER record_count;
+CREATE INDEX DATAFILE_CONTENTHASH_idx ON data_file (content_hash);
@@ -0,0 +1,4 @@
+-- Store automatic QC results in a compact binary encoding instead of JSON.
+-- Existing JSON results are left in auto_qc and are read when auto_qc_data
+-- is NULL; they are replaced with the binary encoding when next updated.
+ALTER TABLE sensor_values ADD COLUMN auto_qc_data BLOB NULL AFTER auto_qc;
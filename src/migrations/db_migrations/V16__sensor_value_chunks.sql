@@ -0,0 +1,30 @@
+-- Tables for the column-oriented sensor value store (sensorvalues.store=columns).
+--
+-- Each row of sensor_value_chunks holds the values of one file column for a
+-- time range of a dataset, compressed into a single blob. QC changes to
+-- individual values are kept in sensor_value_edits until the chunk is
+-- rewritten.
+--
+-- The tables are unused when the default row store is configured.
+CREATE TABLE sensor_value_chunks (
+  id bigint(20) NOT NULL AUTO_INCREMENT,
+  dataset_id int(11) NOT NULL,
+  file_column int(11) NOT NULL,
+  start_date bigint(20) NOT NULL,
+  end_date bigint(20) NOT NULL,
+  value_count int(11) NOT NULL,
+  data longblob NOT NULL,
+  PRIMARY KEY (id),
+  KEY SENSORVALUECHUNK_COLUMN_idx (dataset_id, file_column, start_date),
+  CONSTRAINT SENSORVALUECHUNK_DATASET FOREIGN KEY (dataset_id) REFERENCES dataset (id) ON DELETE NO ACTION ON UPDATE NO ACTION
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+CREATE TABLE sensor_value_edits (
+  dataset_id int(11) NOT NULL,
+  value_id bigint(20) NOT NULL,
+  auto_qc_data blob NULL,
+  user_qc_flag smallint(2) NOT NULL,
+  user_qc_message varchar(255) DEFAULT NULL,
+  PRIMARY KEY (dataset_id, value_id),
+  CONSTRAINT SENSORVALUEEDIT_DATASET FOREIGN KEY (dataset_id) REFERENCES dataset (id) ON DELETE NO ACTION ON UPDATE NO ACTION
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;